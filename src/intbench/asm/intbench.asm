@@ -0,0 +1,272 @@
+; intbench.asm - Micro-benchmarks of the integer conversions of the runtime
+; This program writes COUNT integers (one per line) to STDOUT with writeInt, and then the same integers
+; with a naive writeInt that divides by 10 per digit. It then reads COUNT integers from STDIN with a
+; naive readInt that calls readChar per character, and the next COUNT integers with readInt. For each
+; of the four, it outputs the average number of time stamp counter ticks per number and the sum of the
+; numbers to STDERR. Its own output is the input for comparing the two readInt on the same numbers (the
+; figures of readInt on an empty input only measure the end of input):
+;   build/intbench < /dev/null > numbers.txt
+;   build/intbench < numbers.txt > /dev/null
+
+DEFAULT REL
+
+extern _write
+extern _write_diagnostics
+extern _writeInt
+extern _writeChar
+extern _readInt
+extern _readChar
+extern _exit
+
+global _start
+
+COUNT           EQU     10000000
+FIRST           EQU     -5000000            ; the numbers are (FIRST + i) * STEP for i from 0 to COUNT - 1
+STEP            EQU     7919
+NAME_LENGTH     EQU     16
+SUM_LENGTH      EQU     12
+
+section .rodata
+    WRITE_INT       db  "writeInt:       "
+    WRITE_NAIVE     db  "naive writeInt: "
+    READ_NAIVE      db  "naive readInt:  "
+    READ_INT        db  "readInt:        "
+    SUM             db  " ticks, sum "
+    NEWLINE         db  10
+
+section .text
+
+_start:
+        lea     rdi, [WRITE_INT]
+        lea     rsi, [_writeInt]
+        call    measure_write
+        lea     rdi, [WRITE_NAIVE]
+        lea     rsi, [naive_writeInt]
+        call    measure_write
+        lea     rdi, [READ_NAIVE]
+        lea     rsi, [naive_readInt]
+        call    measure_read
+        lea     rdi, [READ_INT]
+        lea     rsi, [_readInt]
+        call    measure_read
+
+        mov     rdi, 0
+        call    _exit
+
+; measure_write(rdi: name, rsi: routine): writes the COUNT numbers with the routine, each followed by a
+; newline, and reports the average number of ticks per number
+measure_write:
+        push    rbx
+        push    r12
+        push    r13
+        push    r14
+        push    r15
+        mov     r12, rdi            ; r12: name
+        mov     r13, rsi            ; r13: routine
+        xor     r14, r14            ; r14: sum
+
+        rdtsc
+        shl     rdx, 32
+        or      rax, rdx
+        mov     r15, rax            ; r15: start
+        xor     rbx, rbx            ; rbx: i
+.loop:  lea     rdi, [rbx + FIRST]
+        imul    rdi, rdi, STEP
+        add     r14, rdi
+        call    r13
+        mov     rdi, 10
+        call    _writeChar
+        inc     rbx
+        cmp     rbx, COUNT
+        jne     .loop
+        rdtsc
+        shl     rdx, 32
+        or      rax, rdx
+        sub     rax, r15
+        xor     edx, edx
+        mov     rcx, COUNT
+        div     rcx
+
+        mov     rdi, r12
+        mov     rsi, rax
+        mov     rdx, r14
+        call    report
+        pop     r15
+        pop     r14
+        pop     r13
+        pop     r12
+        pop     rbx
+        ret
+
+; measure_read(rdi: name, rsi: routine): reads COUNT numbers with the routine and reports the average
+; number of ticks per number
+measure_read:
+        push    rbx
+        push    r12
+        push    r13
+        push    r14
+        push    r15
+        mov     r12, rdi            ; r12: name
+        mov     r13, rsi            ; r13: routine
+        xor     r14, r14            ; r14: sum
+
+        rdtsc
+        shl     rdx, 32
+        or      rax, rdx
+        mov     r15, rax            ; r15: start
+        mov     rbx, COUNT
+.loop:  call    r13
+        add     r14, rax
+        dec     rbx
+        jnz     .loop
+        rdtsc
+        shl     rdx, 32
+        or      rax, rdx
+        sub     rax, r15
+        xor     edx, edx
+        mov     rcx, COUNT
+        div     rcx
+
+        mov     rdi, r12
+        mov     rsi, rax
+        mov     rdx, r14
+        call    report
+        pop     r15
+        pop     r14
+        pop     r13
+        pop     r12
+        pop     rbx
+        ret
+
+; report(rdi: name, rsi: ticks, rdx: sum): outputs "<name><ticks> ticks, sum <sum>" to STDERR
+report:
+        push    r12
+        push    r13
+        push    r14                     ; keeps rsp aligned
+        mov     r12, rsi
+        mov     r13, rdx
+        mov     rsi, NAME_LENGTH
+        call    _write_diagnostics
+        mov     rdi, r12
+        call    write_number
+        lea     rdi, [SUM]
+        mov     rsi, SUM_LENGTH
+        call    _write_diagnostics
+        mov     rdi, r13
+        call    write_number
+        lea     rdi, [NEWLINE]
+        mov     rsi, 1
+        call    _write_diagnostics
+        pop     r14
+        pop     r13
+        pop     r12
+        ret
+
+; write_number(rdi: value): writes the decimal representation of value to STDERR
+write_number:
+        sub     rsp, 40                 ; digit buffer (at most 20 characters)
+        lea     rsi, [rsp + 32]         ; digits are stored backwards, rsi points to the first one
+        mov     rax, rdi
+        mov     rcx, 10
+        test    rax, rax
+        jns     .digit
+        neg     rax
+.digit: xor     rdx, rdx
+        div     rcx
+        add     dl, '0'
+        dec     rsi
+        mov     [rsi], dl
+        test    rax, rax
+        jnz     .digit
+        test    rdi, rdi
+        jns     .write
+        dec     rsi
+        mov     byte [rsi], '-'
+.write: mov     rdi, rsi
+        lea     rsi, [rsp + 32]
+        sub     rsi, rdi
+        call    _write_diagnostics
+        add     rsp, 40
+        ret
+
+; naive_writeInt(rdi: value): the writeInt of the runtime before it converted two digits per step, one
+; division by 10 per digit
+naive_writeInt:
+        push    rbp
+        mov     rbp, rsp
+        sub     rsp, 32                 ; digit buffer (at most 20 characters)
+
+        mov     rax, rdi
+        mov     rsi, rbp                ; digits are stored backwards, rsi points to the first one
+        mov     rcx, 10
+        test    rax, rax
+        jns     .digit
+        neg     rax                     ; magnitude, also correct (unsigned) for the minimum value
+
+.digit: xor     rdx, rdx
+        div     rcx
+        add     dl, '0'
+        dec     rsi
+        mov     [rsi], dl
+        test    rax, rax
+        jnz     .digit
+
+        test    rdi, rdi
+        jns     .write
+        dec     rsi
+        mov     byte [rsi], '-'
+
+.write: mov     rdi, rsi                ; pointer to first character
+        mov     rsi, rbp
+        sub     rsi, rdi                ; number of characters
+        call    _write
+
+        leave
+        ret
+
+; naive_readInt(): the readInt of the runtime before it parsed in the input window, one readChar per
+; character
+naive_readInt:
+        push    rbp
+        mov     rbp, rsp
+        push    rbx                     ; rbx: value read so far
+        push    r12                     ; r12: 1 if the number is negative
+
+        xor     rbx, rbx
+        xor     r12, r12
+.skip:  call    _readChar
+        cmp     rax, -1
+        je      .done
+        cmp     rax, ' '
+        jbe     .skip
+
+        cmp     rax, '-'
+        jne     .plus
+        mov     r12, 1
+        call    _readChar
+        jmp     .digits
+.plus:  cmp     rax, '+'
+        jne     .digits
+        call    _readChar
+
+.digits:
+        cmp     rax, '0'
+        jl      .done
+        cmp     rax, '9'
+        jg      .done
+        imul    rbx, rbx, 10
+        sub     rax, '0'
+        add     rbx, rax
+        call    _readChar
+        jmp     .digits
+
+.done:  mov     rax, rbx
+        test    r12, r12
+        jz      .return
+        neg     rax
+
+.return:
+        pop     r12
+        pop     rbx
+        pop     rbp
+        ret
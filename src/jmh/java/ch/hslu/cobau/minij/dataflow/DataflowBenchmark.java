@@ -0,0 +1,122 @@
+package ch.hslu.cobau.minij.dataflow;
+
+import ch.hslu.cobau.minij.MiniJLexer;
+import ch.hslu.cobau.minij.MiniJParser;
+import ch.hslu.cobau.minij.ast.AstBuilder;
+import ch.hslu.cobau.minij.ast.SemanticAnalyzer;
+import ch.hslu.cobau.minij.ast.entity.Function;
+import ch.hslu.cobau.minij.ast.entity.Unit;
+import ch.hslu.cobau.minij.cfg.CfgBuilder;
+import ch.hslu.cobau.minij.cfg.ControlFlowGraph;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the dataflow analyses on large generated functions with many locals and blocks.
+ * Run with: gradle jmh -PjmhArgs=DataflowBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataflowBenchmark {
+    @Param({"100", "500"})
+    private int locals;
+
+    @Param({"1000", "5000"})
+    private int blocks;
+
+    private ControlFlowGraph cfg;
+    private DefUse defUse;
+
+    @Setup
+    public void setUp() {
+        String source = generate(locals, blocks, new Random(42));
+        MiniJParser parser = new MiniJParser(new CommonTokenStream(new MiniJLexer(CharStreams.fromString(source))));
+        AstBuilder astBuilder = new AstBuilder();
+        astBuilder.visit(parser.unit());
+        Unit unit = astBuilder.getUnit();
+        if (!new SemanticAnalyzer().analyze(unit)) {
+            throw new IllegalStateException("generated program is invalid");
+        }
+
+        Function function = unit.getFunctions().get(0);
+        cfg = new CfgBuilder().build(function);
+        defUse = new DefUse(new LocalSlots(function), unit);
+    }
+
+    @Benchmark
+    public DataflowResult liveness() {
+        return new DataflowSolver().solve(new LivenessAnalysis(cfg, defUse));
+    }
+
+    @Benchmark
+    public DataflowResult reachingDefinitions() {
+        return new DataflowSolver().solve(new ReachingDefinitions(cfg, defUse));
+    }
+
+    @Benchmark
+    public DataflowResult availableExpressions() {
+        return new DataflowSolver().solve(new AvailableExpressions(cfg, defUse));
+    }
+
+    /**
+     * Generates a function with the given number of integer locals and roughly the given number of basic
+     * blocks, built from randomly nested if and while statements over arithmetic on the locals.
+     */
+    static String generate(int locals, int blocks, Random random) {
+        StringBuilder sb = new StringBuilder("fun large(p : integer, out r : integer) {\n");
+        for (int i = 0; i < locals; ++i) {
+            sb.append("  v").append(i).append(" : integer;\n");
+        }
+
+        int generatedBlocks = 0;
+        while (generatedBlocks < blocks) {
+            generatedBlocks += statement(sb, locals, random, 0);
+        }
+        sb.append("  r = v0 + p;\n}\n");
+        return sb.toString();
+    }
+
+    // returns the number of basic blocks introduced by the statement
+    private static int statement(StringBuilder sb, int locals, Random random, int depth) {
+        int kind = depth < 4 ? random.nextInt(4) : 0;
+        String a = "v" + random.nextInt(locals);
+        String b = "v" + random.nextInt(locals);
+        String c = "v" + random.nextInt(locals);
+        switch (kind) {
+            case 0, 1 -> {
+                sb.append(a).append(" = ").append(b).append(random.nextBoolean() ? " + " : " * ").append(c).append(";\n");
+                return 0;
+            }
+            case 2 -> {
+                sb.append("if (").append(a).append(" < ").append(b).append(") {\n");
+                int count = 3 + statements(sb, locals, random, depth);
+                sb.append("} else {\n");
+                count += 1 + statements(sb, locals, random, depth);
+                sb.append("}\n");
+                return count;
+            }
+            default -> {
+                sb.append("while (").append(a).append(" < ").append(b).append(" + p) {\n");
+                int count = 3 + statements(sb, locals, random, depth);
+                sb.append(a).append(" = ").append(a).append(" + 1;\n}\n");
+                return count;
+            }
+        }
+    }
+
+    private static int statements(StringBuilder sb, int locals, Random random, int depth) {
+        int count = 0;
+        for (int i = 1 + random.nextInt(4); i > 0; --i) {
+            count += statement(sb, locals, random, depth + 1);
+        }
+        return count;
+    }
+}
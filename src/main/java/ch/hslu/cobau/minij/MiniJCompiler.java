@@ -3,9 +3,22 @@ package ch.hslu.cobau.minij;
 import ch.hslu.cobau.minij.ast.AstBuilder;
 import ch.hslu.cobau.minij.ast.SemanticAnalyzer;
 import ch.hslu.cobau.minij.ast.entity.Unit;
+import ch.hslu.cobau.minij.codegen.CodeGenerator;
+import ch.hslu.cobau.minij.codegen.Profile;
+import ch.hslu.cobau.minij.codegen.asm.AssemblyUnit;
+import ch.hslu.cobau.minij.codegen.asm.NasmWriter;
+import ch.hslu.cobau.minij.codegen.elf.ElfWriter;
+import ch.hslu.cobau.minij.codegen.elf.Linker;
+import ch.hslu.cobau.minij.codegen.elf.ObjectAssembler;
+import ch.hslu.cobau.minij.codegen.elf.ObjectFile;
 import org.antlr.v4.runtime.*;
 
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 public class MiniJCompiler {
     private static class EnhancedConsoleErrorListener extends ConsoleErrorListener {
@@ -23,10 +36,70 @@ public class MiniJCompiler {
     }
 
     public static void main(String[] args) throws IOException {    
+        // options: [--object <file>] [--executable <file> [--runtime <directory>]]
+        //          [--profile-generate | --profile-use <file>...] [--profile] [--profile-heap] [--unroll <factor>]
+        //          [--no-vectorize] [--no-strip] [--no-red-zone] [--threads <count>] [<input>]
+        String inputFile = null;
+        String objectFile = null;
+        String executableFile = null;
+        String runtimeDirectory = "build/objects/runtime";
+        boolean instrumented = false;
+        boolean profiling = false;
+        boolean heapProfiling = false;
+        int unrollFactor = CodeGenerator.DEFAULT_UNROLL_FACTOR;
+        boolean vectorizing = true;
+        boolean stripping = true;
+        boolean redZone = true;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Profile> profiles = new ArrayList<>();
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("--object") && i + 1 < args.length) {
+                objectFile = args[++i];
+            } else if (args[i].equals("--executable") && i + 1 < args.length) {
+                executableFile = args[++i];
+            } else if (args[i].equals("--runtime") && i + 1 < args.length) {
+                runtimeDirectory = args[++i];
+            } else if (args[i].equals("--profile-generate")) {
+                // counters are written to the file named by MINIJ_PROFILE_FILE (default minij.profile) at exit
+                instrumented = true;
+            } else if (args[i].equals("--profile")) {
+                // calls and ticks per function are reported to STDERR (or MINIJ_PROFILE_REPORT) at exit
+                profiling = true;
+            } else if (args[i].equals("--profile-heap")) {
+                // allocations and bytes per allocation site are reported to STDERR at exit
+                heapProfiling = true;
+            } else if (args[i].equals("--unroll") && i + 1 < args.length) {
+                // copies of the body of counted loops, 1 disables unrolling
+                unrollFactor = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--no-vectorize")) {
+                // loops over integer arrays keep running one element per iteration
+                vectorizing = false;
+            } else if (args[i].equals("--no-strip")) {
+                // functions main does not reach and unused globals are generated as well
+                stripping = false;
+            } else if (args[i].equals("--no-red-zone")) {
+                // leaf functions set up a frame like any other function
+                redZone = false;
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                // functions generated in parallel, the output is the same for any count
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--profile-use") && i + 1 < args.length) {
+                // the counts of several runs are added up, profiles of other programs are ignored
+                try {
+                    profiles.add(Profile.read(Path.of(args[++i])));
+                } catch (IOException e) {
+                    System.err.println("error: " + e.getMessage());
+                    System.exit(1);
+                }
+            } else {
+                inputFile = args[i];
+            }
+        }
+
         // initialize lexer and parser
         CharStream charStream;
-        if (args.length > 0) {
-            charStream = CharStreams.fromFileName(args[0]);
+        if (inputFile != null) {
+            charStream = CharStreams.fromFileName(inputFile);
         } else {
             charStream = CharStreams.fromStream(System.in);
         }
@@ -49,6 +122,54 @@ public class MiniJCompiler {
         SemanticAnalyzer semanticAnalyzer = new SemanticAnalyzer();
         boolean isValid = semanticAnalyzer.analyze(unit);
         // code generation (milestone 4)
+        if (!errorListener.hasErrors() && isValid) {
+            CodeGenerator codeGenerator = new CodeGenerator(semanticAnalyzer);
+            codeGenerator.setInstrumented(instrumented);
+            profiles.forEach(codeGenerator::addProfile);
+            codeGenerator.setProfiling(profiling);
+            codeGenerator.setHeapProfiling(heapProfiling);
+            codeGenerator.setUnrollFactor(unrollFactor);
+            codeGenerator.setVectorizing(vectorizing);
+            codeGenerator.setStripping(stripping);
+            codeGenerator.setRedZone(redZone);
+            codeGenerator.setThreads(threads);
+            AssemblyUnit assemblyUnit = codeGenerator.generate(unit);
+            codeGenerator.getIgnoredProfiles().forEach(profile -> System.err.println("warning: the profile "
+                    + profile.getFile() + " does not match the program, it is ignored"));
+            if (objectFile != null || executableFile != null) {
+                // encode the machine code directly into an ELF64 object (instead of NASM source on stdout)
+                ObjectFile object = new ObjectAssembler().assemble(assemblyUnit);
+                if (objectFile != null) {
+                    Files.write(Path.of(objectFile), new ElfWriter().write(object));
+                }
+                // and link it with the runtime objects into a static executable (instead of ld)
+                if (executableFile != null) {
+                    Linker linker = new Linker();
+                    linker.add(object);
+                    linker.addDirectory(Path.of(runtimeDirectory));
+                    Linker.writeExecutable(Path.of(executableFile), linker.link());
+                }
+            } else {
+                PrintWriter writer = new PrintWriter(System.out);
+                new NasmWriter(writer).write(assemblyUnit);
+                writer.flush();
+            }
+
+            if (Boolean.getBoolean("minij.strip.report")) {
+                codeGenerator.getUnreachableFunctions().forEach(function -> System.err.println("removed function "
+                        + function.getIdentifier() + ": not reachable from main"));
+                codeGenerator.getUnusedGlobals().forEach(global -> System.err.println("removed global "
+                        + global.getIdentifier() + ": not used by a reachable function"));
+            }
+            if (Boolean.getBoolean("minij.peephole.statistics")) {
+                codeGenerator.getPeepholeOptimizer().getCounts().forEach((rule, count) -> System.err.println(rule + ": " + count));
+            }
+            if (Boolean.getBoolean("minij.frame.statistics")) {
+                codeGenerator.getFrames().forEach((function, frame) -> System.err.println(function + ": " + frame.getFrameSize()
+                        + " bytes, " + frame.getLocals() + " locals in " + frame.getFrameSlots() + " slots and "
+                        + frame.getLocalRegisters() + " registers"));
+            }
+        }
 
         System.exit((errorListener.hasErrors() || !isValid) ? 1 : 0);
     }
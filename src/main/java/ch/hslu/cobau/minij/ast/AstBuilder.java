@@ -11,6 +11,7 @@ import ch.hslu.cobau.minij.ast.entity.*;
 import ch.hslu.cobau.minij.ast.expression.*;
 import ch.hslu.cobau.minij.ast.statement.*;
 import ch.hslu.cobau.minij.ast.type.*;
+import org.antlr.v4.runtime.ParserRuleContext;
 import java.util.*;
 
 /**
@@ -69,14 +70,14 @@ public class AstBuilder extends MiniJBaseVisitor<Object> {
     @Override
     public Object visitDeclarationStatement(MiniJParser.DeclarationStatementContext ctx) {
         super.visitChildren(ctx);
-        statementsStack.push(new DeclarationStatement(declarationStack.pop()));
+        statementsStack.push(at(ctx, new DeclarationStatement(declarationStack.pop())));
         return null;
     }
 
     @Override
     public Object visitCallStatement(MiniJParser.CallStatementContext ctx) {
         super.visitChildren(ctx);
-        statementsStack.push(new CallStatement((CallExpression) expressionStack.pop()));
+        statementsStack.push(at(ctx, new CallStatement((CallExpression) expressionStack.pop())));
         return null;
     }
 
@@ -91,7 +92,7 @@ public class AstBuilder extends MiniJBaseVisitor<Object> {
     public Object visitWhileStatement(MiniJParser.WhileStatementContext ctx) {
         int statementsCount = statementsStack.size();
         super.visitChildren(ctx);
-        statementsStack.push(new WhileStatement(expressionStack.pop(), getStatements(statementsCount)));
+        statementsStack.push(at(ctx, new WhileStatement(expressionStack.pop(), getStatements(statementsCount))));
         return null;
     }
 
@@ -109,10 +110,11 @@ public class AstBuilder extends MiniJBaseVisitor<Object> {
                 IfStatement ifStatement = (IfStatement) blockStack.pop();
                 // create new IfStatement to set new parent and elseBlock
                 elseBlock = new IfStatement(ifStatement.getExpression(), ifStatement.getStatements(), elseBlock);
+                elseBlock.setLine(ifStatement.getLine());
             }
         }
 
-        statementsStack.push(new IfStatement(expressionStack.pop(), getStatements(statementsCount), elseBlock));
+        statementsStack.push(at(ctx, new IfStatement(expressionStack.pop(), getStatements(statementsCount), elseBlock)));
         return null;
     }
 
@@ -131,7 +133,7 @@ public class AstBuilder extends MiniJBaseVisitor<Object> {
         if (ctx.expression() != null) {
             expression = expressionStack.pop();
         }
-        statementsStack.push(new ReturnStatement(expression));
+        statementsStack.push(at(ctx, new ReturnStatement(expression)));
         return null;
     }
 
@@ -139,7 +141,7 @@ public class AstBuilder extends MiniJBaseVisitor<Object> {
     public Object visitAssignment(MiniJParser.AssignmentContext ctx) {
         super.visitChildren(ctx);
         Expression rhs = expressionStack.pop();
-        statementsStack.push(new AssignmentStatement(expressionStack.pop(), rhs));
+        statementsStack.push(at(ctx, new AssignmentStatement(expressionStack.pop(), rhs)));
         return null;
     }
 
@@ -147,7 +149,7 @@ public class AstBuilder extends MiniJBaseVisitor<Object> {
         super.visitChildren(ctx);
         if (ctx.binaryOp != null) {
             Expression rhs = expressionStack.pop();
-            expressionStack.push(new BinaryExpression(expressionStack.pop(), rhs, BinaryOperator.valueOf(MiniJParser.VOCABULARY.getSymbolicName(ctx.binaryOp.getType()))));
+            expressionStack.push(at(ctx, new BinaryExpression(expressionStack.pop(), rhs, BinaryOperator.valueOf(MiniJParser.VOCABULARY.getSymbolicName(ctx.binaryOp.getType())))));
         } else if (ctx.INCREMENT() != null) {
             expressionStack.push(new UnaryExpression(expressionStack.pop(), UnaryOperator.POST_INCREMENT));
         } else if (ctx.DECREMENT() != null) {
@@ -291,4 +293,9 @@ public class AstBuilder extends MiniJBaseVisitor<Object> {
         }
         return statements;
     }
+
+    private <T extends AstElement> T at(ParserRuleContext ctx, T element) {
+        element.setLine(ctx.getStart().getLine());
+        return element;
+    }
 }
@@ -6,6 +6,14 @@
 package ch.hslu.cobau.minij.ast;
 
 public abstract class AstElement {
+    private int line;
+
     public abstract void accept(AstVisitor astVisitor);
     public void visitChildren(AstVisitor astVisitor) { }
+
+    /**
+     * @return The source line the element starts on or 0, if it was not built from source.
+     */
+    public int getLine() { return line; }
+    public void setLine(int line) { this.line = line; }
 }
@@ -49,7 +49,8 @@ public class SemanticAnalyzer extends BaseAstVisitor {
         expressionTypes.put(expr, type);
     }
 
-    private Type getType(Expression expr) {
+    // Type of an analyzed expression (used by code generation)
+    public Type getType(Expression expr) {
         Type type = expressionTypes.get(expr);
         // Return VoidType to prevent null pointers
         return Objects.requireNonNullElseGet(type, VoidType::new);
@@ -229,6 +230,7 @@ public class SemanticAnalyzer extends BaseAstVisitor {
             semanticError("Undefined variable: " + name);
             setType(varAccess, new VoidType()); // Set to void to prevent cascading errors
         } else {
+            varAccess.setDeclaration(declaration);
             setType(varAccess, declaration.getType());
         }
     }
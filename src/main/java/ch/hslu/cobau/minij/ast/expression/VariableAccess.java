@@ -6,11 +6,13 @@
 package ch.hslu.cobau.minij.ast.expression;
 
 import ch.hslu.cobau.minij.ast.AstVisitor;
+import ch.hslu.cobau.minij.ast.entity.Declaration;
 
 import java.util.Objects;
 
 public class VariableAccess extends MemoryAccess {
     private final String identifier;
+    private Declaration declaration;
 
     public VariableAccess(String identifier) {
         Objects.requireNonNull(identifier);
@@ -21,6 +23,14 @@ public class VariableAccess extends MemoryAccess {
         return identifier;
     }
 
+    public void setDeclaration(Declaration declaration) {
+        this.declaration = declaration;
+    }
+
+    public Declaration getDeclaration() {
+        return declaration;
+    }
+
     @Override
     public void accept(AstVisitor astVisitor) {
         astVisitor.visit(this);
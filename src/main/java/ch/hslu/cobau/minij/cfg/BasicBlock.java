@@ -0,0 +1,86 @@
+package ch.hslu.cobau.minij.cfg;
+
+import ch.hslu.cobau.minij.ast.AstElement;
+import ch.hslu.cobau.minij.ast.expression.Expression;
+import ch.hslu.cobau.minij.ast.statement.Statement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A straight-line sequence of simple statements (assignments, calls, declarations and returns).
+ * A block that ends in a conditional branch additionally holds the branch condition, which is
+ * evaluated after all statements. Its first successor is the "true" target, the second one the
+ * "false" target.
+ */
+public class BasicBlock {
+    private int id;
+    private final List<Statement> statements = new ArrayList<>();
+    private Expression condition;
+    private final List<BasicBlock> successors = new ArrayList<>(2);
+    private final List<BasicBlock> predecessors = new ArrayList<>(2);
+
+    BasicBlock(int id) {
+        this.id = id;
+    }
+
+    /**
+     * @return The dense index of this block within its control flow graph.
+     */
+    public int getId() {
+        return id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
+    public List<Statement> getStatements() {
+        return statements;
+    }
+
+    void addStatement(Statement statement) {
+        statements.add(statement);
+    }
+
+    /**
+     * @return The branch condition or null, if this block ends in an unconditional jump.
+     */
+    public Expression getCondition() {
+        return condition;
+    }
+
+    void setCondition(Expression condition) {
+        this.condition = condition;
+    }
+
+    /**
+     * @return All elements of this block in evaluation order, i.e. the statements followed by the condition.
+     */
+    public List<AstElement> getElements() {
+        List<AstElement> elements = new ArrayList<>(statements.size() + 1);
+        elements.addAll(statements);
+        if (condition != null) {
+            elements.add(condition);
+        }
+        return elements;
+    }
+
+    public List<BasicBlock> getSuccessors() {
+        return successors;
+    }
+
+    public List<BasicBlock> getPredecessors() {
+        return predecessors;
+    }
+
+    void addSuccessor(BasicBlock successor) {
+        successors.add(successor);
+        successor.predecessors.add(this);
+    }
+
+    @Override
+    public String toString() {
+        return "B" + id;
+    }
+}
@@ -0,0 +1,145 @@
+package ch.hslu.cobau.minij.cfg;
+
+import ch.hslu.cobau.minij.ast.BaseAstVisitor;
+import ch.hslu.cobau.minij.ast.entity.Function;
+import ch.hslu.cobau.minij.ast.statement.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the control flow graph of a function from its AST. Compound statements (blocks, if and
+ * while statements) are dissolved into basic blocks, simple statements are kept as they are.
+ * Code following a return statement is unreachable and therefore not part of the graph.
+ */
+public class CfgBuilder extends BaseAstVisitor {
+    private List<BasicBlock> blocks;
+    private BasicBlock exit;
+    private BasicBlock current;
+
+    public ControlFlowGraph build(Function function) {
+        blocks = new ArrayList<>();
+        BasicBlock entry = newBlock();
+        exit = newBlock();
+        current = entry;
+
+        for (Statement statement : function.getStatements()) {
+            statement.accept(this);
+        }
+        current.addSuccessor(exit);
+
+        return new ControlFlowGraph(function, entry, exit, removeUnreachable(entry));
+    }
+
+    @Override
+    public void visit(AssignmentStatement assignment) {
+        current.addStatement(assignment);
+    }
+
+    @Override
+    public void visit(CallStatement callStatement) {
+        current.addStatement(callStatement);
+    }
+
+    @Override
+    public void visit(DeclarationStatement declarationStatement) {
+        current.addStatement(declarationStatement);
+    }
+
+    @Override
+    public void visit(ReturnStatement returnStatement) {
+        current.addStatement(returnStatement);
+        current.addSuccessor(exit);
+        current = newBlock(); // dead code until the next join point
+    }
+
+    @Override
+    public void visit(Block block) {
+        for (Statement statement : block.getStatements()) {
+            statement.accept(this);
+        }
+    }
+
+    @Override
+    public void visit(IfStatement ifStatement) {
+        BasicBlock conditionBlock = current;
+        conditionBlock.setCondition(ifStatement.getExpression());
+
+        BasicBlock thenBlock = newBlock();
+        BasicBlock elseBlock = ifStatement.getElseBlock() != null ? newBlock() : null;
+        BasicBlock joinBlock = newBlock();
+        conditionBlock.addSuccessor(thenBlock);
+        conditionBlock.addSuccessor(elseBlock != null ? elseBlock : joinBlock);
+
+        current = thenBlock;
+        for (Statement statement : ifStatement.getStatements()) {
+            statement.accept(this);
+        }
+        current.addSuccessor(joinBlock);
+
+        if (elseBlock != null) {
+            current = elseBlock;
+            ifStatement.getElseBlock().accept(this);
+            current.addSuccessor(joinBlock);
+        }
+        current = joinBlock;
+    }
+
+    @Override
+    public void visit(WhileStatement whileStatement) {
+        BasicBlock headerBlock = newBlock();
+        current.addSuccessor(headerBlock);
+        headerBlock.setCondition(whileStatement.getExpression());
+
+        BasicBlock bodyBlock = newBlock();
+        BasicBlock afterBlock = newBlock();
+        headerBlock.addSuccessor(bodyBlock);
+        headerBlock.addSuccessor(afterBlock);
+
+        current = bodyBlock;
+        for (Statement statement : whileStatement.getStatements()) {
+            statement.accept(this);
+        }
+        current.addSuccessor(headerBlock); // back edge
+        current = afterBlock;
+    }
+
+    private BasicBlock newBlock() {
+        BasicBlock block = new BasicBlock(blocks.size());
+        blocks.add(block);
+        return block;
+    }
+
+    /**
+     * Drops blocks that cannot be reached from the entry block and renumbers the remaining ones.
+     * The exit block is always kept, even if the function never terminates.
+     */
+    private List<BasicBlock> removeUnreachable(BasicBlock entry) {
+        boolean[] reachable = new boolean[blocks.size()];
+        List<BasicBlock> worklist = new ArrayList<>();
+        worklist.add(entry);
+        reachable[entry.getId()] = true;
+        while (!worklist.isEmpty()) {
+            BasicBlock block = worklist.remove(worklist.size() - 1);
+            for (BasicBlock successor : block.getSuccessors()) {
+                if (!reachable[successor.getId()]) {
+                    reachable[successor.getId()] = true;
+                    worklist.add(successor);
+                }
+            }
+        }
+        reachable[exit.getId()] = true;
+
+        List<BasicBlock> result = new ArrayList<>(blocks.size());
+        for (BasicBlock block : blocks) {
+            if (reachable[block.getId()]) {
+                block.getPredecessors().removeIf(predecessor -> !reachable[predecessor.getId()]);
+                result.add(block);
+            }
+        }
+        for (int i = 0; i < result.size(); ++i) {
+            result.get(i).setId(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,94 @@
+package ch.hslu.cobau.minij.cfg;
+
+import ch.hslu.cobau.minij.ast.entity.Function;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The control flow graph of a single function. Blocks are numbered densely, so analyses can index
+ * plain arrays by BasicBlock.getId(). All blocks are reachable from the entry block.
+ */
+public class ControlFlowGraph {
+    private final Function function;
+    private final BasicBlock entry;
+    private final BasicBlock exit;
+    private final List<BasicBlock> blocks;
+    private List<BasicBlock> reversePostOrder;
+
+    ControlFlowGraph(Function function, BasicBlock entry, BasicBlock exit, List<BasicBlock> blocks) {
+        Objects.requireNonNull(function);
+        Objects.requireNonNull(entry);
+        Objects.requireNonNull(exit);
+        Objects.requireNonNull(blocks);
+
+        this.function = function;
+        this.entry = entry;
+        this.exit = exit;
+        this.blocks = blocks;
+    }
+
+    public Function getFunction() {
+        return function;
+    }
+
+    public BasicBlock getEntry() {
+        return entry;
+    }
+
+    /**
+     * @return The unique exit block, which is the successor of all returns and the end of the function body.
+     */
+    public BasicBlock getExit() {
+        return exit;
+    }
+
+    public List<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    public int size() {
+        return blocks.size();
+    }
+
+    /**
+     * @return The blocks in reverse postorder of a depth first traversal starting at the entry block.
+     */
+    public List<BasicBlock> getReversePostOrder() {
+        if (reversePostOrder == null) {
+            reversePostOrder = computeReversePostOrder();
+        }
+        return reversePostOrder;
+    }
+
+    private List<BasicBlock> computeReversePostOrder() {
+        // iterative depth first search, generated functions may be nested too deeply for recursion
+        List<BasicBlock> postOrder = new ArrayList<>(blocks.size());
+        boolean[] visited = new boolean[blocks.size()];
+        BasicBlock[] stack = new BasicBlock[blocks.size()];
+        int[] nextSuccessor = new int[blocks.size()];
+        int top = 0;
+
+        stack[top++] = entry;
+        visited[entry.getId()] = true;
+        while (top > 0) {
+            BasicBlock block = stack[top - 1];
+            List<BasicBlock> successors = block.getSuccessors();
+            if (nextSuccessor[block.getId()] < successors.size()) {
+                BasicBlock successor = successors.get(nextSuccessor[block.getId()]++);
+                if (!visited[successor.getId()]) {
+                    visited[successor.getId()] = true;
+                    stack[top++] = successor;
+                }
+            } else {
+                postOrder.add(block);
+                --top;
+            }
+        }
+
+        Collections.reverse(postOrder);
+        return Collections.unmodifiableList(postOrder);
+    }
+}
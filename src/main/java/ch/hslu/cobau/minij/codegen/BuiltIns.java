@@ -0,0 +1,36 @@
+package ch.hslu.cobau.minij.codegen;
+
+/**
+ * Runtime symbols of the built-in functions and helper routines (see src/runtime/asm). All of them
+ * follow the System V calling convention, i.e. arguments in rdi, rsi and the result in rax.
+ */
+final class BuiltIns {
+    static final String EXIT = "_exit";
+    static final String GC_INIT = "_gc_init";
+    static final String STRING_COMPARE = "_string_compare";
+    static final String STRING_EQUALS = "_string_equals";
+    static final String STRING_CONCAT = "_string_concat";
+    static final String STRING_BUILDER = "_string_builder";
+    static final String STRING_APPEND = "_string_append";
+    static final String PROFILE_INIT = "_profile_init";
+    static final String PROFILER_INIT = "_profiler_init";
+    static final String PROFILER_ENTER = "_profiler_enter";
+    static final String PROFILER_LEAVE = "_profiler_leave";
+    static final String HEAP_PROFILE_INIT = "_heap_profile_init";
+    static final String HEAP_SITE = "_heap_site";
+
+    private BuiltIns() { }
+
+    /**
+     * @return The runtime symbol of a built-in function or null, if there is no such built-in.
+     */
+    static String getSymbol(String functionName) {
+        return switch (functionName) {
+            case "writeInt" -> "_writeInt";
+            case "readInt" -> "_readInt";
+            case "writeChar" -> "_writeChar";
+            case "readChar" -> "_readChar";
+            default -> null;
+        };
+    }
+}
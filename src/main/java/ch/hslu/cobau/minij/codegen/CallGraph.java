@@ -0,0 +1,77 @@
+package ch.hslu.cobau.minij.codegen;
+
+import ch.hslu.cobau.minij.ast.BaseAstVisitor;
+import ch.hslu.cobau.minij.ast.entity.Function;
+import ch.hslu.cobau.minij.ast.entity.Unit;
+import ch.hslu.cobau.minij.ast.expression.BinaryExpression;
+import ch.hslu.cobau.minij.ast.expression.CallExpression;
+import ch.hslu.cobau.minij.ast.type.StringType;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The functions each function of a unit calls, and whether it calls the runtime: built-in functions as
+ * well as the string routines behind concatenation and comparison. A function that calls neither is a
+ * leaf, which never has a frame above it on the stack.
+ */
+class CallGraph extends BaseAstVisitor {
+    private final CodeGenerator codeGenerator;
+    private final Map<Function, Set<Function>> callees = new HashMap<>();
+    private final Set<Function> runtimeCallers = new HashSet<>();
+    private Function caller;
+
+    CallGraph(CodeGenerator codeGenerator, Unit unit) {
+        this.codeGenerator = codeGenerator;
+        unit.getFunctions().forEach(function -> function.accept(this));
+    }
+
+    /**
+     * @return The user defined functions the given function calls, in order of their first call.
+     */
+    Set<Function> getCallees(Function function) {
+        return callees.get(function);
+    }
+
+    boolean callsRuntime(Function function) {
+        return runtimeCallers.contains(function);
+    }
+
+    boolean isLeaf(Function function) {
+        return getCallees(function).isEmpty() && !callsRuntime(function);
+    }
+
+    @Override
+    public void visit(Function function) {
+        caller = function;
+        callees.put(function, new LinkedHashSet<>());
+        super.visit(function);
+    }
+
+    @Override
+    public void visit(CallExpression callExpression) {
+        Function callee = codeGenerator.getFunction(callExpression.getIdentifier());
+        if (callee != null) {
+            callees.get(caller).add(callee);
+        } else {
+            runtimeCallers.add(caller);
+        }
+        super.visit(callExpression);
+    }
+
+    @Override
+    public void visit(BinaryExpression binaryExpression) {
+        switch (binaryExpression.getBinaryOperator()) {
+            case PLUS, EQUAL, UNEQUAL, LESSER, LESSER_EQ, GREATER, GREATER_EQ -> {
+                if (codeGenerator.getType(binaryExpression.getLeft()) instanceof StringType) {
+                    runtimeCallers.add(caller);
+                }
+            }
+            default -> { }
+        }
+        super.visit(binaryExpression);
+    }
+}
@@ -0,0 +1,151 @@
+package ch.hslu.cobau.minij.codegen;
+
+import ch.hslu.cobau.minij.ast.BaseAstVisitor;
+import ch.hslu.cobau.minij.ast.entity.Declaration;
+import ch.hslu.cobau.minij.ast.entity.Function;
+import ch.hslu.cobau.minij.ast.entity.Unit;
+import ch.hslu.cobau.minij.ast.expression.CallExpression;
+import ch.hslu.cobau.minij.ast.expression.Expression;
+import ch.hslu.cobau.minij.ast.expression.MemoryAccess;
+import ch.hslu.cobau.minij.ast.expression.VariableAccess;
+import ch.hslu.cobau.minij.codegen.asm.Register;
+import ch.hslu.cobau.minij.dataflow.LocalSlots;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The calling convention of MiniJ functions, which follows System V: the first six arguments are passed
+ * in rdi, rsi, rdx, rcx, r8 and r9, the others are pushed from right to left, and the result is returned
+ * in rax. The callee keeps the register arguments in its homes (see FrameLayout).
+ *
+ * An "out" argument is the address of the actual parameter, unless the parameter is copied: then the value
+ * is passed like the one of a value parameter, and the callee returns the final value of its k-th copied
+ * parameter in COPY_OUT_REGISTERS[k] (rdx, the second result register of System V, first), which the caller
+ * stores back into the actual parameter. Copying in and out cannot be told apart from passing the address
+ * as long as nothing else accesses the actual parameter while the callee runs, so an "out" parameter passed
+ * in a register is copied unless a call passes
+ * - a global, a field or an array element, which the callee or the functions it calls may access as well,
+ * - an "out" parameter of the caller that is not copied, which may be any of these, or
+ * - a variable that the same call passes to another "out" parameter, too.
+ * What the callee does with a copied parameter does not matter: if it passes it on to an "out" parameter that
+ * is not copied, the parameter has a home in its frame like a local whose address is taken.
+ */
+final class CallingConvention {
+    static final List<Register> ARGUMENT_REGISTERS = List.of(Register.RDI, Register.RSI, Register.RDX, Register.RCX, Register.R8, Register.R9);
+    static final List<Register> COPY_OUT_REGISTERS = List.of(Register.RDX, Register.RCX, Register.RSI, Register.RDI, Register.R8, Register.R9);
+
+    private record Call(LocalSlots caller, CallExpression call, Function callee) { }
+
+    private final Map<String, Function> functions = new HashMap<>();
+    private final Set<Declaration> copied = new HashSet<>();
+
+    CallingConvention(Unit unit) {
+        List<Call> calls = new ArrayList<>();
+        unit.getFunctions().forEach(function -> functions.put(function.getIdentifier(), function));
+        for (Function function : unit.getFunctions()) {
+            List<Declaration> parameters = function.getFormalParameters();
+            for (int i = 0; i < Math.min(parameters.size(), ARGUMENT_REGISTERS.size()); ++i) {
+                if (parameters.get(i).isReference()) {
+                    copied.add(parameters.get(i));
+                }
+            }
+            LocalSlots caller = new LocalSlots(function);
+            function.accept(new BaseAstVisitor() {
+                @Override
+                public void visit(CallExpression callExpression) {
+                    Function callee = getCallee(callExpression);
+                    if (callee != null) {
+                        calls.add(new Call(caller, callExpression, callee));
+                    }
+                    super.visit(callExpression);
+                }
+            });
+        }
+
+        // not copying a parameter may rule out copying the ones it is passed on to
+        boolean changed;
+        do {
+            changed = false;
+            for (Call call : calls) {
+                List<Declaration> formals = call.callee().getFormalParameters();
+                for (int i = 0; i < formals.size(); ++i) {
+                    if (copied.contains(formals.get(i)) && !isPrivate(call, i)) {
+                        copied.remove(formals.get(i));
+                        changed = true;
+                    }
+                }
+            }
+        } while (changed);
+    }
+
+    // whether nothing but the parameter accesses the actual parameter while the callee runs
+    private boolean isPrivate(Call call, int index) {
+        List<Expression> actuals = call.call().getParameters();
+        if (!(actuals.get(index) instanceof MemoryAccess)) {
+            return true; // passed as a temporary copy
+        }
+        if (!(actuals.get(index) instanceof VariableAccess variable) || call.caller().getSlot(variable.getDeclaration()) < 0) {
+            return false;
+        }
+        Declaration declaration = variable.getDeclaration();
+        if (declaration.isReference() && !copied.contains(declaration)) {
+            return false;
+        }
+        List<Declaration> formals = call.callee().getFormalParameters();
+        for (int i = 0; i < formals.size(); ++i) {
+            if (i != index && formals.get(i).isReference()
+                    && actuals.get(i) instanceof VariableAccess other && other.getDeclaration() == declaration) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The register of the argument at the given position or null, if it is pushed.
+     */
+    static Register getRegister(int index) {
+        return index < ARGUMENT_REGISTERS.size() ? ARGUMENT_REGISTERS.get(index) : null;
+    }
+
+    /**
+     * @return The user defined function called or null, if a built-in function is called.
+     */
+    Function getCallee(CallExpression callExpression) {
+        return functions.get(callExpression.getIdentifier());
+    }
+
+    /**
+     * @return true if the "out" parameter is copied in and out (see class comment).
+     */
+    boolean isCopied(Declaration parameter) {
+        return copied.contains(parameter);
+    }
+
+    /**
+     * @return true if the parameter is an "out" parameter that is passed by address.
+     */
+    boolean isPassedByAddress(Declaration parameter) {
+        return parameter.isReference() && !copied.contains(parameter);
+    }
+
+    /**
+     * @return The register in which the function returns the final value of the given copied parameter.
+     */
+    Register getCopyOutRegister(Function function, Declaration parameter) {
+        int index = 0;
+        for (Declaration other : function.getFormalParameters()) {
+            if (other == parameter) {
+                return COPY_OUT_REGISTERS.get(index);
+            } else if (copied.contains(other)) {
+                ++index;
+            }
+        }
+        throw new IllegalArgumentException("not a parameter of " + function.getIdentifier() + ": " + parameter.getIdentifier());
+    }
+}
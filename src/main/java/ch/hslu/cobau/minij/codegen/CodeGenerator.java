@@ -0,0 +1,416 @@
+package ch.hslu.cobau.minij.codegen;
+
+import ch.hslu.cobau.minij.ast.SemanticAnalyzer;
+import ch.hslu.cobau.minij.ast.constants.StringConstant;
+import ch.hslu.cobau.minij.ast.entity.Declaration;
+import ch.hslu.cobau.minij.ast.entity.Function;
+import ch.hslu.cobau.minij.ast.entity.Struct;
+import ch.hslu.cobau.minij.ast.entity.Unit;
+import ch.hslu.cobau.minij.ast.expression.Expression;
+import ch.hslu.cobau.minij.ast.type.Type;
+import ch.hslu.cobau.minij.codegen.asm.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Generates x86-64 assembly for a semantically valid unit. Functions main does not reach and globals they do
+ * not access are dropped first (see Reachability). The program entry point _start passes the
+ * tables of the garbage collector to the runtime, calls main and terminates the process with its return
+ * value as exit code. Functions call each other as described by the CallingConvention, leaf functions
+ * (see CallGraph) run without a frame of their own. Counted loops are unrolled by the unroll factor, those
+ * summing up integer arrays are vectorized (see VectorLoop).
+ *
+ * Functions are generated and optimized in parallel. Everything shared between them either does not depend
+ * on the order of generation (string literals are pooled beforehand, imported symbols are sorted) or is
+ * done afterwards in code order (safepoints, allocation sites), so the output is the same for any number
+ * of threads.
+ *
+ * An instrumented build counts the executions of functions, branches, loops and calls (see ProfileCounters),
+ * which the runtime writes to a profile at exit. A build using such a Profile arranges the code by it. A
+ * build with profiling calls the function profiler of the runtime on entry and exit of every function
+ * (see ProfilerTables), so no function is a leaf. A build with heap profiling tells the runtime the
+ * allocation site of each call that may allocate (see HeapSites).
+ *
+ * Values are 64 bit wide: integers, booleans (0 or 1) and pointers to strings, arrays and records.
+ * Strings and arrays start with their length (one quad word), followed by the bytes or elements,
+ * records consist of one quad word per field.
+ *
+ * A unit without main has no entry point: it can be assembled, but not linked into a program.
+ */
+public class CodeGenerator {
+    static final String ENTRY_POINT = "_start";
+    static final String INDEX_ERROR = "index_error";
+    private static final int INDEX_ERROR_EXIT_CODE = 1;
+    public static final int DEFAULT_UNROLL_FACTOR = 4;
+
+    private record GeneratedFunction(Function function, FunctionGenerator generator, PeepholeOptimizer peephole) { }
+
+    private final SemanticAnalyzer semanticAnalyzer;
+    private final Map<String, Function> functions = new HashMap<>();
+    private final Map<String, Struct> structs = new HashMap<>();
+    private final PeepholeOptimizer peephole = new PeepholeOptimizer();
+    private final Map<String, FrameLayout> frames = new LinkedHashMap<>();
+    private boolean instrumented;
+    private final List<Profile> profiles = new ArrayList<>();
+    private List<Profile> ignoredProfiles = List.of();
+    private Profile profile;
+    private ProfileCounters profileCounters;
+    private boolean profiling;
+    private ProfilerTables profilerTables;
+    private HeapSites heapSites;
+    private boolean heapProfiling;
+    private Unit unit;
+    private CallingConvention convention;
+    private AssemblyUnit assembly;
+    private StringPool strings;
+    private GcTables gcTables;
+    private volatile boolean indexErrorUsed;
+    private int unrollFactor = DEFAULT_UNROLL_FACTOR;
+    private boolean vectorizing = true;
+    private boolean stripping = true;
+    private boolean redZone = true;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private List<Function> unreachableFunctions = List.of();
+    private List<Declaration> unusedGlobals = List.of();
+
+    public CodeGenerator(SemanticAnalyzer semanticAnalyzer) {
+        this.semanticAnalyzer = semanticAnalyzer;
+    }
+
+    /**
+     * Enables the counters of an instrumented build.
+     */
+    public void setInstrumented(boolean instrumented) {
+        this.instrumented = instrumented;
+    }
+
+    /**
+     * Enables the function profiler, which reports the calls and time of each function at exit.
+     */
+    public void setProfiling(boolean profiling) {
+        this.profiling = profiling;
+    }
+
+    /**
+     * Enables heap profiling, which reports the allocations of each allocation site at exit.
+     */
+    public void setHeapProfiling(boolean heapProfiling) {
+        this.heapProfiling = heapProfiling;
+    }
+
+    /**
+     * Sets the number of copies of the body of a counted loop per test of its condition (see CountedLoop);
+     * 1 turns unrolling off, including the full unrolling of loops with a known small number of iterations.
+     */
+    public void setUnrollFactor(int unrollFactor) {
+        this.unrollFactor = unrollFactor;
+    }
+
+    /**
+     * Enables the vectorization of loops over integer arrays with SSE2 (see VectorLoop), which is the default.
+     */
+    public void setVectorizing(boolean vectorizing) {
+        this.vectorizing = vectorizing;
+    }
+
+    /**
+     * Enables dropping the functions main does not reach and the globals they do not access (see
+     * Reachability), which is the default.
+     */
+    public void setStripping(boolean stripping) {
+        this.stripping = stripping;
+    }
+
+    /**
+     * Enables running leaf functions without a frame in the red zone (see FrameLayout), which is the default.
+     */
+    public void setRedZone(boolean redZone) {
+        this.redZone = redZone;
+    }
+
+    /**
+     * Sets the number of threads generating functions in parallel, by default the number of processors.
+     * The generated code does not depend on it.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Adds the profile of a previous run of an instrumented build of the unit. The counts of all profiles
+     * of the unit are added up.
+     */
+    public void addProfile(Profile profile) {
+        profiles.add(profile);
+    }
+
+    /**
+     * @return The profiles that do not belong to the generated unit, so they were ignored.
+     */
+    public List<Profile> getIgnoredProfiles() {
+        return ignoredProfiles;
+    }
+
+    public AssemblyUnit generate(Unit unit) {
+        this.unit = unit;
+        assembly = new AssemblyUnit();
+        strings = new StringPool();
+        gcTables = new GcTables();
+        indexErrorUsed = false;
+        functions.clear();
+        structs.clear();
+        frames.clear();
+        unreachableFunctions = List.of();
+        unusedGlobals = List.of();
+        unit.getFunctions().forEach(function -> functions.put(function.getIdentifier(), function));
+        unit.getStructs().forEach(struct -> structs.put(struct.getIdentifier(), struct));
+        CallGraph callGraph = new CallGraph(this, unit);
+        Function main = functions.get("main");
+        if (stripping && main != null) {
+            Reachability reachability = new Reachability(callGraph, unit, main);
+            unreachableFunctions = reachability.getUnreachableFunctions();
+            unusedGlobals = reachability.getUnusedGlobals();
+            unit = reachability.strip();
+            this.unit = unit;
+        }
+        convention = new CallingConvention(unit);
+        if (instrumented || !profiles.isEmpty()) {
+            profileCounters = new ProfileCounters(unit);
+        }
+        profile = null;
+        ignoredProfiles = new ArrayList<>();
+        for (Profile run : profiles) {
+            if (!run.bind(profileCounters)) {
+                ignoredProfiles.add(run);
+            } else {
+                profile = profile == null ? run : profile.merge(run);
+            }
+        }
+        if (profiling) {
+            profilerTables = new ProfilerTables(unit.getFunctions());
+        }
+        if (heapProfiling) {
+            heapSites = new HeapSites();
+        }
+
+        for (Declaration global : unit.getGlobals()) {
+            assembly.getBss().add(DataBlock.reserve(getGlobalLabel(global), 8, 8));
+            if (GcTables.isReference(global.getType())) {
+                gcTables.addGlobal(getGlobalLabel(global));
+            }
+        }
+
+        if (functions.containsKey("main")) {
+            assembly.addGlobal(ENTRY_POINT);
+            AssemblyFunction entryPoint = new AssemblyFunction(new Label(ENTRY_POINT));
+            entryPoint.emit(Opcode.LEA, Register.RDI, Memory.of(new Label(GcTables.ROOTS)));
+            entryPoint.emit(Opcode.MOV, Register.RSI, Register.RSP); // initial stack: arguments and environment
+            entryPoint.emit(Opcode.CALL, getRuntimeSymbol(BuiltIns.GC_INIT));
+            if (instrumented) {
+                entryPoint.emit(Opcode.LEA, Register.RDI, Memory.of(new Label(ProfileCounters.TABLE)));
+                entryPoint.emit(Opcode.MOV, Register.RSI, Register.RSP);
+                entryPoint.emit(Opcode.CALL, getRuntimeSymbol(BuiltIns.PROFILE_INIT));
+            }
+            if (profiling) {
+                entryPoint.emit(Opcode.LEA, Register.RDI, Memory.of(new Label(ProfilerTables.TABLE)));
+                entryPoint.emit(Opcode.MOV, Register.RSI, Register.RSP);
+                entryPoint.emit(Opcode.CALL, getRuntimeSymbol(BuiltIns.PROFILER_INIT));
+            }
+            if (heapProfiling) {
+                entryPoint.emit(Opcode.LEA, Register.RDI, Memory.of(new Label(HeapSites.TABLE)));
+                entryPoint.emit(Opcode.CALL, getRuntimeSymbol(BuiltIns.HEAP_PROFILE_INIT));
+            }
+            entryPoint.emit(Opcode.CALL, getFunctionLabel("main"));
+            entryPoint.emit(Opcode.MOV, Register.RDI, Register.RAX);
+            entryPoint.emit(Opcode.CALL, getRuntimeSymbol(BuiltIns.EXIT));
+            assembly.getFunctions().add(entryPoint);
+        }
+
+        List<Function> order = new ArrayList<>(unit.getFunctions());
+        if (profile != null) {
+            // functions that never ran do not take up space between the others
+            order.sort(Comparator.comparing(function -> profile.getCalls(function) == 0 && !function.getIdentifier().equals("main")));
+        }
+        strings.addAll(order);
+        List<GeneratedFunction> generated;
+        if (threads > 1 && order.size() > 1) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                generated = pool.submit(() -> order.parallelStream().map(function -> generateFunction(function, callGraph)).toList()).join();
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            generated = order.stream().map(function -> generateFunction(function, callGraph)).toList();
+        }
+        // everything depending on the order of the functions is done here, in code order
+        for (GeneratedFunction result : generated) {
+            FunctionGenerator generator = result.generator();
+            frames.put(result.function().getIdentifier(), generator.getFrame());
+            generator.addSafepoints(gcTables);
+            if (heapProfiling) {
+                generator.addAllocationSites(heapSites);
+            }
+            peephole.addCounts(result.peephole());
+            assembly.getFunctions().add(generator.getCode());
+        }
+        if (indexErrorUsed) {
+            AssemblyFunction indexError = new AssemblyFunction(new Label(INDEX_ERROR));
+            indexError.setCold(true);
+            indexError.emit(Opcode.MOV, Register.RDI, new Immediate(INDEX_ERROR_EXIT_CODE));
+            indexError.emit(Opcode.CALL, getRuntimeSymbol(BuiltIns.EXIT));
+            assembly.getFunctions().add(indexError);
+        }
+        strings.emit(assembly.getReadOnlyData());
+        if (instrumented) {
+            profileCounters.emit(assembly.getReadOnlyData(), assembly.getBss());
+        }
+        if (profiling) {
+            profilerTables.emit(assembly.getReadOnlyData(), assembly.getBss());
+        }
+        if (heapProfiling) {
+            heapSites.emit(assembly.getReadOnlyData(), assembly.getBss());
+        }
+        gcTables.emit(assembly.getReadOnlyData(), unit.getStructs());
+        return assembly;
+    }
+
+    /**
+     * Generates and optimizes the code of a function, independent of the other functions.
+     */
+    private GeneratedFunction generateFunction(Function function, CallGraph callGraph) {
+        boolean leaf = callGraph.isLeaf(function) && !profiling;
+        FunctionGenerator generator = new FunctionGenerator(this, function, leaf, redZone);
+        generator.generate();
+        if (!generator.fitsRedZone()) {
+            generator = new FunctionGenerator(this, function, leaf, false);
+            generator.generate();
+        }
+        PeepholeOptimizer optimizer = new PeepholeOptimizer();
+        optimizer.optimize(generator.getCode());
+        return new GeneratedFunction(function, generator, optimizer);
+    }
+
+    /**
+     * @return The functions dropped from the last generated unit, as main does not reach them.
+     */
+    public List<Function> getUnreachableFunctions() {
+        return unreachableFunctions;
+    }
+
+    /**
+     * @return The globals dropped from the last generated unit, as no reachable function accesses them.
+     */
+    public List<Declaration> getUnusedGlobals() {
+        return unusedGlobals;
+    }
+
+    public PeepholeOptimizer getPeepholeOptimizer() {
+        return peephole;
+    }
+
+    /**
+     * @return The stack frame of each generated function, in code order.
+     */
+    public Map<String, FrameLayout> getFrames() {
+        return frames;
+    }
+
+    Unit getUnit() {
+        return unit;
+    }
+
+    CallingConvention getCallingConvention() {
+        return convention;
+    }
+
+    int getUnrollFactor() {
+        return unrollFactor;
+    }
+
+    boolean isVectorizing() {
+        return vectorizing;
+    }
+
+    boolean isInstrumented() {
+        return instrumented;
+    }
+
+    /**
+     * @return The profile of the unit or null, if there is none.
+     */
+    Profile getProfile() {
+        return profile;
+    }
+
+    ProfileCounters getProfileCounters() {
+        return profileCounters;
+    }
+
+    /**
+     * @return The tables of the function profiler or null, if it is not enabled.
+     */
+    ProfilerTables getProfilerTables() {
+        return profilerTables;
+    }
+
+    /**
+     * @return The allocation sites or null, if heap profiling is not enabled.
+     */
+    HeapSites getHeapSites() {
+        return heapSites;
+    }
+
+    /**
+     * @return The target of failing array bounds checks, which terminates the program. It is shared by all
+     * functions and placed in the cold section.
+     */
+    Label getIndexErrorLabel() {
+        indexErrorUsed = true;
+        return new Label(INDEX_ERROR);
+    }
+
+    Type getType(Expression expression) {
+        return semanticAnalyzer.getType(expression);
+    }
+
+    /**
+     * @return The user defined function of the given name or null, if it refers to a built-in.
+     */
+    Function getFunction(String identifier) {
+        return functions.get(identifier);
+    }
+
+    Struct getStruct(String identifier) {
+        return structs.get(identifier);
+    }
+
+    static Label getFunctionLabel(String identifier) {
+        return new Label("f_" + identifier);
+    }
+
+    static Label getGlobalLabel(Declaration global) {
+        return new Label("g_" + global.getIdentifier());
+    }
+
+    /**
+     * @return A label of a runtime routine, which is imported by the unit.
+     */
+    synchronized Label getRuntimeSymbol(String symbol) {
+        assembly.addExtern(symbol);
+        return new Label(symbol);
+    }
+
+    /**
+     * @return The label of the string constant in the string pool of the unit.
+     */
+    Label getStringLabel(StringConstant constant) {
+        return strings.getLabel(constant);
+    }
+}
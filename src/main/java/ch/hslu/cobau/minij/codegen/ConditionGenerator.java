@@ -0,0 +1,169 @@
+package ch.hslu.cobau.minij.codegen;
+
+import ch.hslu.cobau.minij.ast.constants.FalseConstant;
+import ch.hslu.cobau.minij.ast.constants.TrueConstant;
+import ch.hslu.cobau.minij.ast.expression.BinaryExpression;
+import ch.hslu.cobau.minij.ast.expression.BinaryOperator;
+import ch.hslu.cobau.minij.ast.expression.Expression;
+import ch.hslu.cobau.minij.ast.expression.UnaryExpression;
+import ch.hslu.cobau.minij.ast.expression.UnaryOperator;
+import ch.hslu.cobau.minij.codegen.asm.*;
+
+/**
+ * Lowers boolean expressions into control flow. Conditions of if and while statements are translated
+ * into chains of compare and conditional jump instructions: "&&" and "||" short-circuit by jumping,
+ * "!" swaps the branch targets and relational operators fuse into a single cmp + jcc. Booleans are only
+ * materialized as 0 or 1 (with setcc where possible) when their value is stored or passed on.
+ */
+class ConditionGenerator {
+    private final FunctionGenerator functionGenerator;
+    private final ExpressionGenerator expressions;
+    private final AssemblyFunction code;
+
+    ConditionGenerator(FunctionGenerator functionGenerator, ExpressionGenerator expressions) {
+        this.functionGenerator = functionGenerator;
+        this.expressions = expressions;
+        this.code = functionGenerator.getCode();
+    }
+
+    /**
+     * Emits code that jumps to the target if the condition evaluates to jumpIfTrue and falls through otherwise.
+     */
+    void branch(Expression condition, Label target, boolean jumpIfTrue) {
+        switch (condition) {
+            case TrueConstant constant -> {
+                if (jumpIfTrue) {
+                    code.emit(Opcode.JMP, target);
+                }
+            }
+            case FalseConstant constant -> {
+                if (!jumpIfTrue) {
+                    code.emit(Opcode.JMP, target);
+                }
+            }
+            case UnaryExpression unary when unary.getUnaryOperator() == UnaryOperator.NOT ->
+                    branch(unary.getExpression(), target, !jumpIfTrue);
+            case BinaryExpression binary when isLogical(binary) -> {
+                // "&&" jumps on false and "||" jumps on true as soon as the left operand decides the result
+                boolean shortCircuitValue = binary.getBinaryOperator() == BinaryOperator.OR;
+                if (jumpIfTrue == shortCircuitValue) {
+                    branch(binary.getLeft(), target, jumpIfTrue);
+                    branch(binary.getRight(), target, jumpIfTrue);
+                } else {
+                    Label skip = functionGenerator.newLabel();
+                    branch(binary.getLeft(), skip, shortCircuitValue);
+                    branch(binary.getRight(), target, jumpIfTrue);
+                    code.label(skip);
+                }
+            }
+            case BinaryExpression binary when isRelational(binary) -> {
+                Condition holds = compare(binary);
+                code.emit(Opcode.JCC, jumpIfTrue ? holds : holds.negate(), target);
+            }
+            default -> {
+                Operand leaf = expressions.leaf(condition);
+                if (leaf instanceof Memory || leaf instanceof Register) {
+                    code.emit(Opcode.CMP, leaf, new Immediate(0));
+                } else {
+                    expressions.generate(condition);
+                    code.emit(Opcode.TEST, Register.RAX, Register.RAX);
+                }
+                code.emit(Opcode.JCC, jumpIfTrue ? Condition.NE : Condition.E, target);
+            }
+        }
+    }
+
+    /**
+     * Evaluates a boolean expression into rax (0 or 1).
+     */
+    void materialize(Expression condition) {
+        boolean negated = false;
+        Expression inner = condition;
+        while (inner instanceof UnaryExpression unary && unary.getUnaryOperator() == UnaryOperator.NOT) {
+            inner = unary.getExpression();
+            negated = !negated;
+        }
+
+        if (inner instanceof BinaryExpression binary && isRelational(binary)) {
+            Condition holds = compare(binary);
+            code.emit(Opcode.SETCC, negated ? holds.negate() : holds, Register.RAX);
+            code.emit(Opcode.MOVZX, Register.RAX, Register.RAX);
+        } else if (inner instanceof BinaryExpression binary && isLogical(binary)) {
+            Label falseLabel = functionGenerator.newLabel();
+            Label endLabel = functionGenerator.newLabel();
+            branch(condition, falseLabel, false);
+            code.emit(Opcode.MOV, Register.RAX, new Immediate(1));
+            code.emit(Opcode.JMP, endLabel);
+            code.label(falseLabel);
+            code.emit(Opcode.MOV, Register.RAX, new Immediate(0));
+            code.label(endLabel);
+        } else {
+            expressions.generate(inner);
+            if (negated) {
+                code.emit(Opcode.XOR, Register.RAX, new Immediate(1));
+            }
+        }
+    }
+
+    /**
+     * Emits the comparison of a relational expression and returns the condition under which it holds.
+     * Strings are compared by the runtime: (in)equality by a routine returning 1 for equal strings, which
+     * rejects strings of different lengths right away, the other relations by one returning a negative,
+     * zero or positive number.
+     */
+    private Condition compare(BinaryExpression binary) {
+        Operand left = expressions.leaf(binary.getLeft());
+        Operand right = expressions.leaf(binary.getRight());
+        if (expressions.isString(binary.getLeft())) {
+            BinaryOperator operator = binary.getBinaryOperator();
+            boolean equality = operator == BinaryOperator.EQUAL || operator == BinaryOperator.UNEQUAL;
+            expressions.generate(binary.getLeft());
+            functionGenerator.push(Register.RAX, true);
+            expressions.generate(binary.getRight());
+            code.emit(Opcode.MOV, Register.RSI, Register.RAX);
+            functionGenerator.pop(Register.RDI);
+            functionGenerator.call(functionGenerator.getCodeGenerator().getRuntimeSymbol(
+                    equality ? BuiltIns.STRING_EQUALS : BuiltIns.STRING_COMPARE));
+            code.emit(Opcode.CMP, Register.RAX, new Immediate(0));
+            if (equality) {
+                return operator == BinaryOperator.EQUAL ? Condition.NE : Condition.E;
+            }
+        } else if (left != null && !(left instanceof Immediate) && right != null
+                && !(left instanceof Memory && right instanceof Memory)) {
+            code.emit(Opcode.CMP, left, right);
+        } else if (right != null) {
+            expressions.generate(binary.getLeft());
+            code.emit(Opcode.CMP, Register.RAX, right);
+        } else {
+            expressions.generate(binary.getLeft());
+            functionGenerator.push(Register.RAX, expressions.isReference(binary.getLeft()));
+            expressions.generate(binary.getRight());
+            code.emit(Opcode.MOV, Register.RCX, Register.RAX);
+            functionGenerator.pop(Register.RAX);
+            code.emit(Opcode.CMP, Register.RAX, Register.RCX);
+        }
+        return switch (binary.getBinaryOperator()) {
+            case EQUAL -> Condition.E;
+            case UNEQUAL -> Condition.NE;
+            case LESSER -> Condition.L;
+            case LESSER_EQ -> Condition.LE;
+            case GREATER -> Condition.G;
+            case GREATER_EQ -> Condition.GE;
+            default -> throw new IllegalStateException("not a relational operator: " + binary.getBinaryOperator());
+        };
+    }
+
+    static boolean isLogical(BinaryExpression binary) {
+        return switch (binary.getBinaryOperator()) {
+            case AND, OR -> true;
+            default -> false;
+        };
+    }
+
+    static boolean isRelational(BinaryExpression binary) {
+        return switch (binary.getBinaryOperator()) {
+            case EQUAL, UNEQUAL, LESSER, LESSER_EQ, GREATER, GREATER_EQ -> true;
+            default -> false;
+        };
+    }
+}
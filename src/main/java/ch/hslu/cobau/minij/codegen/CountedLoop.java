@@ -0,0 +1,330 @@
+package ch.hslu.cobau.minij.codegen;
+
+import ch.hslu.cobau.minij.ast.BaseAstVisitor;
+import ch.hslu.cobau.minij.ast.constants.IntegerConstant;
+import ch.hslu.cobau.minij.ast.entity.Declaration;
+import ch.hslu.cobau.minij.ast.entity.Function;
+import ch.hslu.cobau.minij.ast.expression.*;
+import ch.hslu.cobau.minij.ast.statement.*;
+import ch.hslu.cobau.minij.ast.type.IntegerType;
+import ch.hslu.cobau.minij.codegen.asm.Condition;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A counted while loop "while (i < n) { ...; i = i + c; }", which can be unrolled:
+ * <ul>
+ * <li>the induction variable i is an integer variable of the frame, which only the last statement of the
+ * body assigns, adding a constant step c,</li>
+ * <li>the bound n is a constant or an integer variable of the frame the loop does not assign,</li>
+ * <li>the condition compares i and n with &lt;, &lt;=, &gt; or &gt;=, in the direction of the step.</li>
+ * </ul>
+ * Neither variable is passed to a call, as an out argument is the only way another function reaches a
+ * local. If the last statement before the loop that changes i assigns a constant, the number of iterations
+ * is known.
+ * Only innermost loops qualify.
+ */
+class CountedLoop {
+    private final Declaration variable;
+    private final Condition condition;
+    private final Declaration boundVariable;
+    private final long boundConstant;
+    private final long step;
+    private Long initial;
+    private int size;
+
+    private CountedLoop(Declaration variable, Condition condition, Declaration boundVariable, long boundConstant, long step) {
+        this.variable = variable;
+        this.condition = condition;
+        this.boundVariable = boundVariable;
+        this.boundConstant = boundConstant;
+        this.step = step;
+    }
+
+    /**
+     * @return The counted loops of the function.
+     */
+    static Map<WhileStatement, CountedLoop> find(Function function, FrameLayout frame) {
+        Map<WhileStatement, CountedLoop> loops = new HashMap<>();
+        find(function.getStatements(), frame, loops);
+        return loops;
+    }
+
+    private static void find(List<Statement> statements, FrameLayout frame, Map<WhileStatement, CountedLoop> loops) {
+        for (int index = 0; index < statements.size(); ++index) {
+            Statement statement = statements.get(index);
+            if (statement instanceof WhileStatement whileStatement) {
+                CountedLoop loop = recognize(whileStatement, frame);
+                if (loop != null) {
+                    loop.initial = getInitial(statements.subList(0, index), loop.variable);
+                    loops.put(whileStatement, loop);
+                }
+                find(whileStatement.getStatements(), frame, loops);
+            } else if (statement instanceof IfStatement ifStatement) {
+                find(ifStatement.getStatements(), frame, loops);
+                if (ifStatement.getElseBlock() instanceof IfStatement elseIf) {
+                    find(List.of(elseIf), frame, loops);
+                } else if (ifStatement.getElseBlock() != null) {
+                    find(ifStatement.getElseBlock().getStatements(), frame, loops);
+                }
+            }
+        }
+    }
+
+    // the constant the last of the statements that changes the variable assigns, if any
+    private static Long getInitial(List<Statement> statements, Declaration variable) {
+        for (int index = statements.size() - 1; index >= 0; --index) {
+            Statement statement = statements.get(index);
+            if (statement instanceof DeclarationStatement declaration && declaration.getDeclaration() == variable) {
+                return 0L; // locals start as 0
+            } else if (statement instanceof AssignmentStatement assignment && assignment.getLeft() instanceof VariableAccess target
+                    && target.getDeclaration() == variable) {
+                return getConstant(assignment.getRight());
+            }
+            BodyScan scan = new BodyScan(variable, null);
+            statement.accept(scan);
+            if (!scan.valid) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static CountedLoop recognize(WhileStatement loop, FrameLayout frame) {
+        List<Statement> body = loop.getStatements();
+        if (!(loop.getExpression() instanceof BinaryExpression comparison) || body.isEmpty()
+                || !(body.get(body.size() - 1) instanceof AssignmentStatement increment)) {
+            return null;
+        }
+        Condition condition = switch (comparison.getBinaryOperator()) {
+            case LESSER -> Condition.L;
+            case LESSER_EQ -> Condition.LE;
+            case GREATER -> Condition.G;
+            case GREATER_EQ -> Condition.GE;
+            default -> null;
+        };
+        Expression left = comparison.getLeft();
+        Expression right = comparison.getRight();
+        if (condition == null || !(increment.getLeft() instanceof VariableAccess target)) {
+            return null;
+        }
+        if (!(left instanceof VariableAccess induction && induction.getDeclaration() == target.getDeclaration())) {
+            // "n > i"
+            Expression swap = left;
+            left = right;
+            right = swap;
+            condition = condition.swap();
+        }
+        Declaration variable = target.getDeclaration();
+        if (!(left instanceof VariableAccess induction) || induction.getDeclaration() != variable || !isCounter(variable, frame)) {
+            return null;
+        }
+
+        Long step = getStep(increment, variable);
+        boolean upwards = condition == Condition.L || condition == Condition.LE;
+        if (step == null || step == 0 || upwards != step > 0) {
+            return null;
+        }
+        CountedLoop counted;
+        Long constant = getConstant(right);
+        if (constant != null) {
+            counted = new CountedLoop(variable, condition, null, constant, step);
+        } else if (right instanceof VariableAccess bound && bound.getDeclaration() != variable && isCounter(bound.getDeclaration(), frame)) {
+            counted = new CountedLoop(variable, condition, bound.getDeclaration(), 0, step);
+        } else {
+            return null;
+        }
+
+        BodyScan scan = new BodyScan(variable, counted.boundVariable);
+        for (Statement statement : body.subList(0, body.size() - 1)) {
+            statement.accept(scan);
+        }
+        increment.getRight().accept(scan);
+        if (!scan.valid) {
+            return null;
+        }
+        counted.size = scan.size + 1;
+        return counted;
+    }
+
+    private static boolean isCounter(Declaration declaration, FrameLayout frame) {
+        return declaration.getType() instanceof IntegerType && frame.contains(declaration) && !frame.holdsAddress(declaration);
+    }
+
+    // "i = i + c", "i = c + i" or "i = i - c"
+    private static Long getStep(AssignmentStatement increment, Declaration variable) {
+        if (!(increment.getRight() instanceof BinaryExpression sum)) {
+            return null;
+        }
+        boolean leftIsVariable = sum.getLeft() instanceof VariableAccess access && access.getDeclaration() == variable;
+        boolean rightIsVariable = sum.getRight() instanceof VariableAccess access && access.getDeclaration() == variable;
+        if (sum.getBinaryOperator() == BinaryOperator.PLUS && leftIsVariable) {
+            return getConstant(sum.getRight());
+        } else if (sum.getBinaryOperator() == BinaryOperator.PLUS && rightIsVariable) {
+            return getConstant(sum.getLeft());
+        } else if (sum.getBinaryOperator() == BinaryOperator.MINUS && leftIsVariable) {
+            Long constant = getConstant(sum.getRight());
+            return constant == null || constant == Long.MIN_VALUE ? null : -constant;
+        }
+        return null;
+    }
+
+    static Long getConstant(Expression expression) {
+        if (expression instanceof IntegerConstant constant) {
+            return constant.getValue();
+        } else if (expression instanceof UnaryExpression unary && unary.getUnaryOperator() == UnaryOperator.MINUS
+                && unary.getExpression() instanceof IntegerConstant constant) {
+            return -constant.getValue();
+        }
+        return null;
+    }
+
+    Declaration getVariable() {
+        return variable;
+    }
+
+    /**
+     * @return The comparison of the loop condition, with the induction variable on the left.
+     */
+    Condition getCondition() {
+        return condition;
+    }
+
+    /**
+     * @return The bound if it is a variable, otherwise null (see getBoundConstant).
+     */
+    Declaration getBoundVariable() {
+        return boundVariable;
+    }
+
+    long getBoundConstant() {
+        return boundConstant;
+    }
+
+    long getStep() {
+        return step;
+    }
+
+    /**
+     * @return An estimate of the code size of one iteration: the number of statements and expressions of the
+     * body, constants excluded.
+     */
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * @return The number of iterations or -1, if they are not known or the induction variable would overflow.
+     */
+    long getTrips() {
+        if (initial == null || boundVariable != null) {
+            return -1;
+        }
+        try {
+            long distance = step > 0 ? Math.subtractExact(boundConstant, initial) : Math.subtractExact(initial, boundConstant);
+            long stride = Math.abs(step);
+            long trips;
+            if (condition == Condition.L || condition == Condition.G) {
+                trips = distance <= 0 ? 0 : (distance - 1) / stride + 1;
+            } else {
+                trips = distance < 0 ? 0 : Math.addExact(distance / stride, 1);
+            }
+            Math.addExact(initial, Math.multiplyExact(trips, step));
+            return trips;
+        } catch (ArithmeticException e) {
+            return -1;
+        }
+    }
+
+    // checks that the body does not change the variables of the loop and has no inner loop, and measures it
+    private static class BodyScan extends BaseAstVisitor {
+        private final Declaration variable;
+        private final Declaration bound;
+        private boolean valid = true;
+        private int size;
+
+        BodyScan(Declaration variable, Declaration bound) {
+            this.variable = variable;
+            this.bound = bound;
+        }
+
+        private boolean isLoopVariable(Expression expression) {
+            return expression instanceof VariableAccess access
+                    && (access.getDeclaration() == variable || access.getDeclaration() == bound);
+        }
+
+        @Override
+        public void visit(AssignmentStatement assignment) {
+            ++size;
+            valid &= !isLoopVariable(assignment.getLeft());
+            super.visit(assignment);
+        }
+
+        @Override
+        public void visit(WhileStatement whileStatement) {
+            valid = false;
+        }
+
+        @Override
+        public void visit(IfStatement ifStatement) {
+            ++size;
+            super.visit(ifStatement);
+        }
+
+        @Override
+        public void visit(ReturnStatement returnStatement) {
+            ++size;
+            super.visit(returnStatement);
+        }
+
+        @Override
+        public void visit(CallStatement callStatement) {
+            ++size;
+            super.visit(callStatement);
+        }
+
+        @Override
+        public void visit(UnaryExpression unaryExpression) {
+            ++size;
+            valid &= unaryExpression.getUnaryOperator() == UnaryOperator.MINUS
+                    || unaryExpression.getUnaryOperator() == UnaryOperator.NOT
+                    || !isLoopVariable(unaryExpression.getExpression());
+            super.visit(unaryExpression);
+        }
+
+        @Override
+        public void visit(BinaryExpression binaryExpression) {
+            ++size;
+            super.visit(binaryExpression);
+        }
+
+        @Override
+        public void visit(CallExpression callExpression) {
+            ++size;
+            for (Expression parameter : callExpression.getParameters()) {
+                valid &= !isLoopVariable(parameter);
+            }
+            super.visit(callExpression);
+        }
+
+        @Override
+        public void visit(VariableAccess variableAccess) {
+            ++size;
+            super.visit(variableAccess);
+        }
+
+        @Override
+        public void visit(ArrayAccess arrayAccess) {
+            ++size;
+            super.visit(arrayAccess);
+        }
+
+        @Override
+        public void visit(FieldAccess fieldAccess) {
+            ++size;
+            super.visit(fieldAccess);
+        }
+    }
+}
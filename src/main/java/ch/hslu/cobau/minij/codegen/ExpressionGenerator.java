@@ -0,0 +1,476 @@
+package ch.hslu.cobau.minij.codegen;
+
+import ch.hslu.cobau.minij.ast.BaseAstVisitor;
+import ch.hslu.cobau.minij.ast.constants.FalseConstant;
+import ch.hslu.cobau.minij.ast.constants.IntegerConstant;
+import ch.hslu.cobau.minij.ast.constants.StringConstant;
+import ch.hslu.cobau.minij.ast.constants.TrueConstant;
+import ch.hslu.cobau.minij.ast.entity.Declaration;
+import ch.hslu.cobau.minij.ast.entity.Function;
+import ch.hslu.cobau.minij.ast.expression.*;
+import ch.hslu.cobau.minij.ast.type.RecordType;
+import ch.hslu.cobau.minij.ast.type.StringType;
+import ch.hslu.cobau.minij.codegen.asm.*;
+
+import java.util.List;
+
+/**
+ * Generates code that evaluates an expression into rax. Intermediate results are kept on the stack,
+ * so evaluation may clobber all other caller saved registers. Boolean operators are delegated to the
+ * ConditionGenerator, which only materializes 0 or 1 where a value is actually needed.
+ *
+ * Instructions are selected by matching small tree patterns: leaves (constants and variables with a
+ * fixed home) are used directly as immediate, register or memory operands, array and field accesses fold into
+ * [base + index * 8 + displacement] operands, and additions of scaled values map onto lea.
+ */
+class ExpressionGenerator extends BaseAstVisitor {
+    // largest constant index whose element offset fits into a 32-bit displacement
+    private static final long MAX_CONSTANT_INDEX = Integer.MAX_VALUE / 8 - 1;
+
+    private final FunctionGenerator functionGenerator;
+    private final CodeGenerator codeGenerator;
+    private final AssemblyFunction code;
+    private ConditionGenerator conditions;
+
+    ExpressionGenerator(FunctionGenerator functionGenerator) {
+        this.functionGenerator = functionGenerator;
+        this.codeGenerator = functionGenerator.getCodeGenerator();
+        this.code = functionGenerator.getCode();
+    }
+
+    void setConditions(ConditionGenerator conditions) {
+        this.conditions = conditions;
+    }
+
+    /**
+     * Evaluates the expression into rax.
+     */
+    void generate(Expression expression) {
+        expression.accept(this);
+    }
+
+    boolean isString(Expression expression) {
+        return codeGenerator.getType(expression) instanceof StringType;
+    }
+
+    boolean isReference(Expression expression) {
+        return GcTables.isReference(codeGenerator.getType(expression));
+    }
+
+    /**
+     * @return The register or memory operand of a variable that can be accessed without computing its
+     * address (a global, a local, a parameter not passed by address or one whose address is in a register),
+     * or null for all other memory accesses.
+     */
+    Operand directOperand(MemoryAccess memoryAccess) {
+        if (memoryAccess instanceof VariableAccess variable) {
+            Declaration declaration = variable.getDeclaration();
+            FrameLayout frame = functionGenerator.getFrame();
+            if (!frame.contains(declaration)) {
+                return Memory.of(CodeGenerator.getGlobalLabel(declaration));
+            } else if (!frame.holdsAddress(declaration)) {
+                return frame.getHome(declaration);
+            } else if (frame.getHome(declaration) instanceof Register register) {
+                return Memory.of(register, 0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Matches expressions, which can be used as source operand without evaluating them first: integer and
+     * boolean constants that fit into a sign extended 32-bit immediate, and variables with a fixed home.
+     *
+     * @return The operand or null, if the expression has to be evaluated into a register.
+     */
+    Operand leaf(Expression expression) {
+        return switch (expression) {
+            case IntegerConstant constant when new Immediate(constant.getValue()).isInt32() -> new Immediate(constant.getValue());
+            case TrueConstant constant -> new Immediate(1);
+            case FalseConstant constant -> new Immediate(0);
+            case VariableAccess variable -> directOperand(variable);
+            default -> null;
+        };
+    }
+
+    /**
+     * Evaluates the expression into the given register.
+     */
+    void generate(Expression expression, Register register) {
+        Operand leaf = leaf(expression);
+        if (leaf != null) {
+            code.emit(Opcode.MOV, register, leaf);
+        } else {
+            generate(expression);
+            if (register != Register.RAX) {
+                code.emit(Opcode.MOV, register, Register.RAX);
+            }
+        }
+    }
+
+    /**
+     * Computes the address of a memory access, which must not be a variable living in a register. The returned
+     * operand may be based on rax and rcx.
+     */
+    Memory address(MemoryAccess memoryAccess) {
+        Operand direct = directOperand(memoryAccess);
+        if (direct instanceof Memory memory) {
+            return memory;
+        } else if (direct != null) {
+            throw new IllegalStateException("no address of a variable in " + direct);
+        }
+
+        return switch (memoryAccess) {
+            case VariableAccess variable -> {
+                // "out" parameter passed by address: the home contains the address of the actual parameter
+                code.emit(Opcode.MOV, Register.RAX, functionGenerator.getFrame().getHome(variable.getDeclaration()));
+                yield Memory.of(Register.RAX, 0);
+            }
+            case FieldAccess fieldAccess -> {
+                generate(fieldAccess.getBase());
+                RecordType recordType = (RecordType) codeGenerator.getType(fieldAccess.getBase());
+                int index = codeGenerator.getStruct(recordType.getIdentifier()).getIndex(fieldAccess.getField());
+                yield Memory.of(Register.RAX, 8L * index);
+            }
+            case ArrayAccess arrayAccess -> {
+                Expression index = arrayAccess.getIndexExpression();
+                generate(arrayAccess.getBase());
+                if (index instanceof IntegerConstant constant && constant.getValue() >= 0 && constant.getValue() < MAX_CONSTANT_INDEX) {
+                    // constant index: the element offset becomes the displacement
+                    code.emit(Opcode.CMP, Memory.of(Register.RAX, 0), new Immediate(constant.getValue()));
+                    code.emit(Opcode.JCC, Condition.BE, codeGenerator.getIndexErrorLabel());
+                    yield Memory.of(Register.RAX, 8 + 8 * constant.getValue());
+                }
+
+                Operand leaf = leaf(index);
+                if (leaf != null) {
+                    code.emit(Opcode.MOV, Register.RCX, leaf);
+                } else {
+                    functionGenerator.push(Register.RAX, true);
+                    generate(index);
+                    code.emit(Opcode.MOV, Register.RCX, Register.RAX);
+                    functionGenerator.pop(Register.RAX);
+                }
+                // unsigned comparison also catches negative indices
+                code.emit(Opcode.CMP, Register.RCX, Memory.of(Register.RAX, 0));
+                code.emit(Opcode.JCC, Condition.AE, codeGenerator.getIndexErrorLabel());
+                yield Memory.of(Register.RAX, Register.RCX, 8, 8);
+            }
+            default -> throw new IllegalStateException("unknown memory access " + memoryAccess);
+        };
+    }
+
+    private void load(MemoryAccess memoryAccess) {
+        Operand direct = directOperand(memoryAccess);
+        code.emit(Opcode.MOV, Register.RAX, direct != null ? direct : address(memoryAccess));
+    }
+
+    @Override
+    public void visit(VariableAccess variable) {
+        load(variable);
+    }
+
+    @Override
+    public void visit(FieldAccess fieldAccess) {
+        load(fieldAccess);
+    }
+
+    @Override
+    public void visit(ArrayAccess arrayAccess) {
+        load(arrayAccess);
+    }
+
+    @Override
+    public void visit(IntegerConstant integerConstant) {
+        code.emit(Opcode.MOV, Register.RAX, new Immediate(integerConstant.getValue()));
+    }
+
+    @Override
+    public void visit(TrueConstant trueConstant) {
+        code.emit(Opcode.MOV, Register.RAX, new Immediate(1));
+    }
+
+    @Override
+    public void visit(FalseConstant falseConstant) {
+        code.emit(Opcode.MOV, Register.RAX, new Immediate(0));
+    }
+
+    @Override
+    public void visit(StringConstant stringConstant) {
+        code.emit(Opcode.LEA, Register.RAX, Memory.of(codeGenerator.getStringLabel(stringConstant)));
+    }
+
+    @Override
+    public void visit(UnaryExpression unaryExpression) {
+        Expression operand = unaryExpression.getExpression();
+        switch (unaryExpression.getUnaryOperator()) {
+            case MINUS -> {
+                generate(operand);
+                code.emit(Opcode.NEG, Register.RAX);
+            }
+            case NOT -> conditions.materialize(unaryExpression);
+            case PRE_INCREMENT -> update((MemoryAccess) operand, Opcode.ADD, false);
+            case PRE_DECREMENT -> update((MemoryAccess) operand, Opcode.SUB, false);
+            case POST_INCREMENT -> update((MemoryAccess) operand, Opcode.ADD, true);
+            case POST_DECREMENT -> update((MemoryAccess) operand, Opcode.SUB, true);
+        }
+    }
+
+    // increments or decrements the operand and returns the old (postfix) or new (prefix) value
+    private void update(MemoryAccess operand, Opcode opcode, boolean postfix) {
+        Operand target = directOperand(operand);
+        if (target == null) {
+            target = address(operand);
+        }
+        if (postfix) {
+            code.emit(Opcode.MOV, Register.RDX, target);
+            code.emit(opcode, target, new Immediate(1));
+            code.emit(Opcode.MOV, Register.RAX, Register.RDX);
+        } else {
+            code.emit(opcode, target, new Immediate(1));
+            code.emit(Opcode.MOV, Register.RAX, target);
+        }
+    }
+
+    @Override
+    public void visit(BinaryExpression binaryExpression) {
+        switch (binaryExpression.getBinaryOperator()) {
+            case PLUS, MINUS, TIMES, DIV, MOD -> arithmetic(binaryExpression);
+            default -> conditions.materialize(binaryExpression);
+        }
+    }
+
+    private void arithmetic(BinaryExpression binaryExpression) {
+        Expression left = binaryExpression.getLeft();
+        Expression right = binaryExpression.getRight();
+        if (isString(left)) {
+            generate(left);
+            functionGenerator.push(Register.RAX, true);
+            generate(right);
+            code.emit(Opcode.MOV, Register.RSI, Register.RAX);
+            functionGenerator.pop(Register.RDI);
+            functionGenerator.allocationSite(binaryExpression, "concatenation");
+            functionGenerator.callSafepoint(codeGenerator.getRuntimeSymbol(BuiltIns.STRING_CONCAT));
+            return;
+        }
+
+        BinaryOperator operator = binaryExpression.getBinaryOperator();
+        if (operator == BinaryOperator.PLUS && scaledIndex(left, right)) {
+            return;
+        }
+        if ((operator == BinaryOperator.PLUS || operator == BinaryOperator.TIMES)
+                && leaf(left) instanceof Immediate && !(leaf(right) instanceof Immediate)) {
+            // commutative with a constant on the left: a constant has no side effects to keep in order
+            Expression swap = left;
+            left = right;
+            right = swap;
+        }
+
+        Operand operand = leaf(right);
+        generate(left);
+        if (operand == null) {
+            functionGenerator.push(Register.RAX, false);
+            generate(right);
+            code.emit(Opcode.MOV, Register.RCX, Register.RAX);
+            functionGenerator.pop(Register.RAX);
+            operand = Register.RCX;
+        }
+
+        switch (operator) {
+            case PLUS -> code.emit(Opcode.ADD, Register.RAX, operand);
+            case MINUS -> code.emit(Opcode.SUB, Register.RAX, operand);
+            case TIMES -> multiply(operand);
+            case DIV, MOD -> {
+                if (operand instanceof Immediate) {
+                    code.emit(Opcode.MOV, Register.RCX, operand);
+                    operand = Register.RCX;
+                }
+                code.emit(Opcode.CQO);
+                code.emit(Opcode.IDIV, operand);
+                if (operator == BinaryOperator.MOD) {
+                    code.emit(Opcode.MOV, Register.RAX, Register.RDX);
+                }
+            }
+            default -> throw new IllegalStateException("not an arithmetic operator: " + operator);
+        }
+    }
+
+    // multiplies rax by the operand, small factors of the form 2^n + 1 map onto lea
+    private void multiply(Operand operand) {
+        if (operand instanceof Immediate immediate) {
+            long factor = immediate.getValue();
+            if (factor == 2) {
+                code.emit(Opcode.ADD, Register.RAX, Register.RAX);
+                return;
+            } else if (factor == 3 || factor == 5 || factor == 9) {
+                code.emit(Opcode.LEA, Register.RAX, Memory.of(Register.RAX, Register.RAX, (int) factor - 1, 0));
+                return;
+            }
+        }
+        code.emit(Opcode.IMUL, Register.RAX, operand);
+    }
+
+    // pattern "left + leaf * scale" with scale 1, 2, 4 or 8: lea rax, [rax + rcx * scale], where a variable
+    // in a register is the index itself
+    private boolean scaledIndex(Expression left, Expression right) {
+        if (right instanceof BinaryExpression product && product.getBinaryOperator() == BinaryOperator.TIMES
+                && product.getRight() instanceof IntegerConstant constant
+                && (leaf(product.getLeft()) instanceof Memory || leaf(product.getLeft()) instanceof Register)) {
+            long scale = constant.getValue();
+            if (scale == 1 || scale == 2 || scale == 4 || scale == 8) {
+                generate(left);
+                Operand factor = leaf(product.getLeft());
+                Register index = factor instanceof Register register ? register : Register.RCX;
+                if (index == Register.RCX) {
+                    code.emit(Opcode.MOV, Register.RCX, factor);
+                }
+                code.emit(Opcode.LEA, Register.RAX, Memory.of(Register.RAX, index, (int) scale, 0));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Matches assignments of the form "x = x + leaf", "x = leaf + x" and "x = x - leaf" to a variable
+     * with a fixed home and emits them as read-modify-write instruction on the home.
+     *
+     * @return false if the assignment does not match.
+     */
+    boolean assignInPlace(Operand target, VariableAccess variable, Expression value) {
+        if (!(value instanceof BinaryExpression binary) || isString(value)) {
+            return false;
+        }
+        Opcode opcode = switch (binary.getBinaryOperator()) {
+            case PLUS -> Opcode.ADD;
+            case MINUS -> Opcode.SUB;
+            default -> null;
+        };
+        Expression operand;
+        if (opcode != null && isSameVariable(binary.getLeft(), variable)) {
+            operand = binary.getRight();
+        } else if (opcode == Opcode.ADD && isSameVariable(binary.getRight(), variable)) {
+            operand = binary.getLeft();
+        } else {
+            return false;
+        }
+
+        Operand leaf = leaf(operand);
+        if (leaf instanceof Immediate || leaf != null && (target instanceof Register || leaf instanceof Register)) {
+            code.emit(opcode, target, leaf);
+        } else if (leaf != null) {
+            code.emit(Opcode.MOV, Register.RAX, leaf);
+            code.emit(opcode, target, Register.RAX);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isSameVariable(Expression expression, VariableAccess variable) {
+        return expression instanceof VariableAccess other && other.getDeclaration() == variable.getDeclaration();
+    }
+
+    @Override
+    public void visit(CallExpression callExpression) {
+        List<Expression> parameters = callExpression.getParameters();
+        Function callee = codeGenerator.getFunction(callExpression.getIdentifier());
+        if (callee == null) {
+            // built-in functions take their (single) argument in rdi
+            if (!parameters.isEmpty()) {
+                generate(parameters.get(0), Register.RDI);
+            }
+            functionGenerator.call(codeGenerator.getRuntimeSymbol(BuiltIns.getSymbol(callExpression.getIdentifier())));
+            return;
+        }
+
+        CallingConvention convention = codeGenerator.getCallingConvention();
+        List<Declaration> formals = callee.getFormalParameters();
+        int count = parameters.size();
+        int registers = Math.min(count, CallingConvention.ARGUMENT_REGISTERS.size());
+
+        // "out" arguments passed by address that are not assignable are passed as address of a temporary copy
+        int copies = 0;
+        for (int i = 0; i < count; ++i) {
+            if (convention.isPassedByAddress(formals.get(i)) && !(parameters.get(i) instanceof MemoryAccess)) {
+                ++copies;
+            }
+        }
+        int padding = functionGenerator.align(copies + count - registers);
+        int pushed = 0;
+        int[] temporaries = new int[count];
+        for (int i = 0; i < count; ++i) {
+            if (convention.isPassedByAddress(formals.get(i)) && !(parameters.get(i) instanceof MemoryAccess)) {
+                generate(parameters.get(i));
+                functionGenerator.push(Register.RAX, isReference(parameters.get(i)));
+                temporaries[i] = ++pushed;
+            }
+        }
+
+        // arguments are evaluated from right to left; register arguments without side effects (constants,
+        // variables and their addresses) that are not followed by arguments with side effects are loaded
+        // directly into their registers right before the call, the others are pushed and popped. Variables
+        // passed to copied "out" parameters are always loaded last, when the callee would read them.
+        boolean[] deferred = new boolean[count];
+        boolean sideEffects = false;
+        for (int i = 0; i < registers; ++i) {
+            if (convention.isCopied(formals.get(i)) && parameters.get(i) instanceof VariableAccess) {
+                deferred[i] = true;
+                continue;
+            }
+            sideEffects |= temporaries[i] == 0 && simpleArgument(formals.get(i), parameters.get(i)) == null;
+            deferred[i] = !sideEffects;
+        }
+        for (int i = count - 1; i >= 0; --i) {
+            Expression parameter = parameters.get(i);
+            Operand argument = Register.RAX;
+            boolean reference = false;
+            if (deferred[i]) {
+                continue;
+            } else if (temporaries[i] > 0) {
+                code.emit(Opcode.LEA, Register.RAX, Memory.of(Register.RSP, 8L * (pushed - temporaries[i])));
+            } else if (convention.isPassedByAddress(formals.get(i))) {
+                code.emit(Opcode.LEA, Register.RAX, address((MemoryAccess) parameter));
+            } else if (leaf(parameter) != null) {
+                argument = leaf(parameter);
+                reference = isReference(parameter);
+            } else {
+                generate(parameter);
+                reference = isReference(parameter);
+            }
+            functionGenerator.push(argument, reference);
+            ++pushed;
+        }
+        for (int i = 0; i < registers; ++i) {
+            Register register = CallingConvention.getRegister(i);
+            if (!deferred[i]) {
+                functionGenerator.pop(register);
+                --pushed;
+            } else if (temporaries[i] > 0) {
+                code.emit(Opcode.LEA, register, Memory.of(Register.RSP, 8L * (pushed - temporaries[i])));
+            } else {
+                code.emit(convention.isPassedByAddress(formals.get(i)) ? Opcode.LEA : Opcode.MOV, register,
+                        simpleArgument(formals.get(i), parameters.get(i)));
+            }
+        }
+
+        functionGenerator.callSafepoint(CodeGenerator.getFunctionLabel(callee.getIdentifier()));
+        functionGenerator.release(pushed + padding);
+        for (int i = 0; i < registers; ++i) {
+            if (convention.isCopied(formals.get(i)) && parameters.get(i) instanceof VariableAccess variable) {
+                code.emit(Opcode.MOV, directOperand(variable), convention.getCopyOutRegister(callee, formals.get(i)));
+            }
+        }
+    }
+
+    /**
+     * @return The operand of an argument that has no side effects: the leaf of a value or the direct address
+     * of an "out" argument passed by address (to be loaded with lea), or null if the argument has to be evaluated.
+     */
+    private Operand simpleArgument(Declaration formal, Expression parameter) {
+        if (codeGenerator.getCallingConvention().isPassedByAddress(formal)) {
+            return parameter instanceof MemoryAccess memoryAccess ? directOperand(memoryAccess) : null;
+        }
+        return leaf(parameter);
+    }
+}
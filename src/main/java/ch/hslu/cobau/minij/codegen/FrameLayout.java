@@ -0,0 +1,357 @@
+package ch.hslu.cobau.minij.codegen;
+
+import ch.hslu.cobau.minij.ast.BaseAstVisitor;
+import ch.hslu.cobau.minij.ast.entity.Declaration;
+import ch.hslu.cobau.minij.ast.entity.Function;
+import ch.hslu.cobau.minij.ast.entity.Unit;
+import ch.hslu.cobau.minij.ast.expression.CallExpression;
+import ch.hslu.cobau.minij.ast.expression.Expression;
+import ch.hslu.cobau.minij.ast.expression.VariableAccess;
+import ch.hslu.cobau.minij.ast.statement.WhileStatement;
+import ch.hslu.cobau.minij.cfg.CfgBuilder;
+import ch.hslu.cobau.minij.codegen.asm.Memory;
+import ch.hslu.cobau.minij.codegen.asm.Operand;
+import ch.hslu.cobau.minij.codegen.asm.Register;
+import ch.hslu.cobau.minij.dataflow.DefUse;
+import ch.hslu.cobau.minij.dataflow.InterferenceGraph;
+import ch.hslu.cobau.minij.dataflow.LocalSlots;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stack frame of a function. The home of a parameter passed in a register (see CallingConvention) or of a
+ * local is a register or a frame slot below the saved frame pointer at [rbp - 8 * (k + 1)]: the slots of
+ * the parameters come first, followed by the ones of the locals and the ones saving the callee saved
+ * registers the function uses. The pushed parameters live above the saved frame pointer at
+ * [rbp + 16 + 8 * j]. The home of an "out" parameter passed by address holds the address of the actual
+ * parameter.
+ *
+ * Only variables whose address is taken (passed to an "out" parameter passed by address) and variables
+ * holding references, which the stack maps of the garbage collector have to cover, need a frame slot. The
+ * others live in registers while there are any left, the ones used most often (weighted by loop nesting)
+ * first. In a leaf function, which calls nothing, these are caller saved registers the generated code does
+ * not use otherwise, and parameters passed in one of them stay there. Other functions use the callee saved
+ * registers, which the prologue saves and the epilogue restores, for variables used in a loop.
+ *
+ * Locals whose values are never live at the same time share a home (see InterferenceGraph), which is
+ * assigned greedily in declaration order. The frame size is rounded up to 16 bytes, so rsp stays aligned
+ * as System V requires after the prologue.
+ *
+ * A leaf function (see CallGraph) has no frame: its homes and temporaries are addressed relative to rsp in
+ * the 128 byte red zone below it, which System V reserves for such functions, and its pushed parameters
+ * start at [rsp + 8]. A leaf never reaches a safepoint, so the garbage collector does not need its frame.
+ *
+ * All locals are declared (and initialized) before the first statement, so the frame slots holding
+ * references are the same at every call.
+ */
+public final class FrameLayout {
+    private static final int RED_ZONE_SIZE = 128;
+    // the homes of leaf functions, whose code only uses rax, rcx and rdx besides the arrays of vectorized
+    // loops (see FunctionGenerator.vectorize)
+    private static final List<Register> LEAF_REGISTERS = List.of(
+            Register.RDI, Register.RSI, Register.R8, Register.R9, Register.R10, Register.R11);
+    private static final List<Register> CALLEE_SAVED_REGISTERS = List.of(
+            Register.RBX, Register.R12, Register.R13, Register.R14, Register.R15);
+    // a use in a loop counts as this many uses outside of it, per level of nesting (up to MAX_WEIGHT)
+    private static final long LOOP_WEIGHT = 8;
+    private static final long MAX_WEIGHT = 1L << 30;
+
+    private final CallingConvention convention;
+    private final Map<Declaration, Operand> homes = new HashMap<>();
+    private final Map<Register, Memory> savedRegisters = new LinkedHashMap<>();
+    private final Set<Register> homeRegisters = new HashSet<>();
+    private final List<Long> referenceOffsets = new ArrayList<>();
+    private final boolean frameless;
+    private final int registerParameters;
+    private final int locals;
+    private final int frameSlots;
+    private final int localRegisters;
+    private final int slots;
+    private final int frameSize;
+
+    /**
+     * @param leaf Whether the function calls neither other functions nor the runtime.
+     * @param redZone Whether the frame of a leaf function may be in the red zone, if its homes fit.
+     */
+    FrameLayout(Function function, Unit unit, CallingConvention convention, boolean leaf, boolean redZone) {
+        this.convention = convention;
+        LocalSlots localSlots = new LocalSlots(function);
+        int parameterCount = localSlots.getParameterCount();
+        registerParameters = Math.min(parameterCount, CallingConvention.ARGUMENT_REGISTERS.size());
+
+        // locals share a home if their live ranges do not overlap and either both or none of them hold
+        // references, so the slots of the stack maps never hold anything else
+        InterferenceGraph interference = new InterferenceGraph(new CfgBuilder().build(function), new DefUse(localSlots, unit));
+        List<List<Integer>> shared = new ArrayList<>();
+        List<Boolean> references = new ArrayList<>();
+        for (int local = parameterCount; local < localSlots.size(); ++local) {
+            boolean reference = GcTables.isReference(localSlots.getDeclaration(local).getType());
+            int home = 0;
+            while (home < shared.size() && (references.get(home) != reference
+                    || interferes(interference, local, shared.get(home)))) {
+                ++home;
+            }
+            if (home == shared.size()) {
+                shared.add(new ArrayList<>());
+                references.add(reference);
+            }
+            shared.get(home).add(local);
+        }
+        locals = localSlots.size() - parameterCount;
+
+        // the candidates for a register: the register parameters followed by the shared homes of the locals
+        Set<Declaration> addressTaken = getAddressTaken(function);
+        Map<Declaration, Long> uses = getWeightedUses(function);
+        int candidates = registerParameters + shared.size();
+        boolean[] allowed = new boolean[candidates];
+        long[] weights = new long[candidates];
+        for (int i = 0; i < registerParameters; ++i) {
+            Declaration parameter = localSlots.getDeclaration(i);
+            // the home of an "out" parameter passed by address holds an address, which is passed on as it is
+            allowed[i] = convention.isPassedByAddress(parameter)
+                    || !addressTaken.contains(parameter) && !GcTables.isReference(parameter.getType());
+            weights[i] = uses.getOrDefault(parameter, 0L);
+        }
+        for (int home = 0; home < shared.size(); ++home) {
+            allowed[registerParameters + home] = !references.get(home);
+            for (int local : shared.get(home)) {
+                allowed[registerParameters + home] &= !addressTaken.contains(localSlots.getDeclaration(local));
+                weights[registerParameters + home] += uses.getOrDefault(localSlots.getDeclaration(local), 0L);
+            }
+        }
+
+        Register[] registers = new Register[candidates];
+        List<Register> available = new ArrayList<>(leaf ? LEAF_REGISTERS : CALLEE_SAVED_REGISTERS);
+        long minimum = leaf ? 1 : LOOP_WEIGHT;
+        for (int i = 0; i < registerParameters; ++i) {
+            if (allowed[i] && weights[i] >= minimum && available.remove(CallingConvention.getRegister(i))) {
+                registers[i] = CallingConvention.getRegister(i);
+            }
+        }
+        List<Integer> order = new ArrayList<>();
+        for (int candidate = 0; candidate < candidates; ++candidate) {
+            if (allowed[candidate] && weights[candidate] >= minimum && registers[candidate] == null) {
+                order.add(candidate);
+            }
+        }
+        order.sort(Comparator.comparingLong(candidate -> -weights[candidate]));
+        for (int candidate : order) {
+            // a parameter does not move into the register of another one before that one has moved
+            List<Register> arguments = candidate < registerParameters
+                    ? CallingConvention.ARGUMENT_REGISTERS.subList(0, registerParameters) : List.of();
+            Register register = available.stream().filter(free -> !arguments.contains(free)).findFirst().orElse(null);
+            if (register != null) {
+                available.remove(register);
+                registers[candidate] = register;
+                homeRegisters.add(register);
+            }
+        }
+        for (int i = 0; i < registerParameters; ++i) {
+            if (registers[i] != null) {
+                homeRegisters.add(registers[i]);
+            }
+        }
+
+        int memoryParameters = 0;
+        for (int i = 0; i < registerParameters; ++i) {
+            memoryParameters += registers[i] == null ? 1 : 0;
+        }
+        int localHomes = 0;
+        for (int home = 0; home < shared.size(); ++home) {
+            localHomes += registers[registerParameters + home] == null ? 1 : 0;
+        }
+        List<Register> saved = new ArrayList<>();
+        if (!leaf) {
+            CALLEE_SAVED_REGISTERS.stream().filter(homeRegisters::contains).forEach(saved::add);
+        }
+        frameSlots = localHomes;
+        localRegisters = shared.size() - localHomes;
+        slots = memoryParameters + localHomes + saved.size();
+        frameless = leaf && redZone && fitsRedZone(0);
+        frameSize = frameless ? 0 : (8 * slots + 15) & ~15;
+
+        // without a frame, rsp takes the place of rbp, and the return address the one of the saved rbp
+        Register base = frameless ? Register.RSP : Register.RBP;
+        long pushed = frameless ? 8 : 16;
+        int slot = 0;
+        for (int i = 0; i < parameterCount; ++i) {
+            Declaration parameter = localSlots.getDeclaration(i);
+            if (i >= registerParameters) {
+                homes.put(parameter, Memory.of(base, pushed + 8L * (i - registerParameters)));
+            } else {
+                homes.put(parameter, registers[i] != null ? registers[i] : Memory.of(base, -8L * ++slot));
+            }
+            if (!convention.isPassedByAddress(parameter) && GcTables.isReference(parameter.getType())) {
+                referenceOffsets.add(((Memory) homes.get(parameter)).getDisplacement());
+            }
+        }
+        for (int home = 0; home < shared.size(); ++home) {
+            Operand operand = registers[registerParameters + home];
+            if (operand == null) {
+                operand = Memory.of(base, -8L * ++slot);
+                if (references.get(home)) {
+                    referenceOffsets.add(-8L * slot);
+                }
+            }
+            for (int local : shared.get(home)) {
+                homes.put(localSlots.getDeclaration(local), operand);
+            }
+        }
+        for (Register register : saved) {
+            savedRegisters.put(register, Memory.of(Register.RBP, -8L * ++slot));
+        }
+    }
+
+    private static boolean interferes(InterferenceGraph interference, int local, List<Integer> others) {
+        for (int other : others) {
+            if (interference.interfere(local, other)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the variables passed to "out" parameters that are passed by address
+    private Set<Declaration> getAddressTaken(Function function) {
+        Set<Declaration> addressTaken = new HashSet<>();
+        function.accept(new BaseAstVisitor() {
+            @Override
+            public void visit(CallExpression callExpression) {
+                Function callee = convention.getCallee(callExpression);
+                List<Expression> parameters = callExpression.getParameters();
+                for (int i = 0; callee != null && i < parameters.size(); ++i) {
+                    if (convention.isPassedByAddress(callee.getFormalParameters().get(i))
+                            && parameters.get(i) instanceof VariableAccess variable) {
+                        addressTaken.add(variable.getDeclaration());
+                    }
+                }
+                super.visit(callExpression);
+            }
+        });
+        return addressTaken;
+    }
+
+    // the number of accesses to each variable, those in loops weighted by LOOP_WEIGHT per level
+    private static Map<Declaration, Long> getWeightedUses(Function function) {
+        Map<Declaration, Long> uses = new HashMap<>();
+        function.accept(new BaseAstVisitor() {
+            private long weight = 1;
+
+            @Override
+            public void visit(WhileStatement whileStatement) {
+                long outer = weight;
+                weight = Math.min(outer * LOOP_WEIGHT, MAX_WEIGHT);
+                super.visit(whileStatement);
+                weight = outer;
+            }
+
+            @Override
+            public void visit(VariableAccess variable) {
+                uses.merge(variable.getDeclaration(), weight, Long::sum);
+            }
+        });
+        return uses;
+    }
+
+    /**
+     * @return true if the function does not set up a frame pointer (see class comment).
+     */
+    public boolean isFrameless() {
+        return frameless;
+    }
+
+    /**
+     * @return true if the frame slots and the given number of temporaries fit into the red zone.
+     */
+    public boolean fitsRedZone(int temporaries) {
+        return 8 * (slots + temporaries) <= RED_ZONE_SIZE;
+    }
+
+    /**
+     * @return The red zone slot of the temporary at the given position (innermost last) of a frameless
+     * function, below the frame slots.
+     */
+    public Memory getTemporary(int index) {
+        return Memory.of(Register.RSP, -8L * (slots + index + 1));
+    }
+
+    /**
+     * @return true if the declaration is a parameter or local of this function (i.e. not a global).
+     */
+    public boolean contains(Declaration declaration) {
+        return homes.containsKey(declaration);
+    }
+
+    /**
+     * @return true if the home of the declaration holds the address of the actual parameter, i.e. it is an
+     * "out" parameter passed by address.
+     */
+    public boolean holdsAddress(Declaration declaration) {
+        return contains(declaration) && convention.isPassedByAddress(declaration);
+    }
+
+    /**
+     * @return The number of parameters passed in registers, which the prologue moves to their homes.
+     */
+    public int getRegisterParameters() {
+        return registerParameters;
+    }
+
+    /**
+     * @return The register or frame slot holding the variable.
+     */
+    public Operand getHome(Declaration declaration) {
+        return homes.get(declaration);
+    }
+
+    /**
+     * @return The registers holding variables.
+     */
+    public Set<Register> getHomeRegisters() {
+        return homeRegisters;
+    }
+
+    /**
+     * @return The callee saved registers the prologue saves, and their frame slots.
+     */
+    public Map<Register, Memory> getSavedRegisters() {
+        return savedRegisters;
+    }
+
+    /**
+     * @return The offsets relative to rbp of the parameters and locals holding references (of functions with
+     * a frame).
+     */
+    public List<Long> getReferenceOffsets() {
+        return referenceOffsets;
+    }
+
+    /**
+     * @return The number of locals, which share getFrameSlots() slots and getLocalRegisters() registers.
+     */
+    public int getLocals() {
+        return locals;
+    }
+
+    public int getFrameSlots() {
+        return frameSlots;
+    }
+
+    public int getLocalRegisters() {
+        return localRegisters;
+    }
+
+    /**
+     * @return The number of bytes to reserve below the frame pointer (a multiple of 16, 0 if frameless).
+     */
+    public int getFrameSize() {
+        return frameSize;
+    }
+}
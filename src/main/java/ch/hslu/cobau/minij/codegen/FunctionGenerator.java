@@ -0,0 +1,708 @@
+package ch.hslu.cobau.minij.codegen;
+
+import ch.hslu.cobau.minij.ast.AstElement;
+import ch.hslu.cobau.minij.ast.BaseAstVisitor;
+import ch.hslu.cobau.minij.ast.entity.Declaration;
+import ch.hslu.cobau.minij.ast.entity.Function;
+import ch.hslu.cobau.minij.ast.expression.Expression;
+import ch.hslu.cobau.minij.ast.expression.MemoryAccess;
+import ch.hslu.cobau.minij.ast.expression.VariableAccess;
+import ch.hslu.cobau.minij.ast.statement.*;
+import ch.hslu.cobau.minij.ast.type.VoidType;
+import ch.hslu.cobau.minij.codegen.asm.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates the code of a single function: prologue, statements and epilogue. Expressions are
+ * delegated to the ExpressionGenerator, branch conditions to the ConditionGenerator.
+ *
+ * Temporaries are pushed and popped through this class, which keeps track of the ones holding
+ * references, so the stack map of each call that may allocate covers them. A leaf function without a
+ * frame (see FrameLayout) stores its temporaries in the red zone instead, so rsp never moves.
+ *
+ * In an instrumented build, the counters of ProfileCounters are incremented where the function is entered,
+ * at if statements and their then-branch, and where loops are entered and their bodies start. With a
+ * profile, the else-branch of an if statement falls through if it ran more often than the then-branch.
+ * With profiling, the function profiler is called after the prologue and before the epilogue. With heap
+ * profiling, each call that may allocate is preceded by the index of its allocation site (see HeapSites).
+ *
+ * Blocks are placed with the likely path falling through. Loops test their condition at the bottom, so
+ * an iteration takes a single conditional branch. A branch of an if statement that only returns, or
+ * that never ran according to the profile, is cold and placed in the cold section, after the code of all
+ * functions (see AssemblyFunction). Failing bounds checks jump to the shared routine of the unit, which is
+ * cold as well (see CodeGenerator.getIndexErrorLabel).
+ *
+ * Counted loops (see CountedLoop) are unrolled: a loop running a known small number of times is replaced
+ * by as many copies of its body, otherwise a loop running several copies per test of the condition
+ * precedes the original loop, which does the remaining iterations. Loops that never ran according to the
+ * profile are left alone.
+ *
+ * Counted loops adding up integer arrays (see VectorLoop) run two iterations at once in SSE registers
+ * instead, unless the build is instrumented. The vectorized loop only starts if all arrays are there and
+ * long enough for every index it touches, so it never fails a bounds check. Otherwise, the original loop
+ * runs all iterations and fails like it would without vectorization.
+ *
+ * String variables a loop only appends to are turned into growable buffers when the loop is entered
+ * (see StringAppends), and appending to them inside the loop does not copy the characters built so far.
+ */
+class FunctionGenerator extends BaseAstVisitor {
+    // code size limits of unrolling, in statements and expressions (see CountedLoop.getSize)
+    private static final int MAX_UNROLLED_SIZE = 64;
+    private static final int MAX_FULL_UNROLL = 16;
+    // the registers holding the arrays of a vectorized loop (see VectorLoop.MAX_ARRAYS)
+    private static final Register[] VECTOR_ARRAYS = {
+            Register.RDX, Register.RSI, Register.RDI, Register.R8, Register.R9, Register.R10, Register.R11 };
+
+    private final CodeGenerator codeGenerator;
+    private final Function function;
+    private final AssemblyFunction code;
+    private final FrameLayout frame;
+    private final ExpressionGenerator expressions;
+    private final ConditionGenerator conditions;
+    private int labelCount;
+    private Label returnLabel;
+    // the stack map of each safepoint by its return address, which GcTables needs in code order
+    private final Map<Label, List<Long>> safepoints = new HashMap<>();
+    // for each temporary on the stack (innermost last): whether it holds a reference
+    private final List<Boolean> temporaries = new ArrayList<>();
+    private int maxTemporaries;
+    // the string variables holding a buffer of an enclosing loop
+    private final Set<Declaration> builders = new HashSet<>();
+    private final Map<WhileStatement, CountedLoop> countedLoops;
+    // the descriptions of the allocation sites, by their index within the function (see addAllocationSites)
+    private final List<String> allocationSites = new ArrayList<>();
+
+    /**
+     * @param leaf Whether the function calls neither other functions nor the runtime (see CallGraph).
+     * @param redZone Whether a leaf function may run without a frame (see FrameLayout).
+     */
+    FunctionGenerator(CodeGenerator codeGenerator, Function function, boolean leaf, boolean redZone) {
+        this.codeGenerator = codeGenerator;
+        this.function = function;
+        this.code = new AssemblyFunction(CodeGenerator.getFunctionLabel(function.getIdentifier()));
+        this.frame = new FrameLayout(function, codeGenerator.getUnit(), codeGenerator.getCallingConvention(), leaf, redZone);
+        this.expressions = new ExpressionGenerator(this);
+        this.conditions = new ConditionGenerator(this, expressions);
+        expressions.setConditions(conditions);
+        this.countedLoops = codeGenerator.getUnrollFactor() > 1 || codeGenerator.isVectorizing()
+                ? CountedLoop.find(function, frame) : Map.of();
+    }
+
+    AssemblyFunction generate() {
+        returnLabel = newLabel();
+
+        if (!frame.isFrameless()) {
+            code.emit(Opcode.PUSH, Register.RBP);
+            code.emit(Opcode.MOV, Register.RBP, Register.RSP);
+        }
+        if (frame.getFrameSize() > 0) {
+            code.emit(Opcode.SUB, Register.RSP, new Immediate(frame.getFrameSize()));
+        }
+        frame.getSavedRegisters().forEach((register, slot) -> code.emit(Opcode.MOV, slot, register));
+        List<Declaration> parameters = function.getFormalParameters();
+        for (int i = 0; i < frame.getRegisterParameters(); ++i) {
+            if (frame.getHome(parameters.get(i)) != CallingConvention.getRegister(i)) {
+                code.emit(Opcode.MOV, frame.getHome(parameters.get(i)), CallingConvention.getRegister(i));
+            }
+        }
+        count(function, 0);
+        ProfilerTables profiler = codeGenerator.getProfilerTables();
+        if (profiler != null) {
+            code.emit(Opcode.LEA, Register.RDI, profiler.getStatistics(function));
+            call(codeGenerator.getRuntimeSymbol(BuiltIns.PROFILER_ENTER));
+        }
+
+        for (Statement statement : function.getStatements()) {
+            statement.accept(this);
+        }
+        if (!(function.getReturnType() instanceof VoidType)) {
+            code.emit(Opcode.MOV, Register.RAX, new Immediate(0)); // no return statement reached
+        }
+
+        code.label(returnLabel);
+        if (profiler != null) {
+            // the return value passes through
+            code.emit(Opcode.MOV, Register.RDI, Register.RAX);
+            call(codeGenerator.getRuntimeSymbol(BuiltIns.PROFILER_LEAVE));
+        }
+        // in parameter order, the copy-out register of a copied parameter is not the home of a later one (its
+        // own argument register or one that is not an argument register of the function)
+        CallingConvention convention = codeGenerator.getCallingConvention();
+        for (Declaration parameter : parameters) {
+            if (convention.isCopied(parameter)) {
+                code.emit(Opcode.MOV, convention.getCopyOutRegister(function, parameter), frame.getHome(parameter));
+            }
+        }
+        frame.getSavedRegisters().forEach((register, slot) -> code.emit(Opcode.MOV, register, slot));
+        if (!frame.isFrameless()) {
+            code.emit(Opcode.MOV, Register.RSP, Register.RBP);
+            code.emit(Opcode.POP, Register.RBP);
+        }
+        code.emit(Opcode.RET);
+        return code;
+    }
+
+    /**
+     * Adds the safepoints of the generated code to the tables of the garbage collector, in code order.
+     */
+    void addSafepoints(GcTables gcTables) {
+        addSafepoints(gcTables, code.getInstructions(), false);
+        addSafepoints(gcTables, code.getColdInstructions(), true);
+    }
+
+    /**
+     * Replaces the indices of the allocation sites within the function, which the generated code stores in
+     * _heap_site, by their indices in the given sites of the unit.
+     */
+    void addAllocationSites(HeapSites sites) {
+        addAllocationSites(sites, code.getInstructions());
+        addAllocationSites(sites, code.getColdInstructions());
+    }
+
+    CodeGenerator getCodeGenerator() {
+        return codeGenerator;
+    }
+
+    AssemblyFunction getCode() {
+        return code;
+    }
+
+    FrameLayout getFrame() {
+        return frame;
+    }
+
+    /**
+     * @return true if the temporaries of a frameless function fit into the red zone below its homes, i.e.
+     * the generated code is valid. Otherwise, the function has to be generated with a frame.
+     */
+    boolean fitsRedZone() {
+        return !frame.isFrameless() || frame.fitsRedZone(maxTemporaries);
+    }
+
+    Label newLabel() {
+        return new Label(".L" + labelCount++);
+    }
+
+    /**
+     * Pushes a temporary onto the stack.
+     *
+     * @param reference Whether the value is a reference (a string, array or record).
+     */
+    void push(Operand operand, boolean reference) {
+        if (frame.isFrameless()) {
+            code.emit(Opcode.MOV, frame.getTemporary(temporaries.size()), operand);
+        } else {
+            code.emit(Opcode.PUSH, operand);
+        }
+        temporaries.add(reference);
+        maxTemporaries = Math.max(maxTemporaries, temporaries.size());
+    }
+
+    void pop(Register register) {
+        temporaries.removeLast();
+        if (frame.isFrameless()) {
+            code.emit(Opcode.MOV, register, frame.getTemporary(temporaries.size()));
+        } else {
+            code.emit(Opcode.POP, register);
+        }
+    }
+
+    /**
+     * Removes the given number of temporaries (e.g. the arguments of a call) from the stack.
+     */
+    void release(int count) {
+        if (count > 0) {
+            code.emit(Opcode.ADD, Register.RSP, new Immediate(8L * count));
+            temporaries.subList(temporaries.size() - count, temporaries.size()).clear();
+        }
+    }
+
+    /**
+     * Reserves an unused slot if rsp would not be a multiple of 16 at a call (as System V requires) after
+     * the given number of further pushes.
+     *
+     * @return The number of reserved slots (0 or 1), which have to be released after the call.
+     */
+    int align(int pushes) {
+        if ((temporaries.size() + pushes) % 2 == 0) {
+            return 0;
+        }
+        code.emit(Opcode.SUB, Register.RSP, new Immediate(8));
+        temporaries.add(false);
+        return 1;
+    }
+
+    /**
+     * Emits a call of a routine that does not allocate.
+     */
+    void call(Label target) {
+        int padding = align(0);
+        code.emit(Opcode.CALL, target);
+        release(padding);
+    }
+
+    /**
+     * Tells the runtime the allocation site of the following call in a build with heap profiling.
+     *
+     * @param what What is allocated there, which tells sites on the same line apart.
+     */
+    void allocationSite(AstElement element, String what) {
+        if (codeGenerator.getHeapSites() != null) {
+            String description = function.getIdentifier() + ":" + element.getLine() + " " + what;
+            int site = allocationSites.indexOf(description);
+            if (site < 0) {
+                site = allocationSites.size();
+                allocationSites.add(description);
+            }
+            code.emit(Opcode.MOV, Memory.of(codeGenerator.getRuntimeSymbol(BuiltIns.HEAP_SITE)), new Immediate(site));
+        }
+    }
+
+    /**
+     * Emits a call, which may allocate and thus collect garbage: a safepoint, whose return address is
+     * recorded with the stack map of the frame at the time of the call.
+     */
+    void callSafepoint(Label target) {
+        int padding = align(0);
+        code.emit(Opcode.CALL, target);
+        Label returnAddress = newLabel();
+        code.label(returnAddress);
+        code.getDataReferences().add(returnAddress);
+
+        List<Long> offsets = new ArrayList<>(frame.getReferenceOffsets());
+        for (int i = 0; i < temporaries.size(); ++i) {
+            if (temporaries.get(i)) {
+                offsets.add(-frame.getFrameSize() - 8L * (i + 1));
+            }
+        }
+        safepoints.put(returnAddress, offsets);
+        release(padding);
+    }
+
+    /**
+     * Increments the given counter of the element in an instrumented build (see ProfileCounters).
+     */
+    void count(AstElement element, int counter) {
+        if (codeGenerator.isInstrumented()) {
+            code.emit(Opcode.ADD, codeGenerator.getProfileCounters().getCounter(element, counter), new Immediate(1));
+        }
+    }
+
+    // adds the safepoints of the instructions to the tables of the garbage collector, in code order
+    private void addSafepoints(GcTables gcTables, List<Instruction> instructions, boolean cold) {
+        for (Instruction instruction : instructions) {
+            List<Long> offsets = instruction.isLabel() ? safepoints.get(instruction.getLabel()) : null;
+            if (offsets != null) {
+                gcTables.addSafepoint(new Label(code.getLabel().getName() + instruction.getLabel().getName()), offsets, cold);
+            }
+        }
+    }
+
+    private void addAllocationSites(HeapSites sites, List<Instruction> instructions) {
+        Memory site = Memory.of(new Label(BuiltIns.HEAP_SITE));
+        for (int i = 0; i < instructions.size(); ++i) {
+            Instruction instruction = instructions.get(i);
+            if (instruction.getOpcode() == Opcode.MOV && instruction.getOperand(0).equals(site)) {
+                int index = (int) ((Immediate) instruction.getOperand(1)).getValue();
+                instructions.set(i, new Instruction(Opcode.MOV, site, new Immediate(sites.getSite(allocationSites.get(index)))));
+            }
+        }
+    }
+
+    /**
+     * Generates a cold block where it belongs, so it sees the same state (temporaries, string buffers), and
+     * moves its code to the cold instructions of the function.
+     */
+    private void cold(Runnable block) {
+        List<Instruction> instructions = code.getInstructions();
+        int start = instructions.size();
+        block.run();
+        List<Instruction> moved = instructions.subList(start, instructions.size());
+        code.getColdInstructions().addAll(moved);
+        moved.clear();
+    }
+
+    /**
+     * @return Whether a branch of the if statement rarely runs: according to the profile, if it never ran
+     * while the if statement did, and otherwise, if it does nothing but return.
+     */
+    private boolean isCold(IfStatement ifStatement, boolean thenBranch) {
+        Block elseBlock = ifStatement.getElseBlock();
+        Profile profile = codeGenerator.getProfile();
+        if (profile != null) {
+            long executions = profile.getExecutions(ifStatement);
+            long thenExecutions = profile.getThenExecutions(ifStatement);
+            return executions > 0 && (thenBranch ? thenExecutions : executions - thenExecutions) == 0;
+        }
+        List<Statement> statements = thenBranch ? ifStatement.getStatements()
+                : elseBlock instanceof IfStatement ? List.of() : elseBlock.getStatements();
+        return statements.size() == 1 && statements.get(0) instanceof ReturnStatement;
+    }
+
+    private static boolean returns(List<Statement> statements) {
+        return !statements.isEmpty() && statements.get(statements.size() - 1) instanceof ReturnStatement;
+    }
+
+    @Override
+    public void visit(DeclarationStatement declarationStatement) {
+        // locals are initialized with 0, false or null
+        code.emit(Opcode.MOV, frame.getHome(declarationStatement.getDeclaration()), new Immediate(0));
+    }
+
+    @Override
+    public void visit(AssignmentStatement assignment) {
+        List<Expression> appended = builders.isEmpty() ? null : StringAppends.getOperands(assignment);
+        Declaration builder = appended != null ? ((VariableAccess) assignment.getLeft()).getDeclaration() : null;
+        if (builders.contains(builder)) {
+            Operand home = frame.getHome(builder);
+            for (Expression operand : appended) {
+                expressions.generate(operand);
+                code.emit(Opcode.MOV, Register.RSI, Register.RAX);
+                code.emit(Opcode.MOV, Register.RDI, home);
+                allocationSite(assignment, "append to " + builder.getIdentifier());
+                callSafepoint(codeGenerator.getRuntimeSymbol(BuiltIns.STRING_APPEND));
+                code.emit(Opcode.MOV, home, Register.RAX);
+            }
+            return;
+        }
+
+        MemoryAccess left = (MemoryAccess) assignment.getLeft();
+        Expression right = assignment.getRight();
+        Operand target = expressions.directOperand(left);
+        if (target != null && left instanceof VariableAccess variable && expressions.assignInPlace(target, variable, right)) {
+            return;
+        }
+
+        Operand value = expressions.leaf(right);
+        if (value instanceof Immediate || target != null && value != null && !(target instanceof Memory && value instanceof Memory)) {
+            // constants are stored directly, variables too unless both are in memory
+            code.emit(Opcode.MOV, target != null ? target : expressions.address(left), value);
+            return;
+        }
+
+        expressions.generate(right);
+        if (target != null) {
+            code.emit(Opcode.MOV, target, Register.RAX);
+        } else {
+            push(Register.RAX, GcTables.isReference(codeGenerator.getType(right)));
+            target = expressions.address(left);
+            pop(Register.RDX);
+            code.emit(Opcode.MOV, target, Register.RDX);
+        }
+    }
+
+    @Override
+    public void visit(CallStatement callStatement) {
+        expressions.generate(callStatement.getCallExpression());
+    }
+
+    @Override
+    public void visit(ReturnStatement returnStatement) {
+        Expression expression = returnStatement.getExpression();
+        if (expression != null) {
+            expressions.generate(expression);
+        }
+        code.emit(Opcode.JMP, returnLabel);
+    }
+
+    @Override
+    public void visit(IfStatement ifStatement) {
+        count(ifStatement, 0);
+        Block elseBlock = ifStatement.getElseBlock();
+        if (isCold(ifStatement, true)) {
+            Label thenLabel = newLabel();
+            Label endLabel = newLabel();
+            conditions.branch(ifStatement.getExpression(), thenLabel, true);
+            if (elseBlock != null) {
+                elseBlock.accept(this);
+            }
+            code.label(endLabel);
+            cold(() -> {
+                code.label(thenLabel);
+                count(ifStatement, 1);
+                for (Statement statement : ifStatement.getStatements()) {
+                    statement.accept(this);
+                }
+                if (!returns(ifStatement.getStatements())) {
+                    code.emit(Opcode.JMP, endLabel);
+                }
+            });
+            return;
+        }
+        if (elseBlock != null && isCold(ifStatement, false)) {
+            Label elseLabel = newLabel();
+            Label endLabel = newLabel();
+            conditions.branch(ifStatement.getExpression(), elseLabel, false);
+            count(ifStatement, 1);
+            for (Statement statement : ifStatement.getStatements()) {
+                statement.accept(this);
+            }
+            code.label(endLabel);
+            cold(() -> {
+                code.label(elseLabel);
+                elseBlock.accept(this);
+                if (!returns(elseBlock.getStatements()) || elseBlock instanceof IfStatement) {
+                    code.emit(Opcode.JMP, endLabel);
+                }
+            });
+            return;
+        }
+
+        Profile profile = codeGenerator.getProfile();
+        if (ifStatement.getElseBlock() != null && profile != null
+                && profile.getExecutions(ifStatement) - profile.getThenExecutions(ifStatement) > profile.getThenExecutions(ifStatement)) {
+            // the else-branch is the likely one
+            Label thenLabel = newLabel();
+            Label endLabel = newLabel();
+            conditions.branch(ifStatement.getExpression(), thenLabel, true);
+            ifStatement.getElseBlock().accept(this);
+            code.emit(Opcode.JMP, endLabel);
+            code.label(thenLabel);
+            count(ifStatement, 1);
+            for (Statement statement : ifStatement.getStatements()) {
+                statement.accept(this);
+            }
+            code.label(endLabel);
+            return;
+        }
+
+        Label elseLabel = newLabel();
+        conditions.branch(ifStatement.getExpression(), elseLabel, false);
+        count(ifStatement, 1);
+        for (Statement statement : ifStatement.getStatements()) {
+            statement.accept(this);
+        }
+        if (ifStatement.getElseBlock() != null) {
+            Label endLabel = newLabel();
+            code.emit(Opcode.JMP, endLabel);
+            code.label(elseLabel);
+            ifStatement.getElseBlock().accept(this);
+            code.label(endLabel);
+        } else {
+            code.label(elseLabel);
+        }
+    }
+
+    @Override
+    public void visit(WhileStatement whileStatement) {
+        List<Declaration> started = new ArrayList<>();
+        for (Declaration declaration : StringAppends.find(whileStatement, frame)) {
+            if (builders.add(declaration)) {
+                Operand home = frame.getHome(declaration);
+                code.emit(Opcode.MOV, Register.RDI, home);
+                allocationSite(whileStatement, "buffer of " + declaration.getIdentifier());
+                callSafepoint(codeGenerator.getRuntimeSymbol(BuiltIns.STRING_BUILDER));
+                code.emit(Opcode.MOV, home, Register.RAX);
+                started.add(declaration);
+            }
+        }
+
+        CountedLoop counted = countedLoops.get(whileStatement);
+        Profile profile = codeGenerator.getProfile();
+        if (counted != null && profile != null && profile.getIterations(whileStatement) == 0) {
+            counted = null;
+        }
+        long trips = counted != null && codeGenerator.getUnrollFactor() > 1 ? counted.getTrips() : -1;
+        if (trips >= 0 && trips <= MAX_FULL_UNROLL && trips * counted.getSize() <= MAX_UNROLLED_SIZE) {
+            for (long i = 0; i < trips; ++i) {
+                iteration(whileStatement);
+            }
+            started.forEach(builders::remove);
+            return;
+        }
+        VectorLoop vector = counted != null && codeGenerator.isVectorizing() && !codeGenerator.isInstrumented()
+                ? VectorLoop.recognize(whileStatement, counted) : null;
+        if (vector != null) {
+            vectorize(vector);
+        } else if (counted != null) {
+            unroll(whileStatement, counted);
+        }
+
+        // bottom tested: the loop is entered at its condition, which branches back to the body
+        Label bodyLabel = newLabel();
+        Label conditionLabel = newLabel();
+        code.emit(Opcode.JMP, conditionLabel);
+        code.label(bodyLabel);
+        iteration(whileStatement);
+        code.label(conditionLabel);
+        conditions.branch(whileStatement.getExpression(), bodyLabel, true);
+        started.forEach(builders::remove);
+    }
+
+    private void iteration(WhileStatement whileStatement) {
+        count(whileStatement, 0);
+        for (Statement statement : whileStatement.getStatements()) {
+            statement.accept(this);
+        }
+    }
+
+    /**
+     * Emits a loop running the given number of copies of the body of a counted loop as long as the last of
+     * them still satisfies the condition, i.e. as long as i + (factor - 1) * step compares to the bound like
+     * i does. The original loop follows and does the remaining iterations (if the bound minus the distance
+     * overflows, all of them).
+     */
+    private void unroll(WhileStatement whileStatement, CountedLoop counted) {
+        int factor = Math.min(codeGenerator.getUnrollFactor(), MAX_UNROLLED_SIZE / counted.getSize());
+        if (factor < 2) {
+            return;
+        }
+        long distance;
+        Operand bound;
+        try {
+            distance = Math.multiplyExact(factor - 1, counted.getStep());
+            bound = counted.getBoundVariable() == null
+                    ? new Immediate(Math.subtractExact(counted.getBoundConstant(), distance)) : Register.RAX;
+        } catch (ArithmeticException e) {
+            return;
+        }
+        if (distance != (int) distance) {
+            return;
+        }
+
+        Label bodyLabel = newLabel();
+        Label conditionLabel = newLabel();
+        Label remainderLabel = newLabel();
+        code.emit(Opcode.JMP, conditionLabel);
+        code.label(bodyLabel);
+        for (int i = 0; i < factor; ++i) {
+            iteration(whileStatement);
+        }
+        code.label(conditionLabel);
+        if (bound == Register.RAX) {
+            code.emit(Opcode.MOV, Register.RAX, frame.getHome(counted.getBoundVariable()));
+            code.emit(Opcode.SUB, Register.RAX, new Immediate(distance));
+            code.emit(Opcode.JCC, Condition.O, remainderLabel);
+        } else if (((Immediate) bound).getValue() != (int) ((Immediate) bound).getValue()) {
+            code.emit(Opcode.MOV, Register.RAX, bound);
+            bound = Register.RAX;
+        }
+        code.emit(Opcode.CMP, frame.getHome(counted.getVariable()), bound);
+        code.emit(Opcode.JCC, counted.getCondition(), bodyLabel);
+        code.label(remainderLabel);
+    }
+
+    /**
+     * Emits a loop running two iterations per pass, the elements i and i + 1 in the lanes of an SSE register,
+     * as long as i + 1 still satisfies the condition, i.e. i &lt; limit with limit = n - 1 (for &lt;) or n (for
+     * &lt;=). It is only entered if 0 &lt;= i &lt; limit and each array is not null and longer than limit. The
+     * original loop follows and does the remaining iteration, or all of them if the loop was not entered.
+     * The induction variable lives in rcx, the limit in rax and the arrays in the VECTOR_ARRAYS that are not
+     * the home of a variable while the loop runs; xmm0 holds the partial sums of a reduction and xmm3 the
+     * invariant part of each element.
+     */
+    private void vectorize(VectorLoop vector) {
+        CountedLoop counted = vector.getCounted();
+        boolean exclusive = counted.getCondition() == Condition.L;
+        if (counted.getBoundVariable() == null && exclusive && counted.getBoundConstant() == Long.MIN_VALUE) {
+            return; // never entered
+        }
+        List<Register> arrayRegisters = new ArrayList<>(List.of(VECTOR_ARRAYS));
+        arrayRegisters.removeAll(frame.getHomeRegisters());
+        if (arrayRegisters.size() < vector.getArrays().size()) {
+            return; // the variables of a leaf function leave too few registers
+        }
+        Label bodyLabel = newLabel();
+        Label skipLabel = newLabel();
+
+        if (!vector.getInvariants().isEmpty()) {
+            long constant = 0;
+            List<Operand> variables = new ArrayList<>();
+            for (Expression invariant : vector.getInvariants()) {
+                Long value = CountedLoop.getConstant(invariant);
+                if (value != null) {
+                    constant += value;
+                } else {
+                    variables.add(home(((VariableAccess) invariant).getDeclaration()));
+                }
+            }
+            code.emit(Opcode.MOV, Register.RAX, new Immediate(constant));
+            for (Operand variable : variables) {
+                code.emit(Opcode.ADD, Register.RAX, variable);
+            }
+            code.emit(Opcode.MOVQ, XmmRegister.XMM3, Register.RAX);
+            code.emit(Opcode.PSHUFD, XmmRegister.XMM3, XmmRegister.XMM3, new Immediate(0x44)); // both lanes
+        }
+
+        code.emit(Opcode.MOV, Register.RCX, frame.getHome(counted.getVariable()));
+        code.emit(Opcode.TEST, Register.RCX, Register.RCX);
+        code.emit(Opcode.JCC, Condition.S, skipLabel);
+        if (counted.getBoundVariable() != null) {
+            code.emit(Opcode.MOV, Register.RAX, frame.getHome(counted.getBoundVariable()));
+            if (exclusive) {
+                code.emit(Opcode.SUB, Register.RAX, new Immediate(1));
+                code.emit(Opcode.JCC, Condition.O, skipLabel);
+            }
+        } else {
+            code.emit(Opcode.MOV, Register.RAX, new Immediate(counted.getBoundConstant() - (exclusive ? 1 : 0)));
+        }
+        code.emit(Opcode.CMP, Register.RCX, Register.RAX);
+        code.emit(Opcode.JCC, Condition.GE, skipLabel);
+
+        List<Declaration> arrays = vector.getArrays();
+        Map<Declaration, Register> registers = new HashMap<>();
+        for (int i = 0; i < arrays.size(); ++i) {
+            Register register = arrayRegisters.get(i);
+            registers.put(arrays.get(i), register);
+            code.emit(Opcode.MOV, register, home(arrays.get(i)));
+            code.emit(Opcode.TEST, register, register);
+            code.emit(Opcode.JCC, Condition.E, skipLabel);
+            code.emit(Opcode.CMP, Memory.of(register, 0), Register.RAX);
+            code.emit(Opcode.JCC, Condition.LE, skipLabel);
+        }
+        if (vector.getSum() != null) {
+            code.emit(Opcode.PXOR, XmmRegister.XMM0, XmmRegister.XMM0);
+        }
+
+        code.label(bodyLabel);
+        XmmRegister value = XmmRegister.XMM3;
+        for (Declaration array : vector.getLoads()) {
+            Memory elements = Memory.of(registers.get(array), Register.RCX, 8, 8).withSize(16);
+            if (value == XmmRegister.XMM1) {
+                code.emit(Opcode.MOVDQU, XmmRegister.XMM2, elements);
+                code.emit(Opcode.PADDQ, XmmRegister.XMM1, XmmRegister.XMM2);
+            } else {
+                code.emit(Opcode.MOVDQU, XmmRegister.XMM1, elements);
+                if (!vector.getInvariants().isEmpty()) {
+                    code.emit(Opcode.PADDQ, XmmRegister.XMM1, XmmRegister.XMM3);
+                }
+                value = XmmRegister.XMM1;
+            }
+        }
+        if (vector.getSum() != null) {
+            code.emit(Opcode.PADDQ, XmmRegister.XMM0, value);
+        } else {
+            code.emit(Opcode.MOVDQU, Memory.of(registers.get(vector.getTarget()), Register.RCX, 8, 8).withSize(16), value);
+        }
+        code.emit(Opcode.ADD, Register.RCX, new Immediate(2));
+        code.emit(Opcode.CMP, Register.RCX, Register.RAX);
+        code.emit(Opcode.JCC, Condition.L, bodyLabel);
+
+        code.emit(Opcode.MOV, frame.getHome(counted.getVariable()), Register.RCX);
+        if (vector.getSum() != null) {
+            code.emit(Opcode.PSHUFD, XmmRegister.XMM1, XmmRegister.XMM0, new Immediate(0xEE)); // upper lane
+            code.emit(Opcode.PADDQ, XmmRegister.XMM0, XmmRegister.XMM1);
+            code.emit(Opcode.MOVQ, Register.RAX, XmmRegister.XMM0);
+            code.emit(Opcode.ADD, home(vector.getSum()), Register.RAX);
+        }
+        code.label(skipLabel);
+    }
+
+    // the home of a local or global variable, which is not an out parameter
+    private Operand home(Declaration variable) {
+        return frame.contains(variable) ? frame.getHome(variable) : Memory.of(CodeGenerator.getGlobalLabel(variable));
+    }
+
+    @Override
+    public void visit(Block block) {
+        for (Statement statement : block.getStatements()) {
+            statement.accept(this);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package ch.hslu.cobau.minij.codegen;
+
+import ch.hslu.cobau.minij.ast.entity.Declaration;
+import ch.hslu.cobau.minij.ast.entity.Struct;
+import ch.hslu.cobau.minij.ast.type.ArrayType;
+import ch.hslu.cobau.minij.ast.type.RecordType;
+import ch.hslu.cobau.minij.ast.type.StringType;
+import ch.hslu.cobau.minij.ast.type.Type;
+import ch.hslu.cobau.minij.codegen.asm.DataBlock;
+import ch.hslu.cobau.minij.codegen.asm.Label;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The tables the garbage collector of the runtime (see src/runtime/asm/heap.asm) uses to find all references
+ * of a program. Strings, arrays and records are references.
+ * <ul>
+ * <li>gc_roots: the addresses of the global root table and of the stack map table, passed to _gc_init,</li>
+ * <li>gc_globals: the number of global variables holding references, followed by their addresses,</li>
+ * <li>gc_sites: the number of safepoints (calls that may allocate), followed by their return addresses
+ * and stack maps, in code order (i.e. sorted by return address): those of .text, then those of the cold
+ * section following it,</li>
+ * <li>gc_map&lt;n&gt;: a stack map, the number of frame slots holding references followed by their offsets
+ * relative to rbp (parameters, locals and the temporaries pushed at the time of the call),</li>
+ * <li>t_&lt;struct&gt;: the type descriptor of records, the number of fields followed by a bitmap (one quad
+ * word per 64 fields) of the fields holding references.</li>
+ * </ul>
+ */
+class GcTables {
+    static final String ROOTS = "gc_roots";
+
+    // header of objects that are not on the heap (string literals), which the collector does not trace
+    static final long STATIC_OBJECT = 4;
+
+    private record Safepoint(Label returnAddress, Label map) { }
+
+    private final List<Label> globals = new ArrayList<>();
+    private final List<Safepoint> safepoints = new ArrayList<>();
+    private final List<Safepoint> coldSafepoints = new ArrayList<>();
+    private final Map<List<Long>, Label> maps = new LinkedHashMap<>();
+
+    static boolean isReference(Type type) {
+        return type instanceof StringType || type instanceof ArrayType || type instanceof RecordType;
+    }
+
+    static Label getDescriptorLabel(Struct struct) {
+        return new Label("t_" + struct.getIdentifier());
+    }
+
+    void addGlobal(Label global) {
+        globals.add(global);
+    }
+
+    /**
+     * Records the stack map of a call. Safepoints have to be added in code order, separately for each section.
+     *
+     * @param returnAddress The qualified label following the call.
+     * @param offsets The offsets relative to rbp of the frame slots holding references.
+     * @param cold Whether the call is in the cold section (see AssemblyFunction).
+     */
+    void addSafepoint(Label returnAddress, List<Long> offsets, boolean cold) {
+        Label map = maps.computeIfAbsent(List.copyOf(offsets), key -> new Label("gc_map" + maps.size()));
+        (cold ? coldSafepoints : safepoints).add(new Safepoint(returnAddress, map));
+    }
+
+    /**
+     * Appends the tables and the type descriptors of the given structs.
+     */
+    void emit(List<DataBlock> section, Collection<Struct> structs) {
+        section.add(new DataBlock(new Label(ROOTS), 8).quad(new Label("gc_globals")).quad(new Label("gc_sites")));
+
+        DataBlock globalTable = new DataBlock(new Label("gc_globals"), 8).quad(globals.size());
+        globals.forEach(globalTable::quad);
+        section.add(globalTable);
+
+        DataBlock siteTable = new DataBlock(new Label("gc_sites"), 8).quad(safepoints.size() + coldSafepoints.size());
+        for (Safepoint safepoint : safepoints) {
+            siteTable.quad(safepoint.returnAddress()).quad(safepoint.map());
+        }
+        for (Safepoint safepoint : coldSafepoints) {
+            siteTable.quad(safepoint.returnAddress()).quad(safepoint.map());
+        }
+        section.add(siteTable);
+
+        for (Map.Entry<List<Long>, Label> map : maps.entrySet()) {
+            DataBlock block = new DataBlock(map.getValue(), 8).quad(map.getKey().size());
+            map.getKey().forEach(block::quad);
+            section.add(block);
+        }
+
+        for (Struct struct : structs) {
+            List<Declaration> fields = struct.getDeclarations();
+            long[] bitmap = new long[(fields.size() + 63) / 64];
+            for (int i = 0; i < fields.size(); ++i) {
+                if (isReference(fields.get(i).getType())) {
+                    bitmap[i / 64] |= 1L << (i % 64);
+                }
+            }
+            DataBlock descriptor = new DataBlock(getDescriptorLabel(struct), 8).quad(fields.size());
+            for (long word : bitmap) {
+                descriptor.quad(word);
+            }
+            section.add(descriptor);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package ch.hslu.cobau.minij.codegen;
+
+import ch.hslu.cobau.minij.codegen.asm.DataBlock;
+import ch.hslu.cobau.minij.codegen.asm.Label;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The allocation sites of a build with heap profiling (see CodeGenerator.setHeapProfiling), which the
+ * runtime keeps statistics for (see src/runtime/asm/heap.asm). Before each call into the runtime that may
+ * allocate, the compiled code stores the index of its site in _heap_site. A site is described by the
+ * function, the source line and what is allocated there; calls with the same description share a site.
+ * The tables passed to _heap_profile_init:
+ * <ul>
+ * <li>heap_site_table: the number of sites, the address of heap_sites and the addresses of the
+ * descriptions,</li>
+ * <li>heap_sites: the allocations and their bytes (headers included) of each site, which the runtime
+ * updates,</li>
+ * <li>heap_site&lt;n&gt;: the description of a site, its length followed by the characters.</li>
+ * </ul>
+ */
+class HeapSites {
+    static final String TABLE = "heap_site_table";
+    static final String SITES = "heap_sites";
+    private static final int SITE_SIZE = 16;
+
+    private final List<String> descriptions = new ArrayList<>();
+    private final Map<String, Integer> indices = new HashMap<>();
+
+    /**
+     * @return The index of the site with the given description, which is added if it is new.
+     */
+    int getSite(String description) {
+        return indices.computeIfAbsent(description, d -> {
+            descriptions.add(d);
+            return descriptions.size() - 1;
+        });
+    }
+
+    void emit(List<DataBlock> readOnlyData, List<DataBlock> bss) {
+        DataBlock table = new DataBlock(new Label(TABLE), 8).quad(descriptions.size()).quad(new Label(SITES));
+        readOnlyData.add(table);
+        for (int i = 0; i < descriptions.size(); ++i) {
+            Label name = new Label("heap_site" + i);
+            byte[] bytes = descriptions.get(i).getBytes(StandardCharsets.UTF_8);
+            table.quad(name);
+            readOnlyData.add(new DataBlock(name, 8).quad(bytes.length).bytes(bytes));
+        }
+        bss.add(DataBlock.reserve(new Label(SITES), 8, (long) SITE_SIZE * Math.max(1, descriptions.size())));
+    }
+}
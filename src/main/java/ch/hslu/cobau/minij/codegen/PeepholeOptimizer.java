@@ -0,0 +1,287 @@
+package ch.hslu.cobau.minij.codegen;
+
+import ch.hslu.cobau.minij.codegen.asm.*;
+
+import java.util.*;
+
+/**
+ * Rewrites short windows (up to three instructions) of the generated code with a table of rules until
+ * none of them applies anymore. The rules only look at straight-line code and at the relation between
+ * jumps and labels, so they rely on two properties of the code generator: flags are consumed by the
+ * instruction directly following the cmp/test that sets them, and registers are dead at labels unless
+ * the preceding instruction falls through.
+ *
+ * The number of times each rule fired is accumulated over all optimized functions. An optimizer is not
+ * thread-safe, functions optimized in parallel need one each, whose counts can be added up (see addCounts).
+ */
+public class PeepholeOptimizer {
+    private interface Rewrite {
+        /**
+         * @return The replacement of the window or null, if the rule does not apply.
+         */
+        List<Instruction> apply(List<Instruction> window);
+    }
+
+    private record Rule(String name, int window, Rewrite rewrite) { }
+
+    private static final int MAX_WINDOW = 3;
+
+    private final List<Rule> rules = new ArrayList<>();
+    private final Map<String, Integer> counts = new LinkedHashMap<>();
+    private Set<Label> referencedLabels;
+
+    public PeepholeOptimizer() {
+        rule("self-move", 1, PeepholeOptimizer::selfMove);
+        rule("unused-label", 1, this::unusedLabel);
+        rule("compare-zero", 1, PeepholeOptimizer::compareZero);
+        rule("push-pop", 2, PeepholeOptimizer::pushPop);
+        rule("dead-move", 2, PeepholeOptimizer::deadMove);
+        rule("store-load", 2, PeepholeOptimizer::storeLoad);
+        rule("jump-to-next", 2, PeepholeOptimizer::jumpToNext);
+        rule("unreachable", 2, PeepholeOptimizer::unreachable);
+        rule("forward-move", 3, PeepholeOptimizer::forwardMove);
+        rule("forward-push", 3, PeepholeOptimizer::forwardPush);
+        rule("push-pop-around", 3, PeepholeOptimizer::pushPopAround);
+        rule("branch-over-jump", 3, PeepholeOptimizer::branchOverJump);
+        rule("redundant-test", 3, PeepholeOptimizer::redundantTest);
+    }
+
+    private void rule(String name, int window, Rewrite rewrite) {
+        rules.add(new Rule(name, window, rewrite));
+        counts.put(name, 0);
+    }
+
+    /**
+     * @return The number of times each rule fired, in table order.
+     */
+    public Map<String, Integer> getCounts() {
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * Adds the number of times each rule fired in another optimizer to the counts of this one.
+     */
+    public void addCounts(PeepholeOptimizer other) {
+        other.counts.forEach((rule, count) -> counts.merge(rule, count, Integer::sum));
+    }
+
+    /**
+     * Optimizes the instructions and the cold instructions of the function, which jump to each other's labels.
+     */
+    public void optimize(AssemblyFunction function) {
+        List<Instruction> code = new ArrayList<>(function.getInstructions());
+        List<Instruction> coldCode = new ArrayList<>(function.getColdInstructions());
+        boolean changed;
+        do {
+            referencedLabels = new HashSet<>(function.getDataReferences());
+            addReferencedLabels(code);
+            addReferencedLabels(coldCode);
+            changed = rewrite(code);
+            changed |= rewrite(coldCode);
+        } while (changed);
+        function.setInstructions(code);
+        function.setColdInstructions(coldCode);
+    }
+
+    private void addReferencedLabels(List<Instruction> code) {
+        for (Instruction instruction : code) {
+            if (!instruction.isLabel()) {
+                for (Operand operand : instruction.getOperands()) {
+                    if (operand instanceof Label label) {
+                        referencedLabels.add(label);
+                    }
+                }
+            }
+        }
+    }
+
+    // applies the first matching rule at each position, returns whether any rule fired
+    private boolean rewrite(List<Instruction> code) {
+        boolean changed = false;
+        for (int i = 0; i < code.size(); ++i) {
+            for (Rule rule : rules) {
+                if (i + rule.window() > code.size()) {
+                    continue;
+                }
+                List<Instruction> window = code.subList(i, i + rule.window());
+                List<Instruction> replacement = rule.rewrite().apply(window);
+                if (replacement != null) {
+                    window.clear();
+                    window.addAll(replacement);
+                    counts.merge(rule.name(), 1, Integer::sum);
+                    changed = true;
+                    i = Math.max(-1, i - MAX_WINDOW); // revisit windows overlapping the rewrite
+                    break;
+                }
+            }
+        }
+        return changed;
+    }
+
+    // mov r, r
+    private static List<Instruction> selfMove(List<Instruction> window) {
+        Instruction move = window.get(0);
+        return move.getOpcode() == Opcode.MOV && move.getOperand(0) == move.getOperand(1) ? List.of() : null;
+    }
+
+    // labels that are not the target of any jump
+    private List<Instruction> unusedLabel(List<Instruction> window) {
+        Instruction label = window.get(0);
+        return label.isLabel() && !referencedLabels.contains(label.getLabel()) ? List.of() : null;
+    }
+
+    // cmp r, 0  =>  test r, r
+    private static List<Instruction> compareZero(List<Instruction> window) {
+        Instruction compare = window.get(0);
+        if (compare.getOpcode() == Opcode.CMP && compare.getOperand(0) instanceof Register register
+                && compare.getOperand(1).equals(new Immediate(0))) {
+            return List.of(new Instruction(Opcode.TEST, register, register));
+        }
+        return null;
+    }
+
+    // push x; pop r  =>  mov r, x
+    private static List<Instruction> pushPop(List<Instruction> window) {
+        Instruction push = window.get(0);
+        Instruction pop = window.get(1);
+        if (push.getOpcode() != Opcode.PUSH || pop.getOpcode() != Opcode.POP) {
+            return null;
+        }
+        if (push.getOperand(0) == pop.getOperand(0)) {
+            return List.of();
+        }
+        return List.of(new Instruction(Opcode.MOV, pop.getOperand(0), push.getOperand(0)));
+    }
+
+    // mov r, x; <overwrite r>  =>  <overwrite r>
+    private static List<Instruction> deadMove(List<Instruction> window) {
+        Instruction move = window.get(0);
+        if (isRegisterMove(move) && window.get(1).overwrites((Register) move.getOperand(0))) {
+            return List.of(window.get(1));
+        }
+        return null;
+    }
+
+    // mov [m], r; mov r2, [m]  =>  mov [m], r; mov r2, r
+    private static List<Instruction> storeLoad(List<Instruction> window) {
+        Instruction store = window.get(0);
+        Instruction load = window.get(1);
+        if (store.getOpcode() == Opcode.MOV && load.getOpcode() == Opcode.MOV
+                && store.getOperand(0) instanceof Memory memory && memory.getSize() == 8
+                && store.getOperand(1) instanceof Register value && load.getOperand(0) instanceof Register
+                && memory.equals(load.getOperand(1))) {
+            return List.of(store, new Instruction(Opcode.MOV, load.getOperand(0), value));
+        }
+        return null;
+    }
+
+    // jmp l; l:  =>  l:
+    private static List<Instruction> jumpToNext(List<Instruction> window) {
+        Instruction jump = window.get(0);
+        Instruction label = window.get(1);
+        if ((jump.getOpcode() == Opcode.JMP || jump.getOpcode() == Opcode.JCC)
+                && label.isLabel() && label.getLabel().equals(jump.getLabel())) {
+            return List.of(label);
+        }
+        return null;
+    }
+
+    // instructions after jmp or ret up to the next label are never executed
+    private static List<Instruction> unreachable(List<Instruction> window) {
+        Instruction transfer = window.get(0);
+        if (transfer.getOpcode().isUnconditionalTransfer() && !window.get(1).isLabel()) {
+            return List.of(transfer);
+        }
+        return null;
+    }
+
+    // mov r1, x; mov r2, r1; <overwrite r1>  =>  mov r2, x; <overwrite r1>
+    private static List<Instruction> forwardMove(List<Instruction> window) {
+        Instruction first = window.get(0);
+        Instruction copy = window.get(1);
+        if (isRegisterMove(first) && copy.getOpcode() == Opcode.MOV && copy.getOperand(0) instanceof Register target
+                && copy.getOperand(1) == first.getOperand(0) && window.get(2).overwrites((Register) first.getOperand(0))) {
+            return List.of(new Instruction(first.getOpcode(), target, first.getOperand(1)), window.get(2));
+        }
+        return null;
+    }
+
+    // mov r, x; push r; <overwrite r>  =>  push x  (x a register, 32-bit immediate or quad word memory)
+    private static List<Instruction> forwardPush(List<Instruction> window) {
+        Instruction move = window.get(0);
+        Instruction push = window.get(1);
+        if (move.getOpcode() == Opcode.MOV && move.getOperand(0) instanceof Register register
+                && push.getOpcode() == Opcode.PUSH && push.getOperand(0) == register
+                && window.get(2).overwrites(register)) {
+            Operand source = move.getOperand(1);
+            boolean pushable = source instanceof Register
+                    || source instanceof Immediate immediate && immediate.isInt32()
+                    || source instanceof Memory memory && memory.getSize() == 8 && !memory.uses(Register.RSP);
+            if (pushable) {
+                return List.of(new Instruction(Opcode.PUSH, source), window.get(2));
+            }
+        }
+        return null;
+    }
+
+    // push r; <independent of r and rsp>; pop r  =>  <independent of r and rsp>
+    private static List<Instruction> pushPopAround(List<Instruction> window) {
+        Instruction push = window.get(0);
+        Instruction middle = window.get(1);
+        Instruction pop = window.get(2);
+        if (push.getOpcode() == Opcode.PUSH && push.getOperand(0) instanceof Register register
+                && pop.getOpcode() == Opcode.POP && pop.getOperand(0) == register
+                && isStraightLine(middle) && !middle.reads(register) && !middle.writes(register)
+                && !middle.reads(Register.RSP) && !middle.writes(Register.RSP)) {
+            return List.of(middle);
+        }
+        return null;
+    }
+
+    // jcc l1; jmp l2; l1:  =>  jncc l2; l1:
+    private static List<Instruction> branchOverJump(List<Instruction> window) {
+        Instruction branch = window.get(0);
+        Instruction jump = window.get(1);
+        Instruction label = window.get(2);
+        if (branch.getOpcode() == Opcode.JCC && jump.getOpcode() == Opcode.JMP && label.isLabel()
+                && label.getLabel().equals(branch.getLabel())) {
+            return List.of(new Instruction(Opcode.JCC, branch.getCondition().negate(), jump.getLabel()), label);
+        }
+        return null;
+    }
+
+    // <arithmetic on r>; test r, r; jcc/setcc  =>  <arithmetic on r>; jcc/setcc  (zero and sign flag only)
+    private static List<Instruction> redundantTest(List<Instruction> window) {
+        Instruction arithmetic = window.get(0);
+        Instruction test = window.get(1);
+        Instruction user = window.get(2);
+        boolean setsResultFlags = switch (arithmetic.getOpcode()) {
+            case ADD, SUB, AND, OR, XOR, NEG -> true;
+            default -> false;
+        };
+        if (setsResultFlags && arithmetic.getOperand(0) instanceof Register register
+                && test.getOpcode() == Opcode.TEST && test.getOperand(0) == register && test.getOperand(1) == register
+                && user.readsFlags()) {
+            return switch (user.getCondition()) {
+                case E, NE, S, NS -> List.of(arithmetic, user);
+                default -> null;
+            };
+        }
+        return null;
+    }
+
+    // mov, movzx or lea into a register
+    private static boolean isRegisterMove(Instruction instruction) {
+        return switch (instruction.getOpcode()) {
+            case MOV, MOVZX, LEA -> instruction.getOperand(0) instanceof Register register && instruction.overwrites(register);
+            default -> false;
+        };
+    }
+
+    private static boolean isStraightLine(Instruction instruction) {
+        return switch (instruction.getOpcode()) {
+            case LABEL, JMP, JCC, CALL, RET -> false;
+            default -> true;
+        };
+    }
+}
@@ -0,0 +1,109 @@
+package ch.hslu.cobau.minij.codegen;
+
+import ch.hslu.cobau.minij.ast.entity.Function;
+import ch.hslu.cobau.minij.ast.statement.IfStatement;
+import ch.hslu.cobau.minij.ast.statement.WhileStatement;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The execution counts written by a program built with instrumentation (see CodeGenerator.setInstrumented)
+ * when it exits: the number of counters, the checksum of their numbering and the counters (see
+ * ProfileCounters), all little endian quad words. The counts of several runs of the same program can be
+ * merged.
+ *
+ * A build using a profile lays out both branches of an if statement with the more frequent one falling
+ * through, and places the functions that never ran after the others.
+ */
+public class Profile {
+    private final Path file;
+    private final long checksum;
+    private final long[] counts;
+    private ProfileCounters counters;
+
+    private Profile(Path file, long checksum, long[] counts) {
+        this.file = file;
+        this.checksum = checksum;
+        this.counts = counts;
+    }
+
+    /**
+     * @throws IOException If the file cannot be read or is not a profile, with a message naming the file.
+     */
+    public static Profile read(Path file) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new IOException("cannot read profile " + file, e);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < ProfileCounters.HEADER_SIZE) {
+            throw new IOException("invalid profile " + file);
+        }
+        long size = buffer.getLong();
+        long checksum = buffer.getLong();
+        if (size < 0 || size != buffer.remaining() / 8 || buffer.remaining() % 8 != 0) {
+            throw new IOException("invalid profile " + file);
+        }
+        long[] counts = new long[(int) size];
+        buffer.asLongBuffer().get(counts);
+        return new Profile(file, checksum, counts);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return The sum of the counts of both profiles, which have to be bound to the same unit.
+     */
+    Profile merge(Profile other) {
+        if (counters == null || counters != other.counters) {
+            throw new IllegalArgumentException("profiles of different programs");
+        }
+        long[] sum = new long[counts.length];
+        for (int i = 0; i < sum.length; ++i) {
+            sum[i] = counts[i] + other.counts[i];
+        }
+        Profile profile = new Profile(file, checksum, sum);
+        profile.counters = counters;
+        return profile;
+    }
+
+    /**
+     * Associates the counts with the elements of the unit being compiled.
+     *
+     * @return false if the profile was written by a different program (or version of it).
+     */
+    boolean bind(ProfileCounters counters) {
+        if (checksum != counters.getChecksum() || counts.length != counters.size()) {
+            return false;
+        }
+        this.counters = counters;
+        return true;
+    }
+
+    /**
+     * @return The number of calls of the function.
+     */
+    long getCalls(Function function) {
+        return counts[counters.getIndex(function)];
+    }
+
+    long getExecutions(IfStatement ifStatement) {
+        return counts[counters.getIndex(ifStatement)];
+    }
+
+    long getThenExecutions(IfStatement ifStatement) {
+        return counts[counters.getIndex(ifStatement) + 1];
+    }
+
+    long getIterations(WhileStatement whileStatement) {
+        return counts[counters.getIndex(whileStatement)];
+    }
+}
@@ -0,0 +1,99 @@
+package ch.hslu.cobau.minij.codegen;
+
+import ch.hslu.cobau.minij.ast.AstElement;
+import ch.hslu.cobau.minij.ast.BaseAstVisitor;
+import ch.hslu.cobau.minij.ast.entity.Function;
+import ch.hslu.cobau.minij.ast.entity.Unit;
+import ch.hslu.cobau.minij.ast.statement.IfStatement;
+import ch.hslu.cobau.minij.ast.statement.WhileStatement;
+import ch.hslu.cobau.minij.codegen.asm.DataBlock;
+import ch.hslu.cobau.minij.codegen.asm.Label;
+import ch.hslu.cobau.minij.codegen.asm.Memory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The execution counters of an instrumented build (see Profile), numbered in source order:
+ * <ul>
+ * <li>a function: its calls,</li>
+ * <li>an if statement: its executions, then the executions of its then-branch,</li>
+ * <li>a while loop: the iterations of its body.</li>
+ * </ul>
+ * The checksum covers the numbering, so a profile of a different program is recognized.
+ *
+ * The counters are quad words in .bss, preceded by their number and the checksum, which _profile_init
+ * (see src/runtime/asm/profile.asm) copies there from profile_table, so the runtime can write them to
+ * the profile file at exit as they are.
+ */
+class ProfileCounters extends BaseAstVisitor {
+    static final String TABLE = "profile_table";
+    static final String COUNTERS = "profile_counters";
+    static final int HEADER_SIZE = 16;
+
+    private final Map<AstElement, Integer> indices = new IdentityHashMap<>();
+    private final CRC32 checksum = new CRC32();
+    private int size;
+
+    ProfileCounters(Unit unit) {
+        unit.getFunctions().forEach(function -> function.accept(this));
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getChecksum() {
+        return checksum.getValue();
+    }
+
+    /**
+     * @return The number of the first counter of the element or -1, if it has none.
+     */
+    int getIndex(AstElement element) {
+        return indices.getOrDefault(element, -1);
+    }
+
+    /**
+     * @return The given counter (0 or 1, see class comment) of the element.
+     */
+    Memory getCounter(AstElement element, int counter) {
+        return Memory.of(new Label(COUNTERS)).offset(HEADER_SIZE + 8L * (getIndex(element) + counter));
+    }
+
+    /**
+     * Appends profile_table (number of counters, checksum and the address of the counters) and reserves
+     * the counters.
+     */
+    void emit(List<DataBlock> readOnlyData, List<DataBlock> bss) {
+        readOnlyData.add(new DataBlock(new Label(TABLE), 8).quad(size).quad(getChecksum()).quad(new Label(COUNTERS)));
+        bss.add(DataBlock.reserve(new Label(COUNTERS), 8, HEADER_SIZE + 8L * size));
+    }
+
+    private void add(AstElement element, int counters, String description) {
+        indices.put(element, size);
+        size += counters;
+        checksum.update((description + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void visit(Function function) {
+        add(function, 1, "function " + function.getIdentifier());
+        super.visit(function);
+    }
+
+    @Override
+    public void visit(IfStatement ifStatement) {
+        add(ifStatement, 2, "if");
+        super.visit(ifStatement);
+    }
+
+    @Override
+    public void visit(WhileStatement whileStatement) {
+        add(whileStatement, 1, "while");
+        super.visit(whileStatement);
+    }
+}
@@ -0,0 +1,57 @@
+package ch.hslu.cobau.minij.codegen;
+
+import ch.hslu.cobau.minij.ast.entity.Function;
+import ch.hslu.cobau.minij.codegen.asm.DataBlock;
+import ch.hslu.cobau.minij.codegen.asm.Label;
+import ch.hslu.cobau.minij.codegen.asm.Memory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The tables of the function profiler of the runtime (see src/runtime/asm/profile.asm), which a build with
+ * profiling (see CodeGenerator.setProfiling) passes to _profiler_init:
+ * <ul>
+ * <li>profiler_table: the number of functions, the address of profiler_functions and the addresses of the
+ * names of the functions,</li>
+ * <li>profiler_functions: the statistics of each function, which the runtime updates: calls, inclusive and
+ * exclusive ticks and the number of active calls (four quad words),</li>
+ * <li>profiler_name&lt;n&gt;: the name of a function, its length followed by the characters.</li>
+ * </ul>
+ */
+class ProfilerTables {
+    static final String TABLE = "profiler_table";
+    static final String FUNCTIONS = "profiler_functions";
+    private static final int STATISTICS_SIZE = 32;
+
+    private final List<Function> functions;
+    private final Map<Function, Integer> indices = new HashMap<>();
+
+    ProfilerTables(List<Function> functions) {
+        this.functions = functions;
+        for (int i = 0; i < functions.size(); ++i) {
+            indices.put(functions.get(i), i);
+        }
+    }
+
+    /**
+     * @return The statistics of the function, which are passed to _profiler_enter.
+     */
+    Memory getStatistics(Function function) {
+        return Memory.of(new Label(FUNCTIONS)).offset((long) STATISTICS_SIZE * indices.get(function));
+    }
+
+    void emit(List<DataBlock> readOnlyData, List<DataBlock> bss) {
+        DataBlock table = new DataBlock(new Label(TABLE), 8).quad(functions.size()).quad(new Label(FUNCTIONS));
+        readOnlyData.add(table);
+        for (int i = 0; i < functions.size(); ++i) {
+            Label name = new Label("profiler_name" + i);
+            byte[] bytes = functions.get(i).getIdentifier().getBytes(StandardCharsets.UTF_8);
+            table.quad(name);
+            readOnlyData.add(new DataBlock(name, 8).quad(bytes.length).bytes(bytes));
+        }
+        bss.add(DataBlock.reserve(new Label(FUNCTIONS), 8, (long) STATISTICS_SIZE * functions.size()));
+    }
+}
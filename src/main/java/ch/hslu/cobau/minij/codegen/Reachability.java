@@ -0,0 +1,72 @@
+package ch.hslu.cobau.minij.codegen;
+
+import ch.hslu.cobau.minij.ast.BaseAstVisitor;
+import ch.hslu.cobau.minij.ast.entity.Declaration;
+import ch.hslu.cobau.minij.ast.entity.Function;
+import ch.hslu.cobau.minij.ast.entity.Unit;
+import ch.hslu.cobau.minij.ast.expression.VariableAccess;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The functions and globals of a unit the program can reach: main, the functions it calls directly or
+ * indirectly (see CallGraph) and the globals these functions access. The rest is dead code, which is
+ * dropped before code generation (see CodeGenerator.setStripping).
+ */
+class Reachability extends BaseAstVisitor {
+    private final Unit unit;
+    private final Set<Function> functions = new HashSet<>();
+    private final Set<Declaration> unitGlobals;
+    private final Set<Declaration> globals = new HashSet<>();
+
+    Reachability(CallGraph callGraph, Unit unit, Function main) {
+        this.unit = unit;
+        this.unitGlobals = new HashSet<>(unit.getGlobals());
+        Deque<Function> pending = new ArrayDeque<>();
+        pending.push(main);
+        functions.add(main);
+        while (!pending.isEmpty()) {
+            Function function = pending.pop();
+            function.accept(this);
+            for (Function callee : callGraph.getCallees(function)) {
+                if (functions.add(callee)) {
+                    pending.push(callee);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The unit without the unreachable functions and globals, the remaining ones in source order.
+     */
+    Unit strip() {
+        return new Unit(unit.getGlobals().stream().filter(globals::contains).toList(),
+                unit.getFunctions().stream().filter(functions::contains).toList(), unit.getStructs());
+    }
+
+    /**
+     * @return The functions main never calls, in source order.
+     */
+    List<Function> getUnreachableFunctions() {
+        return unit.getFunctions().stream().filter(function -> !functions.contains(function)).toList();
+    }
+
+    /**
+     * @return The globals no reachable function accesses, in source order.
+     */
+    List<Declaration> getUnusedGlobals() {
+        return unit.getGlobals().stream().filter(global -> !globals.contains(global)).toList();
+    }
+
+    @Override
+    public void visit(VariableAccess variableAccess) {
+        if (unitGlobals.contains(variableAccess.getDeclaration())) {
+            globals.add(variableAccess.getDeclaration());
+        }
+        super.visit(variableAccess);
+    }
+}
@@ -0,0 +1,109 @@
+package ch.hslu.cobau.minij.codegen;
+
+import ch.hslu.cobau.minij.ast.BaseAstVisitor;
+import ch.hslu.cobau.minij.ast.entity.Declaration;
+import ch.hslu.cobau.minij.ast.expression.BinaryExpression;
+import ch.hslu.cobau.minij.ast.expression.BinaryOperator;
+import ch.hslu.cobau.minij.ast.expression.Expression;
+import ch.hslu.cobau.minij.ast.expression.VariableAccess;
+import ch.hslu.cobau.minij.ast.statement.AssignmentStatement;
+import ch.hslu.cobau.minij.ast.statement.WhileStatement;
+import ch.hslu.cobau.minij.ast.type.StringType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the string variables a while loop only appends to ("s = s + x"). Concatenating into a new string
+ * per iteration is quadratic, so such a variable holds a buffer with room to grow instead (see
+ * _string_builder and _string_append in the runtime), which doubles its capacity when it is full.
+ *
+ * Within the loop, the variable may only be appended to and compared, which does not keep a reference to
+ * it, so no one else sees the buffer while it grows. The buffer is a string at all times and needs no
+ * conversion when the loop ends. Only parameters and locals qualify: a call might read a global.
+ */
+class StringAppends extends BaseAstVisitor {
+    private static final Set<BinaryOperator> COMPARISONS = EnumSet.of(BinaryOperator.EQUAL, BinaryOperator.UNEQUAL,
+            BinaryOperator.LESSER, BinaryOperator.LESSER_EQ, BinaryOperator.GREATER, BinaryOperator.GREATER_EQ);
+
+    private final FrameLayout frame;
+    private final Set<Declaration> appended = new LinkedHashSet<>();
+    private final Map<Declaration, Integer> accesses = new HashMap<>();
+    private final Map<Declaration, Integer> permitted = new HashMap<>();
+
+    private StringAppends(FrameLayout frame) {
+        this.frame = frame;
+    }
+
+    /**
+     * @return The variables of the frame the loop (condition and body) only appends to and compares.
+     */
+    static Set<Declaration> find(WhileStatement loop, FrameLayout frame) {
+        StringAppends appends = new StringAppends(frame);
+        loop.accept(appends);
+        Set<Declaration> result = new LinkedHashSet<>();
+        for (Declaration declaration : appends.appended) {
+            if (appends.accesses.get(declaration).equals(appends.permitted.get(declaration))) {
+                result.add(declaration);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The strings appended by an assignment "s = s + x + y ...", in order, or null if the assignment
+     * is no append.
+     */
+    static List<Expression> getOperands(AssignmentStatement assignment) {
+        if (!(assignment.getLeft() instanceof VariableAccess variable) || !(variable.getDeclaration().getType() instanceof StringType)) {
+            return null;
+        }
+        List<Expression> operands = new ArrayList<>();
+        Expression expression = assignment.getRight();
+        while (expression instanceof BinaryExpression binary && binary.getBinaryOperator() == BinaryOperator.PLUS) {
+            operands.add(binary.getRight());
+            expression = binary.getLeft();
+        }
+        if (operands.isEmpty() || !(expression instanceof VariableAccess first) || first.getDeclaration() != variable.getDeclaration()) {
+            return null;
+        }
+        Collections.reverse(operands);
+        return operands;
+    }
+
+    @Override
+    public void visit(AssignmentStatement assignment) {
+        if (getOperands(assignment) != null) {
+            Declaration declaration = ((VariableAccess) assignment.getLeft()).getDeclaration();
+            if (frame.contains(declaration) && !frame.holdsAddress(declaration)) {
+                appended.add(declaration);
+                permitted.merge(declaration, 2, Integer::sum); // the target and the first operand
+            }
+        }
+        super.visit(assignment);
+    }
+
+    @Override
+    public void visit(BinaryExpression binaryExpression) {
+        if (COMPARISONS.contains(binaryExpression.getBinaryOperator())) {
+            for (Expression operand : List.of(binaryExpression.getLeft(), binaryExpression.getRight())) {
+                if (operand instanceof VariableAccess variable) {
+                    permitted.merge(variable.getDeclaration(), 1, Integer::sum);
+                }
+            }
+        }
+        super.visit(binaryExpression);
+    }
+
+    @Override
+    public void visit(VariableAccess variable) {
+        accesses.merge(variable.getDeclaration(), 1, Integer::sum);
+        super.visit(variable);
+    }
+}
@@ -0,0 +1,58 @@
+package ch.hslu.cobau.minij.codegen;
+
+import ch.hslu.cobau.minij.ast.BaseAstVisitor;
+import ch.hslu.cobau.minij.ast.constants.StringConstant;
+import ch.hslu.cobau.minij.ast.entity.Function;
+import ch.hslu.cobau.minij.codegen.asm.DataBlock;
+import ch.hslu.cobau.minij.codegen.asm.Label;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The string literals of a unit. Literals are stored once per distinct text (without the quotes of the
+ * token) in the read-only section, so equal literals share the same address. Each entry has the layout of
+ * a string value: its length as quad word followed by the bytes. Like heap objects, it is preceded by a
+ * header of two quad words, which marks it as static for the garbage collector.
+ *
+ * The literals of all functions are pooled before their code is generated (see addAll), so the labels do
+ * not depend on the order in which the functions are generated.
+ */
+class StringPool {
+    private final Map<String, Label> labels = new LinkedHashMap<>();
+
+    /**
+     * Pools the literals of the given functions, in order.
+     */
+    void addAll(List<Function> functions) {
+        BaseAstVisitor literals = new BaseAstVisitor() {
+            @Override
+            public void visit(StringConstant stringConstant) {
+                getLabel(stringConstant);
+            }
+        };
+        functions.forEach(function -> function.accept(literals));
+    }
+
+    /**
+     * @return The label of the pooled text of the constant.
+     */
+    synchronized Label getLabel(StringConstant constant) {
+        String token = constant.getValue();
+        String text = token.substring(1, token.length() - 1);
+        return labels.computeIfAbsent(text, key -> new Label("s_" + labels.size()));
+    }
+
+    /**
+     * Appends the data blocks of all pooled strings (in order of pooling).
+     */
+    void emit(List<DataBlock> section) {
+        for (Map.Entry<String, Label> entry : labels.entrySet()) {
+            byte[] bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            section.add(new DataBlock(new Label(entry.getValue().getName() + "_header"), 16).quad(GcTables.STATIC_OBJECT).quad(0));
+            section.add(new DataBlock(entry.getValue(), 8).quad(bytes.length).bytes(bytes));
+        }
+    }
+}
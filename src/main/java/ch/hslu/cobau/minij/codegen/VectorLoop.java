@@ -0,0 +1,168 @@
+package ch.hslu.cobau.minij.codegen;
+
+import ch.hslu.cobau.minij.ast.entity.Declaration;
+import ch.hslu.cobau.minij.ast.expression.*;
+import ch.hslu.cobau.minij.ast.statement.AssignmentStatement;
+import ch.hslu.cobau.minij.ast.statement.Statement;
+import ch.hslu.cobau.minij.ast.statement.WhileStatement;
+import ch.hslu.cobau.minij.ast.type.ArrayType;
+import ch.hslu.cobau.minij.ast.type.IntegerType;
+import ch.hslu.cobau.minij.codegen.asm.Condition;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A counted loop (see CountedLoop) with step 1, which can run two iterations at once in an SSE register.
+ * Its body consists of a single assignment besides the increment, whose value is a sum of elements a[i]
+ * of integer arrays, loop invariant integer variables and constants:
+ * <ul>
+ * <li>"x[i] = ...", which fills, copies or adds up arrays element by element,</li>
+ * <li>"s = s + ...", a reduction into an integer variable, which sums up at least one array.</li>
+ * </ul>
+ * Integers wrap around, so the sum is the same in any order: the invariant part is added up before the
+ * loop, a reduction is split into two partial sums. All arrays are indexed by i itself, so an element only
+ * depends on the elements of the same index, even if two variables refer to the same array. Arrays never
+ * overlap partially, which leaves no other aliasing to check for. The arrays, the invariants and the
+ * variables of the loop are variables with a fixed home, which no other function reaches while the loop
+ * runs, as it makes no calls.
+ */
+class VectorLoop {
+    // the general purpose registers holding the arrays while the loop runs
+    static final int MAX_ARRAYS = 7;
+
+    private final CountedLoop counted;
+    private Declaration target;
+    private Declaration sum;
+    private final List<Declaration> loads = new ArrayList<>();
+    private final List<Expression> invariants = new ArrayList<>();
+
+    private VectorLoop(CountedLoop counted) {
+        this.counted = counted;
+    }
+
+    /**
+     * @return The vectorizable form of the counted loop or null, if its body does not qualify.
+     */
+    static VectorLoop recognize(WhileStatement loop, CountedLoop counted) {
+        List<Statement> body = loop.getStatements();
+        boolean upwards = counted.getCondition() == Condition.L || counted.getCondition() == Condition.LE;
+        if (counted.getStep() != 1 || !upwards || body.size() != 2
+                || !(body.get(0) instanceof AssignmentStatement assignment)) {
+            return null;
+        }
+
+        VectorLoop vector = new VectorLoop(counted);
+        List<Expression> terms = new ArrayList<>();
+        if (!addTerms(assignment.getRight(), terms)) {
+            return null;
+        }
+        if (assignment.getLeft() instanceof ArrayAccess element) {
+            vector.target = vector.getArray(element);
+        } else if (assignment.getLeft() instanceof VariableAccess variable && isInteger(variable.getDeclaration())
+                && variable.getDeclaration() != counted.getVariable() && variable.getDeclaration() != counted.getBoundVariable()) {
+            Declaration sum = variable.getDeclaration();
+            vector.sum = sum;
+            // s occurs exactly once in the sum
+            long occurrences = terms.stream().filter(term -> term instanceof VariableAccess access && access.getDeclaration() == sum).count();
+            if (occurrences != 1) {
+                return null;
+            }
+            terms.removeIf(term -> term instanceof VariableAccess access && access.getDeclaration() == sum);
+        }
+        if (vector.target == null && vector.sum == null) {
+            return null;
+        }
+        for (Expression term : terms) {
+            if (term instanceof ArrayAccess element) {
+                Declaration array = vector.getArray(element);
+                if (array == null) {
+                    return null;
+                }
+                vector.loads.add(array);
+            } else if (CountedLoop.getConstant(term) != null
+                    || term instanceof VariableAccess variable && isInteger(variable.getDeclaration())
+                    && variable.getDeclaration() != counted.getVariable()) {
+                vector.invariants.add(term);
+            } else {
+                return null;
+            }
+        }
+        if (vector.sum != null && vector.loads.isEmpty() || vector.getArrays().size() > MAX_ARRAYS) {
+            return null;
+        }
+        return vector;
+    }
+
+    // the operands of a sum, as long as they are leaves
+    private static boolean addTerms(Expression expression, List<Expression> terms) {
+        if (expression instanceof BinaryExpression binary && binary.getBinaryOperator() == BinaryOperator.PLUS) {
+            return addTerms(binary.getLeft(), terms) && addTerms(binary.getRight(), terms);
+        }
+        if (expression instanceof ArrayAccess || expression instanceof VariableAccess || CountedLoop.getConstant(expression) != null) {
+            terms.add(expression);
+            return true;
+        }
+        return false;
+    }
+
+    // the array of an element a[i] of an integer array variable, otherwise null
+    private Declaration getArray(ArrayAccess element) {
+        if (element.getBase() instanceof VariableAccess base && !base.getDeclaration().isReference()
+                && base.getDeclaration().getType() instanceof ArrayType type && type.getType() instanceof IntegerType
+                && element.getIndexExpression() instanceof VariableAccess index && index.getDeclaration() == counted.getVariable()) {
+            return base.getDeclaration();
+        }
+        return null;
+    }
+
+    private static boolean isInteger(Declaration declaration) {
+        return declaration.getType() instanceof IntegerType && !declaration.isReference();
+    }
+
+    CountedLoop getCounted() {
+        return counted;
+    }
+
+    /**
+     * @return The array stored into or null, if the loop is a reduction.
+     */
+    Declaration getTarget() {
+        return target;
+    }
+
+    /**
+     * @return The variable a reduction adds to or null.
+     */
+    Declaration getSum() {
+        return sum;
+    }
+
+    /**
+     * @return The arrays whose elements are added up, in source order (an array may occur several times).
+     */
+    List<Declaration> getLoads() {
+        return loads;
+    }
+
+    /**
+     * @return The constants and variables added to each element.
+     */
+    List<Expression> getInvariants() {
+        return invariants;
+    }
+
+    /**
+     * @return The distinct arrays the loop accesses, the target first.
+     */
+    List<Declaration> getArrays() {
+        Set<Declaration> arrays = new LinkedHashSet<>();
+        if (target != null) {
+            arrays.add(target);
+        }
+        arrays.addAll(loads);
+        return new ArrayList<>(arrays);
+    }
+}
@@ -0,0 +1,83 @@
+package ch.hslu.cobau.minij.codegen.asm;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The instructions of one function (or of the program entry point), in emission order.
+ *
+ * The cold instructions are rarely executed blocks of the function, which are placed in the cold section
+ * (.text.cold) after the code of all functions. Their local labels belong to the function like those of
+ * the other instructions, jumps between both parts are ordinary jumps. A cold function (e.g. the target of
+ * failing bounds checks) is placed in the cold section as a whole.
+ */
+public class AssemblyFunction {
+    private final Label label;
+    private List<Instruction> instructions = new ArrayList<>();
+    private List<Instruction> coldInstructions = new ArrayList<>();
+    private boolean cold;
+    private final Set<Label> dataReferences = new HashSet<>();
+
+    public AssemblyFunction(Label label) {
+        Objects.requireNonNull(label);
+        this.label = label;
+    }
+
+    public Label getLabel() {
+        return label;
+    }
+
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    public void setInstructions(List<Instruction> instructions) {
+        this.instructions = instructions;
+    }
+
+    /**
+     * @return The label starting the cold instructions (function.cold, like the symbols of GCC).
+     */
+    public Label getColdLabel() {
+        return new Label(label.getName() + ".cold");
+    }
+
+    public List<Instruction> getColdInstructions() {
+        return coldInstructions;
+    }
+
+    public void setColdInstructions(List<Instruction> coldInstructions) {
+        this.coldInstructions = coldInstructions;
+    }
+
+    public boolean isCold() {
+        return cold;
+    }
+
+    public void setCold(boolean cold) {
+        this.cold = cold;
+    }
+
+    /**
+     * @return The local labels whose addresses are stored in data (e.g. return addresses of the stack maps),
+     * which have to be kept even if no instruction refers to them.
+     */
+    public Set<Label> getDataReferences() {
+        return dataReferences;
+    }
+
+    public void emit(Opcode opcode, Operand... operands) {
+        instructions.add(new Instruction(opcode, operands));
+    }
+
+    public void emit(Opcode opcode, Condition condition, Operand... operands) {
+        instructions.add(new Instruction(opcode, condition, operands));
+    }
+
+    public void label(Label label) {
+        instructions.add(new Instruction(Opcode.LABEL, label));
+    }
+}
@@ -0,0 +1,51 @@
+package ch.hslu.cobau.minij.codegen.asm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The complete assembly of a compilation unit: functions, data sections and the symbols imported from
+ * and exported to the runtime.
+ */
+public class AssemblyUnit {
+    private final Set<String> externs = new TreeSet<>();
+    private final Set<String> globals = new TreeSet<>();
+    private final List<AssemblyFunction> functions = new ArrayList<>();
+    private final List<DataBlock> data = new ArrayList<>();
+    private final List<DataBlock> readOnlyData = new ArrayList<>();
+    private final List<DataBlock> bss = new ArrayList<>();
+
+    public Set<String> getExterns() {
+        return externs;
+    }
+
+    public void addExtern(String symbol) {
+        externs.add(symbol);
+    }
+
+    public Set<String> getGlobals() {
+        return globals;
+    }
+
+    public void addGlobal(String symbol) {
+        globals.add(symbol);
+    }
+
+    public List<AssemblyFunction> getFunctions() {
+        return functions;
+    }
+
+    public List<DataBlock> getData() {
+        return data;
+    }
+
+    public List<DataBlock> getReadOnlyData() {
+        return readOnlyData;
+    }
+
+    public List<DataBlock> getBss() {
+        return bss;
+    }
+}
@@ -0,0 +1,70 @@
+package ch.hslu.cobau.minij.codegen.asm;
+
+/**
+ * Condition codes of conditional jumps and setcc, evaluated on the flags of a preceding cmp or test.
+ */
+public enum Condition {
+    E("e"),
+    NE("ne"),
+    L("l"),
+    LE("le"),
+    G("g"),
+    GE("ge"),
+    B("b"),
+    BE("be"),
+    A("a"),
+    AE("ae"),
+    S("s"),
+    NS("ns"),
+    O("o"),
+    NO("no");
+
+    private final String suffix;
+
+    Condition(String suffix) {
+        this.suffix = suffix;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    /**
+     * @return The condition that holds exactly if this one does not.
+     */
+    public Condition negate() {
+        return switch (this) {
+            case E -> NE;
+            case NE -> E;
+            case L -> GE;
+            case LE -> G;
+            case G -> LE;
+            case GE -> L;
+            case B -> AE;
+            case BE -> A;
+            case A -> BE;
+            case AE -> B;
+            case S -> NS;
+            case NS -> S;
+            case O -> NO;
+            case NO -> O;
+        };
+    }
+
+    /**
+     * @return The condition to use if the operands of the comparison are swapped.
+     */
+    public Condition swap() {
+        return switch (this) {
+            case L -> G;
+            case LE -> GE;
+            case G -> L;
+            case GE -> LE;
+            case B -> A;
+            case BE -> AE;
+            case A -> B;
+            case AE -> BE;
+            default -> this;
+        };
+    }
+}
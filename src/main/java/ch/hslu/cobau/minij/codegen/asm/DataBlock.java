@@ -0,0 +1,119 @@
+package ch.hslu.cobau.minij.codegen.asm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A labelled object in a data section: either a sequence of initialized quad words and bytes,
+ * or (in .bss) a number of reserved, zero initialized bytes.
+ */
+public class DataBlock {
+    /**
+     * An initialized value of 1 or 8 bytes, or the 8 byte address of a label.
+     */
+    public static class Value {
+        private final int width;
+        private final long value;
+        private final Label label;
+
+        Value(int width, long value) {
+            this(width, value, null);
+        }
+
+        Value(int width, long value, Label label) {
+            this.width = width;
+            this.value = value;
+            this.label = label;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public long getValue() {
+            return value;
+        }
+
+        /**
+         * @return The label whose address is the value or null, if the value is a constant.
+         */
+        public Label getLabel() {
+            return label;
+        }
+    }
+
+    private final Label label;
+    private final int alignment;
+    private final List<Value> values = new ArrayList<>();
+    private final long reserved;
+
+    public DataBlock(Label label, int alignment) {
+        this(label, alignment, 0);
+    }
+
+    private DataBlock(Label label, int alignment, long reserved) {
+        Objects.requireNonNull(label);
+        this.label = label;
+        this.alignment = alignment;
+        this.reserved = reserved;
+    }
+
+    /**
+     * @return A block of the given number of zero initialized bytes.
+     */
+    public static DataBlock reserve(Label label, int alignment, long size) {
+        return new DataBlock(label, alignment, size);
+    }
+
+    public DataBlock quad(long value) {
+        values.add(new Value(8, value));
+        return this;
+    }
+
+    /**
+     * Appends the address of a label: a data block, a function or a local label of a function, which is
+     * referred to by its qualified name (e.g. "f_main.L3").
+     */
+    public DataBlock quad(Label label) {
+        values.add(new Value(8, 0, label));
+        return this;
+    }
+
+    public DataBlock bytes(byte[] bytes) {
+        for (byte b : bytes) {
+            values.add(new Value(1, b & 0xff));
+        }
+        return this;
+    }
+
+    public Label getLabel() {
+        return label;
+    }
+
+    public int getAlignment() {
+        return alignment;
+    }
+
+    public List<Value> getValues() {
+        return values;
+    }
+
+    public boolean isReserved() {
+        return reserved > 0;
+    }
+
+    /**
+     * @return The size of this block in bytes.
+     */
+    public long getSize() {
+        if (isReserved()) {
+            return reserved;
+        }
+        long size = 0;
+        for (Value value : values) {
+            size += value.getWidth();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,35 @@
+package ch.hslu.cobau.minij.codegen.asm;
+
+public class Immediate implements Operand {
+    private final long value;
+
+    public Immediate(long value) {
+        this.value = value;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * @return true if the value can be encoded as sign extended 32-bit immediate.
+     */
+    public boolean isInt32() {
+        return value == (int) value;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Immediate immediate && immediate.value == value;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(value);
+    }
+}
@@ -0,0 +1,148 @@
+package ch.hslu.cobau.minij.codegen.asm;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A single instruction (or label definition) with its operands in Intel order, i.e. destination first.
+ */
+public class Instruction {
+    private final Opcode opcode;
+    private final Condition condition;
+    private final List<Operand> operands;
+
+    public Instruction(Opcode opcode, Operand... operands) {
+        this(opcode, null, operands);
+    }
+
+    public Instruction(Opcode opcode, Condition condition, Operand... operands) {
+        Objects.requireNonNull(opcode);
+        if (opcode.isConditional() != (condition != null)) {
+            throw new IllegalArgumentException("condition does not match opcode " + opcode);
+        }
+        this.opcode = opcode;
+        this.condition = condition;
+        this.operands = List.of(operands);
+    }
+
+    public Opcode getOpcode() {
+        return opcode;
+    }
+
+    public Condition getCondition() {
+        return condition;
+    }
+
+    public List<Operand> getOperands() {
+        return operands;
+    }
+
+    public Operand getOperand(int index) {
+        return operands.get(index);
+    }
+
+    public boolean isLabel() {
+        return opcode == Opcode.LABEL;
+    }
+
+    /**
+     * @return The jump target of a jmp/jcc or the defined label of a LABEL, otherwise null.
+     */
+    public Label getLabel() {
+        return (opcode == Opcode.LABEL || opcode == Opcode.JMP || opcode == Opcode.JCC)
+                && operands.get(0) instanceof Label label ? label : null;
+    }
+
+    /**
+     * @return true if the instruction may read the register, either as operand, to compute an address or
+     * implicitly. Calls are assumed to read all argument registers, returns all registers the caller expects
+     * (including the argument registers, which return copied "out" parameters).
+     */
+    public boolean reads(Register register) {
+        for (Operand operand : operands) {
+            if (operand instanceof Memory memory && memory.uses(register)) {
+                return true;
+            }
+        }
+        return switch (opcode) {
+            case LABEL, JMP, JCC -> false;
+            case MOV, MOVZX, LEA, SETCC, MOVQ -> operands.get(1) == register;
+            case POP -> register == Register.RSP;
+            case PUSH -> register == Register.RSP || operands.get(0) == register;
+            case CQO -> register == Register.RAX;
+            case IDIV -> register == Register.RAX || register == Register.RDX || operands.get(0) == register;
+            case CALL -> register == Register.RSP || register.isArgument();
+            case RET -> register == Register.RAX || register.isArgument() || !register.isCallerSaved();
+            default -> operands.contains(register);
+        };
+    }
+
+    /**
+     * @return true if the instruction may modify the register.
+     */
+    public boolean writes(Register register) {
+        return switch (opcode) {
+            case LABEL, JMP, JCC, CMP, TEST -> false;
+            case PUSH, RET -> register == Register.RSP;
+            case POP -> register == Register.RSP || operands.get(0) == register;
+            case CQO -> register == Register.RDX;
+            case IDIV -> register == Register.RAX || register == Register.RDX;
+            case CALL -> register == Register.RSP || register.isCallerSaved();
+            default -> operands.get(0) == register;
+        };
+    }
+
+    /**
+     * @return true if the instruction replaces the whole value of the register without reading it.
+     */
+    public boolean overwrites(Register register) {
+        if (reads(register)) {
+            return false;
+        }
+        return switch (opcode) {
+            // a move from byte memory only replaces the low byte
+            case MOV -> operands.get(0) == register && !(operands.get(1) instanceof Memory memory && memory.getSize() == 1);
+            case MOVZX, LEA, POP, MOVQ -> operands.get(0) == register;
+            case CQO -> register == Register.RDX;
+            case CALL -> register.isCallerSaved();
+            default -> false;
+        };
+    }
+
+    public boolean readsFlags() {
+        return opcode.isConditional();
+    }
+
+    public boolean writesFlags() {
+        return switch (opcode) {
+            case ADD, SUB, IMUL, IDIV, NEG, AND, OR, XOR, CMP, TEST, CALL -> true;
+            default -> false;
+        };
+    }
+
+    public String getMnemonic() {
+        return switch (opcode) {
+            case JCC -> "j" + condition.getSuffix();
+            case SETCC -> "set" + condition.getSuffix();
+            case CMOVCC -> "cmov" + condition.getSuffix();
+            default -> opcode.name().toLowerCase();
+        };
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof Instruction instruction)) return false;
+        return opcode == instruction.opcode && condition == instruction.condition && operands.equals(instruction.operands);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(opcode, condition, operands);
+    }
+
+    @Override
+    public String toString() {
+        return NasmWriter.format(this);
+    }
+}
@@ -0,0 +1,39 @@
+package ch.hslu.cobau.minij.codegen.asm;
+
+import java.util.Objects;
+
+/**
+ * A symbolic address: a function, a jump target within a function or a data object.
+ * Names starting with a dot are NASM local labels and belong to the preceding function label.
+ */
+public class Label implements Operand {
+    private final String name;
+
+    public Label(String name) {
+        Objects.requireNonNull(name);
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isLocal() {
+        return name.startsWith(".");
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Label label && label.name.equals(name);
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,128 @@
+package ch.hslu.cobau.minij.codegen.asm;
+
+import java.util.Objects;
+
+/**
+ * A memory operand [base + index * scale + displacement] or [label + displacement]. Label based
+ * operands are RIP relative (the generated code uses DEFAULT REL). The size is the width of the
+ * accessed value in bytes (1, 8 or 16 for SSE registers).
+ */
+public class Memory implements Operand {
+    private final Register base;
+    private final Register index;
+    private final int scale;
+    private final long displacement;
+    private final Label label;
+    private final int size;
+
+    private Memory(Register base, Register index, int scale, long displacement, Label label, int size) {
+        if (scale != 1 && scale != 2 && scale != 4 && scale != 8) {
+            throw new IllegalArgumentException("invalid scale " + scale);
+        }
+        if (index == Register.RSP) {
+            throw new IllegalArgumentException("rsp cannot be used as index");
+        }
+        this.base = base;
+        this.index = index;
+        this.scale = scale;
+        this.displacement = displacement;
+        this.label = label;
+        this.size = size;
+    }
+
+    public static Memory of(Register base, long displacement) {
+        Objects.requireNonNull(base);
+        return new Memory(base, null, 1, displacement, null, 8);
+    }
+
+    public static Memory of(Register base, Register index, int scale, long displacement) {
+        Objects.requireNonNull(base);
+        Objects.requireNonNull(index);
+        return new Memory(base, index, scale, displacement, null, 8);
+    }
+
+    public static Memory of(Label label) {
+        Objects.requireNonNull(label);
+        return new Memory(null, null, 1, 0, label, 8);
+    }
+
+    /**
+     * @return The same address, accessing a value of the given width.
+     */
+    public Memory withSize(int size) {
+        return new Memory(base, index, scale, displacement, label, size);
+    }
+
+    /**
+     * @return The address displaced by the given number of bytes.
+     */
+    public Memory offset(long offset) {
+        return new Memory(base, index, scale, displacement + offset, label, size);
+    }
+
+    public Register getBase() {
+        return base;
+    }
+
+    public Register getIndex() {
+        return index;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public long getDisplacement() {
+        return displacement;
+    }
+
+    public Label getLabel() {
+        return label;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return true if the address is computed from the given register.
+     */
+    public boolean uses(Register register) {
+        return base == register || index == register;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof Memory memory)) return false;
+        return base == memory.base && index == memory.index && scale == memory.scale
+                && displacement == memory.displacement && Objects.equals(label, memory.label) && size == memory.size;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(base, index, scale, displacement, label, size);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        if (label != null) {
+            sb.append(label.getName());
+        } else {
+            sb.append(base);
+            if (index != null) {
+                sb.append(" + ").append(index);
+                if (scale != 1) {
+                    sb.append(" * ").append(scale);
+                }
+            }
+        }
+        if (displacement > 0) {
+            sb.append(" + ").append(displacement);
+        } else if (displacement < 0) {
+            sb.append(" - ").append(-displacement);
+        }
+        return sb.append(']').toString();
+    }
+}
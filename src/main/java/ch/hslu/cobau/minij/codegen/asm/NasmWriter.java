@@ -0,0 +1,151 @@
+package ch.hslu.cobau.minij.codegen.asm;
+
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Writes an assembly unit as NASM source (elf64 / macho64 / win64 alike).
+ *
+ * The cold code follows the code of all functions. On Linux (LINUX_X64 defined, see the assembler command
+ * lines of the build), it is in its own section .text.cold, which the linkers place after .text, elsewhere
+ * it stays at the end of .text. Its labels are written fully qualified (function.L0), as NASM scopes local
+ * labels by the preceding label in the source.
+ */
+public class NasmWriter {
+    private final PrintWriter out;
+
+    public NasmWriter(PrintWriter out) {
+        this.out = out;
+    }
+
+    public void write(AssemblyUnit unit) {
+        out.println("DEFAULT REL");
+        out.println();
+        unit.getExterns().forEach(symbol -> out.println("extern " + symbol));
+        unit.getGlobals().forEach(symbol -> out.println("global " + symbol));
+
+        writeSection("section .data", unit.getData());
+        writeSection("section .rodata", unit.getReadOnlyData());
+        writeSection("section .bss", unit.getBss());
+
+        out.println();
+        out.println("section .text");
+        for (AssemblyFunction function : unit.getFunctions()) {
+            if (!function.isCold()) {
+                out.println();
+                out.println(function.getLabel().getName() + ":");
+                function.getInstructions().forEach(instruction -> out.println(format(instruction)));
+            }
+        }
+
+        if (unit.getFunctions().stream().anyMatch(function -> function.isCold() || !function.getColdInstructions().isEmpty())) {
+            out.println();
+            out.println("%ifdef LINUX_X64");
+            out.println("section .text.cold progbits alloc exec nowrite align=16");
+            out.println("%endif");
+        }
+        for (AssemblyFunction function : unit.getFunctions()) {
+            String name = function.getLabel().getName();
+            List<Instruction> instructions = function.isCold() ? function.getInstructions() : function.getColdInstructions();
+            if (!instructions.isEmpty()) {
+                out.println();
+                out.println((function.isCold() ? name : function.getColdLabel().getName()) + ":");
+                instructions.forEach(instruction -> out.println(format(instruction, name)));
+            }
+        }
+        out.flush();
+    }
+
+    private void writeSection(String header, List<DataBlock> blocks) {
+        if (blocks.isEmpty()) {
+            return;
+        }
+        out.println();
+        out.println(header);
+        for (DataBlock block : blocks) {
+            out.println((block.isReserved() ? "alignb " : "align ") + block.getAlignment());
+            out.print(block.getLabel().getName() + ":");
+            if (block.isReserved()) {
+                out.println(" resb " + block.getSize());
+                continue;
+            }
+            List<DataBlock.Value> values = block.getValues();
+            for (int i = 0; i < values.size(); ) {
+                if (values.get(i).getWidth() == 8) {
+                    Label label = values.get(i).getLabel();
+                    out.println(" dq " + (label != null ? label.getName() : values.get(i).getValue()));
+                    ++i;
+                } else {
+                    StringBuilder sb = new StringBuilder();
+                    while (i < values.size() && values.get(i).getWidth() == 1) {
+                        if (sb.length() > 0) {
+                            sb.append(", ");
+                        }
+                        sb.append(values.get(i++).getValue());
+                    }
+                    out.println(" db " + sb);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The NASM source line of a single instruction.
+     */
+    public static String format(Instruction instruction) {
+        return format(instruction, null);
+    }
+
+    /**
+     * @param function The function whose local labels are written fully qualified, null to keep them local.
+     */
+    private static String format(Instruction instruction, String function) {
+        if (instruction.isLabel()) {
+            return qualify(instruction.getLabel(), function) + ":";
+        }
+        String mnemonic = instruction.getMnemonic();
+        List<Operand> operands = instruction.getOperands();
+        if (operands.isEmpty()) {
+            return "        " + mnemonic;
+        }
+        int registerSize = registerSize(instruction);
+        StringBuilder formatted = new StringBuilder();
+        for (int i = 0; i < operands.size(); ++i) {
+            if (i > 0) {
+                formatted.append(", ");
+            }
+            formatted.append(switch (operands.get(i)) {
+                case Register register -> register.getName(i > 0 && instruction.getOpcode() == Opcode.MOVZX ? 1 : registerSize);
+                case Memory memory -> instruction.getOpcode() == Opcode.LEA ? memory.toString()
+                        : switch (memory.getSize()) {
+                            case 1 -> "byte ";
+                            case 16 -> "oword ";
+                            default -> "qword ";
+                        } + memory;
+                case Label label -> qualify(label, function);
+                default -> operands.get(i).toString();
+            });
+        }
+        return String.format("        %-8s%s", mnemonic, formatted);
+    }
+
+    private static String qualify(Label label, String function) {
+        return function != null && label.isLocal() ? function + label.getName() : label.getName();
+    }
+
+    // width of the register operands: 8-bit for setcc and for moves from/to byte memory
+    private static int registerSize(Instruction instruction) {
+        if (instruction.getOpcode() == Opcode.SETCC) {
+            return 1;
+        }
+        if (instruction.getOpcode() == Opcode.MOVZX) {
+            return 8;
+        }
+        for (Operand operand : instruction.getOperands()) {
+            if (operand instanceof Memory memory && memory.getSize() == 1) {
+                return 1;
+            }
+        }
+        return 8;
+    }
+}
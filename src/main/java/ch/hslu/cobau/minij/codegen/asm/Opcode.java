@@ -0,0 +1,49 @@
+package ch.hslu.cobau.minij.codegen.asm;
+
+/**
+ * The instructions used by the code generator. JCC, SETCC and CMOVCC carry a Condition, LABEL is a
+ * pseudo instruction that defines its label operand at the current position. The SSE2 instructions
+ * following RET operate on XmmRegisters (MOVQ moves between them and general purpose registers).
+ */
+public enum Opcode {
+    LABEL,
+    MOV,
+    MOVZX,
+    LEA,
+    PUSH,
+    POP,
+    ADD,
+    SUB,
+    IMUL,
+    IDIV,
+    CQO,
+    NEG,
+    NOT,
+    AND,
+    OR,
+    XOR,
+    CMP,
+    TEST,
+    JMP,
+    JCC,
+    SETCC,
+    CMOVCC,
+    CALL,
+    RET,
+    MOVDQU,
+    MOVQ,
+    PADDQ,
+    PXOR,
+    PSHUFD;
+
+    public boolean isConditional() {
+        return this == JCC || this == SETCC || this == CMOVCC;
+    }
+
+    /**
+     * @return true for instructions after which execution does not continue with the next instruction.
+     */
+    public boolean isUnconditionalTransfer() {
+        return this == JMP || this == RET;
+    }
+}
@@ -0,0 +1,7 @@
+package ch.hslu.cobau.minij.codegen.asm;
+
+/**
+ * An operand of an x86-64 instruction: a register, an immediate, a memory reference or a label.
+ */
+public interface Operand {
+}
@@ -0,0 +1,74 @@
+package ch.hslu.cobau.minij.codegen.asm;
+
+/**
+ * The x86-64 general purpose registers, in hardware encoding order. As operands they denote the full
+ * 64-bit register, narrower views are selected by the instruction (e.g. setcc writes the low byte).
+ */
+public enum Register implements Operand {
+    RAX("rax", "eax", "al"),
+    RCX("rcx", "ecx", "cl"),
+    RDX("rdx", "edx", "dl"),
+    RBX("rbx", "ebx", "bl"),
+    RSP("rsp", "esp", "spl"),
+    RBP("rbp", "ebp", "bpl"),
+    RSI("rsi", "esi", "sil"),
+    RDI("rdi", "edi", "dil"),
+    R8("r8", "r8d", "r8b"),
+    R9("r9", "r9d", "r9b"),
+    R10("r10", "r10d", "r10b"),
+    R11("r11", "r11d", "r11b"),
+    R12("r12", "r12d", "r12b"),
+    R13("r13", "r13d", "r13b"),
+    R14("r14", "r14d", "r14b"),
+    R15("r15", "r15d", "r15b");
+
+    private final String name64;
+    private final String name32;
+    private final String name8;
+
+    Register(String name64, String name32, String name8) {
+        this.name64 = name64;
+        this.name32 = name32;
+        this.name8 = name8;
+    }
+
+    /**
+     * @return The register number used in the ModRM/REX encoding (0..15).
+     */
+    public int getEncoding() {
+        return ordinal();
+    }
+
+    /**
+     * @return true for registers that a called routine may clobber (System V calling convention).
+     */
+    public boolean isCallerSaved() {
+        return switch (this) {
+            case RAX, RCX, RDX, RSI, RDI, R8, R9, R10, R11 -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * @return true for registers that may carry arguments of a call.
+     */
+    public boolean isArgument() {
+        return switch (this) {
+            case RDI, RSI, RDX, RCX, R8, R9 -> true;
+            default -> false;
+        };
+    }
+
+    public String getName(int size) {
+        return switch (size) {
+            case 1 -> name8;
+            case 4 -> name32;
+            default -> name64;
+        };
+    }
+
+    @Override
+    public String toString() {
+        return name64;
+    }
+}
@@ -0,0 +1,22 @@
+package ch.hslu.cobau.minij.codegen.asm;
+
+/**
+ * The SSE registers, in hardware encoding order. The generated code only uses them in vectorized loops,
+ * holding two 64-bit integers each. All of them are caller-saved.
+ */
+public enum XmmRegister implements Operand {
+    XMM0, XMM1, XMM2, XMM3, XMM4, XMM5, XMM6, XMM7,
+    XMM8, XMM9, XMM10, XMM11, XMM12, XMM13, XMM14, XMM15;
+
+    /**
+     * @return The register number used in the ModRM/REX encoding (0..15).
+     */
+    public int getEncoding() {
+        return ordinal();
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,194 @@
+package ch.hslu.cobau.minij.codegen.elf;
+
+import ch.hslu.cobau.minij.codegen.elf.ObjectFile.Relocation;
+import ch.hslu.cobau.minij.codegen.elf.ObjectFile.RelocationType;
+import ch.hslu.cobau.minij.codegen.elf.ObjectFile.Section;
+import ch.hslu.cobau.minij.codegen.elf.ObjectFile.SectionKind;
+import ch.hslu.cobau.minij.codegen.elf.ObjectFile.Symbol;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static ch.hslu.cobau.minij.codegen.elf.ElfWriter.*;
+
+/**
+ * Reads a relocatable ELF64 object file (e.g. the runtime objects produced by "nasm -f elf64") into
+ * an ObjectFile. Allocated sections are merged by kind (.text*, .rodata*, .data*, .bss*), everything
+ * else (debug information, notes) is dropped together with the symbols and relocations referring to it.
+ */
+public class ElfReader {
+    private static final int SHN_UNDEF = 0;
+    private static final int SHN_ABS = 0xFFF1;
+    private static final int SHN_COMMON = 0xFFF2;
+    private static final int STT_FILE = 4;
+    private static final int SHT_REL = 9;
+
+    // an allocated input section and where it ended up in the merged section of its kind
+    private record Placement(SectionKind kind, long offset) { }
+
+    public ObjectFile read(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (bytes.length < ELF_HEADER_SIZE || buffer.getInt(0) != 0x464C457F || bytes[4] != 2 || bytes[5] != 1) {
+            throw new IllegalArgumentException("not a little endian ELF64 file");
+        }
+        if (buffer.getShort(16) != ET_REL || buffer.getShort(18) != EM_X86_64) {
+            throw new IllegalArgumentException("not a relocatable x86-64 object");
+        }
+        long sectionHeaderOffset = buffer.getLong(40);
+        int sectionHeaderCount = Short.toUnsignedInt(buffer.getShort(60));
+        int sectionNamesIndex = Short.toUnsignedInt(buffer.getShort(62));
+
+        int[] types = new int[sectionHeaderCount];
+        long[] flags = new long[sectionHeaderCount];
+        long[] offsets = new long[sectionHeaderCount];
+        long[] sizes = new long[sectionHeaderCount];
+        int[] links = new int[sectionHeaderCount];
+        int[] infos = new int[sectionHeaderCount];
+        long[] alignments = new long[sectionHeaderCount];
+        int[] nameOffsets = new int[sectionHeaderCount];
+        for (int i = 0; i < sectionHeaderCount; ++i) {
+            int header = (int) (sectionHeaderOffset + (long) i * SECTION_HEADER_SIZE);
+            nameOffsets[i] = buffer.getInt(header);
+            types[i] = buffer.getInt(header + 4);
+            flags[i] = buffer.getLong(header + 8);
+            offsets[i] = buffer.getLong(header + 24);
+            sizes[i] = buffer.getLong(header + 32);
+            links[i] = buffer.getInt(header + 40);
+            infos[i] = buffer.getInt(header + 44);
+            alignments[i] = buffer.getLong(header + 48);
+        }
+
+        // merge the allocated sections by kind
+        ObjectFile object = new ObjectFile();
+        Map<SectionKind, ByteArrayOutputStream> contents = new EnumMap<>(SectionKind.class);
+        Map<SectionKind, Long> sizesByKind = new EnumMap<>(SectionKind.class);
+        Map<SectionKind, Integer> alignmentsByKind = new EnumMap<>(SectionKind.class);
+        Placement[] placements = new Placement[sectionHeaderCount];
+        String[] sectionNames = new String[sectionHeaderCount];
+        for (int i = 1; i < sectionHeaderCount; ++i) {
+            sectionNames[i] = readString(bytes, offsets[sectionNamesIndex] + nameOffsets[i]);
+            if ((flags[i] & SHF_ALLOC) == 0) {
+                continue;
+            }
+            SectionKind kind = getKind(sectionNames[i], types[i], flags[i]);
+            ByteArrayOutputStream output = contents.computeIfAbsent(kind, key -> new ByteArrayOutputStream());
+            long alignment = Math.max(1, alignments[i]);
+            long size = sizesByKind.getOrDefault(kind, 0L);
+            while (size % alignment != 0) {
+                output.write(0);
+                ++size;
+            }
+            placements[i] = new Placement(kind, size);
+            if (types[i] != SHT_NOBITS) {
+                output.write(bytes, (int) offsets[i], (int) sizes[i]);
+            }
+            sizesByKind.put(kind, size + sizes[i]);
+            alignmentsByKind.merge(kind, (int) alignment, Math::max);
+        }
+        for (SectionKind kind : SectionKind.values()) {
+            if (sizesByKind.containsKey(kind)) {
+                object.getSections().add(new Section(kind, kind == SectionKind.BSS ? null : contents.get(kind).toByteArray(),
+                        sizesByKind.get(kind), Math.max(kind.getAlignment(), alignmentsByKind.get(kind))));
+            }
+        }
+
+        // symbols; those of dropped sections and absolute ones (EQU constants) are left out
+        int symbolTableIndex = -1;
+        for (int i = 1; i < sectionHeaderCount; ++i) {
+            if (types[i] == SHT_SYMTAB) {
+                symbolTableIndex = i;
+            }
+        }
+        Symbol[] symbols = new Symbol[0];
+        if (symbolTableIndex >= 0) {
+            long stringTable = offsets[links[symbolTableIndex]];
+            symbols = new Symbol[(int) (sizes[symbolTableIndex] / SYMBOL_SIZE)];
+            for (int i = 1; i < symbols.length; ++i) {
+                int entry = (int) (offsets[symbolTableIndex] + (long) i * SYMBOL_SIZE);
+                String name = readString(bytes, stringTable + Integer.toUnsignedLong(buffer.getInt(entry)));
+                int binding = bytes[entry + 4] >> 4 & 0xF;
+                int type = bytes[entry + 4] & 0xF;
+                int section = Short.toUnsignedInt(buffer.getShort(entry + 6));
+                long value = buffer.getLong(entry + 8);
+                if (type == STT_FILE || section == SHN_ABS) {
+                    continue;
+                } else if (section == SHN_COMMON) {
+                    throw new IllegalArgumentException("common symbol " + name + " is not supported");
+                } else if (section == SHN_UNDEF) {
+                    symbols[i] = new Symbol(name, null, 0, true);
+                } else if (section < sectionHeaderCount && placements[section] != null) {
+                    if (type == STT_SECTION) {
+                        name = sectionNames[section];
+                    }
+                    Placement placement = placements[section];
+                    symbols[i] = new Symbol(name, placement.kind(), placement.offset() + value, binding != STB_LOCAL);
+                }
+                if (symbols[i] != null) {
+                    object.getSymbols().add(symbols[i]);
+                }
+            }
+        }
+
+        for (int i = 1; i < sectionHeaderCount; ++i) {
+            if (types[i] == SHT_REL) {
+                throw new IllegalArgumentException("relocations without addend are not supported");
+            }
+            if (types[i] != SHT_RELA || placements[infos[i]] == null) {
+                continue;
+            }
+            Placement placement = placements[infos[i]];
+            for (long entry = offsets[i]; entry < offsets[i] + sizes[i]; entry += RELOCATION_SIZE) {
+                long offset = buffer.getLong((int) entry);
+                long info = buffer.getLong((int) entry + 8);
+                long addend = buffer.getLong((int) entry + 16);
+                int symbolIndex = (int) (info >>> 32);
+                Symbol symbol = symbolIndex < symbols.length ? symbols[symbolIndex] : null;
+                if (symbol == null) {
+                    throw new IllegalArgumentException("relocation against unsupported symbol " + symbolIndex);
+                }
+                object.getRelocations().add(new Relocation(placement.kind(), placement.offset() + offset,
+                        getRelocationType((int) info), symbol, addend));
+            }
+        }
+        return object;
+    }
+
+    private static SectionKind getKind(String name, int type, long flags) {
+        for (SectionKind kind : SectionKind.values()) {
+            if (name.equals(kind.getName())) {
+                return kind;
+            }
+        }
+        for (SectionKind kind : SectionKind.values()) {
+            if (name.startsWith(kind.getName() + ".")) {
+                return kind;
+            }
+        }
+        if ((flags & SHF_EXECINSTR) != 0) {
+            return SectionKind.TEXT;
+        } else if ((flags & SHF_WRITE) != 0) {
+            return type == SHT_NOBITS ? SectionKind.BSS : SectionKind.DATA;
+        }
+        return SectionKind.RODATA;
+    }
+
+    private static RelocationType getRelocationType(int elfType) {
+        for (RelocationType type : RelocationType.values()) {
+            if (type.getElfType() == elfType) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("unsupported relocation type " + elfType);
+    }
+
+    private static String readString(byte[] bytes, long offset) {
+        int end = (int) offset;
+        while (bytes[end] != 0) {
+            ++end;
+        }
+        return new String(bytes, (int) offset, end - (int) offset, StandardCharsets.UTF_8);
+    }
+}
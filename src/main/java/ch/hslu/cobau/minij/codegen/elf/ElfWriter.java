@@ -0,0 +1,257 @@
+package ch.hslu.cobau.minij.codegen.elf;
+
+import ch.hslu.cobau.minij.codegen.elf.ObjectFile.Relocation;
+import ch.hslu.cobau.minij.codegen.elf.ObjectFile.Section;
+import ch.hslu.cobau.minij.codegen.elf.ObjectFile.SectionKind;
+import ch.hslu.cobau.minij.codegen.elf.ObjectFile.Symbol;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Writes a relocatable ELF64 object file (x86-64, little endian), as produced by "nasm -f elf64".
+ * The object can be linked with the runtime objects by ld.
+ */
+public class ElfWriter {
+    static final int ET_REL = 1;
+    static final int ET_EXEC = 2;
+    static final int EM_X86_64 = 62;
+    static final int ELF_HEADER_SIZE = 64;
+    static final int SECTION_HEADER_SIZE = 64;
+
+    static final int SHT_PROGBITS = 1;
+    static final int SHT_SYMTAB = 2;
+    static final int SHT_STRTAB = 3;
+    static final int SHT_RELA = 4;
+    static final int SHT_NOBITS = 8;
+
+    static final int SHF_WRITE = 0x1;
+    static final int SHF_ALLOC = 0x2;
+    static final int SHF_EXECINSTR = 0x4;
+    static final int SHF_INFO_LINK = 0x40;
+
+    static final int STB_LOCAL = 0;
+    static final int STB_GLOBAL = 1;
+    static final int STT_NOTYPE = 0;
+    static final int STT_SECTION = 3;
+
+    static final int SYMBOL_SIZE = 24;
+    static final int RELOCATION_SIZE = 24;
+
+    // a section header and the contents written at its offset
+    private static class Header {
+        private final String name;
+        private final int type;
+        private final long flags;
+        private byte[] contents;
+        private long size;
+        private final long alignment;
+        private final long entrySize;
+        private int link;
+        private int info;
+        private int nameOffset;
+        private long offset;
+
+        Header(String name, int type, long flags, byte[] contents, long size, long alignment, long entrySize) {
+            this.name = name;
+            this.type = type;
+            this.flags = flags;
+            this.contents = contents;
+            this.size = size;
+            this.alignment = alignment;
+            this.entrySize = entrySize;
+        }
+    }
+
+    public byte[] write(ObjectFile object) {
+        List<Header> headers = new ArrayList<>();
+        headers.add(new Header("", 0, 0, new byte[0], 0, 0, 0));
+
+        Map<SectionKind, Integer> sectionIndices = new EnumMap<>(SectionKind.class);
+        for (Section section : object.getSections()) {
+            sectionIndices.put(section.getKind(), headers.size());
+            headers.add(new Header(section.getKind().getName(), section.getKind() == SectionKind.BSS ? SHT_NOBITS : SHT_PROGBITS,
+                    getFlags(section.getKind()), section.getContents(), section.getSize(), section.getAlignment(), 0));
+        }
+
+        // symbols: section symbols and local symbols first, as required by ELF
+        List<Symbol> symbols = new ArrayList<>();
+        object.getSymbols().stream().filter(symbol -> !symbol.isGlobal()).forEach(symbols::add);
+        int firstGlobal = 1 + object.getSections().size() + symbols.size();
+        object.getSymbols().stream().filter(Symbol::isGlobal).forEach(symbols::add);
+
+        StringTable strings = new StringTable();
+        Buffer symbolTable = new Buffer();
+        symbolTable.writeBytes(new byte[SYMBOL_SIZE]);
+        for (Section section : object.getSections()) {
+            writeSymbol(symbolTable, 0, STB_LOCAL, STT_SECTION, sectionIndices.get(section.getKind()), 0);
+        }
+        Map<Symbol, Integer> symbolIndices = new HashMap<>();
+        for (Symbol symbol : symbols) {
+            symbolIndices.put(symbol, symbolTable.size() / SYMBOL_SIZE);
+            int sectionIndex = symbol.isDefined() ? sectionIndices.get(symbol.getSection()) : 0;
+            writeSymbol(symbolTable, strings.add(symbol.getName()), symbol.isGlobal() ? STB_GLOBAL : STB_LOCAL,
+                    STT_NOTYPE, sectionIndex, symbol.getValue());
+        }
+
+        int symbolTableIndex = headers.size();
+        Header symtab = new Header(".symtab", SHT_SYMTAB, 0, symbolTable.toByteArray(), symbolTable.size(), 8, SYMBOL_SIZE);
+        symtab.link = symbolTableIndex + 1;
+        symtab.info = firstGlobal;
+        headers.add(symtab);
+        byte[] stringBytes = strings.toByteArray();
+        headers.add(new Header(".strtab", SHT_STRTAB, 0, stringBytes, stringBytes.length, 1, 0));
+
+        for (Section section : object.getSections()) {
+            Buffer relocations = new Buffer();
+            for (Relocation relocation : object.getRelocations()) {
+                if (relocation.getSection() == section.getKind()) {
+                    relocations.writeLong(relocation.getOffset());
+                    relocations.writeLong((long) symbolIndices.get(relocation.getSymbol()) << 32 | relocation.getType().getElfType());
+                    relocations.writeLong(relocation.getAddend());
+                }
+            }
+            if (relocations.size() > 0) {
+                Header rela = new Header(".rela" + section.getKind().getName(), SHT_RELA, SHF_INFO_LINK,
+                        relocations.toByteArray(), relocations.size(), 8, RELOCATION_SIZE);
+                rela.link = symbolTableIndex;
+                rela.info = sectionIndices.get(section.getKind());
+                headers.add(rela);
+            }
+        }
+        // no executable stack
+        headers.add(new Header(".note.GNU-stack", SHT_PROGBITS, 0, new byte[0], 0, 1, 0));
+
+        int sectionNamesIndex = headers.size();
+        Header shstrtab = new Header(".shstrtab", SHT_STRTAB, 0, null, 0, 1, 0);
+        headers.add(shstrtab);
+        StringTable sectionNames = new StringTable();
+        for (Header header : headers) {
+            header.nameOffset = sectionNames.add(header.name);
+        }
+        shstrtab.contents = sectionNames.toByteArray();
+        shstrtab.size = shstrtab.contents.length;
+
+        // contents after the ELF header, followed by the section header table
+        Buffer file = new Buffer();
+        file.writeBytes(new byte[ELF_HEADER_SIZE]);
+        for (Header header : headers) {
+            if (header.contents != null && header.type != SHT_NOBITS && header.size > 0) {
+                file.align(header.alignment);
+                header.offset = file.size();
+                file.writeBytes(header.contents);
+            } else {
+                header.offset = file.size();
+            }
+        }
+        file.align(8);
+        long sectionHeaderOffset = file.size();
+        for (Header header : headers) {
+            file.writeInt(header.nameOffset);
+            file.writeInt(header.type);
+            file.writeLong(header.flags);
+            file.writeLong(0); // address
+            file.writeLong(header.offset);
+            file.writeLong(header.size);
+            file.writeInt(header.link);
+            file.writeInt(header.info);
+            file.writeLong(header.alignment);
+            file.writeLong(header.entrySize);
+        }
+
+        byte[] bytes = file.toByteArray();
+        Buffer elfHeader = new Buffer();
+        writeElfHeader(elfHeader, ET_REL, 0, 0, 0, sectionHeaderOffset, headers.size(), sectionNamesIndex);
+        System.arraycopy(elfHeader.toByteArray(), 0, bytes, 0, ELF_HEADER_SIZE);
+        return bytes;
+    }
+
+    static long getFlags(SectionKind kind) {
+        return switch (kind) {
+            case TEXT, TEXT_COLD -> SHF_ALLOC | SHF_EXECINSTR;
+            case DATA, BSS -> SHF_ALLOC | SHF_WRITE;
+            case RODATA -> SHF_ALLOC;
+        };
+    }
+
+    static void writeElfHeader(Buffer out, int type, long entry, long programHeaderOffset, int programHeaders,
+                               long sectionHeaderOffset, int sectionHeaders, int sectionNamesIndex) {
+        out.writeBytes(new byte[] { 0x7F, 'E', 'L', 'F', 2, 1, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0 });
+        out.writeShort(type);
+        out.writeShort(EM_X86_64);
+        out.writeInt(1); // version
+        out.writeLong(entry);
+        out.writeLong(programHeaderOffset);
+        out.writeLong(sectionHeaderOffset);
+        out.writeInt(0); // flags
+        out.writeShort(ELF_HEADER_SIZE);
+        out.writeShort(programHeaders > 0 ? 56 : 0);
+        out.writeShort(programHeaders);
+        out.writeShort(sectionHeaders > 0 ? SECTION_HEADER_SIZE : 0);
+        out.writeShort(sectionHeaders);
+        out.writeShort(sectionNamesIndex);
+    }
+
+    static void writeSymbol(Buffer out, int name, int binding, int type, int section, long value) {
+        out.writeInt(name);
+        out.write(binding << 4 | type);
+        out.write(0); // visibility
+        out.writeShort(section);
+        out.writeLong(value);
+        out.writeLong(0); // size
+    }
+
+    /**
+     * A little endian byte buffer.
+     */
+    static class Buffer extends ByteArrayOutputStream {
+        void writeShort(int value) {
+            write(value & 0xFF);
+            write(value >> 8 & 0xFF);
+        }
+
+        void writeInt(long value) {
+            for (int i = 0; i < 4; ++i) {
+                write((int) (value >> (8 * i)) & 0xFF);
+            }
+        }
+
+        void writeLong(long value) {
+            for (int i = 0; i < 8; ++i) {
+                write((int) (value >> (8 * i)) & 0xFF);
+            }
+        }
+
+        void align(long alignment) {
+            while (alignment > 1 && size() % alignment != 0) {
+                write(0);
+            }
+        }
+    }
+
+    /**
+     * A string table: null terminated names, starting with the empty name at offset 0.
+     */
+    static class StringTable {
+        private final Buffer bytes = new Buffer();
+        private final Map<String, Integer> offsets = new HashMap<>();
+
+        StringTable() {
+            add("");
+        }
+
+        int add(String name) {
+            return offsets.computeIfAbsent(name, key -> {
+                int offset = bytes.size();
+                bytes.writeBytes(key.getBytes(StandardCharsets.UTF_8));
+                bytes.write(0);
+                return offset;
+            });
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package ch.hslu.cobau.minij.codegen.elf;
+
+import ch.hslu.cobau.minij.codegen.asm.*;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Encodes single instructions into x86-64 machine code. The encoder picks the same forms as NASM
+ * (with its default optimization): sign extended 8-bit immediates and displacements where they fit,
+ * the short accumulator forms for rax and 32-bit moves for non-negative 32-bit constants.
+ *
+ * Operands referring to labels leave a zero 32-bit field, which is described by the fixup of the result.
+ */
+class InstructionEncoder {
+    /**
+     * The machine code of an instruction. If fixupLabel is not null, the 32-bit field at fixupOffset
+     * has to receive (address of label) + addend - (address of the field).
+     */
+    record Encoding(byte[] bytes, Label fixupLabel, int fixupOffset, long addend) { }
+
+    private static final int REX = 0x40;
+    private static final int REX_W = 0x08;
+    private static final int REX_R = 0x04;
+    private static final int REX_X = 0x02;
+    private static final int REX_B = 0x01;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private Label fixupLabel;
+    private int fixupOffset;
+    private long fixupDisplacement;
+
+    /**
+     * @return The size of a jmp or jcc with an 8-bit (short) or 32-bit displacement.
+     */
+    static int branchSize(Instruction instruction, boolean isShort) {
+        if (isShort) {
+            return 2;
+        }
+        return instruction.getOpcode() == Opcode.JMP ? 5 : 6;
+    }
+
+    /**
+     * Encodes a jmp or jcc to a label with the given displacement (relative to the end of the instruction).
+     */
+    static byte[] encodeBranch(Instruction instruction, boolean isShort, long displacement) {
+        boolean conditional = instruction.getOpcode() == Opcode.JCC;
+        int condition = conditional ? conditionCode(instruction.getCondition()) : 0;
+        if (isShort) {
+            return new byte[] { (byte) (conditional ? 0x70 + condition : 0xEB), (byte) displacement };
+        }
+        byte[] bytes = new byte[branchSize(instruction, false)];
+        int position = 0;
+        if (conditional) {
+            bytes[position++] = 0x0F;
+            bytes[position++] = (byte) (0x80 + condition);
+        } else {
+            bytes[position++] = (byte) 0xE9;
+        }
+        for (int i = 0; i < 4; ++i) {
+            bytes[position++] = (byte) (displacement >> (8 * i));
+        }
+        return bytes;
+    }
+
+    /**
+     * Encodes all instructions except labels and jumps to labels (see encodeBranch).
+     */
+    Encoding encode(Instruction instruction) {
+        out.reset();
+        fixupLabel = null;
+        fixupOffset = -1;
+        fixupDisplacement = 0;
+
+        Opcode opcode = instruction.getOpcode();
+        Operand first = instruction.getOperands().isEmpty() ? null : instruction.getOperand(0);
+        Operand second = instruction.getOperands().size() < 2 ? null : instruction.getOperand(1);
+        switch (opcode) {
+            case MOV -> move(first, second);
+            case MOVZX -> modrm(REX_W, new int[] { 0x0F, 0xB6 }, register(first), second, true);
+            case LEA -> modrm(REX_W, new int[] { 0x8D }, register(first), second, false);
+            case PUSH -> push(first);
+            case POP -> {
+                if (first instanceof Register register) {
+                    shortForm(0x58, register);
+                } else {
+                    modrm(0, new int[] { 0x8F }, 0, first, false);
+                }
+            }
+            case ADD -> arithmetic(0, first, second);
+            case OR -> arithmetic(1, first, second);
+            case AND -> arithmetic(4, first, second);
+            case SUB -> arithmetic(5, first, second);
+            case XOR -> arithmetic(6, first, second);
+            case CMP -> arithmetic(7, first, second);
+            case TEST -> test(first, second);
+            case IMUL -> multiply(first, second);
+            case IDIV -> modrm(REX_W, new int[] { 0xF7 }, 7, first, false);
+            case NEG -> modrm(REX_W, new int[] { 0xF7 }, 3, first, false);
+            case NOT -> modrm(REX_W, new int[] { 0xF7 }, 2, first, false);
+            case CQO -> {
+                out.write(REX | REX_W);
+                out.write(0x99);
+            }
+            case SETCC -> modrm(0, new int[] { 0x0F, 0x90 + conditionCode(instruction.getCondition()) }, 0, first, true);
+            case CMOVCC -> modrm(REX_W, new int[] { 0x0F, 0x40 + conditionCode(instruction.getCondition()) }, register(first), second, false);
+            case CALL -> {
+                if (first instanceof Label label) {
+                    out.write(0xE8);
+                    fixup(label);
+                    write32(0);
+                } else {
+                    modrm(0, new int[] { 0xFF }, 2, first, false);
+                }
+            }
+            case JMP -> modrm(0, new int[] { 0xFF }, 4, first, false);
+            case RET -> out.write(0xC3);
+            case MOVDQU -> {
+                if (first instanceof Memory) {
+                    sse(0xF3, 0, 0x7F, xmm(second), first);
+                } else {
+                    sse(0xF3, 0, 0x6F, xmm(first), second);
+                }
+            }
+            case MOVQ -> {
+                if (first instanceof XmmRegister) {
+                    sse(0x66, REX_W, 0x6E, xmm(first), second);
+                } else {
+                    sse(0x66, REX_W, 0x7E, xmm(second), first);
+                }
+            }
+            case PADDQ -> sse(0x66, 0, 0xD4, xmm(first), second);
+            case PXOR -> sse(0x66, 0, 0xEF, xmm(first), second);
+            case PSHUFD -> {
+                sse(0x66, 0, 0x70, xmm(first), second);
+                out.write((int) ((Immediate) instruction.getOperand(2)).getValue() & 0xFF);
+            }
+            default -> throw new IllegalArgumentException("cannot encode " + instruction);
+        }
+
+        byte[] bytes = out.toByteArray();
+        // the field is relative to the end of the instruction, which may have an immediate after it
+        long addend = fixupLabel == null ? 0 : fixupDisplacement - (bytes.length - fixupOffset);
+        return new Encoding(bytes, fixupLabel, fixupOffset, addend);
+    }
+
+    private void move(Operand target, Operand source) {
+        boolean byteAccess = isByteMemory(target) || isByteMemory(source);
+        if (target instanceof Register register && source instanceof Immediate immediate) {
+            long value = immediate.getValue();
+            if (value >= 0 && value <= 0xFFFFFFFFL) {
+                // writing the 32-bit register clears the upper half
+                shortForm(0xB8, register);
+                write32(value);
+            } else if (immediate.isInt32()) {
+                modrm(REX_W, new int[] { 0xC7 }, 0, register, false);
+                write32(value);
+            } else {
+                rex(REX_W, null, register, false);
+                out.write(0xB8 + (register.getEncoding() & 7));
+                for (int i = 0; i < 8; ++i) {
+                    out.write((int) (value >> (8 * i)) & 0xFF);
+                }
+            }
+        } else if (source instanceof Immediate immediate) {
+            if (byteAccess) {
+                modrm(0, new int[] { 0xC6 }, 0, target, false);
+                out.write((int) immediate.getValue() & 0xFF);
+            } else {
+                modrm(REX_W, new int[] { 0xC7 }, 0, target, false);
+                write32(immediate.getValue());
+            }
+        } else if (source instanceof Register register) {
+            modrm(byteAccess ? 0 : REX_W, new int[] { byteAccess ? 0x88 : 0x89 }, register.getEncoding(), target, byteAccess);
+        } else {
+            modrm(byteAccess ? 0 : REX_W, new int[] { byteAccess ? 0x8A : 0x8B }, register(target), source, byteAccess);
+        }
+    }
+
+    private void push(Operand operand) {
+        switch (operand) {
+            case Register register -> shortForm(0x50, register);
+            case Immediate immediate when isInt8(immediate.getValue()) -> {
+                out.write(0x6A);
+                out.write((int) immediate.getValue() & 0xFF);
+            }
+            case Immediate immediate -> {
+                out.write(0x68);
+                write32(immediate.getValue());
+            }
+            default -> modrm(0, new int[] { 0xFF }, 6, operand, false);
+        }
+    }
+
+    // add, or, and, sub, xor and cmp share their encodings, selected by the operation number
+    private void arithmetic(int operation, Operand target, Operand source) {
+        boolean byteAccess = isByteMemory(target);
+        if (source instanceof Immediate immediate) {
+            long value = immediate.getValue();
+            if (byteAccess) {
+                modrm(0, new int[] { 0x80 }, operation, target, false);
+                out.write((int) value & 0xFF);
+            } else if (isInt8(value)) {
+                modrm(REX_W, new int[] { 0x83 }, operation, target, false);
+                out.write((int) value & 0xFF);
+            } else if (target == Register.RAX) {
+                out.write(REX | REX_W);
+                out.write(8 * operation + 5);
+                write32(value);
+            } else {
+                modrm(REX_W, new int[] { 0x81 }, operation, target, false);
+                write32(value);
+            }
+        } else if (source instanceof Register register) {
+            modrm(byteAccess ? 0 : REX_W, new int[] { 8 * operation + (byteAccess ? 0 : 1) }, register.getEncoding(), target, byteAccess);
+        } else {
+            modrm(REX_W, new int[] { 8 * operation + 3 }, register(target), source, false);
+        }
+    }
+
+    private void test(Operand target, Operand source) {
+        if (source instanceof Immediate immediate) {
+            if (target == Register.RAX) {
+                out.write(REX | REX_W);
+                out.write(0xA9);
+            } else {
+                modrm(REX_W, new int[] { 0xF7 }, 0, target, false);
+            }
+            write32(immediate.getValue());
+        } else {
+            modrm(REX_W, new int[] { 0x85 }, register(source), target, false);
+        }
+    }
+
+    private void multiply(Operand target, Operand source) {
+        if (source instanceof Immediate immediate) {
+            boolean small = isInt8(immediate.getValue());
+            modrm(REX_W, new int[] { small ? 0x6B : 0x69 }, register(target), target, false);
+            if (small) {
+                out.write((int) immediate.getValue() & 0xFF);
+            } else {
+                write32(immediate.getValue());
+            }
+        } else {
+            modrm(REX_W, new int[] { 0x0F, 0xAF }, register(target), source, false);
+        }
+    }
+
+    // SSE instructions: the mandatory prefix precedes the rex prefix, the opcode follows the 0F escape
+    private void sse(int prefix, int rexBits, int opcode, int reg, Operand rm) {
+        out.write(prefix);
+        if (rm instanceof XmmRegister register) {
+            int rexRm = register.getEncoding() >= 8 ? REX_B : 0;
+            rex(rexBits | rexRm | (reg >= 8 ? REX_R : 0), null, null, false);
+            out.write(0x0F);
+            out.write(opcode);
+            out.write(0xC0 | (reg & 7) << 3 | (register.getEncoding() & 7));
+        } else {
+            modrm(rexBits, new int[] { 0x0F, opcode }, reg, rm, false);
+        }
+    }
+
+    // instructions with the register in the low bits of the opcode (push, pop, mov imm)
+    private void shortForm(int opcode, Register register) {
+        rex(0, null, register, false);
+        out.write(opcode + (register.getEncoding() & 7));
+    }
+
+    /**
+     * Writes prefix, opcode, ModRM, SIB and displacement of an instruction with a register or memory
+     * operand (rm) and a register number or opcode extension (reg).
+     */
+    private void modrm(int rexBits, int[] opcode, int reg, Operand rm, boolean byteRegisters) {
+        Register base = null;
+        Register index = null;
+        if (rm instanceof Register register) {
+            base = register;
+        } else if (rm instanceof Memory memory) {
+            base = memory.getBase();
+            index = memory.getIndex();
+        }
+        int rexReg = reg >= 8 ? REX_R : 0;
+        // the 8-bit views spl, bpl, sil and dil of reg or rm require a rex prefix
+        boolean needsRex = byteRegisters && (reg >= 4 && reg < 8
+                || rm instanceof Register register && register.getEncoding() >= 4 && register.getEncoding() < 8);
+        rex(rexBits | rexReg, index, base, needsRex);
+        for (int b : opcode) {
+            out.write(b);
+        }
+
+        int regBits = (reg & 7) << 3;
+        if (rm instanceof Register register) {
+            out.write(0xC0 | regBits | (register.getEncoding() & 7));
+            return;
+        }
+
+        Memory memory = (Memory) rm;
+        if (memory.getLabel() != null) {
+            // rip relative
+            out.write(regBits | 0x05);
+            fixup(memory.getLabel());
+            fixupDisplacement = memory.getDisplacement();
+            write32(0);
+            return;
+        }
+
+        long displacement = memory.getDisplacement();
+        int baseBits = memory.getBase().getEncoding() & 7;
+        int mod;
+        if (displacement == 0 && baseBits != 5) {
+            mod = 0x00;
+        } else if (isInt8(displacement)) {
+            mod = 0x40;
+        } else {
+            mod = 0x80;
+        }
+
+        if (index != null || baseBits == 4) {
+            out.write(mod | regBits | 0x04);
+            int scaleBits = switch (memory.getScale()) {
+                case 2 -> 1;
+                case 4 -> 2;
+                case 8 -> 3;
+                default -> 0;
+            };
+            int indexBits = index == null ? 4 : index.getEncoding() & 7;
+            out.write(scaleBits << 6 | indexBits << 3 | baseBits);
+        } else {
+            out.write(mod | regBits | baseBits);
+        }
+
+        if (mod == 0x40) {
+            out.write((int) displacement & 0xFF);
+        } else if (mod == 0x80) {
+            write32(displacement);
+        }
+    }
+
+    private void rex(int bits, Register index, Register base, boolean force) {
+        if (index != null && index.getEncoding() >= 8) {
+            bits |= REX_X;
+        }
+        if (base != null && base.getEncoding() >= 8) {
+            bits |= REX_B;
+        }
+        if (bits != 0 || force) {
+            out.write(REX | bits);
+        }
+    }
+
+    private void fixup(Label label) {
+        fixupLabel = label;
+        fixupOffset = out.size();
+    }
+
+    private void write32(long value) {
+        for (int i = 0; i < 4; ++i) {
+            out.write((int) (value >> (8 * i)) & 0xFF);
+        }
+    }
+
+    private static boolean isByteMemory(Operand operand) {
+        return operand instanceof Memory memory && memory.getSize() == 1;
+    }
+
+    private static int register(Operand operand) {
+        return ((Register) operand).getEncoding();
+    }
+
+    private static int xmm(Operand operand) {
+        return ((XmmRegister) operand).getEncoding();
+    }
+
+    private static boolean isInt8(long value) {
+        return value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE;
+    }
+
+    static int conditionCode(Condition condition) {
+        return switch (condition) {
+            case O -> 0x0;
+            case NO -> 0x1;
+            case B -> 0x2;
+            case AE -> 0x3;
+            case E -> 0x4;
+            case NE -> 0x5;
+            case BE -> 0x6;
+            case A -> 0x7;
+            case S -> 0x8;
+            case NS -> 0x9;
+            case L -> 0xC;
+            case GE -> 0xD;
+            case LE -> 0xE;
+            case G -> 0xF;
+        };
+    }
+}
@@ -0,0 +1,294 @@
+package ch.hslu.cobau.minij.codegen.elf;
+
+import ch.hslu.cobau.minij.codegen.elf.ElfWriter.Buffer;
+import ch.hslu.cobau.minij.codegen.elf.ElfWriter.StringTable;
+import ch.hslu.cobau.minij.codegen.elf.ObjectFile.Relocation;
+import ch.hslu.cobau.minij.codegen.elf.ObjectFile.Section;
+import ch.hslu.cobau.minij.codegen.elf.ObjectFile.SectionKind;
+import ch.hslu.cobau.minij.codegen.elf.ObjectFile.Symbol;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static ch.hslu.cobau.minij.codegen.elf.ElfWriter.*;
+
+/**
+ * A static linker for the objects of the compiler and the runtime, i.e. does what "ld -o target objects"
+ * does for them, without starting a process. The executable has three segments at fixed addresses:
+ * .text followed by .text.cold (read, execute), .rodata (read only) and .data and .bss (read, write), each
+ * starting on a new page. Like ld's -z separate-code, .rodata also starts on a new page of the file, so
+ * that no byte of it is mapped executable.
+ * Section headers and the symbol table are kept, so that the executables can be disassembled and
+ * profiled like those linked by ld.
+ */
+public class Linker {
+    private static final long IMAGE_BASE = 0x400000;
+    private static final long PAGE_SIZE = 0x1000;
+    private static final int PROGRAM_HEADER_SIZE = 56;
+    private static final int PROGRAM_HEADERS = 4;
+    private static final int SECTION_HEADERS = 1 + SectionKind.values().length + 3;
+
+    private static final int PT_LOAD = 1;
+    private static final int PT_GNU_STACK = 0x6474E551;
+    private static final int PF_X = 0x1;
+    private static final int PF_W = 0x2;
+    private static final int PF_R = 0x4;
+
+    private static final String ENTRY = "_start";
+    private static final List<SectionKind> SEGMENT_ORDER =
+            List.of(SectionKind.TEXT, SectionKind.TEXT_COLD, SectionKind.RODATA, SectionKind.DATA, SectionKind.BSS);
+
+    private final List<ObjectFile> objects = new ArrayList<>();
+
+    /**
+     * Links objects into an executable, usage: Linker -o target objects (used by the linkAsm tasks
+     * instead of ld with -PbuiltInLinker).
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3 || !args[0].equals("-o")) {
+            System.err.println("usage: Linker -o <target> <objects>");
+            System.exit(1);
+        }
+        Linker linker = new Linker();
+        ElfReader reader = new ElfReader();
+        for (int i = 2; i < args.length; ++i) {
+            linker.add(reader.read(Files.readAllBytes(Path.of(args[i]))));
+        }
+        writeExecutable(Path.of(args[1]), linker.link());
+    }
+
+    /**
+     * Writes the linked bytes and makes the file executable (where the file system supports it).
+     */
+    public static void writeExecutable(Path target, byte[] bytes) throws IOException {
+        Files.write(target, bytes);
+        target.toFile().setExecutable(true);
+    }
+
+    public void add(ObjectFile object) {
+        objects.add(object);
+    }
+
+    /**
+     * Adds all relocatable objects (*.o) of a directory, e.g. the runtime in build/objects/runtime.
+     */
+    public void addDirectory(Path directory) throws IOException {
+        List<Path> files;
+        try (var stream = Files.list(directory)) {
+            files = stream.filter(file -> file.getFileName().toString().endsWith(".o")).sorted().toList();
+        }
+        if (files.isEmpty()) {
+            throw new IOException("no objects in " + directory);
+        }
+        ElfReader reader = new ElfReader();
+        for (Path file : files) {
+            add(reader.read(Files.readAllBytes(file)));
+        }
+    }
+
+    public byte[] link() {
+        // place the sections of all objects, kind by kind: .text and .text.cold after the headers in the first
+        // segment, .rodata in the second segment and .data and .bss in the third, each on a new page
+        Map<Section, Long> offsets = new HashMap<>();
+        Map<Section, Long> addresses = new HashMap<>();
+        Map<SectionKind, long[]> ranges = new EnumMap<>(SectionKind.class); // file offset, start and end address
+        long offset = ELF_HEADER_SIZE + (long) PROGRAM_HEADERS * PROGRAM_HEADER_SIZE;
+        long address = IMAGE_BASE + offset;
+        for (SectionKind kind : SEGMENT_ORDER) {
+            if (kind == SectionKind.RODATA) {
+                offset = align(offset, PAGE_SIZE);
+                address = align(address, PAGE_SIZE);
+            } else if (kind == SectionKind.DATA) {
+                address = align(address, PAGE_SIZE) + offset % PAGE_SIZE;
+            }
+            long kindPadding = align(address, kind.getAlignment()) - address;
+            address += kindPadding;
+            if (kind != SectionKind.BSS) {
+                offset += kindPadding;
+            }
+            long kindOffset = offset;
+            long kindAddress = address;
+            for (ObjectFile object : objects) {
+                Section section = object.getSection(kind);
+                if (section == null) {
+                    continue;
+                }
+                long padding = align(address, section.getAlignment()) - address;
+                address += padding + section.getSize();
+                addresses.put(section, address - section.getSize());
+                if (kind != SectionKind.BSS) {
+                    offset += padding;
+                    offsets.put(section, offset);
+                    offset += section.getSize();
+                }
+            }
+            ranges.put(kind, new long[] { kindOffset, kindAddress, address });
+        }
+
+        // global symbols, each defined once
+        Map<String, Long> globals = new HashMap<>();
+        for (ObjectFile object : objects) {
+            for (Symbol symbol : object.getSymbols()) {
+                if (symbol.isGlobal() && symbol.isDefined()
+                        && globals.put(symbol.getName(), getAddress(object, symbol, addresses)) != null) {
+                    throw new IllegalStateException("duplicate symbol " + symbol.getName());
+                }
+            }
+        }
+        if (!globals.containsKey(ENTRY)) {
+            throw new IllegalStateException("undefined symbol " + ENTRY);
+        }
+
+        byte[] image = new byte[(int) offset];
+        for (ObjectFile object : objects) {
+            for (Section section : object.getSections()) {
+                if (section.getContents() != null) {
+                    System.arraycopy(section.getContents(), 0, image, offsets.get(section).intValue(), section.getContents().length);
+                }
+            }
+            relocate(object, image, offsets, addresses, globals);
+        }
+
+        Buffer file = new Buffer();
+        file.writeBytes(image);
+        long sectionHeaderOffset = writeSectionHeaders(file, ranges, addresses);
+        byte[] bytes = file.toByteArray();
+
+        long[] cold = ranges.get(SectionKind.TEXT_COLD);
+        long[] rodata = ranges.get(SectionKind.RODATA);
+        long[] data = ranges.get(SectionKind.DATA);
+        long[] bss = ranges.get(SectionKind.BSS);
+        Buffer headers = new Buffer();
+        writeElfHeader(headers, ET_EXEC, globals.get(ENTRY), ELF_HEADER_SIZE, PROGRAM_HEADERS,
+                sectionHeaderOffset, SECTION_HEADERS, SECTION_HEADERS - 1);
+        writeProgramHeader(headers, PT_LOAD, PF_R | PF_X, 0, IMAGE_BASE, cold[2] - IMAGE_BASE, cold[2] - IMAGE_BASE);
+        writeProgramHeader(headers, PT_LOAD, PF_R, rodata[0], rodata[1], rodata[2] - rodata[1], rodata[2] - rodata[1]);
+        writeProgramHeader(headers, PT_LOAD, PF_R | PF_W, data[0], data[1], offset - data[0], bss[2] - data[1]);
+        writeProgramHeader(headers, PT_GNU_STACK, PF_R | PF_W, 0, 0, 0, 0);
+        System.arraycopy(headers.toByteArray(), 0, bytes, 0, headers.size());
+        return bytes;
+    }
+
+    private void relocate(ObjectFile object, byte[] image, Map<Section, Long> offsets, Map<Section, Long> addresses,
+                          Map<String, Long> globals) {
+        for (Relocation relocation : object.getRelocations()) {
+            Symbol symbol = relocation.getSymbol();
+            Long target = symbol.isDefined() ? getAddress(object, symbol, addresses) : globals.get(symbol.getName());
+            if (target == null) {
+                throw new IllegalStateException("undefined symbol " + symbol.getName());
+            }
+            Section section = object.getSection(relocation.getSection());
+            long field = addresses.get(section) + relocation.getOffset();
+            long value = target + relocation.getAddend();
+            int position = (int) (offsets.get(section) + relocation.getOffset());
+            switch (relocation.getType()) {
+                case PC32, PLT32 -> write32(image, position, value - field, true, symbol);
+                case ABS32 -> write32(image, position, value, false, symbol);
+                case ABS32S -> write32(image, position, value, true, symbol);
+                case ABS64 -> {
+                    for (int i = 0; i < 8; ++i) {
+                        image[position + i] = (byte) (value >> (8 * i));
+                    }
+                }
+            }
+        }
+    }
+
+    // appends a symbol table with the named symbols of all objects (for disassemblers and profilers) and the
+    // section headers: null, one section per kind in SectionKind order, .symtab, .strtab and .shstrtab
+    private long writeSectionHeaders(Buffer file, Map<SectionKind, long[]> ranges, Map<Section, Long> addresses) {
+        Buffer symbolTable = new Buffer();
+        StringTable strings = new StringTable();
+        symbolTable.writeBytes(new byte[SYMBOL_SIZE]);
+        int firstGlobal = 0;
+        for (boolean global : new boolean[] { false, true }) {
+            if (global) {
+                firstGlobal = symbolTable.size() / SYMBOL_SIZE;
+            }
+            for (ObjectFile object : objects) {
+                for (Symbol symbol : object.getSymbols()) {
+                    if (symbol.isGlobal() == global && symbol.isDefined() && !symbol.getName().startsWith(".")) {
+                        writeSymbol(symbolTable, strings.add(symbol.getName()), global ? STB_GLOBAL : STB_LOCAL, STT_NOTYPE,
+                                1 + symbol.getSection().ordinal(), getAddress(object, symbol, addresses));
+                    }
+                }
+            }
+        }
+        byte[] stringBytes = strings.toByteArray();
+        StringTable sectionNames = new StringTable();
+        for (SectionKind kind : SectionKind.values()) {
+            sectionNames.add(kind.getName());
+        }
+        for (String name : List.of(".symtab", ".strtab", ".shstrtab")) {
+            sectionNames.add(name);
+        }
+        byte[] sectionNameBytes = sectionNames.toByteArray();
+
+        file.align(8);
+        long symbolTableOffset = file.size();
+        file.writeBytes(symbolTable.toByteArray());
+        long stringsOffset = file.size();
+        file.writeBytes(stringBytes);
+        long sectionNamesOffset = file.size();
+        file.writeBytes(sectionNameBytes);
+
+        file.align(8);
+        long sectionHeaderOffset = file.size();
+        file.writeBytes(new byte[SECTION_HEADER_SIZE]);
+        for (SectionKind kind : SectionKind.values()) {
+            long[] range = ranges.get(kind);
+            writeSectionHeader(file, sectionNames.add(kind.getName()), kind == SectionKind.BSS ? SHT_NOBITS : SHT_PROGBITS,
+                    getFlags(kind), range[1], range[0], range[2] - range[1], 0, 0, kind.getAlignment(), 0);
+        }
+        writeSectionHeader(file, sectionNames.add(".symtab"), SHT_SYMTAB, 0, 0, symbolTableOffset, symbolTable.size(),
+                SECTION_HEADERS - 2, firstGlobal, 8, SYMBOL_SIZE);
+        writeSectionHeader(file, sectionNames.add(".strtab"), SHT_STRTAB, 0, 0, stringsOffset, stringBytes.length, 0, 0, 1, 0);
+        writeSectionHeader(file, sectionNames.add(".shstrtab"), SHT_STRTAB, 0, 0, sectionNamesOffset, sectionNameBytes.length, 0, 0, 1, 0);
+        return sectionHeaderOffset;
+    }
+
+    private static void writeProgramHeader(Buffer out, int type, int flags, long offset, long address, long fileSize, long memorySize) {
+        out.writeInt(type);
+        out.writeInt(flags);
+        out.writeLong(offset);
+        out.writeLong(address);
+        out.writeLong(address); // physical address
+        out.writeLong(fileSize);
+        out.writeLong(memorySize);
+        out.writeLong(type == PT_LOAD ? PAGE_SIZE : 16);
+    }
+
+    private static void writeSectionHeader(Buffer out, int name, int type, long flags, long address, long offset, long size,
+                                           int link, int info, long alignment, long entrySize) {
+        out.writeInt(name);
+        out.writeInt(type);
+        out.writeLong(flags);
+        out.writeLong(address);
+        out.writeLong(offset);
+        out.writeLong(size);
+        out.writeInt(link);
+        out.writeInt(info);
+        out.writeLong(alignment);
+        out.writeLong(entrySize);
+    }
+
+    private static long getAddress(ObjectFile object, Symbol symbol, Map<Section, Long> addresses) {
+        return addresses.get(object.getSection(symbol.getSection())) + symbol.getValue();
+    }
+
+    private static void write32(byte[] image, int position, long value, boolean signed, Symbol symbol) {
+        boolean fits = signed ? value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE : value >= 0 && value <= 0xFFFFFFFFL;
+        if (!fits) {
+            throw new IllegalStateException("relocation against " + symbol.getName() + " out of range");
+        }
+        for (int i = 0; i < 4; ++i) {
+            image[position + i] = (byte) (value >> (8 * i));
+        }
+    }
+
+    private static long align(long value, long alignment) {
+        return (value + alignment - 1) / alignment * alignment;
+    }
+}
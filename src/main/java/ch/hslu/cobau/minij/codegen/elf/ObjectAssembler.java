@@ -0,0 +1,265 @@
+package ch.hslu.cobau.minij.codegen.elf;
+
+import ch.hslu.cobau.minij.codegen.asm.*;
+import ch.hslu.cobau.minij.codegen.elf.ObjectFile.Relocation;
+import ch.hslu.cobau.minij.codegen.elf.ObjectFile.RelocationType;
+import ch.hslu.cobau.minij.codegen.elf.ObjectFile.Section;
+import ch.hslu.cobau.minij.codegen.elf.ObjectFile.SectionKind;
+import ch.hslu.cobau.minij.codegen.elf.ObjectFile.Symbol;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+/**
+ * Assembles an assembly unit into a relocatable object, i.e. does what NASM does with the output of
+ * the NasmWriter. Jumps start out in their short form and are widened until all displacements fit
+ * (like NASM's multi-pass branch optimization). References within .text, and within .text.cold, are
+ * resolved directly. References from one of them to the other, to data and to external symbols become
+ * relocations, jumps to the other code section always take the near form.
+ */
+public class ObjectAssembler {
+    // an instruction of .text or .text.cold with its encoding, or a label definition
+    private static class Item {
+        private final Instruction instruction;
+        private final String definedLabel;
+        private final String branchTarget;
+        private final InstructionEncoder.Encoding encoding;
+        private boolean isShort = true;
+        private long offset;
+
+        Item(Instruction instruction, String definedLabel, String branchTarget, InstructionEncoder.Encoding encoding) {
+            this.instruction = instruction;
+            this.definedLabel = definedLabel;
+            this.branchTarget = branchTarget;
+            this.encoding = encoding;
+        }
+
+        long size() {
+            if (definedLabel != null) {
+                return 0;
+            } else if (branchTarget != null) {
+                return InstructionEncoder.branchSize(instruction, isShort);
+            }
+            return encoding.bytes().length;
+        }
+    }
+
+    // a quad word of a data section holding the address of a label, resolved once all symbols are known
+    private record AddressValue(SectionKind section, long offset, Label label) { }
+
+    // a field of a code section referring to a label outside of the section, resolved once all symbols are known
+    private record Fixup(SectionKind section, long offset, String label, long addend, boolean call) { }
+
+    // a symbol and the offset of a label from it
+    private record Target(Symbol symbol, long offset) { }
+
+    private final InstructionEncoder encoder = new InstructionEncoder();
+
+    public ObjectFile assemble(AssemblyUnit unit) {
+        ObjectFile object = new ObjectFile();
+        Map<String, Symbol> symbols = new LinkedHashMap<>();
+
+        // code: encode, relax branches, then resolve fixups; the cold instructions of all functions follow in
+        // .text.cold, each starting with the cold label of its function
+        List<Item> items = new ArrayList<>();
+        List<Item> coldItems = new ArrayList<>();
+        for (AssemblyFunction function : unit.getFunctions()) {
+            String name = function.getLabel().getName();
+            if (function.isCold()) {
+                addItems(coldItems, name, name, function.getInstructions());
+            } else {
+                addItems(items, name, name, function.getInstructions());
+                if (!function.getColdInstructions().isEmpty()) {
+                    addItems(coldItems, function.getColdLabel().getName(), name, function.getColdInstructions());
+                }
+            }
+        }
+        Map<String, Long> textLabels = layout(items);
+        Map<String, Long> coldLabels = layout(coldItems);
+
+        List<Fixup> fixups = new ArrayList<>();
+        byte[] text = encode(items, SectionKind.TEXT, textLabels, fixups);
+        object.getSections().add(new Section(SectionKind.TEXT, text, text.length, SectionKind.TEXT.getAlignment()));
+        if (!coldItems.isEmpty()) {
+            byte[] cold = encode(coldItems, SectionKind.TEXT_COLD, coldLabels, fixups);
+            object.getSections().add(new Section(SectionKind.TEXT_COLD, cold, cold.length, SectionKind.TEXT_COLD.getAlignment()));
+        }
+        Map<String, Symbol> coldSymbols = new HashMap<>(); // by function
+        for (AssemblyFunction function : unit.getFunctions()) {
+            String name = function.getLabel().getName();
+            boolean global = unit.getGlobals().contains(name);
+            if (function.isCold()) {
+                symbols.put(name, new Symbol(name, SectionKind.TEXT_COLD, coldLabels.get(name), global));
+                continue;
+            }
+            symbols.put(name, new Symbol(name, SectionKind.TEXT, textLabels.get(name), global));
+            String coldName = function.getColdLabel().getName();
+            if (coldLabels.containsKey(coldName)) {
+                Symbol coldSymbol = new Symbol(coldName, SectionKind.TEXT_COLD, coldLabels.get(coldName), false);
+                symbols.put(coldName, coldSymbol);
+                coldSymbols.put(name, coldSymbol);
+            }
+        }
+
+        List<AddressValue> addresses = new ArrayList<>();
+        addData(object, symbols, unit, SectionKind.DATA, unit.getData(), addresses);
+        addData(object, symbols, unit, SectionKind.RODATA, unit.getReadOnlyData(), addresses);
+        addData(object, symbols, unit, SectionKind.BSS, unit.getBss(), addresses);
+        for (String extern : unit.getExterns()) {
+            symbols.put(extern, new Symbol(extern, null, 0, true));
+        }
+        object.getSymbols().addAll(symbols.values());
+
+        for (Fixup fixup : fixups) {
+            Target target = resolve(fixup.label(), symbols, coldSymbols, textLabels, coldLabels);
+            RelocationType type = fixup.call() && !target.symbol().isDefined() ? RelocationType.PLT32 : RelocationType.PC32;
+            object.getRelocations().add(new Relocation(fixup.section(), fixup.offset(), type, target.symbol(),
+                    target.offset() + fixup.addend()));
+        }
+        for (AddressValue address : addresses) {
+            Target target = resolve(address.label().getName(), symbols, coldSymbols, textLabels, coldLabels);
+            object.getRelocations().add(new Relocation(address.section(), address.offset(), RelocationType.ABS64,
+                    target.symbol(), target.offset()));
+        }
+        return object;
+    }
+
+    // adds the definition of the label and the instructions, whose local labels are scoped to the function
+    private void addItems(List<Item> items, String label, String function, List<Instruction> instructions) {
+        items.add(new Item(null, label, null, null));
+        for (Instruction instruction : instructions) {
+            Label target = instruction.getLabel();
+            if (instruction.isLabel()) {
+                items.add(new Item(instruction, qualify(function, target), null, null));
+            } else if (target != null) {
+                items.add(new Item(instruction, null, qualify(function, target), null));
+            } else {
+                items.add(new Item(instruction, null, null, encoder.encode(instruction)));
+            }
+        }
+    }
+
+    // the bytes of a code section, references to labels outside of it are added to the fixups
+    private static byte[] encode(List<Item> items, SectionKind section, Map<String, Long> labels, List<Fixup> fixups) {
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        for (Item item : items) {
+            if (item.definedLabel != null) {
+                continue;
+            }
+            if (item.branchTarget != null) {
+                Long target = labels.get(item.branchTarget);
+                if (target == null) {
+                    // in the other code section: the displacement is the last field of the near form
+                    fixups.add(new Fixup(section, item.offset + item.size() - 4, item.branchTarget, -4, false));
+                    target = item.offset + item.size();
+                }
+                code.writeBytes(InstructionEncoder.encodeBranch(item.instruction, item.isShort, target - (item.offset + item.size())));
+                continue;
+            }
+
+            byte[] bytes = item.encoding.bytes().clone();
+            Label fixupLabel = item.encoding.fixupLabel();
+            if (fixupLabel != null && labels.containsKey(fixupLabel.getName())) {
+                long field = item.offset + item.encoding.fixupOffset();
+                long value = labels.get(fixupLabel.getName()) + item.encoding.addend() - field;
+                for (int i = 0; i < 4; ++i) {
+                    bytes[item.encoding.fixupOffset() + i] = (byte) (value >> (8 * i));
+                }
+            } else if (fixupLabel != null) {
+                fixups.add(new Fixup(section, item.offset + item.encoding.fixupOffset(), fixupLabel.getName(),
+                        item.encoding.addend(), item.instruction.getOpcode() == Opcode.CALL));
+            }
+            code.writeBytes(bytes);
+        }
+        return code.toByteArray();
+    }
+
+    // the symbol of a label: a local label of a function is relative to the function, or to its cold label if it
+    // is in .text.cold
+    private static Target resolve(String name, Map<String, Symbol> symbols, Map<String, Symbol> coldSymbols,
+                                  Map<String, Long> textLabels, Map<String, Long> coldLabels) {
+        Symbol symbol = symbols.get(name);
+        if (symbol != null) {
+            return new Target(symbol, 0);
+        }
+        String function = name.substring(0, Math.max(0, name.indexOf('.', 1)));
+        if (textLabels.containsKey(name) && symbols.containsKey(function)) {
+            symbol = symbols.get(function);
+            return new Target(symbol, textLabels.get(name) - symbol.getValue());
+        } else if (coldLabels.containsKey(name) && coldSymbols.containsKey(function)) {
+            symbol = coldSymbols.get(function);
+            return new Target(symbol, coldLabels.get(name) - symbol.getValue());
+        }
+        throw new IllegalStateException("undefined symbol " + name);
+    }
+
+    // assigns offsets to all items of a code section, widening short branches until every displacement fits
+    private static Map<String, Long> layout(List<Item> items) {
+        Map<String, Long> labels = new HashMap<>();
+        boolean changed;
+        do {
+            long offset = 0;
+            for (Item item : items) {
+                item.offset = offset;
+                offset += item.size();
+                if (item.definedLabel != null) {
+                    labels.put(item.definedLabel, item.offset);
+                }
+            }
+
+            changed = false;
+            for (Item item : items) {
+                if (item.branchTarget != null && item.isShort) {
+                    Long target = labels.get(item.branchTarget);
+                    if (target == null) {
+                        // in the other code section (or undefined, see resolve)
+                        item.isShort = false;
+                        changed = true;
+                        continue;
+                    }
+                    long displacement = target - (item.offset + item.size());
+                    if (displacement < Byte.MIN_VALUE || displacement > Byte.MAX_VALUE) {
+                        item.isShort = false;
+                        changed = true;
+                    }
+                }
+            }
+        } while (changed);
+        return labels;
+    }
+
+    private static void addData(ObjectFile object, Map<String, Symbol> symbols, AssemblyUnit unit,
+                                SectionKind kind, List<DataBlock> blocks, List<AddressValue> addresses) {
+        ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        long size = 0;
+        int alignment = kind.getAlignment();
+        for (DataBlock block : blocks) {
+            alignment = Math.max(alignment, block.getAlignment());
+            while (size % block.getAlignment() != 0) {
+                contents.write(0);
+                ++size;
+            }
+            String name = block.getLabel().getName();
+            symbols.put(name, new Symbol(name, kind, size, unit.getGlobals().contains(name)));
+            if (block.isReserved()) {
+                size += block.getSize();
+                continue;
+            }
+            for (DataBlock.Value value : block.getValues()) {
+                if (value.getLabel() != null) {
+                    addresses.add(new AddressValue(kind, size, value.getLabel()));
+                }
+                for (int i = 0; i < value.getWidth(); ++i) {
+                    contents.write((int) (value.getValue() >> (8 * i)) & 0xFF);
+                }
+                size += value.getWidth();
+            }
+        }
+        object.getSections().add(new Section(kind, kind == SectionKind.BSS ? null : contents.toByteArray(), size, alignment));
+    }
+
+    // local labels (.L0) are scoped to their function
+    private static String qualify(String function, Label label) {
+        return label.isLocal() ? function + label.getName() : label.getName();
+    }
+}
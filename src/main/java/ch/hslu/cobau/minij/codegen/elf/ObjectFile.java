@@ -0,0 +1,201 @@
+package ch.hslu.cobau.minij.codegen.elf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A relocatable object in memory: sections with their contents, symbols and the relocations that
+ * still have to be applied to the contents.
+ */
+public class ObjectFile {
+    public enum SectionKind {
+        TEXT(".text", 16),
+        TEXT_COLD(".text.cold", 16),
+        DATA(".data", 8),
+        RODATA(".rodata", 8),
+        BSS(".bss", 8);
+
+        private final String name;
+        private final int alignment;
+
+        SectionKind(String name, int alignment) {
+            this.name = name;
+            this.alignment = alignment;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getAlignment() {
+            return alignment;
+        }
+    }
+
+    public static class Section {
+        private final SectionKind kind;
+        private final byte[] contents;
+        private final long size;
+        private final int alignment;
+
+        public Section(SectionKind kind, byte[] contents, long size, int alignment) {
+            this.kind = kind;
+            this.contents = contents;
+            this.size = size;
+            this.alignment = alignment;
+        }
+
+        public SectionKind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return The bytes of the section, null for .bss.
+         */
+        public byte[] getContents() {
+            return contents;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public int getAlignment() {
+            return alignment;
+        }
+    }
+
+    /**
+     * A named address. Undefined symbols (section null) are imported from other objects.
+     */
+    public static class Symbol {
+        private final String name;
+        private final SectionKind section;
+        private final long value;
+        private final boolean global;
+
+        public Symbol(String name, SectionKind section, long value, boolean global) {
+            Objects.requireNonNull(name);
+            this.name = name;
+            this.section = section;
+            this.value = value;
+            this.global = global;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public SectionKind getSection() {
+            return section;
+        }
+
+        public long getValue() {
+            return value;
+        }
+
+        public boolean isGlobal() {
+            return global;
+        }
+
+        public boolean isDefined() {
+            return section != null;
+        }
+    }
+
+    public enum RelocationType {
+        PC32(2),
+        PLT32(4),
+        ABS64(1),
+        ABS32(10),
+        ABS32S(11);
+
+        private final int elfType;
+
+        RelocationType(int elfType) {
+            this.elfType = elfType;
+        }
+
+        /**
+         * @return The R_X86_64_* number of the relocation.
+         */
+        public int getElfType() {
+            return elfType;
+        }
+    }
+
+    /**
+     * A reference from a section to a symbol: the field at offset receives symbol + addend
+     * (minus the address of the field for PC relative relocations).
+     */
+    public static class Relocation {
+        private final SectionKind section;
+        private final long offset;
+        private final RelocationType type;
+        private final Symbol symbol;
+        private final long addend;
+
+        public Relocation(SectionKind section, long offset, RelocationType type, Symbol symbol, long addend) {
+            this.section = section;
+            this.offset = offset;
+            this.type = type;
+            this.symbol = symbol;
+            this.addend = addend;
+        }
+
+        public SectionKind getSection() {
+            return section;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public RelocationType getType() {
+            return type;
+        }
+
+        public Symbol getSymbol() {
+            return symbol;
+        }
+
+        public long getAddend() {
+            return addend;
+        }
+    }
+
+    private final List<Section> sections = new ArrayList<>();
+    private final List<Symbol> symbols = new ArrayList<>();
+    private final List<Relocation> relocations = new ArrayList<>();
+
+    public List<Section> getSections() {
+        return sections;
+    }
+
+    public Section getSection(SectionKind kind) {
+        for (Section section : sections) {
+            if (section.getKind() == kind) {
+                return section;
+            }
+        }
+        return null;
+    }
+
+    public List<Symbol> getSymbols() {
+        return symbols;
+    }
+
+    public Symbol getSymbol(String name) {
+        for (Symbol symbol : symbols) {
+            if (symbol.getName().equals(name)) {
+                return symbol;
+            }
+        }
+        return null;
+    }
+
+    public List<Relocation> getRelocations() {
+        return relocations;
+    }
+}
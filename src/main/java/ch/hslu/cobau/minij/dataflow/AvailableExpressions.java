@@ -0,0 +1,148 @@
+package ch.hslu.cobau.minij.dataflow;
+
+import ch.hslu.cobau.minij.ast.AstElement;
+import ch.hslu.cobau.minij.ast.BaseAstVisitor;
+import ch.hslu.cobau.minij.ast.constants.FalseConstant;
+import ch.hslu.cobau.minij.ast.constants.IntegerConstant;
+import ch.hslu.cobau.minij.ast.constants.TrueConstant;
+import ch.hslu.cobau.minij.ast.expression.BinaryExpression;
+import ch.hslu.cobau.minij.ast.expression.Expression;
+import ch.hslu.cobau.minij.ast.expression.UnaryExpression;
+import ch.hslu.cobau.minij.ast.expression.UnaryOperator;
+import ch.hslu.cobau.minij.ast.expression.VariableAccess;
+import ch.hslu.cobau.minij.cfg.BasicBlock;
+import ch.hslu.cobau.minij.cfg.ControlFlowGraph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Available expressions: a binary expression is available at a point if it has been evaluated on every
+ * path to the point and none of its operands has been redefined since. Only expressions over local slots
+ * and integer or boolean constants are considered, since globals, fields and array elements may change
+ * behind our back (e.g. in a called function). Structurally equal expressions share one fact.
+ */
+public final class AvailableExpressions extends DataflowProblem {
+    private final DefUse defUse;
+    private final Map<String, Integer> expressionIndex = new HashMap<>();
+    private final List<BinaryExpression> expressions = new ArrayList<>();
+    private final List<long[]> operandSlots = new ArrayList<>();
+    private final Map<AstElement, long[]> generated = new HashMap<>();
+    private final long[][] expressionsBySlot;
+
+    public AvailableExpressions(ControlFlowGraph cfg, DefUse defUse) {
+        super(cfg, Direction.FORWARD, Meet.INTERSECTION);
+        this.defUse = defUse;
+
+        Map<AstElement, List<Integer>> computed = new HashMap<>();
+        for (BasicBlock block : cfg.getBlocks()) {
+            for (AstElement element : block.getElements()) {
+                List<Integer> indices = new ArrayList<>();
+                element.accept(new BaseAstVisitor() {
+                    @Override
+                    public void visit(BinaryExpression binaryExpression) {
+                        super.visit(binaryExpression);
+                        String key = key(binaryExpression);
+                        if (key != null) {
+                            indices.add(register(key, binaryExpression));
+                        }
+                    }
+                });
+                computed.put(element, indices);
+            }
+        }
+
+        int size = getDomainSize();
+        int slotCount = defUse.getSlots().size();
+        expressionsBySlot = new long[slotCount][];
+        for (int slot = 0; slot < slotCount; ++slot) {
+            expressionsBySlot[slot] = Bits.create(size);
+        }
+        for (int expression = 0; expression < size; ++expression) {
+            long[] slots = operandSlots.get(expression);
+            for (int slot = Bits.nextSetBit(slots, 0); slot >= 0; slot = Bits.nextSetBit(slots, slot + 1)) {
+                Bits.set(expressionsBySlot[slot], expression);
+            }
+        }
+        computed.forEach((element, indices) -> {
+            long[] bits = Bits.create(size);
+            indices.forEach(index -> Bits.set(bits, index));
+            generated.put(element, bits);
+        });
+    }
+
+    private int register(String key, BinaryExpression expression) {
+        Integer index = expressionIndex.get(key);
+        if (index == null) {
+            index = expressions.size();
+            expressionIndex.put(key, index);
+            expressions.add(expression);
+            long[] slots = Bits.create(defUse.getSlots().size());
+            defUse.collect(expression, slots, null);
+            operandSlots.add(slots);
+        }
+        return index;
+    }
+
+    /**
+     * @return A canonical textual form of a side effect free expression over locals and constants, or null.
+     */
+    private String key(Expression expression) {
+        return switch (expression) {
+            case VariableAccess variable -> {
+                int slot = defUse.getSlots().getSlot(variable.getDeclaration());
+                yield slot >= 0 ? "#" + slot : null;
+            }
+            case IntegerConstant constant -> Long.toString(constant.getValue());
+            case TrueConstant constant -> "true";
+            case FalseConstant constant -> "false";
+            case UnaryExpression unary when unary.getUnaryOperator() == UnaryOperator.MINUS
+                    || unary.getUnaryOperator() == UnaryOperator.NOT -> {
+                String operand = key(unary.getExpression());
+                yield operand != null ? "(" + unary.getUnaryOperator() + " " + operand + ")" : null;
+            }
+            case BinaryExpression binary -> {
+                String left = key(binary.getLeft());
+                String right = key(binary.getRight());
+                yield left != null && right != null ? "(" + binary.getBinaryOperator() + " " + left + " " + right + ")" : null;
+            }
+            default -> null;
+        };
+    }
+
+    @Override
+    public int getDomainSize() {
+        return expressions.size();
+    }
+
+    /**
+     * @return A representative of the given fact; all structurally equal expressions share it.
+     */
+    public BinaryExpression getExpression(int index) {
+        return expressions.get(index);
+    }
+
+    /**
+     * @return The fact of the given expression or -1, if it is not tracked by this analysis.
+     */
+    public int getIndex(BinaryExpression expression) {
+        String key = key(expression);
+        return key != null ? expressionIndex.getOrDefault(key, -1) : -1;
+    }
+
+    @Override
+    protected void effect(AstElement element, long[] gen, long[] kill) {
+        long[] defs = Bits.create(defUse.getSlots().size());
+        defUse.collect(element, null, defs);
+        for (int slot = Bits.nextSetBit(defs, 0); slot >= 0; slot = Bits.nextSetBit(defs, slot + 1)) {
+            Bits.or(kill, expressionsBySlot[slot]);
+        }
+        long[] computed = generated.get(element);
+        if (computed != null) {
+            Bits.copy(computed, gen);
+            Bits.andNot(gen, kill); // operands redefined by the element itself, e.g. "i = i + 1"
+        }
+    }
+}
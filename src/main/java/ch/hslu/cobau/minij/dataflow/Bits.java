@@ -0,0 +1,149 @@
+package ch.hslu.cobau.minij.dataflow;
+
+/**
+ * Operations on dense bit sets stored in long arrays. All sets that are combined with each other
+ * must have been created with the same size.
+ */
+public final class Bits {
+    private Bits() { }
+
+    public static long[] create(int size) {
+        return new long[(size + 63) >>> 6];
+    }
+
+    /**
+     * @return A new bit set that contains all elements 0..size-1.
+     */
+    public static long[] full(int size) {
+        long[] bits = create(size);
+        for (int i = 0; i < bits.length; ++i) {
+            bits[i] = -1L;
+        }
+        int unused = (bits.length << 6) - size;
+        if (unused > 0) {
+            bits[bits.length - 1] >>>= unused;
+        }
+        return bits;
+    }
+
+    public static boolean get(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    public static void clear(long[] bits, int index) {
+        bits[index >>> 6] &= ~(1L << index);
+    }
+
+    public static void clear(long[] bits) {
+        for (int i = 0; i < bits.length; ++i) {
+            bits[i] = 0;
+        }
+    }
+
+    public static void copy(long[] source, long[] target) {
+        System.arraycopy(source, 0, target, 0, source.length);
+    }
+
+    /**
+     * target = target | source
+     * @return true if target has changed.
+     */
+    public static boolean or(long[] target, long[] source) {
+        long changed = 0;
+        for (int i = 0; i < target.length; ++i) {
+            long value = target[i] | source[i];
+            changed |= value ^ target[i];
+            target[i] = value;
+        }
+        return changed != 0;
+    }
+
+    /**
+     * target = target & source
+     * @return true if target has changed.
+     */
+    public static boolean and(long[] target, long[] source) {
+        long changed = 0;
+        for (int i = 0; i < target.length; ++i) {
+            long value = target[i] & source[i];
+            changed |= value ^ target[i];
+            target[i] = value;
+        }
+        return changed != 0;
+    }
+
+    /**
+     * target = target & ~source
+     */
+    public static void andNot(long[] target, long[] source) {
+        for (int i = 0; i < target.length; ++i) {
+            target[i] &= ~source[i];
+        }
+    }
+
+    /**
+     * target = gen | (source & ~kill), the transfer function shared by all gen/kill problems.
+     * @return true if target has changed.
+     */
+    public static boolean transfer(long[] target, long[] gen, long[] source, long[] kill) {
+        long changed = 0;
+        for (int i = 0; i < target.length; ++i) {
+            long value = gen[i] | (source[i] & ~kill[i]);
+            changed |= value ^ target[i];
+            target[i] = value;
+        }
+        return changed != 0;
+    }
+
+    public static boolean isEmpty(long[] bits) {
+        for (long word : bits) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static int cardinality(long[] bits) {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * @return The index of the first set bit at or after the given index, or -1 if there is none.
+     */
+    public static int nextSetBit(long[] bits, int from) {
+        int wordIndex = from >>> 6;
+        if (wordIndex >= bits.length) {
+            return -1;
+        }
+        long word = bits[wordIndex] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++wordIndex == bits.length) {
+                return -1;
+            }
+            word = bits[wordIndex];
+        }
+    }
+
+    public static String toString(long[] bits) {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = nextSetBit(bits, 0); i >= 0; i = nextSetBit(bits, i + 1)) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(i);
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,109 @@
+package ch.hslu.cobau.minij.dataflow;
+
+import ch.hslu.cobau.minij.ast.AstElement;
+import ch.hslu.cobau.minij.cfg.BasicBlock;
+import ch.hslu.cobau.minij.cfg.ControlFlowGraph;
+
+import java.util.List;
+
+/**
+ * A gen/kill dataflow problem over bit sets. Subclasses describe the effect of a single block element,
+ * the block transfer functions are composed from these effects once and then reused by the solver.
+ */
+public abstract class DataflowProblem {
+    public enum Direction { FORWARD, BACKWARD }
+    public enum Meet { UNION, INTERSECTION }
+
+    private final ControlFlowGraph cfg;
+    private final Direction direction;
+    private final Meet meet;
+    private long[][] gen;
+    private long[][] kill;
+
+    protected DataflowProblem(ControlFlowGraph cfg, Direction direction, Meet meet) {
+        this.cfg = cfg;
+        this.direction = direction;
+        this.meet = meet;
+    }
+
+    public ControlFlowGraph getCfg() {
+        return cfg;
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    public Meet getMeet() {
+        return meet;
+    }
+
+    /**
+     * @return The number of facts, i.e. the size of the bit sets.
+     */
+    public abstract int getDomainSize();
+
+    /**
+     * Describes the effect of an element: after = gen | (before & ~kill), where "before" and "after"
+     * are meant in the direction of the analysis.
+     *
+     * @param element A statement or branch condition.
+     * @param gen Empty bit set to receive the generated facts.
+     * @param kill Empty bit set to receive the killed facts.
+     */
+    protected abstract void effect(AstElement element, long[] gen, long[] kill);
+
+    /**
+     * Facts holding at the boundary, i.e. at entry for forward and at exit for backward problems.
+     */
+    public long[] getBoundary() {
+        return Bits.create(getDomainSize());
+    }
+
+    /**
+     * The optimistic start value of all other blocks: the identity of the meet operator.
+     */
+    public long[] getInitial() {
+        return meet == Meet.UNION ? Bits.create(getDomainSize()) : Bits.full(getDomainSize());
+    }
+
+    public long[] getGen(BasicBlock block) {
+        computeBlockEffects();
+        return gen[block.getId()];
+    }
+
+    public long[] getKill(BasicBlock block) {
+        computeBlockEffects();
+        return kill[block.getId()];
+    }
+
+    private void computeBlockEffects() {
+        if (gen != null) {
+            return;
+        }
+        int size = getDomainSize();
+        gen = new long[cfg.size()][];
+        kill = new long[cfg.size()][];
+
+        long[] elementGen = Bits.create(size);
+        long[] elementKill = Bits.create(size);
+        for (BasicBlock block : cfg.getBlocks()) {
+            long[] blockGen = Bits.create(size);
+            long[] blockKill = Bits.create(size);
+            List<AstElement> elements = block.getElements();
+            for (int i = 0; i < elements.size(); ++i) {
+                AstElement element = elements.get(direction == Direction.FORWARD ? i : elements.size() - 1 - i);
+                Bits.clear(elementGen);
+                Bits.clear(elementKill);
+                effect(element, elementGen, elementKill);
+
+                // compose: gen = elementGen | (gen & ~elementKill), kill = kill | elementKill
+                Bits.andNot(blockGen, elementKill);
+                Bits.or(blockGen, elementGen);
+                Bits.or(blockKill, elementKill);
+            }
+            gen[block.getId()] = blockGen;
+            kill[block.getId()] = blockKill;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package ch.hslu.cobau.minij.dataflow;
+
+import ch.hslu.cobau.minij.cfg.BasicBlock;
+
+/**
+ * The fixpoint of a dataflow problem: the facts holding at the start and the end of each block.
+ */
+public final class DataflowResult {
+    private final long[][] in;
+    private final long[][] out;
+    private final int iterations;
+
+    DataflowResult(long[][] in, long[][] out, int iterations) {
+        this.in = in;
+        this.out = out;
+        this.iterations = iterations;
+    }
+
+    /**
+     * @return The facts holding before the first element of the block.
+     */
+    public long[] getIn(BasicBlock block) {
+        return in[block.getId()];
+    }
+
+    /**
+     * @return The facts holding after the last element of the block.
+     */
+    public long[] getOut(BasicBlock block) {
+        return out[block.getId()];
+    }
+
+    /**
+     * @return The number of block visits the solver needed to reach the fixpoint.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+}
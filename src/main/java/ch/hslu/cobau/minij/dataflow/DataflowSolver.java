@@ -0,0 +1,91 @@
+package ch.hslu.cobau.minij.dataflow;
+
+import ch.hslu.cobau.minij.cfg.BasicBlock;
+import ch.hslu.cobau.minij.cfg.ControlFlowGraph;
+
+import java.util.List;
+
+/**
+ * Worklist solver for gen/kill dataflow problems. Forward problems visit the blocks in reverse postorder,
+ * backward problems in postorder (the reverse postorder of the reversed graph), so that most blocks see
+ * final values of their predecessors and the fixpoint is reached after a few sweeps.
+ * The worklist itself is a bit set over the visiting order, which keeps each sweep in order.
+ */
+public final class DataflowSolver {
+
+    public DataflowResult solve(DataflowProblem problem) {
+        ControlFlowGraph cfg = problem.getCfg();
+        boolean forward = problem.getDirection() == DataflowProblem.Direction.FORWARD;
+        boolean union = problem.getMeet() == DataflowProblem.Meet.UNION;
+
+        List<BasicBlock> reversePostOrder = cfg.getReversePostOrder();
+        int count = reversePostOrder.size();
+        BasicBlock[] order = new BasicBlock[count];
+        int[] position = new int[cfg.size()];
+        for (int i = 0; i < count; ++i) {
+            order[i] = reversePostOrder.get(forward ? i : count - 1 - i);
+            position[order[i].getId()] = i;
+        }
+        BasicBlock boundaryBlock = forward ? cfg.getEntry() : cfg.getExit();
+
+        // "before" and "after" in direction of the analysis
+        long[][] before = new long[cfg.size()][];
+        long[][] after = new long[cfg.size()][];
+        long[] initial = problem.getInitial();
+        for (BasicBlock block : cfg.getBlocks()) {
+            before[block.getId()] = initial.clone();
+            after[block.getId()] = initial.clone();
+        }
+        long[] boundary = problem.getBoundary();
+
+        long[] worklist = Bits.full(count);
+        int iterations = 0;
+        int cursor = 0;
+        while (true) {
+            int next = Bits.nextSetBit(worklist, cursor);
+            if (next < 0) {
+                next = Bits.nextSetBit(worklist, 0);
+                if (next < 0) {
+                    break;
+                }
+            }
+            Bits.clear(worklist, next);
+            cursor = next + 1;
+            ++iterations;
+
+            BasicBlock block = order[next];
+            long[] input = before[block.getId()];
+            List<BasicBlock> sources = forward ? block.getPredecessors() : block.getSuccessors();
+            if (block == boundaryBlock) {
+                Bits.copy(boundary, input);
+                for (BasicBlock source : sources) {
+                    meet(input, after[source.getId()], union);
+                }
+            } else if (!sources.isEmpty()) {
+                Bits.copy(after[sources.get(0).getId()], input);
+                for (int i = 1; i < sources.size(); ++i) {
+                    meet(input, after[sources.get(i).getId()], union);
+                }
+            }
+
+            if (Bits.transfer(after[block.getId()], problem.getGen(block), input, problem.getKill(block))) {
+                for (BasicBlock target : forward ? block.getSuccessors() : block.getPredecessors()) {
+                    // the exit block is not part of the order if the function never terminates
+                    if (target == order[position[target.getId()]]) {
+                        Bits.set(worklist, position[target.getId()]);
+                    }
+                }
+            }
+        }
+
+        return forward ? new DataflowResult(before, after, iterations) : new DataflowResult(after, before, iterations);
+    }
+
+    private static void meet(long[] target, long[] source, boolean union) {
+        if (union) {
+            Bits.or(target, source);
+        } else {
+            Bits.and(target, source);
+        }
+    }
+}
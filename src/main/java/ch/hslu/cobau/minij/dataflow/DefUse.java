@@ -0,0 +1,131 @@
+package ch.hslu.cobau.minij.dataflow;
+
+import ch.hslu.cobau.minij.ast.AstElement;
+import ch.hslu.cobau.minij.ast.BaseAstVisitor;
+import ch.hslu.cobau.minij.ast.entity.Declaration;
+import ch.hslu.cobau.minij.ast.entity.Function;
+import ch.hslu.cobau.minij.ast.entity.Unit;
+import ch.hslu.cobau.minij.ast.expression.*;
+import ch.hslu.cobau.minij.ast.statement.AssignmentStatement;
+import ch.hslu.cobau.minij.ast.statement.DeclarationStatement;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Determines which local slots are read (used) and written (defined) by a single element of a basic block.
+ * Arguments passed to "out" parameters count as both, since the callee may read and overwrite them.
+ */
+public final class DefUse {
+    private final LocalSlots slots;
+    private final Map<String, Function> functions = new HashMap<>();
+
+    public DefUse(LocalSlots slots, Unit unit) {
+        this.slots = slots;
+        unit.getFunctions().forEach(function -> functions.put(function.getIdentifier(), function));
+    }
+
+    public LocalSlots getSlots() {
+        return slots;
+    }
+
+    /**
+     * Adds the slots read and written by the given element to the given bit sets.
+     *
+     * @param element A statement or branch condition of a basic block.
+     * @param uses Receives the slots read by the element (may be null).
+     * @param defs Receives the slots written by the element (may be null).
+     */
+    public void collect(AstElement element, long[] uses, long[] defs) {
+        element.accept(new Collector(uses, defs));
+    }
+
+    /**
+     * @return true if the given actual parameter of the call is passed by reference.
+     */
+    public boolean isReferenceArgument(CallExpression call, int index) {
+        Function callee = functions.get(call.getIdentifier());
+        if (callee == null) {
+            return false; // built-in functions have value parameters only
+        }
+        List<Declaration> parameters = callee.getFormalParameters();
+        return index < parameters.size() && parameters.get(index).isReference()
+                && call.getParameters().get(index) instanceof MemoryAccess;
+    }
+
+    private class Collector extends BaseAstVisitor {
+        private final long[] uses;
+        private final long[] defs;
+
+        Collector(long[] uses, long[] defs) {
+            this.uses = uses;
+            this.defs = defs;
+        }
+
+        private void use(VariableAccess variable) {
+            int slot = slots.getSlot(variable.getDeclaration());
+            if (slot >= 0 && uses != null) {
+                Bits.set(uses, slot);
+            }
+        }
+
+        private void define(Declaration declaration) {
+            int slot = slots.getSlot(declaration);
+            if (slot >= 0 && defs != null) {
+                Bits.set(defs, slot);
+            }
+        }
+
+        // read and written, e.g. by increments or by "out" arguments
+        private void update(Expression expression) {
+            if (expression instanceof VariableAccess variable) {
+                use(variable);
+                define(variable.getDeclaration());
+            } else {
+                expression.accept(this);
+            }
+        }
+
+        @Override
+        public void visit(VariableAccess variable) {
+            use(variable);
+        }
+
+        @Override
+        public void visit(DeclarationStatement declarationStatement) {
+            define(declarationStatement.getDeclaration());
+        }
+
+        @Override
+        public void visit(AssignmentStatement assignment) {
+            assignment.getRight().accept(this);
+            if (assignment.getLeft() instanceof VariableAccess variable) {
+                define(variable.getDeclaration());
+            } else {
+                assignment.getLeft().accept(this); // only the base and index are read
+            }
+        }
+
+        @Override
+        public void visit(UnaryExpression unaryExpression) {
+            switch (unaryExpression.getUnaryOperator()) {
+                case PRE_INCREMENT, PRE_DECREMENT, POST_INCREMENT, POST_DECREMENT ->
+                        update(unaryExpression.getExpression());
+                default -> unaryExpression.getExpression().accept(this);
+            }
+        }
+
+        @Override
+        public void visit(CallExpression callExpression) {
+            List<Expression> parameters = callExpression.getParameters();
+            for (int i = 0; i < parameters.size(); ++i) {
+                if (isReferenceArgument(callExpression, i)) {
+                    update(parameters.get(i));
+                } else {
+                    parameters.get(i).accept(this);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package ch.hslu.cobau.minij.dataflow;
+
+import ch.hslu.cobau.minij.ast.AstElement;
+import ch.hslu.cobau.minij.cfg.BasicBlock;
+import ch.hslu.cobau.minij.cfg.ControlFlowGraph;
+
+import java.util.List;
+
+/**
+ * Interference of the local slots of a function: two slots interfere if one of them is written while the
+ * other one is live, or if both are written by the same element (e.g. as "out" arguments of one call, where
+ * the callee may write one and then read the other). Slots that do not interfere may share their memory.
+ */
+public final class InterferenceGraph {
+    private final long[][] edges;
+
+    public InterferenceGraph(ControlFlowGraph cfg, DefUse defUse) {
+        int size = defUse.getSlots().size();
+        edges = new long[size][];
+        for (int slot = 0; slot < size; ++slot) {
+            edges[slot] = Bits.create(size);
+        }
+
+        DataflowResult liveness = new DataflowSolver().solve(new LivenessAnalysis(cfg, defUse));
+        long[] live = Bits.create(size);
+        long[] uses = Bits.create(size);
+        long[] defs = Bits.create(size);
+        for (BasicBlock block : cfg.getBlocks()) {
+            // walk the block backwards from the slots live at its end
+            Bits.copy(liveness.getOut(block), live);
+            List<AstElement> elements = block.getElements();
+            for (int i = elements.size() - 1; i >= 0; --i) {
+                Bits.clear(uses);
+                Bits.clear(defs);
+                defUse.collect(elements.get(i), uses, defs);
+                for (int def = Bits.nextSetBit(defs, 0); def >= 0; def = Bits.nextSetBit(defs, def + 1)) {
+                    add(def, live);
+                    add(def, defs);
+                }
+                Bits.andNot(live, defs);
+                Bits.or(live, uses);
+            }
+        }
+    }
+
+    private void add(int slot, long[] others) {
+        for (int other = Bits.nextSetBit(others, 0); other >= 0; other = Bits.nextSetBit(others, other + 1)) {
+            if (other != slot) {
+                Bits.set(edges[slot], other);
+                Bits.set(edges[other], slot);
+            }
+        }
+    }
+
+    public boolean interfere(int slot, int other) {
+        return Bits.get(edges[slot], other);
+    }
+}
@@ -0,0 +1,44 @@
+package ch.hslu.cobau.minij.dataflow;
+
+import ch.hslu.cobau.minij.ast.AstElement;
+import ch.hslu.cobau.minij.ast.entity.Declaration;
+import ch.hslu.cobau.minij.cfg.ControlFlowGraph;
+
+/**
+ * Live variables: a slot is live at a point if its current value may be read later on.
+ * The facts are the local slots of the function.
+ */
+public final class LivenessAnalysis extends DataflowProblem {
+    private final DefUse defUse;
+
+    public LivenessAnalysis(ControlFlowGraph cfg, DefUse defUse) {
+        super(cfg, Direction.BACKWARD, Meet.UNION);
+        this.defUse = defUse;
+    }
+
+    @Override
+    public int getDomainSize() {
+        return defUse.getSlots().size();
+    }
+
+    @Override
+    protected void effect(AstElement element, long[] gen, long[] kill) {
+        defUse.collect(element, gen, kill);
+    }
+
+    /**
+     * "out" parameters are read by the caller after the function returns.
+     */
+    @Override
+    public long[] getBoundary() {
+        LocalSlots slots = defUse.getSlots();
+        long[] boundary = Bits.create(slots.size());
+        for (int slot = 0; slot < slots.getParameterCount(); ++slot) {
+            Declaration parameter = slots.getDeclaration(slot);
+            if (parameter.isReference()) {
+                Bits.set(boundary, slot);
+            }
+        }
+        return boundary;
+    }
+}
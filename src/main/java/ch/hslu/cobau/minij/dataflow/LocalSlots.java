@@ -0,0 +1,69 @@
+package ch.hslu.cobau.minij.dataflow;
+
+import ch.hslu.cobau.minij.ast.BaseAstVisitor;
+import ch.hslu.cobau.minij.ast.entity.Declaration;
+import ch.hslu.cobau.minij.ast.entity.Function;
+import ch.hslu.cobau.minij.ast.statement.DeclarationStatement;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns dense slot numbers to the formal parameters and local variables of a function.
+ * Parameters come first (in declaration order), followed by the locals. Global variables have no slot.
+ */
+public final class LocalSlots {
+    private final Function function;
+    private final List<Declaration> declarations = new ArrayList<>();
+    private final Map<Declaration, Integer> slots = new HashMap<>();
+
+    public LocalSlots(Function function) {
+        this.function = function;
+        function.getFormalParameters().forEach(this::add);
+        function.accept(new BaseAstVisitor() {
+            @Override
+            public void visit(Function visited) {
+                visited.getStatements().forEach(statement -> statement.accept(this));
+            }
+
+            @Override
+            public void visit(DeclarationStatement declarationStatement) {
+                add(declarationStatement.getDeclaration());
+            }
+        });
+    }
+
+    private void add(Declaration declaration) {
+        slots.put(declaration, declarations.size());
+        declarations.add(declaration);
+    }
+
+    public Function getFunction() {
+        return function;
+    }
+
+    /**
+     * @return The slot of the given declaration or -1 if it is not a parameter or local of this function.
+     */
+    public int getSlot(Declaration declaration) {
+        return declaration == null ? -1 : slots.getOrDefault(declaration, -1);
+    }
+
+    public Declaration getDeclaration(int slot) {
+        return declarations.get(slot);
+    }
+
+    public List<Declaration> getDeclarations() {
+        return declarations;
+    }
+
+    public int getParameterCount() {
+        return function.getFormalParameters().size();
+    }
+
+    public int size() {
+        return declarations.size();
+    }
+}
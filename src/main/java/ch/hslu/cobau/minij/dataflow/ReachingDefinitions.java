@@ -0,0 +1,105 @@
+package ch.hslu.cobau.minij.dataflow;
+
+import ch.hslu.cobau.minij.ast.AstElement;
+import ch.hslu.cobau.minij.cfg.BasicBlock;
+import ch.hslu.cobau.minij.cfg.ControlFlowGraph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reaching definitions: a definition reaches a point if there is a path from the definition to the point
+ * on which the slot is not redefined. The facts are definition sites, i.e. pairs of an element and a slot
+ * it writes. Each parameter has an additional definition site at function entry (its declaration).
+ */
+public final class ReachingDefinitions extends DataflowProblem {
+    private final DefUse defUse;
+    private final List<AstElement> definitionElements = new ArrayList<>();
+    private final List<Integer> definitionSlots = new ArrayList<>();
+    private final Map<AstElement, long[]> definitionsByElement = new HashMap<>();
+    private final long[][] definitionsBySlot;
+
+    public ReachingDefinitions(ControlFlowGraph cfg, DefUse defUse) {
+        super(cfg, Direction.FORWARD, Meet.UNION);
+        this.defUse = defUse;
+
+        LocalSlots slots = defUse.getSlots();
+        for (int slot = 0; slot < slots.getParameterCount(); ++slot) {
+            addDefinition(slots.getDeclaration(slot), slot);
+        }
+
+        long[] scratch = Bits.create(slots.size());
+        for (BasicBlock block : cfg.getBlocks()) {
+            for (AstElement element : block.getElements()) {
+                Bits.clear(scratch);
+                defUse.collect(element, null, scratch);
+                for (int slot = Bits.nextSetBit(scratch, 0); slot >= 0; slot = Bits.nextSetBit(scratch, slot + 1)) {
+                    addDefinition(element, slot);
+                }
+            }
+        }
+
+        // now that the number of definitions is known, build the index sets
+        int size = getDomainSize();
+        definitionsBySlot = new long[slots.size()][];
+        for (int slot = 0; slot < slots.size(); ++slot) {
+            definitionsBySlot[slot] = Bits.create(size);
+        }
+        for (int definition = 0; definition < size; ++definition) {
+            Bits.set(definitionsBySlot[definitionSlots.get(definition)], definition);
+            definitionsByElement.computeIfAbsent(definitionElements.get(definition), e -> Bits.create(size));
+            Bits.set(definitionsByElement.get(definitionElements.get(definition)), definition);
+        }
+    }
+
+    private void addDefinition(AstElement element, int slot) {
+        definitionElements.add(element);
+        definitionSlots.add(slot);
+    }
+
+    @Override
+    public int getDomainSize() {
+        return definitionElements.size();
+    }
+
+    /**
+     * @return The element of a definition site: a statement, an expression or a parameter declaration.
+     */
+    public AstElement getDefinitionElement(int definition) {
+        return definitionElements.get(definition);
+    }
+
+    public int getDefinitionSlot(int definition) {
+        return definitionSlots.get(definition);
+    }
+
+    /**
+     * @return All definition sites of the given slot.
+     */
+    public long[] getDefinitions(int slot) {
+        return definitionsBySlot[slot];
+    }
+
+    @Override
+    protected void effect(AstElement element, long[] gen, long[] kill) {
+        long[] definitions = definitionsByElement.get(element);
+        if (definitions == null) {
+            return;
+        }
+        Bits.copy(definitions, gen);
+        for (int definition = Bits.nextSetBit(definitions, 0); definition >= 0; definition = Bits.nextSetBit(definitions, definition + 1)) {
+            Bits.or(kill, definitionsBySlot[definitionSlots.get(definition)]);
+        }
+    }
+
+    @Override
+    public long[] getBoundary() {
+        long[] boundary = Bits.create(getDomainSize());
+        for (int definition = 0; definition < defUse.getSlots().getParameterCount(); ++definition) {
+            Bits.set(boundary, definition);
+        }
+        return boundary;
+    }
+}
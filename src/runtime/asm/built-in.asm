@@ -0,0 +1,495 @@
+DEFAULT REL
+
+extern _read
+extern _write
+extern _map_input
+extern _alloc
+extern _free
+extern _capacity
+extern _gc_return
+extern _gc_registers
+
+global _writeInt
+global _readInt
+global _writeChar
+global _readChar
+global _string_compare
+global _string_equals
+global _string_concat
+global _string_builder
+global _string_append
+
+INPUT_SIZE      EQU     65536               ; size of the input buffer
+MODE_UNKNOWN    EQU     0                   ; input modes: before the first read
+MODE_READ       EQU     1                   ; read through _read into INPUT_BUFFER
+MODE_MAPPED     EQU     2                   ; whole input mapped into memory
+
+BUILDER_SIZE    EQU     64                  ; initial size of a string builder in addition to twice the length
+RECIPROCAL_100  EQU     0x28F5C28F5C28F5C3  ; ceil(2^68 / 100): x / 100 = ((x >> 2) * RECIPROCAL_100) >> 66
+
+section .rodata
+DIGIT_PAIRS:                                ; "00" to "99"
+            db      "00010203040506070809"
+            db      "10111213141516171819"
+            db      "20212223242526272829"
+            db      "30313233343536373839"
+            db      "40414243444546474849"
+            db      "50515253545556575859"
+            db      "60616263646566676869"
+            db      "70717273747576777879"
+            db      "80818283848586878889"
+            db      "90919293949596979899"
+
+; input of readChar and readInt (do not mix with direct calls of _read)
+section .bss
+alignb 16
+    INPUT_BUFFER    resb INPUT_SIZE
+    INPUT_NEXT      resq 1                  ; next unread byte
+    INPUT_END       resq 1                  ; end of the available bytes
+    INPUT_MODE      resb 1
+
+section .text
+; writeInt(rdi: value): writes the decimal representation of value to STDOUT; converts two digits per
+; step with a lookup table and a multiplication by the reciprocal of 100 instead of a division
+_writeInt:  sub     rsp, 40                 ; digit buffer (at most 20 characters)
+            lea     rsi, [rsp + 32]         ; digits are stored backwards, rsi points to the first one
+            lea     r8, [DIGIT_PAIRS]
+            mov     r9, RECIPROCAL_100
+            mov     rax, rdi
+            test    rax, rax
+            jns     .pairs
+            neg     rax                     ; magnitude, also correct (unsigned) for the minimum value
+
+.pairs:     cmp     rax, 100
+            jb      .last
+            mov     rcx, rax
+            shr     rax, 2
+            mul     r9
+            shr     rdx, 2                  ; rdx: value / 100
+            imul    rax, rdx, 100
+            sub     rcx, rax                ; rcx: value % 100
+            mov     rax, rdx
+            movzx   ecx, word [r8 + 2 * rcx]
+            sub     rsi, 2
+            mov     [rsi], cx
+            jmp     .pairs
+
+.last:      cmp     rax, 10
+            jb      .single
+            movzx   ecx, word [r8 + 2 * rax]
+            sub     rsi, 2
+            mov     [rsi], cx
+            jmp     .sign
+.single:    add     al, '0'
+            dec     rsi
+            mov     [rsi], al
+
+.sign:      test    rdi, rdi
+            jns     .write
+            dec     rsi
+            mov     byte [rsi], '-'
+
+.write:     mov     rdi, rsi                ; pointer to first character
+            lea     rsi, [rsp + 32]
+            sub     rsi, rdi                ; number of characters
+            call    _write
+
+            add     rsp, 40
+            ret
+
+; readInt(): reads an optionally signed decimal integer from STDIN, skipping leading whitespace; parses
+; directly in the input window of readChar, the character after the number is consumed. Values out of
+; range saturate to the minimum or maximum value.
+_readInt:   push    rbx                     ; rbx: negated value read so far (covers the minimum value)
+            push    r12                     ; r12: 1 if the number is negative
+            xor     rbx, rbx
+            xor     r12, r12
+
+.skip:      mov     rax, [INPUT_NEXT]       ; rax: next byte, rdx: end of the input window
+            mov     rdx, [INPUT_END]
+.space:     cmp     rax, rdx
+            jae     .more_space
+            movzx   ecx, byte [rax]
+            inc     rax
+            cmp     ecx, ' '
+            jbe     .space
+
+            cmp     ecx, '-'
+            jne     .plus
+            mov     r12, 1
+            jmp     .digits
+.plus:      cmp     ecx, '+'
+            je      .digits
+            jmp     .digit
+
+.more_space:
+            mov     [INPUT_NEXT], rax
+            call    fill_input
+            test    rax, rax
+            jnz     .skip
+            jmp     .done
+
+.digits:    cmp     rax, rdx
+            jae     .more_digits
+            movzx   ecx, byte [rax]
+            inc     rax
+.digit:     sub     ecx, '0'
+            cmp     ecx, 9
+            ja      .end
+            imul    rbx, rbx, 10
+            jo      .overflow
+            sub     rbx, rcx
+            jno     .digits
+.overflow:  xor     rbx, rbx
+            bts     rbx, 63                 ; minimum value, stays there for further digits
+            jmp     .digits
+
+.more_digits:
+            mov     [INPUT_NEXT], rax
+            call    fill_input
+            test    rax, rax
+            jz      .done
+            mov     rax, [INPUT_NEXT]
+            mov     rdx, [INPUT_END]
+            jmp     .digits
+
+.end:       mov     [INPUT_NEXT], rax
+.done:      mov     rax, rbx
+            test    r12, r12
+            jnz     .return
+            neg     rax
+            jno     .return
+            mov     rax, -1
+            shr     rax, 1                  ; maximum value
+
+.return:    pop     r12
+            pop     rbx
+            ret
+
+; writeChar(rdi: character): writes a single character to STDOUT
+_writeChar: push    rbp
+            mov     rbp, rsp
+            sub     rsp, 16
+
+            mov     [rsp], dil
+            mov     rdi, rsp
+            mov     rsi, 1
+            call    _write
+
+            leave
+            ret
+
+; readChar(): reads a single character from STDIN, returns -1 at end of input
+_readChar:  mov     rax, [INPUT_NEXT]
+            cmp     rax, [INPUT_END]
+            jae     .fill
+            inc     qword [INPUT_NEXT]
+            movzx   rax, byte [rax]
+            ret
+
+.fill:      call    fill_input
+            test    rax, rax
+            jnz     _readChar
+            mov     rax, -1
+            ret
+
+; fill_input(): makes the next part of STDIN available between INPUT_NEXT and INPUT_END, returns the
+; number of available bytes (0 at end of input). On the first call, STDIN is mapped into memory if it
+; is a regular file, otherwise (and for pipes and terminals) it is read in chunks of INPUT_SIZE.
+fill_input: cmp     byte [INPUT_MODE], MODE_MAPPED
+            je      .eof                    ; the mapping covers the whole input
+            cmp     byte [INPUT_MODE], MODE_UNKNOWN
+            jne     .read
+            mov     byte [INPUT_MODE], MODE_READ
+            call    _map_input
+            test    rax, rax
+            jz      .read
+            mov     byte [INPUT_MODE], MODE_MAPPED
+            mov     [INPUT_NEXT], rax
+            add     rax, rdx
+            mov     [INPUT_END], rax
+            mov     rax, rdx
+            ret
+
+.read:      lea     rdi, [INPUT_BUFFER]
+            mov     rsi, INPUT_SIZE
+            call    _read                   ; also flushes pending output (prompts)
+            lea     rdi, [INPUT_BUFFER]
+            mov     [INPUT_NEXT], rdi
+            add     rdi, rax
+            mov     [INPUT_END], rdi
+            ret
+
+.eof:       xor     rax, rax
+            ret
+
+; The string routines compare 16 bytes at a time with SSE2. Fewer than 16 remaining bytes are compared by
+; loading the 16 bytes that end with them: bytes already known to be equal are compared again and, for
+; strings shorter than 16 bytes, the bytes before the characters (length and object header, which every
+; string has, see heap.asm) are masked out, so nothing is ever read beyond the end of a string.
+
+; string_compare(rdi: string a, rsi: string b): compares two strings lexicographically (by unsigned bytes),
+; returns a negative number, zero or a positive number if a is less than, equal to or greater than b (null
+; is the empty string)
+_string_compare:
+            cmp     rdi, rsi
+            je      .equal                  ; same address (e.g. pooled literals)
+
+            xor     rax, rax                ; rax: length of a
+            xor     rcx, rcx                ; rcx: length of b
+            test    rdi, rdi
+            jz      .length_b
+            mov     rax, [rdi]
+.length_b:  test    rsi, rsi
+            jz      .common
+            mov     rcx, [rsi]
+
+.common:    mov     rdx, rax                ; rdx: length of common prefix
+            cmp     rcx, rdx
+            cmovb   rdx, rcx
+            test    rdx, rdx
+            jz      .prefix                 ; also if a or b is null
+            mov     r11, rcx
+            xor     r8, r8                  ; r8: offset of the next block
+            cmp     rdx, 16
+            jb      .short
+
+.block:     lea     r9, [r8 + 16]
+            cmp     r9, rdx
+            ja      .last
+            movdqu  xmm0, [rdi + 8 + r8]
+            movdqu  xmm1, [rsi + 8 + r8]
+            pcmpeqb xmm0, xmm1
+            pmovmskb r9d, xmm0
+            xor     r9d, 0xFFFF             ; r9: a bit per differing byte
+            jnz     .differ
+            add     r8, 16
+            jmp     .block
+
+.last:      cmp     r8, rdx
+            je      .prefix
+            lea     r8, [rdx - 16]          ; the last 16 bytes of the common prefix
+            movdqu  xmm0, [rdi + 8 + r8]
+            movdqu  xmm1, [rsi + 8 + r8]
+            pcmpeqb xmm0, xmm1
+            pmovmskb r9d, xmm0
+            xor     r9d, 0xFFFF
+            jnz     .differ
+            jmp     .prefix
+
+.short:     lea     r8, [rdx - 16]          ; negative: starts before the characters
+            movdqu  xmm0, [rdi + 8 + r8]
+            movdqu  xmm1, [rsi + 8 + r8]
+            pcmpeqb xmm0, xmm1
+            pmovmskb r9d, xmm0
+            xor     r9d, 0xFFFF
+            mov     ecx, 16
+            sub     ecx, edx
+            shr     r9d, cl                 ; ignore the bytes before the characters
+            shl     r9d, cl
+            mov     rcx, r11
+            test    r9d, r9d
+            jz      .prefix
+
+.differ:    bsf     r9d, r9d                ; first differing byte
+            add     r8, r9
+            movzx   eax, byte [rdi + 8 + r8]
+            movzx   ecx, byte [rsi + 8 + r8]
+            sub     rax, rcx
+            ret
+
+.prefix:    sub     rax, rcx                ; common prefix is equal: shorter string is less
+            ret
+
+.equal:     xor     rax, rax
+            ret
+
+; string_equals(rdi: string a, rsi: string b): returns 1 if both strings have the same characters, 0
+; otherwise (null is the empty string); strings of different lengths are rejected without reading them
+_string_equals:
+            cmp     rdi, rsi
+            je      .true
+            xor     rax, rax                ; rax: length of a
+            xor     rcx, rcx                ; rcx: length of b
+            test    rdi, rdi
+            jz      .length_b
+            mov     rax, [rdi]
+.length_b:  test    rsi, rsi
+            jz      .lengths
+            mov     rcx, [rsi]
+.lengths:   cmp     rax, rcx
+            jne     .false
+            test    rax, rax
+            jz      .true
+            xor     r8, r8                  ; r8: offset of the next block
+            cmp     rax, 16
+            jb      .short
+
+.block:     lea     r9, [r8 + 16]
+            cmp     r9, rax
+            ja      .last
+            movdqu  xmm0, [rdi + 8 + r8]
+            movdqu  xmm1, [rsi + 8 + r8]
+            pcmpeqb xmm0, xmm1
+            pmovmskb r9d, xmm0
+            cmp     r9d, 0xFFFF
+            jne     .false
+            add     r8, 16
+            jmp     .block
+
+.last:      cmp     r8, rax
+            je      .true
+            movdqu  xmm0, [rdi + rax - 8]   ; the last 16 bytes
+            movdqu  xmm1, [rsi + rax - 8]
+            pcmpeqb xmm0, xmm1
+            pmovmskb r9d, xmm0
+            cmp     r9d, 0xFFFF
+            jne     .false
+            jmp     .true
+
+.short:     movdqu  xmm0, [rdi + rax - 8]   ; starts before the characters
+            movdqu  xmm1, [rsi + rax - 8]
+            pcmpeqb xmm0, xmm1
+            pmovmskb r9d, xmm0
+            xor     r9d, 0xFFFF             ; r9: a bit per differing byte
+            mov     ecx, 16
+            sub     ecx, eax
+            shr     r9d, cl                 ; ignore the bytes before the characters
+            test    r9d, r9d
+            jnz     .false
+
+.true:      mov     eax, 1
+            ret
+.false:     xor     eax, eax
+            ret
+
+; string_concat(rdi: string a, rsi: string b): returns a string with the characters of a followed by those
+; of b (null is the empty string): a new one, allocated once and filled by two copies, or the other operand
+; if one of them is empty (strings are immutable)
+_string_concat:
+            test    rdi, rdi
+            jz      .second
+            cmp     qword [rdi], 0
+            je      .second
+            test    rsi, rsi
+            jz      .first
+            cmp     qword [rsi], 0
+            jne     .concat
+.first:     mov     rax, rdi
+            ret
+.second:    mov     rax, rsi
+            ret
+
+.concat:    mov     rax, [rsp]              ; safepoint of the caller for the garbage collector
+            mov     [_gc_return], rax
+            mov     [_gc_registers], rdi    ; the operands stay alive while allocating
+            mov     [_gc_registers + 8], rsi
+            push    rbx                     ; rbx: length of a
+            push    r12                     ; r12: length of b
+            push    r13
+            push    r14
+            mov     r13, rdi                ; r13: a, r14: b
+            mov     r14, rsi
+            mov     rbx, [rdi]
+            mov     r12, [rsi]
+            lea     rdi, [rbx + r12 + 8]
+            xor     esi, esi                ; no references
+            call    _alloc
+            lea     rcx, [rbx + r12]
+            mov     [rax], rcx
+            lea     rdi, [rax + 8]
+            lea     rsi, [r13 + 8]
+            mov     rcx, rbx
+            rep     movsb
+            lea     rsi, [r14 + 8]
+            mov     rcx, r12
+            rep     movsb
+            mov     qword [_gc_registers], 0
+            mov     qword [_gc_registers + 8], 0
+
+            pop     r14
+            pop     r13
+            pop     r12
+            pop     rbx
+            ret
+
+; string_builder(rdi: string): returns a copy of the string with room for as many characters again, which
+; the caller owns and appends to with string_append; the copy is a string itself
+_string_builder:
+            mov     rax, [rsp]              ; safepoint of the caller for the garbage collector
+            mov     [_gc_return], rax
+            mov     [_gc_registers], rdi
+            push    rbx                     ; rbx: length
+            push    r12                     ; r12: string
+            mov     r12, rdi
+            xor     ebx, ebx
+            test    rdi, rdi
+            jz      .alloc
+            mov     rbx, [rdi]
+.alloc:     lea     rdi, [rbx * 2 + BUILDER_SIZE]
+            xor     esi, esi                ; no references
+            call    _alloc
+            mov     [rax], rbx
+            lea     rdi, [rax + 8]
+            lea     rsi, [r12 + 8]
+            mov     rcx, rbx
+            rep     movsb
+            mov     qword [_gc_registers], 0
+            pop     r12
+            pop     rbx
+            ret
+
+; string_append(rdi: builder, rsi: string): appends the characters of the string to a builder of
+; string_builder and returns the builder, which is moved to a new block of twice the size if it is full
+; (the old one is freed right away, the caller owns it)
+_string_append:
+            test    rsi, rsi
+            jz      .same
+            cmp     qword [rsi], 0
+            jne     .append
+.same:      mov     rax, rdi
+            ret
+
+.append:    push    rbx                     ; rbx: length of the builder
+            push    r12                     ; r12: length after appending
+            push    r13                     ; r13: builder
+            push    r14                     ; r14: string
+            mov     r13, rdi
+            mov     r14, rsi
+            mov     rbx, [rdi]
+            mov     r12, [rsi]
+            add     r12, rbx
+            call    _capacity
+            lea     rcx, [r12 + 8]
+            cmp     rcx, rax
+            jbe     .copy
+
+            mov     rax, [rsp + 32]         ; safepoint of the caller for the garbage collector
+            mov     [_gc_return], rax
+            mov     [_gc_registers], r13
+            mov     [_gc_registers + 8], r14
+            lea     rdi, [r12 * 2 + 8]
+            xor     esi, esi                ; no references
+            call    _alloc
+            lea     rdi, [rax + 8]
+            lea     rsi, [r13 + 8]
+            mov     rcx, rbx
+            rep     movsb
+            mov     qword [_gc_registers], 0
+            mov     qword [_gc_registers + 8], 0
+            mov     rdi, r13
+            mov     r13, rax
+            call    _free
+
+.copy:      lea     rdi, [r13 + rbx + 8]
+            lea     rsi, [r14 + 8]
+            mov     rcx, [r14]
+            rep     movsb
+            mov     [r13], r12
+            mov     rax, r13
+
+            pop     r14
+            pop     r13
+            pop     r12
+            pop     rbx
+            ret
@@ -0,0 +1,857 @@
+DEFAULT REL
+
+extern _map_memory
+extern _unmap_memory
+extern _exit
+extern _exit_handler
+extern _write_diagnostics
+
+global _alloc
+global _free
+global _capacity
+global _gc_init
+global _gc_return
+global _gc_registers
+global _heap_profile_init
+global _heap_site
+
+HEADER_SIZE     EQU     16                  ; size and flags, type
+MARKED          EQU     1                   ; flags in the low bits of the size
+FREE            EQU     2
+NOT_ON_HEAP     EQU     4                   ; not on the heap (string literals), see GcTables.STATIC_OBJECT
+TYPE_DATA       EQU     0                   ; no references (strings, arrays of integers and booleans)
+TYPE_REFERENCES EQU     1                   ; array of references; any other type is a record descriptor
+
+ALIGNMENT       EQU     16                  ; of all blocks
+MIN_BLOCK       EQU     32                  ; header and the link of a free block
+CHUNK_SIZE      EQU     1 << 20             ; bump allocation chunk
+CHUNK_HEADER    EQU     16                  ; next chunk
+SMALL_SIZE      EQU     256                 ; blocks up to this size have a class per 16 bytes
+LARGE_SIZE      EQU     CHUNK_SIZE / 4      ; larger blocks are mapped on their own
+LARGE_HEADER    EQU     16                  ; next large block, size of the mapping
+CLASSES         EQU     26                  ; 16, 32, ..., 256 bytes and 512, 1024, ..., LARGE_SIZE bytes
+PAGE_SIZE       EQU     4096
+OUT_OF_MEMORY   EQU     2                   ; exit code
+MIN_BUDGET      EQU     4 << 20             ; bytes allocated between two collections at least
+SITE_SIZE       EQU     16                  ; allocations and bytes of a site (see HeapSites of the compiler)
+TOP_SITES       EQU     20                  ; sites in the heap profile
+NUMBER_WIDTH    EQU     18                  ; of the columns of the heap profile
+LINE_SIZE       EQU     64                  ; of a line of the heap profile without the description
+
+; The heap hands out zeroed objects, each preceded by a header of two quad words: the size of the block
+; (header included) with the flags in its low bits, and the type of the object, which tells the collector
+; where the references are.
+; - Small and medium blocks are bump allocated in chunks of CHUNK_SIZE. Medium blocks are rounded up to a
+;   power of two, so every block belongs to a size class with its own free list, which alloc tries first.
+; - Large blocks (more than LARGE_SIZE bytes) are mapped and unmapped individually.
+;
+; The garbage collector is a precise, non-moving mark and sweep collector. Its roots are the global
+; variables and the frames of compiled code, as described by the tables of the compiler (see GcTables),
+; and the operands of the runtime routine that is allocating (_gc_registers). A routine that allocates on
+; behalf of compiled code stores the address it returns to in _gc_return, which identifies the stack map
+; of the innermost frame, and the frame pointer chain leads to the others. The sweep rebuilds the free
+; lists, coalescing adjacent dead blocks, returns the free end of the current chunk to the bump pointer and
+; unmaps empty chunks and dead large blocks.
+;
+; A collection starts once as many bytes have been allocated since the last one as were live after it,
+; but at least MIN_BUDGET. Environment variables (not on Windows):
+; - MINIJ_GC_STATS=1: statistics are written to STDERR at exit,
+; - MINIJ_GC_STRESS=1: every allocation collects.
+;
+; In a build with heap profiling, the compiled code stores the index of the allocation site in _heap_site
+; before each call that may allocate, and alloc counts the allocations and bytes of each site. At exit, the
+; sites with the most bytes are written to STDERR, with the peak heap size and the mappings made.
+section .rodata
+    STATS_VARIABLE  db "MINIJ_GC_STATS=", 0
+    STRESS_VARIABLE db "MINIJ_GC_STRESS=", 0
+    TEXT_PREFIX     db "gc: ", 0
+    TEXT_COLLECTIONS db " collections, ", 0
+    TEXT_CYCLES     db " cycles", 10, "gc: ", 0
+    TEXT_ALLOCATED  db " bytes allocated, ", 0
+    TEXT_FREED      db " bytes freed, ", 0
+    TEXT_LIVE       db " bytes live, ", 0
+    TEXT_PEAK       db " bytes peak heap", 10, 0
+    TEXT_HEAP_HEADER db "heap:        allocations              bytes  site", 10, 0
+    TEXT_HEAP_PREFIX db "heap:", 0
+    TEXT_HEAP_PEAK  db " bytes peak heap, ", 0
+    TEXT_HEAP_CHUNKS db " chunks and ", 0
+    TEXT_HEAP_LARGE db " large blocks mapped", 10, 0
+
+section .bss
+alignb 8
+    _heap_next      resq 1                  ; next free byte of the current chunk
+    _heap_limit     resq 1                  ; end of the current chunk
+    FREE_LISTS      resq CLASSES
+    CHUNKS          resq 1                  ; chunks linked by their first quad word, the current one first
+    LARGE_BLOCKS    resq 1                  ; mappings of large blocks, linked by their first quad word
+    ROOTS           resq 1                  ; root table of the program, no collection if 0
+    _gc_return      resq 1                  ; return address of the call into the runtime
+    _gc_registers   resq 2                  ; further roots held by the runtime
+    NEXT_COLLECTION resq 1                  ; value of ALLOCATED that triggers the next collection
+    STRESS          resq 1
+    MARK_STACK      resq 1                  ; marked objects, whose references still have to be marked
+    MARK_TOP        resq 1
+    MARK_LIMIT      resq 1
+    ; statistics
+    COLLECTIONS     resq 1
+    CYCLES          resq 1                  ; time stamp counter ticks spent collecting
+    ALLOCATED       resq 1                  ; bytes of all blocks allocated
+    FREED           resq 1                  ; bytes of all blocks found dead
+    LIVE            resq 1                  ; bytes of the blocks alive after the last collection
+    HEAP_SIZE       resq 1                  ; bytes mapped
+    PEAK_HEAP       resq 1
+    CHUNKS_MAPPED   resq 1
+    LARGE_MAPPED    resq 1
+    ; heap profiling
+    _heap_site      resq 1                  ; allocation site of the current call into the runtime
+    SITE_TABLE      resq 1                  ; site table of the program
+    SITES           resq 1                  ; statistics of the sites, no heap profiling if 0
+    NEXT_HANDLER    resq 1                  ; exit handler installed before
+    NUMBER          resb 24
+    REPORT          resb 256
+
+section .text
+; gc_init(rdi: root table, rsi: initial stack pointer): enables the garbage collector, called by the entry
+; point of compiled programs before anything is allocated
+_gc_init:   mov     [ROOTS], rdi
+            mov     qword [NEXT_COLLECTION], MIN_BUDGET
+%ifndef WINDOWS_X64
+            mov     rax, [rsi]              ; argument count, arguments, 0, environment, 0
+            lea     rsi, [rsi + rax * 8 + 16]
+.variable:  mov     rdi, [rsi]
+            test    rdi, rdi
+            jz      .done
+            add     rsi, 8
+            lea     rdx, [STATS_VARIABLE]
+            call    is_set
+            jz      .stress
+            lea     rax, [report]
+            mov     [_exit_handler], rax
+.stress:    mov     rdi, [rsi - 8]
+            lea     rdx, [STRESS_VARIABLE]
+            call    is_set
+            jz      .variable
+            mov     qword [STRESS], 1
+            mov     qword [NEXT_COLLECTION], 0
+            jmp     .variable
+%endif
+.done:      ret
+
+; is_set(rdi: environment entry, rdx: name and "="): clears the zero flag if the entry defines the variable
+; with a value other than "" or "0"
+is_set:     mov     al, [rdx]
+            test    al, al
+            jz      .value
+            cmp     al, [rdi]
+            jne     .no
+            inc     rdi
+            inc     rdx
+            jmp     is_set
+.value:     movzx   eax, byte [rdi]
+            test    eax, eax
+            jz      .no
+            cmp     eax, '0'
+            jne     .yes
+            cmp     byte [rdi + 1], 0
+            jne     .yes
+.no:        xor     eax, eax                ; sets the zero flag
+            ret
+.yes:       or      eax, 1
+            ret
+
+; alloc(rdi: size, rsi: type): returns a zeroed object of at least size bytes, exits with OUT_OF_MEMORY if
+; no memory can be mapped anymore; may collect garbage
+_alloc:     push    rbx
+            push    r12
+            mov     rbx, rsi                ; rbx: type
+            lea     r12, [rdi + HEADER_SIZE + ALIGNMENT - 1]
+            and     r12, -ALIGNMENT         ; r12: size of the block
+            cmp     r12, MIN_BLOCK
+            jae     .site
+            mov     r12d, MIN_BLOCK
+.site:      mov     rax, [SITES]
+            test    rax, rax
+            jz      .budget
+            mov     rcx, [_heap_site]
+            shl     rcx, 4                  ; * SITE_SIZE
+            inc     qword [rax + rcx]
+            add     [rax + rcx + 8], r12
+.budget:    mov     rax, [ALLOCATED]
+            cmp     rax, [NEXT_COLLECTION]
+            jb      .size
+            call    collect
+
+.size:      cmp     r12, LARGE_SIZE
+            ja      .large
+            mov     rdi, r12
+            call    size_class
+            mov     r12, rdi
+            lea     rcx, [FREE_LISTS]
+            mov     rdx, [rcx + rax * 8]
+            test    rdx, rdx
+            jz      .bump
+            mov     r8, [rdx + HEADER_SIZE] ; unlink the first block
+            mov     [rcx + rax * 8], r8
+            jmp     .init
+
+.bump:      mov     rdx, [_heap_next]
+            lea     rcx, [rdx + r12]
+            cmp     rcx, [_heap_limit]
+            ja      .chunk
+            mov     [_heap_next], rcx
+
+.init:      mov     [rdx], r12              ; rdx: block
+            mov     [rdx + 8], rbx
+            add     [ALLOCATED], r12
+            lea     rdi, [rdx + HEADER_SIZE]
+            lea     rcx, [r12 - HEADER_SIZE]
+            shr     rcx, 3
+            xor     eax, eax
+            rep     stosq
+            lea     rax, [rdx + HEADER_SIZE]
+            pop     r12
+            pop     rbx
+            ret
+
+.chunk:     call    new_chunk
+            jmp     .bump
+
+.large:     lea     rdi, [r12 + LARGE_HEADER + PAGE_SIZE - 1]
+            and     rdi, -PAGE_SIZE
+            mov     r12, rdi
+            call    map                     ; mapped memory is zeroed
+            inc     qword [LARGE_MAPPED]
+            mov     rcx, [LARGE_BLOCKS]
+            mov     [rax], rcx
+            mov     [LARGE_BLOCKS], rax
+            mov     [rax + 8], r12
+            sub     r12, LARGE_HEADER
+            mov     [rax + LARGE_HEADER], r12
+            mov     [rax + LARGE_HEADER + 8], rbx
+            add     [ALLOCATED], r12
+            add     rax, LARGE_HEADER + HEADER_SIZE
+            pop     r12
+            pop     rbx
+            ret
+
+; free(rdi: object): returns an object that is known to be unreachable to the heap right away
+_free:      test    rdi, rdi
+            jz      .done
+            sub     rdi, HEADER_SIZE
+            mov     rax, [rdi]
+            and     rax, -ALIGNMENT
+            cmp     rax, LARGE_SIZE
+            ja      .large
+            lea     rsi, [rdi + rax]        ; a block of a size class
+            jmp     carve
+
+.large:     sub     rdi, LARGE_HEADER
+            lea     rcx, [LARGE_BLOCKS]
+.find:      mov     rdx, [rcx]
+            test    rdx, rdx
+            jz      .done
+            cmp     rdx, rdi
+            je      .unlink
+            mov     rcx, rdx
+            jmp     .find
+.unlink:    mov     rax, [rdi]
+            mov     [rcx], rax
+            mov     rsi, [rdi + 8]
+            jmp     unmap
+.done:      ret
+
+; capacity(rdi: object): returns the number of bytes of the block of an object on the heap, at least the
+; size it was allocated with
+_capacity:  mov     rax, [rdi - HEADER_SIZE]
+            and     rax, -ALIGNMENT
+            sub     rax, HEADER_SIZE
+            ret
+
+; size_class(rdi: block size, at most LARGE_SIZE): returns the class in rax and its block size in rdi
+size_class: cmp     rdi, SMALL_SIZE
+            ja      .medium
+            mov     rax, rdi
+            shr     rax, 4
+            dec     rax
+            ret
+.medium:    lea     rcx, [rdi - 1]
+            bsr     rcx, rcx
+            inc     ecx                     ; rounded up to a power of two
+            mov     edi, 1
+            shl     rdi, cl
+            lea     rax, [rcx + 16 - 9]     ; 512 bytes: class 16
+            ret
+
+; carve(rdi: start, rsi: end): puts the free memory between start and end into the free lists, as blocks
+; of the largest size classes that fit (clobbers rax, rcx, rdx, rdi, r8)
+carve:      mov     rax, rsi
+            sub     rax, rdi
+            cmp     rax, MIN_BLOCK
+            jb      .rest
+            cmp     rax, 2 * SMALL_SIZE
+            jae     .power
+            cmp     rax, SMALL_SIZE
+            jbe     .small
+            mov     eax, SMALL_SIZE
+.small:     mov     rdx, rax
+            shr     rdx, 4
+            dec     rdx
+            jmp     .free
+.power:     cmp     rax, LARGE_SIZE
+            jbe     .round
+            mov     eax, LARGE_SIZE
+.round:     bsr     rcx, rax
+            mov     eax, 1
+            shl     rax, cl
+            lea     rdx, [rcx + 16 - 9]
+.free:      lea     r8, [rax + FREE]        ; rdi: block, rax: its size, rdx: its class
+            mov     [rdi], r8
+            mov     qword [rdi + 8], TYPE_DATA
+            lea     rcx, [FREE_LISTS]
+            mov     r8, [rcx + rdx * 8]
+            mov     [rdi + HEADER_SIZE], r8
+            mov     [rcx + rdx * 8], rdi
+            add     rdi, rax
+            jmp     carve
+.rest:      test    rax, rax
+            jz      .done
+            mov     qword [rdi], HEADER_SIZE + FREE ; too small for a free list
+.done:      ret
+
+; new_chunk(): gives the rest of the current chunk to the free lists and maps a new current chunk
+new_chunk:  mov     rdi, [_heap_next]
+            mov     rsi, [_heap_limit]
+            call    carve
+            mov     rdi, CHUNK_SIZE
+            call    map
+            inc     qword [CHUNKS_MAPPED]
+            mov     rcx, [CHUNKS]
+            mov     [rax], rcx
+            mov     [CHUNKS], rax
+            lea     rcx, [rax + CHUNK_HEADER]
+            mov     [_heap_next], rcx
+            lea     rcx, [rax + CHUNK_SIZE]
+            mov     [_heap_limit], rcx
+            ret
+
+; map(rdi: size): returns zeroed pages, exits with OUT_OF_MEMORY on error
+map:        push    rdi
+            call    _map_memory
+            pop     rdi
+            test    rax, rax
+            jz      out_of_memory
+            add     rdi, [HEAP_SIZE]
+            mov     [HEAP_SIZE], rdi
+            cmp     rdi, [PEAK_HEAP]
+            jbe     .done
+            mov     [PEAK_HEAP], rdi
+.done:      ret
+
+out_of_memory:
+            mov     rdi, OUT_OF_MEMORY
+            call    _exit
+
+; unmap(rdi: address, rsi: size): releases pages returned by map
+unmap:      sub     [HEAP_SIZE], rsi
+            jmp     _unmap_memory
+
+; collect(): marks the objects reachable from the roots and sweeps the heap (preserves rbx, r12)
+collect:    cmp     qword [ROOTS], 0
+            jne     .collect
+            mov     qword [NEXT_COLLECTION], -1 ; not a compiled program, nothing is ever collected
+            ret
+
+.collect:   push    rbx
+            push    r12
+            push    r13
+            push    r14
+            push    r15
+            rdtsc
+            shl     rdx, 32
+            or      rax, rdx
+            mov     r15, rax                ; r15: start time
+
+            mov     rbx, [ROOTS]
+            mov     rbx, [rbx]              ; rbx: global table
+            mov     r12, [rbx]              ; r12: number of globals
+.global:    test    r12, r12
+            jz      .registers
+            add     rbx, 8
+            mov     rax, [rbx]
+            mov     rdi, [rax]
+            call    mark
+            dec     r12
+            jmp     .global
+
+.registers: mov     rdi, [_gc_registers]
+            call    mark
+            mov     rdi, [_gc_registers + 8]
+            call    mark
+
+            mov     rbx, rbp                ; rbx: frame, innermost first
+            mov     r12, [_gc_return]       ; r12: return address into the function of the frame
+.frame:     mov     rdi, r12
+            call    find_stack_map
+            test    rax, rax
+            jz      .trace                  ; returns to the entry point: all frames visited
+            mov     r13, [rax]              ; r13: number of slots
+            lea     r14, [rax + 8]          ; r14: offset of the next slot
+.slot:      test    r13, r13
+            jz      .caller
+            mov     rax, [r14]
+            mov     rdi, [rbx + rax]
+            call    mark
+            add     r14, 8
+            dec     r13
+            jmp     .slot
+.caller:    mov     r12, [rbx + 8]
+            mov     rbx, [rbx]
+            jmp     .frame
+
+.trace:     call    trace
+            call    sweep
+
+            inc     qword [COLLECTIONS]
+            rdtsc
+            shl     rdx, 32
+            or      rax, rdx
+            sub     rax, r15
+            add     [CYCLES], rax
+            cmp     qword [STRESS], 0
+            jne     .done
+            mov     rax, [LIVE]
+            cmp     rax, MIN_BUDGET
+            jae     .budget
+            mov     eax, MIN_BUDGET
+.budget:    add     rax, [ALLOCATED]
+            mov     [NEXT_COLLECTION], rax
+
+.done:      pop     r15
+            pop     r14
+            pop     r13
+            pop     r12
+            pop     rbx
+            ret
+
+; find_stack_map(rdi: return address): returns the stack map of the call or 0, if the address is not a
+; safepoint (binary search in the sites of the root table, which are sorted by address)
+find_stack_map:
+            mov     rax, [ROOTS]
+            mov     rax, [rax + 8]
+            mov     rcx, [rax]              ; rcx: upper bound
+            lea     rdx, [rax + 8]          ; rdx: sites of 16 bytes
+            xor     esi, esi                ; rsi: lower bound
+.search:    cmp     rsi, rcx
+            jae     .not_found
+            lea     r8, [rsi + rcx]
+            shr     r8, 1
+            mov     r9, r8
+            shl     r9, 4
+            cmp     rdi, [rdx + r9]
+            je      .found
+            jb      .lower
+            lea     rsi, [r8 + 1]
+            jmp     .search
+.lower:     mov     rcx, r8
+            jmp     .search
+.found:     mov     rax, [rdx + r9 + 8]
+            ret
+.not_found: xor     eax, eax
+            ret
+
+; mark(rdi: object or 0): marks a heap object and pushes it onto the mark stack (clobbers rax, rcx, rdx,
+; rsi, rdi, r8 - r11)
+mark:       test    rdi, rdi
+            jz      .done
+            mov     rax, [rdi - HEADER_SIZE]
+            test    al, MARKED | NOT_ON_HEAP
+            jnz     .done
+            or      rax, MARKED
+            mov     [rdi - HEADER_SIZE], rax
+            mov     rax, [MARK_TOP]
+            cmp     rax, [MARK_LIMIT]
+            jae     .grow
+.push:      mov     [rax], rdi
+            add     rax, 8
+            mov     [MARK_TOP], rax
+.done:      ret
+.grow:      push    rdi
+            call    grow_mark_stack
+            pop     rdi
+            mov     rax, [MARK_TOP]
+            jmp     .push
+
+; grow_mark_stack(): doubles the capacity of the mark stack
+grow_mark_stack:
+            push    rbx
+            push    r12
+            mov     rbx, [MARK_LIMIT]
+            sub     rbx, [MARK_STACK]       ; rbx: old capacity
+            lea     rdi, [rbx + rbx]
+            test    rdi, rdi
+            jnz     .map
+            mov     edi, PAGE_SIZE
+.map:       mov     r12, rdi                ; r12: new capacity
+            call    _map_memory             ; not part of the heap size
+            test    rax, rax
+            jz      out_of_memory
+            mov     rsi, [MARK_STACK]
+            mov     rdi, rax
+            mov     rcx, [MARK_TOP]
+            sub     rcx, rsi
+            rep     movsb
+            mov     [MARK_TOP], rdi
+            mov     rdi, [MARK_STACK]
+            mov     [MARK_STACK], rax
+            add     rax, r12
+            mov     [MARK_LIMIT], rax
+            test    rdi, rdi
+            jz      .done
+            mov     rsi, rbx
+            call    _unmap_memory
+.done:      pop     r12
+            pop     rbx
+            ret
+
+; trace(): marks the objects referenced by the objects on the mark stack until it is empty
+trace:      push    rbx
+            push    r12
+            push    r13
+            push    r14
+.next:      mov     rax, [MARK_TOP]
+            cmp     rax, [MARK_STACK]
+            je      .done
+            sub     rax, 8
+            mov     [MARK_TOP], rax
+            mov     rbx, [rax]              ; rbx: object
+            mov     r12, [rbx - 8]          ; r12: type
+            cmp     r12, TYPE_REFERENCES
+            jb      .next
+            ja      .record
+            mov     r13, [rbx]              ; array: length, followed by the elements
+            lea     r14, [rbx + 8]
+.element:   test    r13, r13
+            jz      .next
+            mov     rdi, [r14]
+            call    mark
+            add     r14, 8
+            dec     r13
+            jmp     .element
+
+.record:    xor     r13, r13                ; r13: field, r12: number of fields, followed by the bitmap
+.field:     cmp     r13, [r12]
+            jae     .next
+            mov     rax, r13
+            shr     rax, 6
+            mov     rax, [r12 + 8 + rax * 8]
+            bt      rax, r13
+            jnc     .skip
+            mov     rdi, [rbx + r13 * 8]
+            call    mark
+.skip:      inc     r13
+            jmp     .field
+
+.done:      pop     r14
+            pop     r13
+            pop     r12
+            pop     rbx
+            ret
+
+; sweep(): rebuilds the free lists from the unmarked blocks and clears the marks
+sweep:      push    rbx
+            push    r12
+            push    r13
+            push    r14
+            push    r15
+            lea     rdi, [FREE_LISTS]
+            mov     ecx, CLASSES
+            xor     eax, eax
+            rep     stosq
+            mov     qword [LIVE], 0
+
+            lea     r15, [CHUNKS]           ; r15: link to the chunk
+.chunk:     mov     rbx, [r15]              ; rbx: chunk
+            test    rbx, rbx
+            jz      .large
+            lea     r12, [rbx + CHUNK_HEADER] ; r12: block
+            lea     r13, [rbx + CHUNK_SIZE] ; r13: end of the blocks
+            cmp     rbx, [CHUNKS]
+            jne     .walk
+            mov     r13, [_heap_next]       ; the current chunk is in use up to the bump pointer
+.walk:      xor     r14, r14                ; r14: start of the current run of dead and free blocks
+.block:     cmp     r12, r13
+            jae     .end
+            mov     rax, [r12]
+            mov     rcx, rax
+            and     rcx, -ALIGNMENT         ; rcx: size of the block
+            test    al, MARKED
+            jz      .dead
+            and     qword [r12], ~MARKED
+            add     [LIVE], rcx
+            test    r14, r14
+            jz      .advance
+            push    rcx
+            mov     rdi, r14
+            mov     rsi, r12
+            call    carve
+            pop     rcx
+            xor     r14, r14
+            jmp     .advance
+.dead:      test    al, FREE
+            jnz     .run
+            add     [FREED], rcx
+.run:       test    r14, r14
+            jnz     .advance
+            mov     r14, r12
+.advance:   add     r12, rcx
+            jmp     .block
+
+.end:       test    r14, r14
+            jz      .next
+            cmp     rbx, [CHUNKS]
+            jne     .free_end
+            mov     [_heap_next], r14       ; back to the bump pointer
+            jmp     .next
+.free_end:  lea     rax, [rbx + CHUNK_HEADER]
+            cmp     r14, rax
+            je      .empty
+            mov     rdi, r14
+            mov     rsi, r13
+            call    carve
+.next:      mov     r15, rbx
+            jmp     .chunk
+.empty:     mov     rax, [rbx]              ; unlink and unmap the chunk
+            mov     [r15], rax
+            mov     rdi, rbx
+            mov     rsi, CHUNK_SIZE
+            call    unmap
+            jmp     .chunk
+
+.large:     lea     r15, [LARGE_BLOCKS]
+.large_block:
+            mov     rbx, [r15]
+            test    rbx, rbx
+            jz      .done
+            mov     rax, [rbx + LARGE_HEADER]
+            mov     rcx, rax
+            and     rcx, -ALIGNMENT
+            test    al, MARKED
+            jz      .large_dead
+            and     qword [rbx + LARGE_HEADER], ~MARKED
+            add     [LIVE], rcx
+            mov     r15, rbx
+            jmp     .large_block
+.large_dead:
+            add     [FREED], rcx
+            mov     rax, [rbx]
+            mov     [r15], rax
+            mov     rdi, rbx
+            mov     rsi, [rbx + 8]
+            call    unmap
+            jmp     .large_block
+
+.done:      pop     r15
+            pop     r14
+            pop     r13
+            pop     r12
+            pop     rbx
+            ret
+
+; report(): writes the statistics to STDERR (exit handler)
+report:     lea     rdi, [REPORT]
+            lea     rsi, [TEXT_PREFIX]
+            call    append_text
+            mov     rax, [COLLECTIONS]
+            call    append_number
+            lea     rsi, [TEXT_COLLECTIONS]
+            call    append_text
+            mov     rax, [CYCLES]
+            call    append_number
+            lea     rsi, [TEXT_CYCLES]
+            call    append_text
+            mov     rax, [ALLOCATED]
+            call    append_number
+            lea     rsi, [TEXT_ALLOCATED]
+            call    append_text
+            mov     rax, [FREED]
+            call    append_number
+            lea     rsi, [TEXT_FREED]
+            call    append_text
+            mov     rax, [LIVE]
+            call    append_number
+            lea     rsi, [TEXT_LIVE]
+            call    append_text
+            mov     rax, [PEAK_HEAP]
+            call    append_number
+            lea     rsi, [TEXT_PEAK]
+            call    append_text
+            lea     rsi, [REPORT]
+            sub     rdi, rsi
+            xchg    rdi, rsi
+            jmp     _write_diagnostics
+
+; heap_profile_init(rdi: site table): called by the entry point of programs built with heap profiling after
+; gc_init; the table holds the number of sites, the address of their statistics and the addresses of their
+; descriptions (length and characters)
+_heap_profile_init:
+            mov     [SITE_TABLE], rdi
+            mov     rax, [rdi + 8]
+            mov     [SITES], rax
+            mov     rax, [_exit_handler]
+            mov     [NEXT_HANDLER], rax
+            lea     rax, [heap_report]
+            mov     [_exit_handler], rax
+            ret
+
+; heap_report(): writes the TOP_SITES sites with the most bytes, the peak heap size and the mappings to
+; STDERR, then calls the exit handler installed before (if any)
+heap_report:
+            push    rbx
+            push    r12
+            push    r13
+            push    r14
+            push    r15
+            mov     rbx, [SITE_TABLE]       ; rbx: site table
+            mov     r12, [rbx]              ; r12: number of sites
+            mov     rdi, LINE_SIZE * (TOP_SITES + 2)
+            xor     ecx, ecx
+.length:    cmp     rcx, r12
+            jae     .map
+            mov     rax, [rbx + rcx * 8 + 16]
+            add     rdi, [rax]
+            inc     rcx
+            jmp     .length
+.map:       call    _map_memory
+            test    rax, rax
+            jz      .next
+            mov     r13, rax                ; r13: report
+            mov     rdi, rax
+            lea     rsi, [TEXT_HEAP_HEADER]
+            call    append_text
+
+            mov     r14, TOP_SITES          ; r14: sites still to report
+.line:      test    r14, r14
+            jz      .summary
+            mov     rsi, [SITES]            ; the site with the most bytes, not yet reported
+            xor     ecx, ecx
+            mov     r15, -1                 ; r15: its index
+.find:      cmp     rcx, r12
+            jae     .found
+            mov     rax, rcx
+            shl     rax, 4                  ; * SITE_SIZE
+            cmp     qword [rsi + rax], 0    ; no allocations or reported already (-1)
+            jle     .skip
+            test    r15, r15
+            js      .take
+            mov     rdx, r15
+            shl     rdx, 4
+            mov     rdx, [rsi + rdx + 8]
+            cmp     rdx, [rsi + rax + 8]
+            jae     .skip
+.take:      mov     r15, rcx
+.skip:      inc     rcx
+            jmp     .find
+.found:     test    r15, r15
+            js      .summary
+            push    r15
+            shl     r15, 4
+            add     r15, rsi                ; r15: statistics of the site
+            lea     rsi, [TEXT_HEAP_PREFIX]
+            call    append_text
+            mov     rax, [r15]
+            call    append_column
+            mov     rax, [r15 + 8]
+            call    append_column
+            mov     qword [r15], -1
+            pop     r15
+            mov     word [rdi], 0x2020      ; two spaces
+            add     rdi, 2
+            mov     rsi, [rbx + r15 * 8 + 16]
+            mov     rcx, [rsi]
+            add     rsi, 8
+            rep     movsb
+            mov     byte [rdi], 10
+            inc     rdi
+            dec     r14
+            jmp     .line
+
+.summary:   lea     rsi, [TEXT_HEAP_PREFIX]
+            call    append_text
+            mov     byte [rdi], ' '
+            inc     rdi
+            mov     rax, [PEAK_HEAP]
+            call    append_number
+            lea     rsi, [TEXT_HEAP_PEAK]
+            call    append_text
+            mov     rax, [CHUNKS_MAPPED]
+            call    append_number
+            lea     rsi, [TEXT_HEAP_CHUNKS]
+            call    append_text
+            mov     rax, [LARGE_MAPPED]
+            call    append_number
+            lea     rsi, [TEXT_HEAP_LARGE]
+            call    append_text
+            mov     rsi, rdi
+            sub     rsi, r13
+            mov     rdi, r13
+            call    _write_diagnostics
+.next:      pop     r15
+            pop     r14
+            pop     r13
+            pop     r12
+            pop     rbx
+            mov     rax, [NEXT_HANDLER]
+            test    rax, rax
+            jz      .done
+            jmp     rax
+.done:      ret
+
+; append_text(rdi: destination, rsi: null terminated text): returns the end of the copy in rdi
+append_text:
+            mov     al, [rsi]
+            test    al, al
+            jz      .done
+            mov     [rdi], al
+            inc     rsi
+            inc     rdi
+            jmp     append_text
+.done:      ret
+
+; append_number(rdi: destination, rax: unsigned number): returns the end of the digits in rdi
+append_number:
+            mov     r8, 10
+            lea     rsi, [NUMBER + 24]
+.digit:     xor     edx, edx
+            div     r8
+            add     dl, '0'
+            dec     rsi
+            mov     [rsi], dl
+            test    rax, rax
+            jnz     .digit
+            lea     rcx, [NUMBER + 24]
+            sub     rcx, rsi
+            rep     movsb
+            ret
+
+; append_column(rdi: destination, rax: unsigned number): appends the number right aligned in a column of
+; NUMBER_WIDTH characters, returns the end of the column in rdi
+append_column:
+            mov     r8, 10
+            lea     rsi, [NUMBER + 24]
+.digit:     xor     edx, edx
+            div     r8
+            add     dl, '0'
+            dec     rsi
+            mov     [rsi], dl
+            test    rax, rax
+            jnz     .digit
+            lea     rdx, [NUMBER + 24]
+            sub     rdx, rsi                ; rdx: number of digits
+            mov     rcx, NUMBER_WIDTH
+            sub     rcx, rdx
+            jbe     .digits
+            mov     al, ' '
+            rep     stosb
+.digits:    mov     rcx, rdx
+            rep     movsb
+            ret
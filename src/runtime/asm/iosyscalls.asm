@@ -7,6 +7,16 @@ DEFAULT REL
 global _read
 global _write
 global _exit
+global _map_input
+global _map_memory
+global _unmap_memory
+global _write_diagnostics
+global _write_file
+global _exit_handler
+
+section .bss
+alignb 8
+    _exit_handler   resq 1                  ; if set, called by _exit before terminating (e.g. statistics)
 
 %ifdef WINDOWS_X64
 
@@ -14,10 +24,22 @@ extern GetStdHandle ; https://docs.microsoft.com/en-us/windows/console/getstdhan
 extern ReadFile     ; https://docs.microsoft.com/en-us/windows/win32/api/fileapi/nf-fileapi-readfile
 extern WriteFile    ; https://docs.microsoft.com/en-us/windows/win32/api/fileapi/nf-fileapi-writefile
 extern ExitProcess  ; https://docs.microsoft.com/en-us/windows/win32/api/processthreadsapi/nf-processthreadsapi-exitprocess
+extern VirtualAlloc ; https://docs.microsoft.com/en-us/windows/win32/api/memoryapi/nf-memoryapi-virtualalloc
+extern VirtualFree  ; https://docs.microsoft.com/en-us/windows/win32/api/memoryapi/nf-memoryapi-virtualfree
+extern CreateFileA  ; https://docs.microsoft.com/en-us/windows/win32/api/fileapi/nf-fileapi-createfilea
+extern CloseHandle  ; https://docs.microsoft.com/en-us/windows/win32/api/handleapi/nf-handleapi-closehandle
 
 section .data
     STD_INPUT_HANDLE    EQU     -10
     STD_OUTPUT_HANDLE   EQU     -11
+    STD_ERROR_HANDLE    EQU     -12
+    MEM_COMMIT_RESERVE  EQU     0x3000
+    MEM_RELEASE         EQU     0x8000
+    PAGE_READWRITE      EQU     4
+    GENERIC_WRITE       EQU     0x40000000
+    CREATE_ALWAYS       EQU     2
+    FILE_ATTRIBUTE_NORMAL EQU   0x80
+    INVALID_HANDLE_VALUE EQU    -1
 
 section .bss
 alignb 8
@@ -117,25 +139,191 @@ _write:     push    rcx                                     ; preserve clobbered
 
             ret
 
-_exit:      mov     rcx, rdi
+; write_diagnostics(rdi: bytes, rsi: length): writes unbuffered to STDERR, errors are ignored
+_write_diagnostics:
+            push    rcx                                     ; preserve clobbered registers
+            push    rdx
+            push    r8
+            push    r9
+            push    r10
+            push    r11
+
+            sub     rsp, 8 + 32                             ; alignment (8 bytes) + shadow space (32)
+            mov     rcx, STD_ERROR_HANDLE
+            call    GetStdHandle
+            add     rsp, 8 + 32
+
+            sub     rsp, 8 + 32 + 16                        ; alignment (8 bytes) + shadow space (32) + parameter (8) + padding (8)
+            mov     rcx, rax
+            mov     rdx, rdi
+            mov     r8,  rsi
+            lea     r9,  [WRITTEN]
+            mov     qword [RSP + 32], 0
+            call    WriteFile
+            add     rsp, 8 + 32 + 16
+
+            pop     r11
+            pop     r10
+            pop     r9
+            pop     r8
+            pop     rdx
+            pop     rcx
+            ret
+
+; write_file(rdi: null terminated file name, rsi: bytes, rdx: length): creates (or truncates) the file and
+; writes the bytes, returns 0 or -1 on error
+_write_file:
+            push    rbx
+            push    rsi
+            push    rdi
+            push    r12
+            push    r13
+            mov     r12, rsi                                ; r12: bytes
+            mov     r13, rdx                                ; r13: length
+
+            sub     rsp, 32 + 32                            ; shadow space (32) + parameters (24) + padding (8)
+            mov     rcx, rdi
+            mov     rdx, GENERIC_WRITE
+            xor     r8, r8                                  ; no sharing
+            xor     r9, r9                                  ; default security
+            mov     qword [rsp + 32], CREATE_ALWAYS
+            mov     qword [rsp + 40], FILE_ATTRIBUTE_NORMAL
+            mov     qword [rsp + 48], 0
+            call    CreateFileA
+            cmp     rax, INVALID_HANDLE_VALUE
+            je      .error
+            mov     rbx, rax                                ; rbx: handle
+
+            mov     rcx, rbx
+            mov     rdx, r12
+            mov     r8, r13
+            lea     r9, [WRITTEN]
+            mov     qword [rsp + 32], 0
+            call    WriteFile
+            mov     r12, rax                                ; non-zero on success
+            mov     rcx, rbx
+            call    CloseHandle
+            test    r12, r12
+            jz      .error
+            mov     rax, [WRITTEN]
+            cmp     rax, r13
+            jne     .error
+            xor     rax, rax
+            jmp     .done
+.error:     mov     rax, -1
+.done:      add     rsp, 32 + 32
+            pop     r13
+            pop     r12
+            pop     rdi
+            pop     rsi
+            pop     rbx
+            ret
+
+_exit:      call    exit_handler
+            mov     rcx, rdi
             call    ExitProcess
+
+; map_input(): input is never mapped, read through _read
+_map_input: xor     rax, rax
+            ret
+
+; map_memory(rdi: size): returns zeroed read/write pages of at least size bytes, 0 on error
+_map_memory:
+            push    rcx                                     ; preserve clobbered registers
+            push    rdx
+            push    r8
+            push    r9
+            push    r10
+            push    r11
+
+            sub     rsp, 8 + 32                             ; alignment (8 bytes) + shadow space (32)
+            xor     rcx, rcx                                ; any address
+            mov     rdx, rdi
+            mov     r8, MEM_COMMIT_RESERVE
+            mov     r9, PAGE_READWRITE
+            call    VirtualAlloc
+            add     rsp, 8 + 32
+
+            pop     r11
+            pop     r10
+            pop     r9
+            pop     r8
+            pop     rdx
+            pop     rcx
+            ret
+
+; unmap_memory(rdi: address, rsi: size): releases pages returned by map_memory
+_unmap_memory:
+            push    rcx                                     ; preserve clobbered registers
+            push    rdx
+            push    r8
+            push    r9
+            push    r10
+            push    r11
+
+            sub     rsp, 8 + 32                             ; alignment (8 bytes) + shadow space (32)
+            mov     rcx, rdi
+            xor     rdx, rdx                                ; whole allocation
+            mov     r8, MEM_RELEASE
+            call    VirtualFree
+            add     rsp, 8 + 32
+
+            pop     r11
+            pop     r10
+            pop     r9
+            pop     r8
+            pop     rdx
+            pop     rcx
+            ret
 %endif
 
 %ifdef LINUX_X64
 
 STDIN       EQU     0
 STDOUT      EQU     1
+STDERR      EQU     2
 
 READ        EQU     0
 WRITE       EQU     1
+FSTAT       EQU     5
+OPEN        EQU     2
+CLOSE       EQU     3
+LSEEK       EQU     8
+MMAP        EQU     9
+MUNMAP      EQU     11
+WRITEV      EQU     20
 EXIT        EQU     60
 
+STAT_SIZE   EQU     144                     ; size of struct stat
+ST_MODE     EQU     24                      ; offset of st_mode
+ST_SIZE     EQU     48                      ; offset of st_size
+S_IFMT      EQU     0xF000
+S_IFREG     EQU     0x8000
+SEEK_CUR    EQU     1
+PROT_READ   EQU     1
+PROT_WRITE  EQU     2
+MAP_PRIVATE EQU     2
+MAP_ANONYMOUS EQU   0x20
+O_WRONLY    EQU     1
+O_CREAT     EQU     0x40
+O_TRUNC     EQU     0x200
+FILE_MODE   EQU     420                     ; rw-r--r--
+
+OUTPUT_SIZE EQU     65536                   ; size of the output buffer
+
+section .bss
+alignb 16
+    OUTPUT          resb OUTPUT_SIZE        ; output not yet written to STDOUT
+    OUTPUT_LENGTH   resq 1
+
 section .text
 _read:      push    rcx                     ; preserve clobbered registers
             push    rdx
             push    rsi
             push    r11
 
+            call    flush                   ; pending output first (e.g. a prompt)
+
             mov     rax, READ               ; save syscall number in rax
             mov     rdx, rsi                ; save second parameter: length of input buffer
             mov     rsi, rdi                ; save first parameter: pointer to input buffer
@@ -149,47 +337,280 @@ _read:      push    rcx                     ; preserve clobbered registers
 
             cmp     rax, 0                  ; check return value
             jge     .success
-            mov     rsi, 99                 ; on error exit with error code 99 (internal error)
+            mov     rdi, 99                 ; on error exit with error code 99 (internal error)
             call    _exit
 
 .success:   ret
 
+; appends the bytes to the output buffer; if they do not fit, the buffer and the bytes are written
+; with a single writev system call
 _write:     push    rcx                     ; preserve clobbered registers
-            push    rdx
             push    rsi
-            push    r11
 
-            mov     rax, WRITE              ; save syscall number in rax
-            mov     rdx, rsi                ; second parameter: length of input buffer
-            mov     rsi, rdi                ; first parameter: pointer to input buffer
+            mov     rax, [OUTPUT_LENGTH]
+            lea     rcx, [rax + rsi]
+            cmp     rcx, OUTPUT_SIZE
+            ja      .writev
+            mov     [OUTPUT_LENGTH], rcx
+            mov     rcx, rsi                ; number of bytes
+            mov     rsi, rdi                ; source
+            lea     rdi, [OUTPUT]
+            add     rdi, rax                ; destination: end of buffered output
+            rep     movsb
+
+            pop     rsi                     ; restored clobbered registers
+            pop     rcx
+            mov     rax, rsi                ; return number of bytes written
+            ret
+
+.writev:    push    rdx
+            push    r11
+            sub     rsp, 32                 ; two iovec entries: buffered output, new bytes
+            lea     rcx, [OUTPUT]
+            mov     [rsp], rcx
+            mov     [rsp + 8], rax
+            mov     [rsp + 16], rdi
+            mov     [rsp + 24], rsi
+            mov     qword [OUTPUT_LENGTH], 0
+
+            mov     rax, WRITEV
             mov     rdi, STDOUT
+            mov     rsi, rsp
+            mov     rdx, 2
             syscall
-
+            cmp     rax, 0                  ; check return value
+            jl      write_error
+
+            mov     rcx, [rsp + 8]          ; on a partial write, write the rest of both entries
+            cmp     rax, rcx
+            jae     .rest
+            mov     rdi, [rsp]
+            add     rdi, rax
+            mov     rsi, rcx
+            sub     rsi, rax
+            call    write_all
+            mov     rax, [rsp + 8]          ; buffered output complete, none of the new bytes
+.rest:      sub     rax, [rsp + 8]          ; new bytes already written
+            mov     rdi, [rsp + 16]
+            mov     rsi, [rsp + 24]
+            add     rdi, rax
+            sub     rsi, rax
+            call    write_all
+
+            add     rsp, 32
             pop     r11                     ; restored clobbered registers
-            pop     rsi
             pop     rdx
+            pop     rsi
             pop     rcx
+            mov     rax, rsi                ; return number of bytes written
+            ret
+
+; writes the buffered output to STDOUT (clobbers rax, rcx, rdx, r11)
+flush:      push    rsi
+            push    rdi
+            lea     rdi, [OUTPUT]
+            mov     rsi, [OUTPUT_LENGTH]
+            mov     qword [OUTPUT_LENGTH], 0
+            call    write_all
+            pop     rdi
+            pop     rsi
+            ret
 
+; writes rsi bytes at rdi to STDOUT, repeating partial writes (clobbers rax, rcx, rdx, rsi, rdi, r11)
+write_all:  mov     rdx, rsi                ; remaining number of bytes
+            mov     rsi, rdi                ; next byte to write
+.next:      test    rdx, rdx
+            jz      .done
+            mov     rax, WRITE
+            mov     rdi, STDOUT
+            syscall
             cmp     rax, 0                  ; check return value
-            jge     .success
-            mov     rsi, 99                 ; on error exit with error code 99 (internal error)
+            jl      write_error
+            add     rsi, rax
+            sub     rdx, rax
+            jmp     .next
+.done:      ret
+
+write_error:
+            mov     rdi, 99                 ; on error exit with error code 99 (internal error)
             call    _exit
 
-.success:   ret
+; write_diagnostics(rdi: bytes, rsi: length): writes unbuffered to STDERR, errors are ignored
+_write_diagnostics:
+            push    rcx                     ; preserve clobbered registers
+            push    rdx
+            push    rsi
+            push    rdi
+            push    r11
+            mov     rax, WRITE
+            mov     rdx, rsi
+            mov     rsi, rdi
+            mov     rdi, STDERR
+            syscall
+            pop     r11
+            pop     rdi
+            pop     rsi
+            pop     rdx
+            pop     rcx
+            ret
 
-    _exit:
-        mov rax, EXIT
-        syscall
+; write_file(rdi: null terminated file name, rsi: bytes, rdx: length): creates (or truncates) the file and
+; writes the bytes, returns 0 or -1 on error
+_write_file:
+            push    rcx                     ; preserve clobbered registers
+            push    rdx
+            push    rsi
+            push    rdi
+            push    r11
+            push    rsi
+            push    rdx
+            mov     rax, OPEN
+            mov     rsi, O_WRONLY | O_CREAT | O_TRUNC
+            mov     rdx, FILE_MODE
+            syscall
+            pop     rdx                     ; rdx: remaining number of bytes
+            pop     rsi                     ; rsi: next byte to write
+            test    rax, rax
+            js      .error
+            mov     rdi, rax                ; rdi: file descriptor
+.next:      test    rdx, rdx
+            jz      .close
+            mov     rax, WRITE
+            syscall
+            test    rax, rax
+            jle     .close                  ; error (leaves rdx non-zero)
+            add     rsi, rax
+            sub     rdx, rax
+            jmp     .next
+.close:     mov     rax, CLOSE
+            syscall
+            test    rdx, rdx
+            jnz     .error
+            xor     rax, rax
+            jmp     .done
+.error:     mov     rax, -1
+.done:      pop     r11                     ; restored clobbered registers
+            pop     rdi
+            pop     rsi
+            pop     rdx
+            pop     rcx
+            ret
+
+_exit:      call    exit_handler
+            call    flush                   ; buffered output is lost otherwise
+            mov     rax, EXIT               ; first parameter: exit code (already set by caller)
+            syscall
+
+; map_input(): maps STDIN into memory if it is a regular file, returns the address of the unread part
+; in rax and its length in rdx, or rax = 0 if STDIN has to be read through _read (pipes, terminals)
+_map_input: sub     rsp, STAT_SIZE
+            mov     rax, FSTAT
+            mov     rdi, STDIN
+            mov     rsi, rsp
+            syscall
+            test    rax, rax
+            jnz     .none
+            mov     eax, [rsp + ST_MODE]
+            and     eax, S_IFMT
+            cmp     eax, S_IFREG
+            jne     .none
+
+            mov     rax, LSEEK              ; current position, e.g. if a part was consumed by the shell
+            mov     rdi, STDIN
+            xor     rsi, rsi
+            mov     rdx, SEEK_CUR
+            syscall
+            test    rax, rax
+            js      .none
+            mov     [rsp], rax              ; position (st_dev is not needed anymore)
+            cmp     rax, [rsp + ST_SIZE]
+            jae     .none                   ; nothing left (or an empty file, which cannot be mapped)
+
+            mov     rax, MMAP
+            xor     rdi, rdi                ; any address
+            mov     rsi, [rsp + ST_SIZE]
+            mov     rdx, PROT_READ
+            mov     r10, MAP_PRIVATE
+            mov     r8, STDIN
+            xor     r9, r9                  ; offset
+            syscall
+            cmp     rax, -4096              ; -4095..-1: error
+            ja      .none
+
+            mov     rdx, [rsp + ST_SIZE]
+            sub     rdx, [rsp]
+            add     rax, [rsp]
+            add     rsp, STAT_SIZE
+            ret
+
+.none:      xor     rax, rax
+            add     rsp, STAT_SIZE
+            ret
+
+; map_memory(rdi: size): returns zeroed read/write pages of at least size bytes, 0 on error
+_map_memory:
+            push    rcx                     ; preserve clobbered registers
+            push    rdx
+            push    rsi
+            push    rdi
+            push    r8
+            push    r9
+            push    r10
+            push    r11
+
+            mov     rax, MMAP
+            mov     rsi, rdi                ; length
+            xor     rdi, rdi                ; any address
+            mov     rdx, PROT_READ | PROT_WRITE
+            mov     r10, MAP_PRIVATE | MAP_ANONYMOUS
+            mov     r8, -1                  ; no file
+            xor     r9, r9
+            syscall
+            cmp     rax, -4096              ; -4095..-1: error
+            jbe     .success
+            xor     rax, rax
+
+.success:   pop     r11                     ; restored clobbered registers
+            pop     r10
+            pop     r9
+            pop     r8
+            pop     rdi
+            pop     rsi
+            pop     rdx
+            pop     rcx
+            ret
+
+; unmap_memory(rdi: address, rsi: size): releases pages returned by map_memory
+_unmap_memory:
+            push    rcx                     ; preserve clobbered registers
+            push    r11
+
+            mov     rax, MUNMAP
+            syscall
+
+            pop     r11                     ; restored clobbered registers
+            pop     rcx
+            ret
 %endif
 
 %ifdef MACOS_X64
 
 STDIN   EQU     0
 STDOUT  EQU     1
+STDERR  EQU     2
 
 READ    EQU     0x2000000 + 3
 WRITE   EQU     0x2000000 + 4
+OPEN    EQU     0x2000000 + 5
+CLOSE   EQU     0x2000000 + 6
 EXIT    EQU     0x2000000 + 1
+MUNMAP  EQU     0x2000000 + 73
+MMAP    EQU     0x2000000 + 197
+
+PROT_READ_WRITE EQU 3
+MAP_PRIVATE_ANON EQU 0x1002                 ; MAP_PRIVATE | MAP_ANON
+O_WRONLY_CREAT_TRUNC EQU 0x601              ; O_WRONLY | O_CREAT | O_TRUNC
+FILE_MODE EQU   420                         ; rw-r--r--
 
 section .text
 _read:      push    rcx
@@ -236,6 +657,128 @@ _write:     push    rcx                     ; preserve clobbered registers
 
             ret
 
-_exit:      mov rax, EXIT                   ; first parameter: syscall number (other parameters already set by caller)
+; write_diagnostics(rdi: bytes, rsi: length): writes unbuffered to STDERR, errors are ignored
+_write_diagnostics:
+            push    rcx                     ; preserve clobbered registers
+            push    rdx
+            push    rsi
+            push    rdi
+            push    r11
+            mov     rax, WRITE
+            mov     rdx, rsi
+            mov     rsi, rdi
+            mov     rdi, STDERR
             syscall
-%endif
\ No newline at end of file
+            pop     r11
+            pop     rdi
+            pop     rsi
+            pop     rdx
+            pop     rcx
+            ret
+
+; write_file(rdi: null terminated file name, rsi: bytes, rdx: length): creates (or truncates) the file and
+; writes the bytes, returns 0 or -1 on error
+_write_file:
+            push    rcx                     ; preserve clobbered registers
+            push    rdx
+            push    rsi
+            push    rdi
+            push    r11
+            push    rsi
+            push    rdx
+            mov     rax, OPEN
+            mov     rsi, O_WRONLY_CREAT_TRUNC
+            mov     rdx, FILE_MODE
+            syscall
+            pop     rdx                     ; rdx: remaining number of bytes
+            pop     rsi                     ; rsi: next byte to write
+            jc      .error
+            mov     rdi, rax                ; rdi: file descriptor
+.next:      test    rdx, rdx
+            jz      .close
+            mov     rax, WRITE
+            syscall
+            jc      .close                  ; error (leaves rdx non-zero)
+            test    rax, rax
+            jz      .close
+            add     rsi, rax
+            sub     rdx, rax
+            jmp     .next
+.close:     mov     rax, CLOSE
+            syscall
+            test    rdx, rdx
+            jnz     .error
+            xor     rax, rax
+            jmp     .done
+.error:     mov     rax, -1
+.done:      pop     r11                     ; restored clobbered registers
+            pop     rdi
+            pop     rsi
+            pop     rdx
+            pop     rcx
+            ret
+
+_exit:      call    exit_handler
+            mov rax, EXIT                   ; first parameter: syscall number (other parameters already set by caller)
+            syscall
+
+; map_input(): input is never mapped, read through _read
+_map_input: xor     rax, rax
+            ret
+
+; map_memory(rdi: size): returns zeroed read/write pages of at least size bytes, 0 on error
+_map_memory:
+            push    rcx                     ; preserve clobbered registers
+            push    rdx
+            push    rsi
+            push    rdi
+            push    r8
+            push    r9
+            push    r10
+            push    r11
+
+            mov     rax, MMAP
+            mov     rsi, rdi                ; length
+            xor     rdi, rdi                ; any address
+            mov     rdx, PROT_READ_WRITE
+            mov     r10, MAP_PRIVATE_ANON
+            mov     r8, -1                  ; no file
+            xor     r9, r9
+            syscall
+            jnc     .success
+            xor     rax, rax
+
+.success:   pop     r11                     ; restored clobbered registers
+            pop     r10
+            pop     r9
+            pop     r8
+            pop     rdi
+            pop     rsi
+            pop     rdx
+            pop     rcx
+            ret
+
+; unmap_memory(rdi: address, rsi: size): releases pages returned by map_memory
+_unmap_memory:
+            push    rcx                     ; preserve clobbered registers
+            push    r11
+
+            mov     rax, MUNMAP
+            syscall
+
+            pop     r11                     ; restored clobbered registers
+            pop     rcx
+            ret
+%endif
+
+section .text
+; calls the exit handler (once), preserving the exit code in rdi
+exit_handler:
+            mov     rax, [_exit_handler]
+            test    rax, rax
+            jz      .done
+            mov     qword [_exit_handler], 0
+            push    rdi
+            call    rax
+            pop     rdi
+.done:      ret
\ No newline at end of file
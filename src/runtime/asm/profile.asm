@@ -0,0 +1,324 @@
+DEFAULT REL
+
+extern _exit_handler
+extern _write_file
+extern _write_diagnostics
+extern _map_memory
+
+global _profile_init
+global _profiler_init
+global _profiler_enter
+global _profiler_leave
+
+SHADOW_DEPTH    EQU     1 << 16             ; calls the function profiler keeps track of
+SHADOW_ENTRY    EQU     24                  ; function, start ticks, ticks spent in callees
+CALLS           EQU     0                   ; statistics of a function (see ProfilerTables of the compiler)
+INCLUSIVE       EQU     8
+EXCLUSIVE       EQU     16
+ACTIVE          EQU     24
+STATISTICS_SIZE EQU     32
+NUMBER_WIDTH    EQU     18                  ; of the columns of the report
+LINE_SIZE       EQU     96                  ; of a line of the report without the name
+
+; Two kinds of profiling, selected when compiling:
+;
+; The counters of a program built with instrumentation (see ProfileCounters of the compiler) are written
+; to a profile at exit, which a later build reads: the number of counters, the checksum of the program and
+; the counters, as little endian quad words.
+;
+; The function profiler (see ProfilerTables of the compiler) is called when a function is entered and
+; left, and counts the calls and the time stamp counter ticks spent in each function: inclusive (spent
+; until the outermost active call of the function returns) and exclusive (without the callees). At exit,
+; it reports the functions by exclusive ticks, calls still active (e.g. on an index error) end there.
+;
+; Environment variables (not on Windows):
+; - MINIJ_PROFILE_FILE: the name of the profile, minij.profile by default,
+; - MINIJ_PROFILE_REPORT: the file the report of the function profiler is written to instead of STDERR.
+section .rodata
+    FILE_VARIABLE   db "MINIJ_PROFILE_FILE=", 0
+    REPORT_VARIABLE db "MINIJ_PROFILE_REPORT=", 0
+    DEFAULT_FILE    db "minij.profile", 0
+    TEXT_ERROR      db "profile: cannot write the profile", 10
+    TEXT_ERROR_LENGTH EQU $ - TEXT_ERROR
+    TEXT_REPORT_ERROR db "profile: cannot write the report", 10
+    TEXT_REPORT_ERROR_LENGTH EQU $ - TEXT_REPORT_ERROR
+    TEXT_HEADER     db "profile:              calls    inclusive ticks    exclusive ticks  function", 10, 0
+    TEXT_PREFIX     db "profile:", 0
+
+section .bss
+alignb 8
+    COUNTERS        resq 1                  ; number and checksum, followed by the counters
+    FILE            resq 1                  ; null terminated name of the profile
+    NEXT_HANDLER    resq 1                  ; exit handler installed before
+    ; function profiler
+    FUNCTIONS       resq 1                  ; profiler table of the program
+    REPORT_FILE     resq 1                  ; null terminated name or 0: STDERR
+    NEXT_REPORT_HANDLER resq 1
+    DEPTH           resq 1                  ; active calls, including those beyond SHADOW_DEPTH
+    NUMBER          resb 24
+    SHADOW          resb SHADOW_DEPTH * SHADOW_ENTRY
+
+section .text
+; profile_init(rdi: profile table, rsi: initial stack pointer): called by the entry point of instrumented
+; programs; the table holds the number of counters, the checksum and the address of the counters
+_profile_init:
+            mov     rax, [rdi + 16]
+            mov     [COUNTERS], rax
+            mov     rcx, [rdi]
+            mov     [rax], rcx
+            mov     rcx, [rdi + 8]
+            mov     [rax + 8], rcx
+            mov     rdi, rsi
+            lea     rsi, [FILE_VARIABLE]
+            call    find_variable
+            test    rax, rax
+            jnz     .file
+            lea     rax, [DEFAULT_FILE]
+.file:      mov     [FILE], rax
+            mov     rax, [_exit_handler]
+            mov     [NEXT_HANDLER], rax
+            lea     rax, [dump]
+            mov     [_exit_handler], rax
+            ret
+
+; writes the profile, then calls the exit handler installed before (if any)
+dump:       mov     rsi, [COUNTERS]
+            mov     rdx, [rsi]
+            lea     rdx, [rdx * 8 + 16]
+            mov     rdi, [FILE]
+            call    _write_file
+            test    rax, rax
+            jz      .next
+            lea     rdi, [TEXT_ERROR]
+            mov     rsi, TEXT_ERROR_LENGTH
+            call    _write_diagnostics
+.next:      mov     rax, [NEXT_HANDLER]
+            test    rax, rax
+            jz      .done
+            jmp     rax
+.done:      ret
+
+; profiler_init(rdi: profiler table, rsi: initial stack pointer): called by the entry point of programs
+; built with the function profiler; the table holds the number of functions, the address of their
+; statistics and the addresses of their names (length and characters)
+_profiler_init:
+            mov     [FUNCTIONS], rdi
+            mov     rdi, rsi
+            lea     rsi, [REPORT_VARIABLE]
+            call    find_variable
+            mov     [REPORT_FILE], rax
+            mov     rax, [_exit_handler]
+            mov     [NEXT_REPORT_HANDLER], rax
+            lea     rax, [report]
+            mov     [_exit_handler], rax
+            ret
+
+; profiler_enter(rdi: statistics of the function): called after the prologue
+_profiler_enter:
+            rdtsc
+            shl     rdx, 32
+            or      rax, rdx                ; rax: now
+            inc     qword [rdi + CALLS]
+            mov     rcx, [DEPTH]
+            inc     qword [DEPTH]
+            cmp     rcx, SHADOW_DEPTH
+            jae     .done                   ; too deep: only counted
+            inc     qword [rdi + ACTIVE]
+            lea     rcx, [rcx + rcx * 2]
+            lea     rdx, [SHADOW]
+            lea     rcx, [rdx + rcx * 8]
+            mov     [rcx], rdi
+            mov     [rcx + 8], rax
+            mov     qword [rcx + 16], 0
+.done:      ret
+
+; profiler_leave(rdi: return value): called before the epilogue, returns the return value
+_profiler_leave:
+            rdtsc
+            shl     rdx, 32
+            or      rax, rdx                ; rax: now
+            dec     qword [DEPTH]
+            mov     rcx, [DEPTH]
+            cmp     rcx, SHADOW_DEPTH
+            jae     .done
+            lea     rcx, [rcx + rcx * 2]
+            lea     rdx, [SHADOW]
+            lea     rcx, [rdx + rcx * 8]    ; rcx: shadow entry of the call
+            mov     rsi, [rcx]              ; rsi: statistics of the function
+            sub     rax, [rcx + 8]          ; rax: ticks of the call
+            dec     qword [rsi + ACTIVE]
+            jnz     .recursive              ; included in the outermost call already
+            add     [rsi + INCLUSIVE], rax
+.recursive: mov     rdx, rax
+            sub     rdx, [rcx + 16]
+            add     [rsi + EXCLUSIVE], rdx
+            cmp     qword [DEPTH], 0
+            je      .done
+            add     [rcx - SHADOW_ENTRY + 16], rax ; spent in a callee of the caller
+.done:      mov     rax, rdi
+            ret
+
+; ends the active calls and writes the report, then calls the exit handler installed before (if any)
+report:     push    rbx
+            push    r12
+            push    r13
+            push    r14
+            push    r15
+.active:    cmp     qword [DEPTH], 0
+            je      .size
+            call    _profiler_leave
+            jmp     .active
+
+.size:      mov     rbx, [FUNCTIONS]        ; rbx: profiler table
+            mov     r12, [rbx]              ; r12: number of functions
+            imul    rdi, r12, LINE_SIZE
+            add     rdi, LINE_SIZE
+            xor     ecx, ecx
+.name:      cmp     rcx, r12
+            jae     .map
+            mov     rax, [rbx + rcx * 8 + 16]
+            add     rdi, [rax]
+            inc     rcx
+            jmp     .name
+.map:       call    _map_memory
+            test    rax, rax
+            jz      .error
+            mov     r13, rax                ; r13: report
+            mov     rdi, rax
+            lea     rsi, [TEXT_HEADER]
+            call    append_text
+
+            mov     r14, r12                ; r14: functions not yet reported
+.line:      test    r14, r14
+            jz      .write
+            mov     rsi, [rbx + 8]          ; the function with the most exclusive ticks, not yet reported
+            xor     ecx, ecx
+            mov     r15, -1                 ; r15: its index
+.find:      cmp     rcx, r12
+            jae     .found
+            imul    rax, rcx, STATISTICS_SIZE
+            cmp     qword [rsi + rax + ACTIVE], -1
+            je      .skip
+            test    r15, r15
+            js      .take
+            imul    rdx, r15, STATISTICS_SIZE
+            mov     rdx, [rsi + rdx + EXCLUSIVE]
+            cmp     rdx, [rsi + rax + EXCLUSIVE]
+            jae     .skip
+.take:      mov     r15, rcx
+.skip:      inc     rcx
+            jmp     .find
+.found:     imul    rax, r15, STATISTICS_SIZE
+            lea     r15, [rsi + rax]        ; r15: statistics, r15 + ACTIVE marks it reported
+            mov     qword [r15 + ACTIVE], -1
+            push    rsi
+            lea     rsi, [TEXT_PREFIX]
+            call    append_text
+            mov     rax, [r15 + CALLS]
+            call    append_column
+            mov     rax, [r15 + INCLUSIVE]
+            call    append_column
+            mov     rax, [r15 + EXCLUSIVE]
+            call    append_column
+            mov     word [rdi], 0x2020      ; two spaces
+            add     rdi, 2
+            sub     r15, [rbx + 8]          ; name of the function
+            shr     r15, 5                  ; / STATISTICS_SIZE
+            mov     rsi, [rbx + r15 * 8 + 16]
+            mov     rcx, [rsi]
+            add     rsi, 8
+            rep     movsb
+            mov     byte [rdi], 10
+            inc     rdi
+            pop     rsi
+            dec     r14
+            jmp     .line
+
+.write:     mov     rsi, r13
+            sub     rdi, r13
+            xchg    rdi, rsi                ; rdi: report, rsi: length
+            mov     rax, [REPORT_FILE]
+            test    rax, rax
+            jnz     .file
+            call    _write_diagnostics
+            jmp     .next
+.file:      mov     rdx, rsi
+            mov     rsi, rdi
+            mov     rdi, rax
+            call    _write_file
+            test    rax, rax
+            jz      .next
+.error:     lea     rdi, [TEXT_REPORT_ERROR]
+            mov     rsi, TEXT_REPORT_ERROR_LENGTH
+            call    _write_diagnostics
+.next:      pop     r15
+            pop     r14
+            pop     r13
+            pop     r12
+            pop     rbx
+            mov     rax, [NEXT_REPORT_HANDLER]
+            test    rax, rax
+            jz      .done
+            jmp     rax
+.done:      ret
+
+; append_text(rdi: destination, rsi: null terminated text): returns the end of the copy in rdi
+append_text:
+            mov     al, [rsi]
+            test    al, al
+            jz      .done
+            mov     [rdi], al
+            inc     rsi
+            inc     rdi
+            jmp     append_text
+.done:      ret
+
+; append_column(rdi: destination, rax: unsigned number): appends the number right aligned in a column of
+; NUMBER_WIDTH characters, returns the end of the column in rdi
+append_column:
+            mov     r8, 10
+            lea     rsi, [NUMBER + 24]
+.digit:     xor     edx, edx
+            div     r8
+            add     dl, '0'
+            dec     rsi
+            mov     [rsi], dl
+            test    rax, rax
+            jnz     .digit
+            lea     rdx, [NUMBER + 24]
+            sub     rdx, rsi                ; rdx: number of digits
+            mov     rcx, NUMBER_WIDTH
+            sub     rcx, rdx
+            jbe     .digits
+            mov     al, ' '
+            rep     stosb
+.digits:    mov     rcx, rdx
+            rep     movsb
+            ret
+
+; find_variable(rdi: initial stack pointer, rsi: name and "="): returns the value of the environment variable
+; or 0, if it is not set or empty
+find_variable:
+%ifndef WINDOWS_X64
+            mov     rax, [rdi]              ; argument count, arguments, 0, environment, 0
+            lea     r8, [rdi + rax * 8 + 16]
+.variable:  mov     rdi, [r8]
+            test    rdi, rdi
+            jz      .none
+            add     r8, 8
+            mov     rdx, rsi
+.compare:   mov     al, [rdx]
+            test    al, al
+            jz      .found
+            cmp     al, [rdi]
+            jne     .variable
+            inc     rdi
+            inc     rdx
+            jmp     .compare
+.found:     cmp     byte [rdi], 0
+            je      .none
+            mov     rax, rdi
+            ret
+%endif
+.none:      xor     eax, eax
+            ret
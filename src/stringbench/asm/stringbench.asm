@@ -0,0 +1,163 @@
+; stringbench.asm - Micro-benchmarks of the string routines of the runtime
+; This program outputs the average number of time stamp counter ticks per call of string comparison,
+; equality and concatenation, for short (8 characters) and long (4096 characters) strings that differ in
+; their last character only.
+
+DEFAULT REL
+
+extern _alloc
+extern _free
+extern _write
+extern _writeInt
+extern _writeChar
+extern _exit
+extern _string_compare
+extern _string_equals
+extern _string_concat
+
+global _start
+
+SHORT_LENGTH    EQU     8
+LONG_LENGTH     EQU     4096
+ITERATIONS      EQU     100000
+NAME_LENGTH     EQU     15
+
+section .rodata
+    COMPARE_SHORT   db  "compare short: "
+    COMPARE_LONG    db  "compare long:  "
+    EQUALS_SHORT    db  "equals short:  "
+    EQUALS_LONG     db  "equals long:   "
+    CONCAT_SHORT    db  "concat short:  "
+    CONCAT_LONG     db  "concat long:   "
+
+section .bss
+    alignb 8
+    SHORT_A     resq 1
+    SHORT_B     resq 1
+    LONG_A      resq 1
+    LONG_B      resq 1
+
+section .text
+
+_start:
+        mov     rdi, SHORT_LENGTH
+        mov     rsi, 'a'
+        call    make_string
+        mov     [SHORT_A], rax
+        mov     rdi, SHORT_LENGTH
+        mov     rsi, 'b'
+        call    make_string
+        mov     [SHORT_B], rax
+        mov     rdi, LONG_LENGTH
+        mov     rsi, 'a'
+        call    make_string
+        mov     [LONG_A], rax
+        mov     rdi, LONG_LENGTH
+        mov     rsi, 'b'
+        call    make_string
+        mov     [LONG_B], rax
+
+        lea     rdi, [COMPARE_SHORT]
+        lea     rdx, [_string_compare]
+        mov     rcx, [SHORT_A]
+        mov     r8, [SHORT_B]
+        call    measure
+        lea     rdi, [COMPARE_LONG]
+        lea     rdx, [_string_compare]
+        mov     rcx, [LONG_A]
+        mov     r8, [LONG_B]
+        call    measure
+        lea     rdi, [EQUALS_SHORT]
+        lea     rdx, [_string_equals]
+        mov     rcx, [SHORT_A]
+        mov     r8, [SHORT_B]
+        call    measure
+        lea     rdi, [EQUALS_LONG]
+        lea     rdx, [_string_equals]
+        mov     rcx, [LONG_A]
+        mov     r8, [LONG_B]
+        call    measure
+        lea     rdi, [CONCAT_SHORT]
+        lea     rdx, [concat]
+        mov     rcx, [SHORT_A]
+        mov     r8, [SHORT_B]
+        call    measure
+        lea     rdi, [CONCAT_LONG]
+        lea     rdx, [concat]
+        mov     rcx, [LONG_A]
+        mov     r8, [LONG_B]
+        call    measure
+
+        mov     rdi, 0
+        call    _exit
+
+; make_string(rdi: length, rsi: last character): returns a string of 'a's ending with the given character
+make_string:
+        push    rbx
+        push    r12
+        mov     rbx, rdi
+        mov     r12, rsi
+        add     rdi, 8
+        xor     esi, esi
+        call    _alloc
+        mov     [rax], rbx
+        lea     rdi, [rax + 8]
+        mov     rcx, rbx
+        mov     rdx, rax
+        mov     al, 'a'
+        rep     stosb
+        mov     [rdx + 8 + rbx - 1], r12b
+        mov     rax, rdx
+        pop     r12
+        pop     rbx
+        ret
+
+; concat(rdi: string a, rsi: string b): concatenates and frees the result right away, so the heap does
+; not grow during the benchmark
+concat:
+        call    _string_concat
+        mov     rdi, rax
+        jmp     _free
+
+; measure(rdi: name, rdx: routine, rcx: string a, r8: string b): calls the routine ITERATIONS times and
+; outputs the name and the average number of ticks per call
+measure:
+        push    rbx
+        push    r12
+        push    r13
+        push    r14
+        push    r15
+        mov     r12, rdx            ; r12: routine
+        mov     r13, rcx            ; r13: a
+        mov     r14, r8             ; r14: b
+        mov     rsi, NAME_LENGTH
+        call    _write
+
+        rdtsc
+        shl     rdx, 32
+        or      rax, rdx
+        mov     r15, rax            ; r15: start
+        mov     rbx, ITERATIONS
+.loop:  mov     rdi, r13
+        mov     rsi, r14
+        call    r12
+        dec     rbx
+        jnz     .loop
+        rdtsc
+        shl     rdx, 32
+        or      rax, rdx
+        sub     rax, r15
+        xor     edx, edx
+        mov     rcx, ITERATIONS
+        div     rcx
+
+        mov     rdi, rax
+        call    _writeInt
+        mov     rdi, 10
+        call    _writeChar
+        pop     r15
+        pop     r14
+        pop     r13
+        pop     r12
+        pop     rbx
+        ret
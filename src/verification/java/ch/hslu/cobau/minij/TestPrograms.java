@@ -0,0 +1,112 @@
+package ch.hslu.cobau.minij;
+
+import ch.hslu.cobau.minij.ast.AstBuilder;
+import ch.hslu.cobau.minij.ast.SemanticAnalyzer;
+import ch.hslu.cobau.minij.ast.entity.Unit;
+import ch.hslu.cobau.minij.codegen.CodeGenerator;
+import ch.hslu.cobau.minij.codegen.asm.AssemblyUnit;
+import ch.hslu.cobau.minij.codegen.asm.NasmWriter;
+import ch.hslu.cobau.minij.codegen.elf.ElfWriter;
+import ch.hslu.cobau.minij.codegen.elf.ObjectAssembler;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The valid programs of the test sets (tests/*.json) of the compiler, i.e. the test cases of a test set run
+ * with the compiler jar that expect exit code 0, which the verification checks compile in-process the way
+ * MiniJCompiler does. Programs the compiler rejects are left to the test runs, which report them.
+ */
+public final class TestPrograms {
+    public record Program(String name, String source) {
+        /**
+         * Generates the program with a new code generator, set up by the given options like the command
+         * line options of MiniJCompiler.
+         */
+        public AssemblyUnit generate(Consumer<CodeGenerator> options) {
+            Unit unit = parse();
+            SemanticAnalyzer semanticAnalyzer = new SemanticAnalyzer();
+            if (unit == null || !semanticAnalyzer.analyze(unit)) {
+                throw new IllegalStateException("invalid program " + name);
+            }
+
+            CodeGenerator codeGenerator = new CodeGenerator(semanticAnalyzer);
+            options.accept(codeGenerator);
+            return codeGenerator.generate(unit);
+        }
+
+        private boolean isValid() {
+            Unit unit = parse();
+            return unit != null && new SemanticAnalyzer().analyze(unit);
+        }
+
+        private Unit parse() {
+            MiniJParser parser = new MiniJParser(new CommonTokenStream(new MiniJLexer(CharStreams.fromString(source))));
+            parser.removeErrorListeners();
+            AstBuilder astBuilder = new AstBuilder();
+            try {
+                astBuilder.visit(parser.unit());
+            } catch (RuntimeException e) {
+                return null;
+            }
+            return parser.getNumberOfSyntaxErrors() > 0 ? null : astBuilder.getUnit();
+        }
+    }
+
+    private TestPrograms() { }
+
+    public static List<Program> load(String... testSets) throws IOException {
+        List<Program> programs = new ArrayList<>();
+        for (String testSet : testSets) {
+            JsonObject json;
+            try (Reader reader = Files.newBufferedReader(Path.of(testSet), StandardCharsets.UTF_8)) {
+                json = JsonParser.parseReader(reader).getAsJsonObject();
+            }
+            if (!json.get("commandline").getAsString().contains("MiniJCompiler.jar")) {
+                continue;
+            }
+            for (JsonElement element : json.getAsJsonArray("testCases")) {
+                JsonObject testCase = element.getAsJsonObject();
+                if (testCase.has("expectedExitCode") && testCase.get("expectedExitCode").getAsString().equals("0")) {
+                    Program program = new Program(json.get("name").getAsString() + ": " + testCase.get("name").getAsString(),
+                            testCase.get("input").getAsString());
+                    if (program.isValid()) {
+                        programs.add(program);
+                    }
+                }
+            }
+        }
+        return programs;
+    }
+
+    /**
+     * @return The NASM source MiniJCompiler writes to STDOUT for the unit.
+     */
+    public static byte[] toNasm(AssemblyUnit unit) {
+        StringWriter source = new StringWriter();
+        PrintWriter writer = new PrintWriter(source);
+        new NasmWriter(writer).write(unit);
+        writer.flush();
+        return source.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The object file MiniJCompiler writes with --object for the unit.
+     */
+    public static byte[] toObject(AssemblyUnit unit) {
+        return new ElfWriter().write(new ObjectAssembler().assemble(unit));
+    }
+}
@@ -0,0 +1,112 @@
+package ch.hslu.cobau.minij.codegen;
+
+import ch.hslu.cobau.minij.TestPrograms;
+import ch.hslu.cobau.minij.codegen.asm.AssemblyUnit;
+import ch.hslu.cobau.minij.codegen.elf.Linker;
+import ch.hslu.cobau.minij.codegen.elf.ObjectAssembler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Counts the instructions a benchmark program executes when built as usual and when built with an
+ * optimization turned off by the given options of MiniJCompiler, and reports both per iteration of the
+ * benchmark. The optimization has to save instructions, and both builds have to write the same output.
+ *
+ * The executables are linked with the runtime objects of the build. The instructions are counted with the
+ * command line in the system property minij.counter, which is followed by the executable and has to report
+ * the count on STDERR like "perf stat -x , -e instructions:u" does.
+ * Usage: InstructionCounts program runtime-directory iterations option...
+ */
+public final class InstructionCounts {
+    private static final Pattern COUNT = Pattern.compile("^(\\d+),[^,]*,instructions", Pattern.MULTILINE);
+
+    private InstructionCounts() { }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path program = Path.of(args[0]);
+        Path runtime = Path.of(args[1]);
+        long iterations = Long.parseLong(args[2]);
+        List<String> options = Arrays.asList(args).subList(3, args.length);
+        String[] counter = System.getProperty("minij.counter").split("\\s+");
+
+        TestPrograms.Program benchmark = new TestPrograms.Program(program.getFileName().toString(), Files.readString(program));
+        Path directory = Files.createTempDirectory("instructionCounts");
+        boolean saved;
+        try {
+            Run optimized = run(counter, link(benchmark.generate(generator -> { }), runtime, directory.resolve("optimized")));
+            Run unoptimized = run(counter, link(benchmark.generate(generator -> apply(options, generator)), runtime,
+                    directory.resolve("unoptimized")));
+
+            String with = String.join(" ", options);
+            System.out.printf("%s: %d instructions, %.1f per iteration%n", benchmark.name(),
+                    optimized.instructions(), (double) optimized.instructions() / iterations);
+            System.out.printf("%s with %s: %d instructions, %.1f per iteration%n", benchmark.name(), with,
+                    unoptimized.instructions(), (double) unoptimized.instructions() / iterations);
+            System.out.printf("%s: %.1f more instructions per iteration (%.0f%%)%n", with,
+                    (double) (unoptimized.instructions() - optimized.instructions()) / iterations,
+                    100.0 * (unoptimized.instructions() - optimized.instructions()) / unoptimized.instructions());
+
+            if (!optimized.output().equals(unoptimized.output())) {
+                System.err.println("different output with " + with);
+            }
+            saved = optimized.output().equals(unoptimized.output()) && optimized.instructions() < unoptimized.instructions();
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (Path file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+        System.exit(saved ? 0 : 1);
+    }
+
+    private record Run(long instructions, String output) { }
+
+    /**
+     * Sets up the code generator like the given options of MiniJCompiler, which turn optimizations off.
+     */
+    private static void apply(List<String> options, CodeGenerator generator) {
+        for (int i = 0; i < options.size(); ++i) {
+            switch (options.get(i)) {
+                case "--no-red-zone" -> generator.setRedZone(false);
+                case "--no-vectorize" -> generator.setVectorizing(false);
+                case "--no-strip" -> generator.setStripping(false);
+                case "--unroll" -> generator.setUnrollFactor(Integer.parseInt(options.get(++i)));
+                default -> throw new IllegalArgumentException("unsupported option " + options.get(i));
+            }
+        }
+    }
+
+    private static Path link(AssemblyUnit unit, Path runtime, Path executable) throws IOException {
+        Linker linker = new Linker();
+        linker.add(new ObjectAssembler().assemble(unit));
+        linker.addDirectory(runtime);
+        Linker.writeExecutable(executable, linker.link());
+        return executable;
+    }
+
+    private static Run run(String[] counter, Path executable) throws IOException, InterruptedException {
+        List<String> commandLine = new ArrayList<>(Arrays.asList(counter));
+        commandLine.add(executable.toAbsolutePath().toString());
+        Path output = executable.resolveSibling(executable.getFileName() + ".out");
+        Path report = executable.resolveSibling(executable.getFileName() + ".err");
+        Process process = new ProcessBuilder(commandLine).redirectOutput(output.toFile()).redirectError(report.toFile()).start();
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException("counting failed: " + String.join(" ", commandLine) + "\n" + Files.readString(report));
+        }
+
+        Matcher count = COUNT.matcher(Files.readString(report));
+        if (!count.find()) {
+            throw new IllegalStateException("no instruction count from " + String.join(" ", commandLine) + "\n" + Files.readString(report));
+        }
+        return new Run(Long.parseLong(count.group(1)), Files.readString(output));
+    }
+}
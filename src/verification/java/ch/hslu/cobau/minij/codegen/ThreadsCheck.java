@@ -0,0 +1,56 @@
+package ch.hslu.cobau.minij.codegen;
+
+import ch.hslu.cobau.minij.TestPrograms;
+import ch.hslu.cobau.minij.codegen.asm.AssemblyUnit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Checks that the generated code does not depend on the number of threads generating functions (see
+ * CodeGenerator.setThreads): every valid program of the given test sets is compiled with one thread and
+ * with several, plain and with each kind of instrumentation, and both the NASM source and (for programs
+ * with a main function) the object file have to be the same byte for byte.
+ * Run with: gradle threadsCheck
+ */
+public final class ThreadsCheck {
+    private static final int THREADS = 8;
+
+    private static final Map<String, Consumer<CodeGenerator>> VARIANTS = new LinkedHashMap<>();
+
+    static {
+        VARIANTS.put("plain", generator -> { });
+        VARIANTS.put("--profile", generator -> generator.setProfiling(true));
+        VARIANTS.put("--profile-heap", generator -> generator.setHeapProfiling(true));
+        VARIANTS.put("--profile-generate", generator -> generator.setInstrumented(true));
+    }
+
+    private ThreadsCheck() { }
+
+    public static void main(String[] args) throws IOException {
+        List<String> differences = new ArrayList<>();
+        int compilations = 0;
+        for (TestPrograms.Program program : TestPrograms.load(args)) {
+            for (Map.Entry<String, Consumer<CodeGenerator>> variant : VARIANTS.entrySet()) {
+                AssemblyUnit sequential = program.generate(variant.getValue().andThen(generator -> generator.setThreads(1)));
+                AssemblyUnit parallel = program.generate(variant.getValue().andThen(generator -> generator.setThreads(THREADS)));
+                if (!Arrays.equals(TestPrograms.toNasm(sequential), TestPrograms.toNasm(parallel))) {
+                    differences.add(program.name() + " (" + variant.getKey() + "): NASM source");
+                }
+                if (!Arrays.equals(TestPrograms.toObject(sequential), TestPrograms.toObject(parallel))) {
+                    differences.add(program.name() + " (" + variant.getKey() + "): object file");
+                }
+                ++compilations;
+            }
+        }
+
+        differences.forEach(difference -> System.err.println("different output with " + THREADS + " threads: " + difference));
+        System.out.println(compilations + " compilations with 1 and " + THREADS + " threads, " + differences.size() + " differences");
+        System.exit(differences.isEmpty() ? 0 : 1);
+    }
+}
@@ -0,0 +1,121 @@
+package ch.hslu.cobau.minij.codegen.elf;
+
+import ch.hslu.cobau.minij.TestPrograms;
+import ch.hslu.cobau.minij.codegen.CodeGenerator;
+import ch.hslu.cobau.minij.codegen.asm.AssemblyUnit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Checks that the ObjectAssembler encodes the same machine code as NASM: every valid program of the given
+ * test sets is generated plain and with each kind of instrumentation, its NASM source
+ * is assembled with the assembler of the build (the system property minij.assembler, a command line with
+ * {{source}} and {{target}} like compileAsm.commandLine) and its object file is written like --object
+ * does, and the .text and .text.cold sections of both objects have to be the same byte for byte. Relocated
+ * fields are zero in both, as the addends are kept in the relocations.
+ * Run with: gradle objectFileCheck
+ */
+public final class ObjectFileCheck {
+    private static final Map<String, Consumer<CodeGenerator>> VARIANTS = new LinkedHashMap<>();
+    private static final List<String> SECTIONS = List.of(".text", ".text.cold");
+
+    static {
+        VARIANTS.put("plain", generator -> { });
+        VARIANTS.put("--profile", generator -> generator.setProfiling(true));
+        VARIANTS.put("--profile-heap", generator -> generator.setHeapProfiling(true));
+        VARIANTS.put("--profile-generate", generator -> generator.setInstrumented(true));
+    }
+
+    private ObjectFileCheck() { }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String[] assembler = System.getProperty("minij.assembler").split("\\s+");
+        Path directory = Files.createTempDirectory("objectFileCheck");
+        Path source = directory.resolve("program.asm");
+        Path target = directory.resolve("program.o");
+
+        List<String> differences = new ArrayList<>();
+        int compared = 0;
+        try {
+            for (TestPrograms.Program program : TestPrograms.load(args)) {
+                for (Map.Entry<String, Consumer<CodeGenerator>> variant : VARIANTS.entrySet()) {
+                    AssemblyUnit unit = program.generate(variant.getValue());
+                    Files.write(source, TestPrograms.toNasm(unit));
+                    Files.deleteIfExists(target);
+                    assemble(assembler, source, target);
+                    byte[] expected = Files.readAllBytes(target);
+                    byte[] actual = TestPrograms.toObject(unit);
+                    for (String section : SECTIONS) {
+                        byte[] expectedSection = getSection(expected, section);
+                        byte[] actualSection = getSection(actual, section);
+                        if (!Arrays.equals(expectedSection, actualSection)) {
+                            differences.add(program.name() + " (" + variant.getKey() + "): " + section + ", "
+                                    + describe(expectedSection, actualSection));
+                        }
+                    }
+                    ++compared;
+                }
+            }
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(target);
+            Files.delete(directory);
+        }
+
+        differences.forEach(difference -> System.err.println("different code: " + difference));
+        System.out.println(compared + " objects compared with " + assembler[0] + ", " + differences.size() + " differences");
+        System.exit(differences.isEmpty() ? 0 : 1);
+    }
+
+    private static void assemble(String[] assembler, Path source, Path target) throws IOException, InterruptedException {
+        List<String> commandLine = new ArrayList<>();
+        for (String part : assembler) {
+            commandLine.add(part.replace("{{source}}", source.toString()).replace("{{target}}", target.toString()));
+        }
+        Process process = new ProcessBuilder(commandLine).inheritIO().start();
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException("assembler failed: " + String.join(" ", commandLine));
+        }
+    }
+
+    /**
+     * @return The contents of the named section of an ELF64 object, empty if it has no such section.
+     */
+    static byte[] getSection(byte[] object, String section) {
+        ByteBuffer elf = ByteBuffer.wrap(object).order(ByteOrder.LITTLE_ENDIAN);
+        int sectionHeaders = (int) elf.getLong(0x28);
+        int sectionHeaderSize = elf.getShort(0x3a);
+        int sections = elf.getShort(0x3c);
+        int names = (int) elf.getLong(sectionHeaders + elf.getShort(0x3e) * sectionHeaderSize + 0x18);
+        for (int i = 0; i < sections; ++i) {
+            int header = sectionHeaders + i * sectionHeaderSize;
+            int name = names + elf.getInt(header);
+            int end = name;
+            while (object[end] != 0) {
+                ++end;
+            }
+            if (new String(object, name, end - name, StandardCharsets.US_ASCII).equals(section)) {
+                int offset = (int) elf.getLong(header + 0x18);
+                return Arrays.copyOfRange(object, offset, offset + (int) elf.getLong(header + 0x20));
+            }
+        }
+        return new byte[0];
+    }
+
+    private static String describe(byte[] expected, byte[] actual) {
+        int offset = Arrays.mismatch(expected, actual);
+        return "first difference at offset " + offset + " (" + expected.length + " bytes from the assembler, "
+                + actual.length + " from the ObjectAssembler)";
+    }
+}